@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.cloudfiles;
+
+import com.rackspacecloud.blueflood.service.CloudfilesConfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Where finished rollup files are exported to. Every uploader makes an instance of its own through the public
+ * no-argument constructor of the class named by {@link CloudfilesConfig#CLOUDFILES_BLOB_SINK}, so implementations
+ * need not be thread-safe.
+ */
+public interface BlobSink extends Closeable {
+    /**
+     * Stores the payload, read to its end, under remoteName. Names ending in .gz hold gzipped content.
+     */
+    public void publish(String remoteName, InputStream payload) throws IOException;
+}
@@ -17,39 +17,81 @@
 package com.rackspacecloud.blueflood.outputs.cloudfiles;
 
 import com.codahale.metrics.Timer;
+import com.google.common.io.CountingInputStream;
 import com.rackspacecloud.blueflood.utils.Metrics;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.GZIPOutputStream;
+import java.io.SequenceInputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
 
+/**
+ * Compresses a stream as it is read, so a file can be uploaded gzipped without holding the compressed copy in
+ * memory. Safe to share; every call gets its own deflater.
+ */
 public class Gzipper {
-    InputStream jsonFileIn = null;
-    ByteArrayOutputStream gzippedPayload = null;
-    GZIPOutputStream gZCompressor = null;
-    int nbRead;
-    Timer timer = Metrics.timer(Gzipper.class, "Gzip Timer");
-    // Used to read the stream faster
-    byte[] buf = new byte[1024 * 256 ];
-
-    public synchronized byte[] gzip(InputStream input) throws IOException {
-        Timer.Context ctx = timer.time();
-        try {
-            gzippedPayload = new ByteArrayOutputStream();
-            gZCompressor = new GZIPOutputStream(gzippedPayload);
-            while ((nbRead = input.read(buf)) != -1) {
-                gZCompressor.write(buf, 0, nbRead);
+    private static final byte[] HEADER = new byte[] {
+            0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+    private static final int BUFFER_SIZE = 1024 * 64;
+
+    private final Timer timer = Metrics.timer(Gzipper.class, "Gzip Timer");
+
+    /**
+     * The gzip encoding of input, produced as it is read. Closing the returned stream closes input.
+     */
+    public InputStream gzip(final InputStream input) {
+        final CRC32 crc = new CRC32();
+        final CountingInputStream counted = new CountingInputStream(input);
+        final CheckedInputStream checked = new CheckedInputStream(counted, crc);
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final InputStream body = new DeflaterInputStream(checked, deflater, BUFFER_SIZE) {
+            // deflating happens on the reader's thread; the timer covers every read of the body.
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                final Timer.Context ctx = timer.time();
+                try {
+                    return super.read(b, off, len);
+                } finally {
+                    ctx.stop();
+                }
             }
 
-            input.close();
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+        final InputStream trailer = new InputStream() {
+            private byte[] bytes;
+            private int position = 0;
 
-            gZCompressor.finish();
-            gZCompressor.close();
+            @Override
+            public int read() throws IOException {
+                if (bytes == null) {
+                    // only asked for once the body is exhausted, so the checksum and length are final.
+                    bytes = new byte[8];
+                    writeInt(bytes, 0, (int) crc.getValue());
+                    writeInt(bytes, 4, (int) counted.getCount());
+                }
+                return position < bytes.length ? bytes[position++] & 0xff : -1;
+            }
+        };
+        return new SequenceInputStream(new SequenceInputStream(new ByteArrayInputStream(HEADER), body), trailer);
+    }
 
-            return gzippedPayload.toByteArray();
-        } finally {
-            ctx.stop();
-        }
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >> 8);
+        bytes[offset + 2] = (byte) (value >> 16);
+        bytes[offset + 3] = (byte) (value >> 24);
     }
 }
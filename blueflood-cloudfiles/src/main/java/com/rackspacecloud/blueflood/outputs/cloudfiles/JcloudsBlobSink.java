@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.cloudfiles;
+
+import com.codahale.metrics.Timer;
+import com.google.common.io.Closeables;
+import com.rackspacecloud.blueflood.service.CloudfilesConfig;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.io.Payload;
+import org.jclouds.io.Payloads;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Uploads rollup files to a jclouds blob store, in a container per {@link CloudfilesConfig#CLOUDFILES_CONTAINER_FORMAT}.
+ */
+public class JcloudsBlobSink implements BlobSink {
+    private final BlobStore blobStore;
+    // not thread-safe, like the rest of the sink; every uploader has its own.
+    private final SimpleDateFormat containerFormat = new SimpleDateFormat(
+            Configuration.getInstance().getStringProperty(CloudfilesConfig.CLOUDFILES_CONTAINER_FORMAT));
+    private final Timer uploadTimer = Metrics.timer(getClass(), "Rollup Upload Timer");
+    private String lastContainerCreated = "";
+
+    protected JcloudsBlobSink(BlobStoreContext context) {
+        this.blobStore = context.getBlobStore();
+    }
+
+    // idempotent other than when the month changes between two calls
+    private void createContainer(String containerName) {
+        blobStore.createContainerInLocation(null, containerName);
+        lastContainerCreated = containerName;
+    }
+
+    public void close() throws IOException {
+        Closeables.close(blobStore.getContext(), true);
+    }
+
+    /**
+     * Uploads the payload as it is read. Its length is not known up front, so it is sent chunked and without an MD5.
+     */
+    public void publish(String remoteName, InputStream payload) throws IOException {
+        put(remoteName, Payloads.newInputStreamPayload(payload));
+    }
+
+    protected void put(String remoteName, Payload payload) throws IOException {
+        Timer.Context ctx = uploadTimer.time();
+        try {
+            Blob blob = blobStore.blobBuilder(remoteName).payload(payload)
+                    .contentType("application/json")
+                    .contentEncoding(remoteName.endsWith(".gz") ? "gzip" : "identity")
+                    .build();
+
+            String containerName = containerFormat.format(new Date());
+            if (!lastContainerCreated.matches(containerName)) {
+                createContainer(containerName);
+            }
+            blobStore.putBlob(containerName, blob);
+        } finally {
+            ctx.stop();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.cloudfiles;
+
+import com.codahale.metrics.Timer;
+import com.google.common.io.ByteStreams;
+import com.rackspacecloud.blueflood.service.CloudfilesConfig;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.utils.Metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Writes rollup files to {@link CloudfilesConfig#CLOUDFILES_LOCAL_SINK_DIR}, laid out as container/name the way they
+ * would be in the object store. Lets the export path run, and be load tested, without one.
+ */
+public class LocalBlobSink implements BlobSink {
+    private static final String PARTIAL_SUFFIX = ".partial";
+    private final File directory;
+    private final SimpleDateFormat containerFormat = new SimpleDateFormat(
+            Configuration.getInstance().getStringProperty(CloudfilesConfig.CLOUDFILES_CONTAINER_FORMAT));
+    private final Timer uploadTimer = Metrics.timer(LocalBlobSink.class, "Rollup Upload Timer");
+
+    public LocalBlobSink() {
+        this(new File(Configuration.getInstance().getStringProperty(CloudfilesConfig.CLOUDFILES_LOCAL_SINK_DIR)));
+    }
+
+    public LocalBlobSink(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Writes the payload next to its final name and renames it once complete, so a reader of the directory never sees
+     * a partial file under the final name.
+     */
+    public void publish(String remoteName, InputStream payload) throws IOException {
+        Timer.Context ctx = uploadTimer.time();
+        try {
+            File container = new File(directory, containerFormat.format(new Date()));
+            if (!container.isDirectory() && !container.mkdirs() && !container.isDirectory()) {
+                throw new IOException("Could not create container directory " + container.getAbsolutePath());
+            }
+            File partial = new File(container, remoteName + PARTIAL_SUFFIX);
+            OutputStream out = new FileOutputStream(partial);
+            try {
+                ByteStreams.copy(payload, out);
+            } finally {
+                out.close();
+            }
+            if (!partial.renameTo(new File(container, remoteName))) {
+                throw new IOException("Could not rename " + partial.getAbsolutePath() + " to " + remoteName);
+            }
+        } finally {
+            ctx.stop();
+        }
+    }
+
+    public void close() {
+        // nothing held open between files
+    }
+}
@@ -26,13 +26,19 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
 
 // Not thread-safe
 public class RollupFile implements Comparable {
     private static final Logger log = LoggerFactory.getLogger(RollupFile.class);
+    private static final int WRITE_BUFFER_SIZE = 1024 * 64;
+    // files are uploaded concurrently; remote names are made unique by never handing out the same millis twice.
+    private static final AtomicLong lastRemoteMillis = new AtomicLong();
 
     private final File file;
     private FileOutputStream outputStream;
+    private BufferedOutputStream bufferedStream;
+    private long size;
     private long timestamp;
     private RollupEventSerializer serializer = new RollupEventSerializer();
     public static final FileFilter fileFilter = new RollupFileFilter();
@@ -68,7 +74,7 @@ public class RollupFile implements Comparable {
     public String getRemoteName() {
         Date time = new Date(timestamp);
         String formattedTime = new SimpleDateFormat("yyyyMMdd_").format(time);
-        return formattedTime + System.currentTimeMillis() + "_" + Configuration.getInstance().getStringProperty(CloudfilesConfig.CLOUDFILES_HOST_UNIQUE_IDENTIFIER);
+        return formattedTime + nextRemoteMillis() + "_" + Configuration.getInstance().getStringProperty(CloudfilesConfig.CLOUDFILES_HOST_UNIQUE_IDENTIFIER);
     }
 
     /**
@@ -88,7 +94,16 @@ public class RollupFile implements Comparable {
      */
     public long getSize() throws IOException {
         ensureOpen();
-        return outputStream.getChannel().size();
+        return size;
+    }
+
+    /**
+     * Get the size of the file on disk, without opening it for writing.
+     *
+     * @return The size of the file in bytes, or 0 if it does not exist.
+     */
+    public long getFileLength() {
+        return file.length();
     }
 
     /**
@@ -108,16 +123,35 @@ public class RollupFile implements Comparable {
      * @throws IOException
      */
     public void append(RollupEvent rollup) throws IOException {
+        write(rollup);
+        flush();
+    }
+
+    /**
+     * Serialize a Rollup Event into the write buffer. It reaches the file once the buffer fills or on {@link #flush()}.
+     *
+     * @param rollup The rollup to write.
+     * @throws IOException
+     */
+    public void write(RollupEvent rollup) throws IOException {
         ensureOpen();
-        outputStream.write(serializer.toBytes(rollup));
-        outputStream.write('\n');
-        outputStream.flush();
+        final byte[] bytes = serializer.toBytes(rollup);
+        bufferedStream.write(bytes);
+        bufferedStream.write('\n');
+        size += bytes.length + 1;
+    }
+
+    public void flush() throws IOException {
+        if (bufferedStream != null) {
+            bufferedStream.flush();
+        }
     }
 
     public void close() throws IOException {
         if (outputStream != null) {
-            outputStream.close();
+            bufferedStream.close();
             outputStream = null;
+            bufferedStream = null;
         }
     }
 
@@ -139,6 +173,18 @@ public class RollupFile implements Comparable {
         if (outputStream == null) {
             log.info("opening buffer file for writing: {}", file.getName());
             outputStream = new FileOutputStream(file, true);
+            bufferedStream = new BufferedOutputStream(outputStream, WRITE_BUFFER_SIZE);
+            size = file.length();
+        }
+    }
+
+    private static long nextRemoteMillis() {
+        while (true) {
+            final long last = lastRemoteMillis.get();
+            final long next = Math.max(System.currentTimeMillis(), last + 1);
+            if (lastRemoteMillis.compareAndSet(last, next)) {
+                return next;
+            }
         }
     }
 
@@ -151,6 +197,12 @@ public class RollupFile implements Comparable {
      */
     private static long parseTimestamp(String fileName) throws NumberFormatException {
         String numberPart = fileName.substring(0, fileName.length() - 5);
+        // files written by a buffer stripe carry its number after the timestamp.
+        final int stripe = numberPart.indexOf('_');
+        if (stripe >= 0) {
+            Integer.parseInt(numberPart.substring(stripe + 1));
+            numberPart = numberPart.substring(0, stripe);
+        }
         return Long.parseLong(numberPart);
     }
 
@@ -165,6 +217,29 @@ public class RollupFile implements Comparable {
         return new RollupFile(new File(bufferDir, System.currentTimeMillis() + ".json"));
     }
 
+    /**
+     * Build a new RollupFile for one of several buffer stripes writing to the same directory at once.
+     *
+     * @param bufferDir The directory in which to create the file.
+     * @param stripe The number of the stripe, which keeps names unique within the same millisecond.
+     * @return The new RollupFile.
+     */
+    public static RollupFile buildRollupFile(File bufferDir, int stripe) {
+        return buildRollupFile(bufferDir, stripe, System.currentTimeMillis());
+    }
+
+    /**
+     * Build a new RollupFile for one of several buffer stripes, with the given timestamp.
+     *
+     * @param bufferDir The directory in which to create the file.
+     * @param stripe The number of the stripe, which keeps names unique within the same millisecond.
+     * @param timestamp The timestamp of the file.
+     * @return The new RollupFile.
+     */
+    public static RollupFile buildRollupFile(File bufferDir, int stripe, long timestamp) {
+        return new RollupFile(new File(bufferDir, timestamp + "_" + stripe + ".json"));
+    }
+
     private static class RollupFileFilter implements FileFilter {
         public boolean accept(File f) {
             String fileName = f.getName();
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.cloudfiles;
+
+import com.google.common.io.ByteStreams;
+import com.rackspacecloud.blueflood.service.CloudfilesConfig;
+import com.rackspacecloud.blueflood.service.Configuration;
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.io.Payloads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Uploads rollup files to an S3-compatible object store, at {@link CloudfilesConfig#CLOUDFILES_S3_ENDPOINT} or AWS if
+ * that is empty. S3 needs the length of an object before its body, so each payload is spooled to a temporary file
+ * first.
+ */
+public class S3BlobSink extends JcloudsBlobSink {
+    private static final Logger log = LoggerFactory.getLogger(S3BlobSink.class);
+    public static final String API = "s3";
+
+    public S3BlobSink() {
+        super(buildContext());
+    }
+
+    S3BlobSink(BlobStoreContext context) {
+        super(context);
+    }
+
+    private static BlobStoreContext buildContext() {
+        Configuration conf = Configuration.getInstance();
+        ContextBuilder builder = ContextBuilder.newBuilder(API)
+                .credentials(conf.getStringProperty(CloudfilesConfig.CLOUDFILES_S3_ACCESS_KEY),
+                        conf.getStringProperty(CloudfilesConfig.CLOUDFILES_S3_SECRET_KEY));
+        String endpoint = conf.getStringProperty(CloudfilesConfig.CLOUDFILES_S3_ENDPOINT);
+        if (!endpoint.isEmpty()) {
+            builder = builder.endpoint(endpoint);
+        }
+        return builder.buildView(BlobStoreContext.class);
+    }
+
+    @Override
+    public void publish(String remoteName, InputStream payload) throws IOException {
+        File spool = File.createTempFile("rollups", ".upload");
+        try {
+            OutputStream out = new FileOutputStream(spool);
+            try {
+                ByteStreams.copy(payload, out);
+            } finally {
+                out.close();
+            }
+            put(remoteName, Payloads.newFilePayload(spool));
+        } finally {
+            if (!spool.delete()) {
+                log.warn("Could not delete upload spool file {}", spool.getAbsolutePath());
+            }
+        }
+    }
+}
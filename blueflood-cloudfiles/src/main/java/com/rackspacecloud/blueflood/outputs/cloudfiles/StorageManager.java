@@ -19,6 +19,7 @@ package com.rackspacecloud.blueflood.outputs.cloudfiles;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Supplier;
 import com.rackspacecloud.blueflood.eventemitter.RollupEvent;
 import com.rackspacecloud.blueflood.service.CloudfilesConfig;
 import com.rackspacecloud.blueflood.service.Configuration;
@@ -31,34 +32,77 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Buffers rollup events in local files and uploads the files once they are old or big enough. Events are written to
+ * one of several buffer stripes, picked by shard, each with its own file and lock; finished files are uploaded by a
+ * pool of uploaders, gzipped as they are read, to a {@link BlobSink} each.
+ */
 public class StorageManager {
-    private final Configuration config = Configuration.getInstance();
+    private static final Configuration config = Configuration.getInstance();
     private final File bufferDir;
     private final int maxBufferAge;
     private final int maxBufferSize;
+    private final int uploadRetryInterval;
     private static final int UPLOAD_RETRY_INTERVAL = 30000;
+    // how often idle stripes are checked for a buffer file past its age limit, unless the limit is shorter.
+    private static final int AGE_CHECK_INTERVAL = 60000;
     private final BlockingQueue<RollupFile> done = new LinkedBlockingQueue<RollupFile>();
-    private RollupFile current;
-    private Thread uploaderThread;
-    private DoneFileUploader fileUploader;
+    private final BufferStripe[] stripes;
+    private final int uploaderCount;
+    private final Supplier<? extends BlobSink> sinks;
+    private final List<Thread> uploaderThreads = new ArrayList<Thread>();
+    private final List<DoneFileUploader> fileUploaders = new ArrayList<DoneFileUploader>();
+    private ScheduledThreadPoolExecutor ageRotator;
+    // bytes of the files waiting for upload, before compression.
+    private final AtomicLong backlogBytes = new AtomicLong();
+    // files queued or being uploaded.
+    private final AtomicInteger pendingUploads = new AtomicInteger();
 
     private Meter fileCreationMeter = Metrics.meter(StorageManager.class, "Rollup Files Created");
     private Meter rollupEventsSeen = Metrics.meter(StorageManager.class, "Rollup Events Received");
     private Meter uploadExceptionMeter = Metrics.meter(StorageManager.class, "Rollup Remote Upload Exception");
     private Meter rollupWriteFailures = Metrics.meter(StorageManager.class, "Rollup Event Local Write Failures");
+    private Meter filesUploaded = Metrics.meter(StorageManager.class, "Rollup Files Uploaded");
+    private Meter bytesUploaded = Metrics.meter(StorageManager.class, "Rollup Bytes Uploaded");
     private Gauge<Integer> uploadQueueDepthGauge;
 
     private static final Logger log = LoggerFactory.getLogger(StorageManager.class);
 
     public StorageManager() throws IOException {
-        this.maxBufferAge = config.getIntegerProperty(CloudfilesConfig.CLOUDFILES_MAX_BUFFER_AGE);
-        this.maxBufferSize = config.getIntegerProperty(CloudfilesConfig.CLOUDFILES_MAX_BUFFER_SIZE);
-        this.bufferDir = new File(config.getStringProperty(CloudfilesConfig.CLOUDFILES_BUFFER_DIR));
+        this(new File(config.getStringProperty(CloudfilesConfig.CLOUDFILES_BUFFER_DIR)),
+                config.getIntegerProperty(CloudfilesConfig.CLOUDFILES_MAX_BUFFER_AGE),
+                config.getIntegerProperty(CloudfilesConfig.CLOUDFILES_MAX_BUFFER_SIZE),
+                config.getIntegerProperty(CloudfilesConfig.CLOUDFILES_BUFFER_STRIPES),
+                config.getIntegerProperty(CloudfilesConfig.CLOUDFILES_UPLOAD_THREADS),
+                configuredSinks());
+    }
+
+    public StorageManager(File bufferDir, int maxBufferAge, int maxBufferSize, int stripeCount, int uploaderCount,
+                          Supplier<? extends BlobSink> sinks) throws IOException {
+        this(bufferDir, maxBufferAge, maxBufferSize, stripeCount, uploaderCount, sinks, UPLOAD_RETRY_INTERVAL);
+    }
+
+    StorageManager(File bufferDir, int maxBufferAge, int maxBufferSize, int stripeCount, int uploaderCount,
+                   Supplier<? extends BlobSink> sinks, int uploadRetryInterval) throws IOException {
+        this.maxBufferAge = maxBufferAge;
+        this.maxBufferSize = maxBufferSize;
+        this.uploadRetryInterval = uploadRetryInterval;
+        this.bufferDir = bufferDir;
+        this.uploaderCount = uploaderCount;
+        this.sinks = sinks;
         this.uploadQueueDepthGauge = new Gauge<Integer>() {
             @Override
             public Integer getValue() {
@@ -66,7 +110,21 @@ public class StorageManager {
             }
         };
 
-        Metrics.getRegistry().register(MetricRegistry.name(StorageManager.class, "Upload Queue Depth"), this.uploadQueueDepthGauge);
+        // the newest storage manager reports; there is only one outside of benchmarks.
+        registerGauge("Upload Queue Depth", this.uploadQueueDepthGauge);
+        registerGauge("Upload Backlog Bytes", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return backlogBytes.get();
+            }
+        });
+        registerGauge("Upload Backlog Age", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                final RollupFile oldest = done.peek();
+                return oldest == null ? 0L : oldest.getAge();
+            }
+        });
 
         if (!bufferDir.isDirectory()) {
             throw new IOException("Specified BUFFER_DIR is not a directory: " + bufferDir.getAbsolutePath());
@@ -82,28 +140,52 @@ public class StorageManager {
 
         Collections.sort(rollupFileList);
 
-        // Take the newest metric file as the "current" one, or make a new one if there are none
-        if (!rollupFileList.isEmpty()) {
-            current = rollupFileList.removeLast();
-        } else {
-            current = RollupFile.buildRollupFile(bufferDir);
+        // Every stripe starts a file of its own; whatever was left behind is queued for upload, oldest first.
+        for (RollupFile file : rollupFileList) {
+            enqueue(file);
+        }
+        this.stripes = new BufferStripe[stripeCount];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new BufferStripe(i);
         }
-
-        // Queue the rest for upload
-        done.addAll(rollupFileList);
     }
 
     /**
      * Start background storage management and uploading tasks.
      */
     public synchronized void start() {
-        if (uploaderThread != null) {
+        if (!uploaderThreads.isEmpty()) {
             throw new RuntimeException("StorageManager is already started");
         }
 
-        fileUploader = new DoneFileUploader();
-        uploaderThread = new Thread(fileUploader, "StorageManager uploader");
-        uploaderThread.start();
+        for (int i = 0; i < uploaderCount; i++) {
+            final DoneFileUploader fileUploader = new DoneFileUploader();
+            final Thread uploaderThread = new Thread(fileUploader, "StorageManager uploader-" + i);
+            fileUploaders.add(fileUploader);
+            uploaderThreads.add(uploaderThread);
+            uploaderThread.start();
+        }
+
+        // without it, a stripe that stops receiving events would keep its last file until the next event.
+        final long interval = Math.max(1, Math.min(maxBufferAge, AGE_CHECK_INTERVAL));
+        ageRotator = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "StorageManager age rotator");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        ageRotator.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rotateAged();
+                } catch (Throwable th) {
+                    log.error("Could not rotate aged buffer files", th);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -111,44 +193,169 @@ public class StorageManager {
      * @throws IOException
      */
     public synchronized void stop() throws IOException {
-        if (uploaderThread == null) {
+        if (uploaderThreads.isEmpty()) {
             throw new RuntimeException("Not running");
         }
 
-        uploaderThread.interrupt();
-        uploaderThread = null;
-        fileUploader.shutdown();
+        ageRotator.shutdownNow();
+        ageRotator = null;
+        for (Thread uploaderThread : uploaderThreads) {
+            uploaderThread.interrupt();
+        }
+        uploaderThreads.clear();
+        for (DoneFileUploader fileUploader : fileUploaders) {
+            fileUploader.shutdown();
+        }
+        fileUploaders.clear();
     }
 
-    public synchronized void store(RollupEvent... events) throws IOException {
-        if (current.getAge() > maxBufferAge) {
-            log.info("buffer file reached age limit, rotating: {}", current.getName());
-            rotateCurrent();
-        } else if (current.getSize() > maxBufferSize) {
-            log.info("buffer file reached size limit, rotating: {}", current.getName());
-            rotateCurrent();
+    public void store(RollupEvent... events) throws IOException {
+        if (stripes.length == 1) {
+            stripes[0].store(Arrays.asList(events));
+            return;
         }
 
+        final List<List<RollupEvent>> byStripe = new ArrayList<List<RollupEvent>>(stripes.length);
+        for (int i = 0; i < stripes.length; i++) {
+            byStripe.add(new ArrayList<RollupEvent>());
+        }
         for (RollupEvent event : events) {
-            rollupEventsSeen.mark();
-            try {
-                current.append(event);
-            } catch (Exception e) {
-                rollupWriteFailures.mark();
-                log.error("Could not locally persist rollupEvent, throwing away.", event, e);
+            byStripe.get(event.getLocator().getShard() % stripes.length).add(event);
+        }
+        for (int i = 0; i < stripes.length; i++) {
+            if (!byStripe.get(i).isEmpty()) {
+                stripes[i].store(byStripe.get(i));
             }
         }
     }
 
-    private synchronized void rotateCurrent() throws IOException {
-        current.close();
-        done.add(current);
-        current = RollupFile.buildRollupFile(bufferDir);
-        fileCreationMeter.mark();
+    /**
+     * Queues the buffer file of every stripe that has been written to for upload, whatever its age or size.
+     */
+    void rotateAll() throws IOException {
+        for (BufferStripe stripe : stripes) {
+            stripe.rotateIfWritten();
+        }
+    }
+
+    /**
+     * Queues the buffer file of every stripe that is past the age limit for upload.
+     */
+    void rotateAged() throws IOException {
+        for (BufferStripe stripe : stripes) {
+            stripe.rotateIfOld();
+        }
+    }
+
+    int getPendingUploads() {
+        return pendingUploads.get();
+    }
+
+    private void enqueue(RollupFile file) {
+        backlogBytes.addAndGet(file.getFileLength());
+        pendingUploads.incrementAndGet();
+        done.add(file);
+    }
+
+    private static void registerGauge(String name, Gauge<?> gauge) {
+        final String fullName = MetricRegistry.name(StorageManager.class, name);
+        Metrics.getRegistry().remove(fullName);
+        Metrics.getRegistry().register(fullName, gauge);
+    }
+
+    private static Supplier<BlobSink> configuredSinks() throws IOException {
+        final String sinkClassName = config.getStringProperty(CloudfilesConfig.CLOUDFILES_BLOB_SINK);
+        final Class sinkClass;
+        try {
+            sinkClass = BlobSink.class.getClassLoader().loadClass(sinkClassName);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unable to locate blob sink " + sinkClassName, e);
+        }
+        log.info("Exporting rollup files with {}", sinkClass.getSimpleName());
+        return new Supplier<BlobSink>() {
+            @Override
+            public BlobSink get() {
+                try {
+                    return (BlobSink) sinkClass.newInstance();
+                } catch (InstantiationException e) {
+                    throw new RuntimeException("Unable to create instance of blob sink " + sinkClassName, e);
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException("Unable to create instance of blob sink " + sinkClassName, e);
+                }
+            }
+        };
+    }
+
+    private class BufferStripe {
+        private final int number;
+        private RollupFile current;
+
+        private BufferStripe(int number) {
+            this.number = number;
+            this.current = nextFile();
+        }
+
+        private synchronized void store(List<RollupEvent> events) throws IOException {
+            if (!rotateIfOld() && current.getSize() > maxBufferSize) {
+                log.info("buffer file reached size limit, rotating: {}", current.getName());
+                rotateCurrent();
+            }
+
+            for (RollupEvent event : events) {
+                rollupEventsSeen.mark();
+                try {
+                    current.write(event);
+                } catch (Exception e) {
+                    rollupWriteFailures.mark();
+                    log.error("Could not locally persist rollupEvent, throwing away.", event, e);
+                }
+            }
+            current.flush();
+        }
+
+        /**
+         * Queues the buffer file once it is past the age limit. A file that was never written is not uploaded, only
+         * replaced, so its age counts from then.
+         */
+        private synchronized boolean rotateIfOld() throws IOException {
+            if (current.getAge() <= maxBufferAge) {
+                return false;
+            }
+            current.flush();
+            if (current.getFileLength() > 0) {
+                log.info("buffer file reached age limit, rotating: {}", current.getName());
+                rotateCurrent();
+            } else {
+                current.close();
+                current = nextFile();
+            }
+            return true;
+        }
+
+        private synchronized void rotateIfWritten() throws IOException {
+            current.flush();
+            if (current.getFileLength() > 0) {
+                rotateCurrent();
+            }
+        }
+
+        private void rotateCurrent() throws IOException {
+            current.close();
+            enqueue(current);
+            current = nextFile();
+            fileCreationMeter.mark();
+        }
+
+        private RollupFile nextFile() {
+            // a rotation within the same millisecond would otherwise reopen the file it just queued.
+            final long now = System.currentTimeMillis();
+            return RollupFile.buildRollupFile(bufferDir, number,
+                    current == null ? now : Math.max(now, current.getTimestamp() + 1));
+        }
     }
 
     private class DoneFileUploader implements Runnable {
-        private CloudFilesPublisher publisher;
+        private BlobSink publisher;
         private Gzipper gzipper = new Gzipper();
 
         public DoneFileUploader() {
@@ -181,7 +388,7 @@ public class StorageManager {
                     log.warn("Error closing down existing publisher", e);
                 }
             }
-            this.publisher = new CloudFilesPublisher();
+            this.publisher = sinks.get();
         }
 
         private void shutdown() throws IOException {
@@ -189,36 +396,48 @@ public class StorageManager {
         }
 
 
-        private synchronized void uploadAndDeleteFile(RollupFile file) throws InterruptedException {
-            while (true) {
-                try {
-                    InputStream fileStream = file.asReadStream();
-                    publisher.publish(file.getRemoteName() + ".gz", gzipper.gzip(fileStream));
-                    file.delete();
-                    break;
-                } catch (FileNotFoundException e) {
-                    log.error("File could not be found to be deleted.", e);
-                    break; // assume file is already gone, so just break
-                } catch (IllegalAccessException e) {
-                    log.error("File exists but could not be deleted.", e);
-                    break; // prevent getting stuck in a loop of re-uploading the file indefinitely
-                } catch (IOException e) {
-                    log.error("error reading or removing metric file, ignoring", e);
-                    uploadExceptionMeter.mark();
-                    break;
-                } catch (AuthorizationException e) {
-                    log.error("Authorization error uploading metric file. let's make a new publisher", e);
-                    uploadExceptionMeter.mark();
-                    resetPublisher();
-                } catch (RuntimeException e) {
-                    /**
-                     * These are *probably* jclouds exceptions, but they make it very hard to know.
-                     */
-                    log.error("Error uploading RollupFile", e);
-                    uploadExceptionMeter.mark();
-                }
+        private void uploadAndDeleteFile(RollupFile file) throws InterruptedException {
+            final long length = file.getFileLength();
+            try {
+                while (true) {
+                    try {
+                        InputStream fileStream = file.asReadStream();
+                        try {
+                            publisher.publish(file.getRemoteName() + ".gz", gzipper.gzip(fileStream));
+                        } finally {
+                            fileStream.close();
+                        }
+                        filesUploaded.mark();
+                        bytesUploaded.mark(length);
+                        file.delete();
+                        break;
+                    } catch (FileNotFoundException e) {
+                        log.error("File could not be found to be deleted.", e);
+                        break; // assume file is already gone, so just break
+                    } catch (IllegalAccessException e) {
+                        log.error("File exists but could not be deleted.", e);
+                        break; // prevent getting stuck in a loop of re-uploading the file indefinitely
+                    } catch (IOException e) {
+                        // what sinks throw when an upload fails; the file is still there to be sent again.
+                        log.error("Error uploading RollupFile", e);
+                        uploadExceptionMeter.mark();
+                    } catch (AuthorizationException e) {
+                        log.error("Authorization error uploading metric file. let's make a new publisher", e);
+                        uploadExceptionMeter.mark();
+                        resetPublisher();
+                    } catch (RuntimeException e) {
+                        /**
+                         * These are *probably* jclouds exceptions, but they make it very hard to know.
+                         */
+                        log.error("Error uploading RollupFile", e);
+                        uploadExceptionMeter.mark();
+                    }
 
-                Thread.sleep(UPLOAD_RETRY_INTERVAL);
+                    Thread.sleep(uploadRetryInterval);
+                }
+            } finally {
+                backlogBytes.addAndGet(-length);
+                pendingUploads.decrementAndGet();
             }
 
             log.info("uploaded and removed metric file {}", file.getName());
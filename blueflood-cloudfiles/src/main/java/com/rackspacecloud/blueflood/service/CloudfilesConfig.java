@@ -24,7 +24,15 @@ public enum CloudfilesConfig implements ConfigDefaults {
     CLOUDFILES_MAX_BUFFER_AGE("3600000"), // 1000*60*60 = 60 minutes
     CLOUDFILES_MAX_BUFFER_SIZE("104857600"), // 1024*1024*100 = 100MB
     CLOUDFILES_BUFFER_DIR("./CLOUDFILES_BUFFER"),
-    CLOUDFILES_HOST_UNIQUE_IDENTIFIER("bf-host");
+    CLOUDFILES_BUFFER_STRIPES("4"), // buffer files written at once; a rollup goes to the stripe of its shard
+    CLOUDFILES_UPLOAD_THREADS("4"), // buffer files uploaded at once
+    CLOUDFILES_HOST_UNIQUE_IDENTIFIER("bf-host"),
+    // class of the BlobSink finished files are exported to: CloudFilesPublisher, S3BlobSink or LocalBlobSink
+    CLOUDFILES_BLOB_SINK("com.rackspacecloud.blueflood.outputs.cloudfiles.CloudFilesPublisher"),
+    CLOUDFILES_LOCAL_SINK_DIR("./CLOUDFILES_EXPORT"), // used by LocalBlobSink
+    CLOUDFILES_S3_ENDPOINT(""), // used by S3BlobSink; empty means AWS
+    CLOUDFILES_S3_ACCESS_KEY(""),
+    CLOUDFILES_S3_SECRET_KEY("");
 
     static {
         Configuration.getInstance().loadDefaults(CloudfilesConfig.values());
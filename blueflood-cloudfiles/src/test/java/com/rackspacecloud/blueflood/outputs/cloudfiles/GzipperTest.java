@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.cloudfiles;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+public class GzipperTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        // partly random, partly repetitive, and bigger than the deflater's buffer.
+        final byte[] input = new byte[300 * 1024];
+        new Random(42).nextBytes(input);
+        for (int i = input.length / 2; i < input.length; i++) {
+            input[i] = (byte) ('a' + i % 7);
+        }
+        assertRoundTrip(input);
+    }
+
+    @Test
+    public void testEmptyInput() throws Exception {
+        assertRoundTrip(new byte[0]);
+    }
+
+    @Test
+    public void testTrailerHoldsChecksumAndLength() throws Exception {
+        final byte[] input = "{\"metricName\":\"a\"}\n".getBytes("UTF-8");
+        final byte[] gzipped = ByteStreams.toByteArray(new Gzipper().gzip(new ByteArrayInputStream(input)));
+
+        final CRC32 crc = new CRC32();
+        crc.update(input);
+        Assert.assertEquals((int) crc.getValue(), readInt(gzipped, gzipped.length - 8));
+        Assert.assertEquals(input.length, readInt(gzipped, gzipped.length - 4));
+    }
+
+    @Test(expected = ZipException.class)
+    public void testCorruptTrailerIsRejected() throws Exception {
+        final byte[] gzipped = ByteStreams.toByteArray(
+                new Gzipper().gzip(new ByteArrayInputStream("some rollups".getBytes("UTF-8"))));
+        gzipped[gzipped.length - 8] ^= 1;
+        gunzip(gzipped);
+    }
+
+    private static void assertRoundTrip(byte[] input) throws IOException {
+        final byte[] gzipped = ByteStreams.toByteArray(new Gzipper().gzip(new ByteArrayInputStream(input)));
+        // GZIPInputStream checks the CRC and length in the trailer once it reaches the end.
+        Assert.assertArrayEquals(input, gunzip(gzipped));
+    }
+
+    private static byte[] gunzip(byte[] gzipped) throws IOException {
+        return ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzipped)));
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16
+                | (bytes[offset + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.cloudfiles;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+public class LocalBlobSinkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final File dir = folder.newFolder("export");
+        final byte[] content = "{\"metricName\":\"a\"}\n{\"metricName\":\"b\"}\n".getBytes("UTF-8");
+        final LocalBlobSink sink = new LocalBlobSink(dir);
+        sink.publish("rollups.gz", new Gzipper().gzip(new ByteArrayInputStream(content)));
+        sink.close();
+
+        // a single container, holding the file under its final name and nothing else.
+        final File[] containers = dir.listFiles();
+        Assert.assertEquals(1, containers.length);
+        final File[] files = containers[0].listFiles();
+        Assert.assertEquals(1, files.length);
+        Assert.assertEquals("rollups.gz", files[0].getName());
+
+        final InputStream in = new GZIPInputStream(new FileInputStream(files[0]));
+        try {
+            Assert.assertArrayEquals(content, ByteStreams.toByteArray(in));
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.cloudfiles;
+
+import com.google.common.base.Supplier;
+import com.google.common.io.Files;
+import com.rackspacecloud.blueflood.eventemitter.RollupEvent;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.BasicRollup;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rollup events per second through the whole export path: buffer stripes, rotation, gzip and a {@link LocalBlobSink}
+ * in a temporary directory. An operation is one event; each invocation stores a slot's worth of them in batches the
+ * size the rollup event emitter hands out, rotates every stripe and waits for the uploads. Not a unit test; run it with
+ *
+ *   mvn test-compile
+ *   java -cp target/test-classes:target/classes:$(deps) org.openjdk.jmh.Main RollupExportBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RollupExportBenchmark {
+    private static final int EVENTS = 20000;
+    private static final int BATCH_SIZE = 100;
+    private static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+    @Param({"1", "4"})
+    private int stripes;
+
+    @Param({"1", "4"})
+    private int uploaders;
+
+    private File bufferDir;
+    private File exportDir;
+    private StorageManager storageManager;
+    private RollupEvent[][] batches;
+
+    @Setup
+    public void setup() throws IOException {
+        bufferDir = Files.createTempDir();
+        exportDir = Files.createTempDir();
+        final File exports = exportDir;
+        storageManager = new StorageManager(bufferDir, Integer.MAX_VALUE, MAX_BUFFER_SIZE, stripes, uploaders,
+                new Supplier<BlobSink>() {
+                    @Override
+                    public BlobSink get() {
+                        return new LocalBlobSink(exports);
+                    }
+                });
+        storageManager.start();
+
+        final Random random = new Random(1);
+        batches = new RollupEvent[EVENTS / BATCH_SIZE][BATCH_SIZE];
+        for (int b = 0; b < batches.length; b++) {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                final int n = b * BATCH_SIZE + i;
+                final Points<SimpleNumber> points = new Points<SimpleNumber>();
+                for (int p = 0; p < 30; p++) {
+                    points.add(new Points.Point<SimpleNumber>(p * 10000L, new SimpleNumber(random.nextInt(100000))));
+                }
+                batches[b][i] = new RollupEvent(
+                        Locator.createLocatorFromPathComponents("ac" + (n % 20), "host" + (n % 500), "cpu", "metric" + n),
+                        BasicRollup.buildRollupFromRawSamples(points), "ms", Granularity.MIN_5.name(), 0);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        storageManager.stop();
+        deleteRecursively(bufferDir);
+        deleteRecursively(exportDir);
+    }
+
+    @TearDown(Level.Iteration)
+    public void clearExports() {
+        for (File container : exportDir.listFiles()) {
+            deleteRecursively(container);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void export() throws Exception {
+        for (RollupEvent[] batch : batches) {
+            storageManager.store(batch);
+        }
+        storageManager.rotateAll();
+        while (storageManager.getPendingUploads() > 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
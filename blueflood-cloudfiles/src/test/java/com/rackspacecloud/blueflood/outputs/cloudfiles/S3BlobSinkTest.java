@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.cloudfiles;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.BlobBuilder;
+import org.jclouds.io.Payload;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.mockito.Mockito.*;
+
+public class S3BlobSinkTest {
+
+    @Test
+    public void testSpoolFileIsDeletedWhenPublishFails() throws Exception {
+        final AtomicReference<File> spool = new AtomicReference<File>();
+        final BlobBuilder blobBuilder = mock(BlobBuilder.class);
+        when(blobBuilder.payload(any(Payload.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                final File file = (File) ((Payload) invocation.getArguments()[0]).getRawContent();
+                Assert.assertTrue(file.exists());
+                spool.set(file);
+                throw new RuntimeException("simulated upload failure");
+            }
+        });
+        final BlobStore blobStore = mock(BlobStore.class);
+        when(blobStore.blobBuilder(anyString())).thenReturn(blobBuilder);
+        final BlobStoreContext context = mock(BlobStoreContext.class);
+        when(context.getBlobStore()).thenReturn(blobStore);
+
+        final S3BlobSink sink = new S3BlobSink(context);
+        try {
+            sink.publish("rollups.gz", new ByteArrayInputStream(new byte[] {1, 2, 3}));
+            Assert.fail("publish should have failed");
+        } catch (RuntimeException expected) {
+        }
+
+        Assert.assertNotNull(spool.get());
+        Assert.assertFalse(spool.get().exists());
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.cloudfiles;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.rackspacecloud.blueflood.eventemitter.RollupEvent;
+import com.rackspacecloud.blueflood.types.BasicRollup;
+import com.rackspacecloud.blueflood.types.Locator;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+public class StorageManagerTest {
+    private static final int HOUR = 60 * 60 * 1000;
+    private static final int BIG = 100 * 1024 * 1024;
+    private static final Pattern METRIC_NAME = Pattern.compile("\"metricName\":\"([^\"]+)\"");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEventsGoToTheStripeOfTheirShard() throws Exception {
+        final File dir = folder.newFolder("buffer");
+        final StorageManager storageManager = new StorageManager(dir, HOUR, BIG, 4, 1, sinks(new RecordingSink()));
+        final RollupEvent[] events = new RollupEvent[40];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = event("metric" + i);
+        }
+        storageManager.store(events);
+        storageManager.rotateAll();
+
+        int lines = 0;
+        for (File file : dir.listFiles()) {
+            final int stripe = Integer.parseInt(file.getName().replaceAll(".*_|\\.json", ""));
+            for (String line : Files.readLines(file, Charsets.UTF_8)) {
+                final Matcher matcher = METRIC_NAME.matcher(line);
+                Assert.assertTrue(matcher.find());
+                final Locator locator = Locator.createLocatorFromPathComponents("ac1", matcher.group(1));
+                Assert.assertEquals(stripe, locator.getShard() % 4);
+                lines++;
+            }
+        }
+        Assert.assertEquals(events.length, lines);
+        Assert.assertEquals(dir.listFiles().length, storageManager.getPendingUploads());
+    }
+
+    @Test
+    public void testRotatesBySize() throws Exception {
+        final File dir = folder.newFolder("buffer");
+        final StorageManager storageManager = new StorageManager(dir, HOUR, 1, 1, 1, sinks(new RecordingSink()));
+        storageManager.store(event("a"));
+        Assert.assertEquals(0, storageManager.getPendingUploads());
+        storageManager.store(event("b"));
+        Assert.assertEquals(1, storageManager.getPendingUploads());
+        storageManager.store(event("c"));
+        Assert.assertEquals(2, storageManager.getPendingUploads());
+        // rotations within the same millisecond still start a file of their own.
+        Assert.assertEquals(3, dir.listFiles().length);
+    }
+
+    @Test
+    public void testRotatesByAge() throws Exception {
+        final StorageManager storageManager = new StorageManager(folder.newFolder("buffer"), 200, BIG, 1, 1,
+                sinks(new RecordingSink()));
+        storageManager.store(event("a"));
+        storageManager.rotateAged();
+        Assert.assertEquals(0, storageManager.getPendingUploads());
+
+        Thread.sleep(250);
+        storageManager.rotateAged();
+        Assert.assertEquals(1, storageManager.getPendingUploads());
+
+        // the file that replaced it is never written, so there is nothing more to upload.
+        Thread.sleep(250);
+        storageManager.rotateAged();
+        Assert.assertEquals(1, storageManager.getPendingUploads());
+    }
+
+    @Test
+    public void testIdleStripesAreUploadedOnceOld() throws Exception {
+        final File dir = folder.newFolder("buffer");
+        final RecordingSink sink = new RecordingSink();
+        final StorageManager storageManager = new StorageManager(dir, 100, BIG, 2, 1, sinks(sink));
+        storageManager.start();
+        try {
+            storageManager.store(event("a"));
+            waitForUploads(storageManager, dir);
+        } finally {
+            storageManager.stop();
+        }
+
+        Assert.assertEquals(1, sink.published.size());
+        Assert.assertTrue(sink.published.get(0).contains("\"metricName\":\"a\""));
+    }
+
+    @Test
+    public void testUploadersRetryAndDeleteUploadedFiles() throws Exception {
+        final File dir = folder.newFolder("buffer");
+        final RecordingSink sink = new RecordingSink();
+        sink.failures.set(3);
+        final StorageManager storageManager = new StorageManager(dir, HOUR, BIG, 4, 2, sinks(sink), 10);
+        final RollupEvent[] events = new RollupEvent[40];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = event("metric" + i);
+        }
+        storageManager.store(events);
+        storageManager.rotateAll();
+        final int files = storageManager.getPendingUploads();
+
+        storageManager.start();
+        try {
+            waitForUploads(storageManager, dir);
+        } finally {
+            storageManager.stop();
+        }
+
+        Assert.assertEquals(files, sink.published.size());
+        Assert.assertEquals(files + 3, sink.attempts.get());
+        int lines = 0;
+        for (String content : sink.published) {
+            lines += content.split("\n").length;
+        }
+        Assert.assertEquals(events.length, lines);
+    }
+
+    @Test
+    public void testUploadersRetrySinkIOExceptions() throws Exception {
+        final File dir = folder.newFolder("buffer");
+        final RecordingSink sink = new RecordingSink();
+        sink.ioFailures.set(2);
+        final StorageManager storageManager = new StorageManager(dir, HOUR, BIG, 1, 1, sinks(sink), 10);
+        storageManager.store(event("a"));
+        storageManager.rotateAll();
+
+        storageManager.start();
+        try {
+            waitForUploads(storageManager, dir);
+        } finally {
+            storageManager.stop();
+        }
+
+        Assert.assertEquals(3, sink.attempts.get());
+        Assert.assertEquals(1, sink.published.size());
+        Assert.assertTrue(sink.published.get(0).contains("\"metricName\":\"a\""));
+    }
+
+    private static void waitForUploads(StorageManager storageManager, File dir) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (storageManager.getPendingUploads() > 0 || dir.listFiles().length > 0) {
+            Assert.assertTrue("uploads did not finish in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static RollupEvent event(String metricName) {
+        return new RollupEvent(Locator.createLocatorFromPathComponents("ac1", metricName), new BasicRollup(), "ms",
+                "metrics_5m", 1000L);
+    }
+
+    private static Supplier<BlobSink> sinks(BlobSink sink) {
+        return Suppliers.ofInstance(sink);
+    }
+
+    // keeps the content of what was published, after checking it is gzipped; fails as often as asked to first.
+    static class RecordingSink implements BlobSink {
+        final List<String> published = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger attempts = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger ioFailures = new AtomicInteger();
+
+        @Override
+        public void publish(String remoteName, InputStream payload) throws IOException {
+            attempts.incrementAndGet();
+            if (failures.getAndDecrement() > 0) {
+                throw new RuntimeException("simulated upload failure");
+            }
+            if (ioFailures.getAndDecrement() > 0) {
+                throw new IOException("simulated upload failure");
+            }
+            Assert.assertTrue(remoteName.endsWith(".gz"));
+            published.add(new String(ByteStreams.toByteArray(new GZIPInputStream(payload)), Charsets.UTF_8));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -29,6 +29,9 @@ import org.junit.Test;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 public class RollupRunnableIntegrationTest extends IntegrationTestBase {
@@ -120,7 +123,7 @@ public class RollupRunnableIntegrationTest extends IntegrationTestBase {
                                                     range, 
                                                     CassandraModel.CF_METRICS_5M).getPoints().size());
         
-        RollupExecutionContext rec = new RollupExecutionContext(Thread.currentThread());
+        RollupExecutionContext rec = new RollupExecutionContext();
         SingleRollupReadContext rc = new SingleRollupReadContext(normalLocator, range, Granularity.MIN_5);
         RollupBatchWriter batchWriter = new RollupBatchWriter(new ThreadPoolBuilder().build(), rec);
         RollupRunnable rr = new RollupRunnable(rec, rc, batchWriter);
@@ -161,6 +164,52 @@ public class RollupRunnableIntegrationTest extends IntegrationTestBase {
         testRolledupMetric(setLocator, SetRollup.class, SetRollup.class);
     }
     
+    @Test
+    public void testBatchedRollups() throws IOException {
+        RollupExecutionContext rec = new RollupExecutionContext();
+        RollupBatchWriter batchWriter = new RollupBatchWriter(new ThreadPoolBuilder().build(), rec);
+        ThreadPoolExecutor rollupExecutor = new ThreadPoolBuilder().build();
+        List<SingleRollupReadContext> contexts = new ArrayList<SingleRollupReadContext>();
+        for (Locator locator : new Locator[] { counterLocator, gaugeLocator, timerLocator, setLocator, normalLocator }) {
+            rec.incrementReadCounter();
+            contexts.add(new SingleRollupReadContext(locator, range, Granularity.MIN_5));
+        }
+        new BatchedRollupRunnable(rec, contexts, batchWriter, rollupExecutor).run();
+
+        while (!rec.doneReading() || !rec.doneWriting()) {
+            batchWriter.drainBatch();
+            try {
+                Thread.sleep(1000l);
+            } catch (InterruptedException e) {
+            }
+        }
+
+        Assert.assertEquals(1, reader.getDataToRoll(BasicRollup.class, normalLocator, range,
+                CassandraModel.CF_METRICS_5M).getPoints().size());
+        Assert.assertEquals(1, reader.getDataToRoll(CounterRollup.class, counterLocator, range,
+                CassandraModel.CF_METRICS_PREAGGREGATED_5M).getPoints().size());
+        Assert.assertEquals(1, reader.getDataToRoll(GaugeRollup.class, gaugeLocator, range,
+                CassandraModel.CF_METRICS_PREAGGREGATED_5M).getPoints().size());
+        Assert.assertEquals(1, reader.getDataToRoll(TimerRollup.class, timerLocator, range,
+                CassandraModel.CF_METRICS_PREAGGREGATED_5M).getPoints().size());
+        Assert.assertEquals(1, reader.getDataToRoll(SetRollup.class, setLocator, range,
+                CassandraModel.CF_METRICS_PREAGGREGATED_5M).getPoints().size());
+    }
+
+    @Test
+    public void testBatchedReadMatchesSingleReads() throws IOException {
+        List<Locator> locators = new ArrayList<Locator>();
+        locators.add(normalLocator);
+        locators.add(Locator.createLocatorFromPathComponents("runnabletest", "no_data"));
+        Map<Locator, Points<SimpleNumber>> batch = reader.getDataToRoll(SimpleNumber.class, locators, range,
+                CassandraModel.CF_METRICS_FULL);
+
+        Assert.assertEquals(2, batch.size());
+        Assert.assertEquals(reader.getDataToRoll(SimpleNumber.class, normalLocator, range,
+                CassandraModel.CF_METRICS_FULL).getPoints(), batch.get(normalLocator).getPoints());
+        Assert.assertTrue(batch.get(locators.get(1)).isEmpty());
+    }
+
     private void testRolledupMetric(Locator locator, Class fullResClass, Class rollupClass) throws IOException { 
         // full res has 5 samples.
         Assert.assertEquals(5, reader.getDataToRoll(fullResClass,
@@ -174,7 +223,7 @@ public class RollupRunnableIntegrationTest extends IntegrationTestBase {
                                                     range, 
                                                     CassandraModel.CF_METRICS_PREAGGREGATED_5M).getPoints().size());
         
-        RollupExecutionContext rec = new RollupExecutionContext(Thread.currentThread());
+        RollupExecutionContext rec = new RollupExecutionContext();
         SingleRollupReadContext rc = new SingleRollupReadContext(locator, range, Granularity.MIN_5);
         RollupBatchWriter batchWriter = new RollupBatchWriter(new ThreadPoolBuilder().build(), rec);
         RollupRunnable rr = new RollupRunnable(rec, rc, batchWriter);
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.rackspacecloud.blueflood.cache;
+
+import com.google.common.base.Ticker;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.utils.TimeValue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Remembers which locators were seen recently, in a fixed amount of off-heap memory.
+ *
+ * The filter is a ring of bloom filters ("generations"). Locators are added to the newest one and looked up in
+ * all of them; every rotation period the oldest generation is cleared and becomes the newest. A locator therefore
+ * stays current for between (generations - 1) and generations rotation periods after it was last added.
+ *
+ * False positives are possible at roughly the configured rate per lookup while a generation holds no more than
+ * the expected number of locators. Each generation is reseeded when it is cleared, so a locator that collides in one
+ * generation is no more likely than any other to collide in the next: a false positive suppresses writes for at most
+ * generations rotation periods, even though the same locators keep being added. False negatives are possible too,
+ * because concurrent adds to the same word can lose a bit, and a lookup racing a rotation may see a generation being
+ * cleared; they only ever cause a redundant write.
+ */
+public class RotatingLocatorFilter {
+    private static final HashFunction hashFunction = Hashing.murmur3_128();
+
+    private final Ticker ticker;
+    private final long rotationPeriodNanos;
+    private final int expectedInsertions;
+    private final long bitCount;
+    private final int hashCount;
+    // replaced, under this, by a generation with a new seed each time one is cleared; its buffer is reused.
+    private final AtomicReferenceArray<Generation> generations;
+    private final Random random = new Random();
+
+    private volatile int current = 0;
+    private volatile long nextRotation;
+
+    public RotatingLocatorFilter(int expectedInsertions, double falsePositiveRate, int generations, TimeValue rotationPeriod) {
+        this(expectedInsertions, falsePositiveRate, generations, rotationPeriod, Ticker.systemTicker());
+    }
+
+    RotatingLocatorFilter(int expectedInsertions, double falsePositiveRate, int generations, TimeValue rotationPeriod, Ticker ticker) {
+        if (expectedInsertions <= 0 || generations < 2 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Need a positive size, at least two generations and a rate in (0, 1)");
+        }
+        // the usual optimum: m = -n ln(p) / ln(2)^2 and k = m/n ln(2), m rounded up to whole longs.
+        final long bits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bitCount = ((bits + 63) / 64) * 64;
+        if (bitCount / 8 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A generation of " + bitCount + " bits does not fit in a buffer");
+        }
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+        this.expectedInsertions = expectedInsertions;
+        this.ticker = ticker;
+        this.rotationPeriodNanos = rotationPeriod.toMillis() * 1000000L;
+        this.generations = new AtomicReferenceArray<Generation>(generations);
+        for (int i = 0; i < generations; i++) {
+            this.generations.set(i, new Generation(ByteBuffer.allocateDirect((int) (bitCount / 8)), random.nextLong()));
+        }
+        this.nextRotation = ticker.read() + rotationPeriodNanos;
+    }
+
+    public boolean mightContain(Locator locator) {
+        maybeRotate();
+        final ByteBuffer hash = hash(locator);
+        for (int i = 0; i < generations.length(); i++) {
+            if (contains(generations.get(i), hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void put(Locator locator) {
+        maybeRotate();
+        final ByteBuffer hash = hash(locator);
+        final Generation generation = generations.get(current);
+        long combined = hash.getLong(0) ^ generation.seed;
+        boolean changed = false;
+        for (int i = 0; i < hashCount; i++) {
+            final long bit = (combined & Long.MAX_VALUE) % bitCount;
+            combined += hash.getLong(8);
+            final int offset = (int) (bit >>> 6) << 3;
+            final long word = generation.bits.getLong(offset);
+            final long mask = 1L << bit;
+            if ((word & mask) == 0) {
+                // not atomic; a racing put to the same word may lose this bit. see the class comment.
+                generation.bits.putLong(offset, word | mask);
+                changed = true;
+            }
+        }
+        if (changed) {
+            generation.insertions.incrementAndGet();
+        }
+    }
+
+    /** Forgets every locator. */
+    public synchronized void clear() {
+        for (int i = 0; i < generations.length(); i++) {
+            wipe(i);
+        }
+        nextRotation = ticker.read() + rotationPeriodNanos;
+    }
+
+    /** Approximate number of distinct locators held across all generations. */
+    public long approximateCount() {
+        long count = 0;
+        for (int i = 0; i < generations.length(); i++) {
+            count += generations.get(i).insertions.get();
+        }
+        return count;
+    }
+
+    /** Expected false positive rate of a lookup, given how full the generations currently are. */
+    public double expectedFalsePositiveRate() {
+        double missAll = 1d;
+        for (int i = 0; i < generations.length(); i++) {
+            final long inserted = generations.get(i).insertions.get();
+            missAll *= 1d - Math.pow(1d - Math.exp(-(double) hashCount * inserted / bitCount), hashCount);
+        }
+        return 1d - missAll;
+    }
+
+    public long getSizeInBytes() {
+        return bitCount / 8 * generations.length();
+    }
+
+    public int getExpectedInsertions() {
+        return expectedInsertions;
+    }
+
+    private boolean contains(Generation generation, ByteBuffer hash) {
+        long combined = hash.getLong(0) ^ generation.seed;
+        for (int i = 0; i < hashCount; i++) {
+            final long bit = (combined & Long.MAX_VALUE) % bitCount;
+            if ((generation.bits.getLong((int) (bit >>> 6) << 3) & (1L << bit)) == 0) {
+                return false;
+            }
+            combined += hash.getLong(8);
+        }
+        return true;
+    }
+
+    private static ByteBuffer hash(Locator locator) {
+        // both halves of the 128 bit hash, combined the way guava's BloomFilter does (Kirsch-Mitzenmacher).
+        return ByteBuffer.wrap(hashFunction.hashBytes(locator.getBytes()).asBytes()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void maybeRotate() {
+        if (ticker.read() - nextRotation >= 0) {
+            rotate();
+        }
+    }
+
+    private synchronized void rotate() {
+        final long now = ticker.read();
+        // a filter nobody touched for several periods may owe more than one rotation.
+        int rotations = 0;
+        while (now - nextRotation >= 0 && rotations < generations.length()) {
+            final int oldest = (current + 1) % generations.length();
+            wipe(oldest);
+            current = oldest;
+            nextRotation += rotationPeriodNanos;
+            rotations++;
+        }
+        if (now - nextRotation >= 0) {
+            nextRotation = now + rotationPeriodNanos;
+        }
+    }
+
+    // callers hold this.
+    private void wipe(int index) {
+        final ByteBuffer bits = generations.get(index).bits;
+        for (int offset = 0; offset < bits.capacity(); offset += 8) {
+            bits.putLong(offset, 0L);
+        }
+        // new bit positions for every locator, so this generation's false positives are not the last one's. published
+        // after the wipe, so whoever sees the new seed sees the cleared bits.
+        generations.set(index, new Generation(bits, random.nextLong()));
+    }
+
+    private static class Generation {
+        private final ByteBuffer bits;
+        // mixed into the hash.
+        private final long seed;
+        private final AtomicLong insertions = new AtomicLong(0);
+
+        private Generation(ByteBuffer bits, long seed) {
+            this.bits = bits;
+            this.seed = seed;
+        }
+    }
+}
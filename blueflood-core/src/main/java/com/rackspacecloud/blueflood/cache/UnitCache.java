@@ -0,0 +1,207 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.cache;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
+import com.rackspacecloud.blueflood.io.DiscoveryIO;
+import com.rackspacecloud.blueflood.io.SearchResult;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import com.rackspacecloud.blueflood.utils.QueryDiscoveryModuleLoader;
+import com.rackspacecloud.blueflood.utils.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Units of metrics as known to the discovery module, kept for {@link CoreConfig#UNIT_CACHE_TTL_MINS}. Lookups that
+ * miss share one bounded pool, and a batch of locators costs one discovery search per tenant. Metrics the discovery
+ * module does not know resolve to {@link Util#UNKNOWN}; failed lookups do too, but are not cached.
+ */
+public class UnitCache {
+    private static final Logger log = LoggerFactory.getLogger(UnitCache.class);
+    private static final UnitCache instance = new UnitCache(null,
+            Configuration.getInstance().getIntegerProperty(CoreConfig.UNIT_CACHE_TTL_MINS),
+            Configuration.getInstance().getLongProperty(CoreConfig.UNIT_CACHE_MAX_SIZE),
+            new ThreadPoolBuilder()
+                    .withName("Unit Lookups")
+                    .withCorePoolSize(Configuration.getInstance().getIntegerProperty(CoreConfig.UNIT_LOOKUP_THREADS))
+                    .withMaxPoolSize(Configuration.getInstance().getIntegerProperty(CoreConfig.UNIT_LOOKUP_THREADS))
+                    .withBoundedQueue(Configuration.getInstance().getIntegerProperty(CoreConfig.UNIT_LOOKUP_QUEUE_SIZE))
+                    .build());
+
+    static {
+        instance.registerMetrics();
+    }
+
+    private final DiscoveryIO discovery;
+    private final LoadingCache<Locator, String> units;
+    private final ListeningExecutorService executor;
+    private final Meter lookupErrors = Metrics.meter(UnitCache.class, "Lookup Errors");
+
+    /** A null discovery means the one configured for queries, resolved on each load. */
+    UnitCache(DiscoveryIO discovery, int ttlMinutes, long maxSize, ExecutorService executor) {
+        this.discovery = discovery;
+        this.executor = MoreExecutors.listeningDecorator(executor);
+        this.units = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+                .maximumSize(maxSize)
+                .concurrencyLevel(16)
+                .recordStats()
+                .build(new CacheLoader<Locator, String>() {
+                    @Override
+                    public String load(Locator locator) throws Exception {
+                        return loadUnits(Collections.singletonList(locator)).get(locator);
+                    }
+
+                    @Override
+                    public Map<Locator, String> loadAll(Iterable<? extends Locator> locators) throws Exception {
+                        return loadUnits(locators);
+                    }
+                });
+    }
+
+    public static UnitCache getInstance() {
+        return instance;
+    }
+
+    /** The unit of a metric, looked up on the calling thread if it is not cached. */
+    public String getUnit(Locator locator) {
+        try {
+            return units.get(locator);
+        } catch (Exception ex) {
+            lookupFailed(ex);
+            return Util.UNKNOWN;
+        }
+    }
+
+    /** The unit of a metric; a miss is looked up on the shared pool. */
+    public ListenableFuture<String> getUnitAsync(final Locator locator) {
+        final String unit = units.getIfPresent(locator);
+        if (unit != null) {
+            return Futures.immediateFuture(unit);
+        }
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return getUnit(locator);
+            }
+        });
+    }
+
+    /** The units of several metrics; the misses are looked up together, on the calling thread. */
+    public Map<Locator, String> getUnits(Collection<Locator> locators) {
+        try {
+            return units.getAll(locators);
+        } catch (Exception ex) {
+            lookupFailed(ex);
+            final Map<Locator, String> unknown = new HashMap<Locator, String>();
+            for (Locator locator : locators) {
+                final String unit = units.getIfPresent(locator);
+                unknown.put(locator, unit == null ? Util.UNKNOWN : unit);
+            }
+            return unknown;
+        }
+    }
+
+    public long size() {
+        return units.size();
+    }
+
+    public void invalidateAll() {
+        units.invalidateAll();
+    }
+
+    private Map<Locator, String> loadUnits(Iterable<? extends Locator> locators) throws Exception {
+        final DiscoveryIO io = discovery != null ? discovery : QueryDiscoveryModuleLoader.getDiscoveryInstance();
+        if (io == null) {
+            throw new IllegalStateException("USE_ES_FOR_UNITS has been set to true, but no discovery module found." +
+                    " Please check your config");
+        }
+
+        final Map<String, List<Locator>> byTenant = new HashMap<String, List<Locator>>();
+        for (Locator locator : locators) {
+            List<Locator> tenantLocators = byTenant.get(locator.getTenantId());
+            if (tenantLocators == null) {
+                tenantLocators = new ArrayList<Locator>();
+                byTenant.put(locator.getTenantId(), tenantLocators);
+            }
+            tenantLocators.add(locator);
+        }
+
+        final Map<Locator, String> found = new HashMap<Locator, String>();
+        for (Map.Entry<String, List<Locator>> tenant : byTenant.entrySet()) {
+            final List<String> metricNames = new ArrayList<String>(tenant.getValue().size());
+            for (Locator locator : tenant.getValue()) {
+                metricNames.add(locator.getMetricName());
+            }
+            final Map<String, String> unitsByName = new HashMap<String, String>();
+            for (SearchResult result : io.search(tenant.getKey(), metricNames)) {
+                if (result.getUnit() != null) {
+                    unitsByName.put(result.getMetricName(), result.getUnit());
+                }
+            }
+            for (Locator locator : tenant.getValue()) {
+                final String unit = unitsByName.get(locator.getMetricName());
+                found.put(locator, unit == null ? Util.UNKNOWN : unit);
+            }
+        }
+        return found;
+    }
+
+    private void lookupFailed(Exception ex) {
+        lookupErrors.mark();
+        log.warn("Exception encountered while getting unit from ES, unit will be set to unknown in query results");
+        log.debug(ex.getMessage(), ex);
+    }
+
+    private void registerMetrics() {
+        Metrics.getRegistry().register(MetricRegistry.name(UnitCache.class, "Size"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return units.size();
+            }
+        });
+        Metrics.getRegistry().register(MetricRegistry.name(UnitCache.class, "Hit Rate"), new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return units.stats().hitRate();
+            }
+        });
+    }
+}
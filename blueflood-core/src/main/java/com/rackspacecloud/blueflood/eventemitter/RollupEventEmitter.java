@@ -16,68 +16,237 @@
 
 package com.rackspacecloud.blueflood.eventemitter;
 
-import com.google.common.base.Function;
-import com.google.common.collect.Lists;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.rackspacecloud.blueflood.cache.UnitCache;
 import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
-import com.rackspacecloud.blueflood.io.DiscoveryIO;
+import com.rackspacecloud.blueflood.io.AstyanaxReader;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
 import com.rackspacecloud.blueflood.types.BasicRollup;
-import com.rackspacecloud.blueflood.utils.QueryDiscoveryModuleLoader;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.utils.Metrics;
 import com.rackspacecloud.blueflood.utils.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Arrays;
-import java.util.concurrent.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Queues rollup events and hands them to the listeners in batches, on a few dispatcher threads. The queue is bounded
+ * by {@link CoreConfig#ROLLUP_EVENT_QUEUE_SIZE}; once it is full, {@link CoreConfig#ROLLUP_EVENT_QUEUE_POLICY} decides
+ * whether emitting waits for room or drops the event. Events emitted without a unit get one before they are handed
+ * out, resolved for the whole batch at once.
+ */
 public class RollupEventEmitter extends Emitter<RollupEvent> {
-    private static final Logger log = LoggerFactory.getLogger(QueryDiscoveryModuleLoader.class);
-    private static final int numberOfWorkers = 5;
+    private static final Logger log = LoggerFactory.getLogger(RollupEventEmitter.class);
     public static final String ROLLUP_EVENT_NAME = "rollup".intern();
-    private static ThreadPoolExecutor eventExecutors;
-    private static final RollupEventEmitter instance = new RollupEventEmitter();
+    private static final RollupEventEmitter instance = new RollupEventEmitter(
+            Configuration.getInstance().getIntegerProperty(CoreConfig.ROLLUP_EVENT_QUEUE_SIZE),
+            OverflowPolicy.valueOf(Configuration.getInstance().getStringProperty(CoreConfig.ROLLUP_EVENT_QUEUE_POLICY).toUpperCase()),
+            Configuration.getInstance().getIntegerProperty(CoreConfig.ROLLUP_EVENT_BATCH_SIZE),
+            Configuration.getInstance().getLongProperty(CoreConfig.ROLLUP_EVENT_BATCH_DELAY_MILLIS),
+            Configuration.getInstance().getIntegerProperty(CoreConfig.ROLLUP_EVENT_THREADS));
 
-    private RollupEventEmitter() {
-        eventExecutors = new ThreadPoolBuilder()
-                .withName("RollupEventEmitter ThreadPool")
-                .withCorePoolSize(numberOfWorkers)
-                .withMaxPoolSize(numberOfWorkers)
-                .withUnboundedQueue()
-                .build();
+    static {
+        instance.registerMetrics();
+    }
+
+    public enum OverflowPolicy {
+        BLOCK,
+        DROP
+    }
+
+    private final BlockingQueue<QueuedEvent> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final int batchSize;
+    private final long batchDelayNanos;
+    private final int threads;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    private final Meter droppedEvents = Metrics.meter(RollupEventEmitter.class, "Dropped Events");
+    private final Meter listenerErrors = Metrics.meter(RollupEventEmitter.class, "Listener Errors");
+    private final Histogram batchSizes = Metrics.histogram(RollupEventEmitter.class, "Batch Size");
+    private final Timer lag = Metrics.timer(RollupEventEmitter.class, "Event Lag");
+
+    RollupEventEmitter(int queueSize, OverflowPolicy overflowPolicy, int batchSize, long batchDelayMillis, int threads) {
+        this.queue = new ArrayBlockingQueue<QueuedEvent>(queueSize);
+        this.overflowPolicy = overflowPolicy;
+        this.batchSize = batchSize;
+        this.batchDelayNanos = TimeUnit.MILLISECONDS.toNanos(batchDelayMillis);
+        this.threads = threads;
     }
 
     public static RollupEventEmitter getInstance() { return instance; }
 
+    /**
+     * Queues the events for the listeners of the event. Delivery is asynchronous, so there is nothing to wait on and
+     * this always returns null.
+     */
     @Override
     public Future emit(final String event, final RollupEvent... eventPayload) {
-        //TODO: This hack will go away after Kafka Serializer is made generic
-        Future emitFuture = null;
-        if(eventPayload[0].getRollup() instanceof BasicRollup && super.hasListeners(ROLLUP_EVENT_NAME)) {
-            emitFuture = eventExecutors.submit(new Callable() {
+        if (!hasListeners(event)) {
+            return null;
+        }
+        startDispatchers();
+        final long now = System.nanoTime();
+        for (RollupEvent rollupEvent : eventPayload) {
+            //TODO: This hack will go away after Kafka Serializer is made generic
+            if (rollupEvent.getRollup() instanceof BasicRollup) {
+                enqueue(new QueuedEvent(event, rollupEvent, now));
+            }
+        }
+        return null;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private void enqueue(QueuedEvent queued) {
+        if (overflowPolicy == OverflowPolicy.DROP) {
+            if (!queue.offer(queued)) {
+                droppedEvents.mark();
+            }
+            return;
+        }
+        try {
+            queue.put(queued);
+        } catch (InterruptedException ex) {
+            droppedEvents.mark();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void startDispatchers() {
+        if (started.get() || !started.compareAndSet(false, true)) {
+            return;
+        }
+        final ThreadPoolExecutor dispatchers = new ThreadPoolBuilder()
+                .withName("RollupEventEmitter ThreadPool")
+                .withCorePoolSize(threads)
+                .withMaxPoolSize(threads)
+                .withSynchronousQueue()
+                .build();
+        for (int i = 0; i < threads; i++) {
+            dispatchers.execute(new Runnable() {
                 @Override
-                public Future call() {
-                    if (Util.shouldUseESForUnits()) {
-                        QueryDiscoveryModuleLoader.loadDiscoveryModule();
-                        final DiscoveryIO discoveryIO = QueryDiscoveryModuleLoader.getDiscoveryInstance();
-                        // TODO: Sync for now, but we will have to make it async eventually
-                        Lists.transform(Arrays.asList(eventPayload), new Function<RollupEvent, RollupEvent>() {
-                            @Override
-                            public RollupEvent apply(RollupEvent event) {
-                                String unit;
-                                try {
-                                    unit = discoveryIO.search(event.getLocator().getTenantId(), event.getLocator().getMetricName()).get(0).getUnit();
-                                } catch (Exception e) {
-                                    log.warn("Exception encountered while getting units out of ES : %s", e.getMessage());
-                                    unit = Util.UNKNOWN;
-                                }
-                                event.setUnit(unit);
-                                return event;
-                            }
-                        });
+                public void run() {
+                    final List<QueuedEvent> batch = new ArrayList<QueuedEvent>(batchSize);
+                    while (true) {
+                        try {
+                            dispatch(batch);
+                        } catch (InterruptedException ex) {
+                            log.info("Rollup event dispatcher interrupted, stopping");
+                            return;
+                        } catch (Throwable th) {
+                            listenerErrors.mark();
+                            log.error("Error handing rollup events to listeners", th);
+                        }
+                        batch.clear();
                     }
-                    return RollupEventEmitter.super.emit(event, eventPayload);
                 }
             });
         }
-        return emitFuture;
+    }
+
+    /** Waits for an event, gathers what else arrives within the batch delay, and hands the batch to the listeners. */
+    private void dispatch(List<QueuedEvent> batch) throws InterruptedException {
+        batch.add(queue.take());
+        final long deadline = System.nanoTime() + batchDelayNanos;
+        while (batch.size() < batchSize) {
+            if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                continue;
+            }
+            final long remaining = deadline - System.nanoTime();
+            final QueuedEvent next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+
+        final long now = System.nanoTime();
+        for (QueuedEvent queued : batch) {
+            lag.update(now - queued.enqueuedAt, TimeUnit.NANOSECONDS);
+        }
+        batchSizes.update(batch.size());
+        resolveUnits(batch);
+
+        // events of one name go out together; in practice every event is a rollup event.
+        int from = 0;
+        while (from < batch.size()) {
+            final String event = batch.get(from).event;
+            int to = from + 1;
+            while (to < batch.size() && batch.get(to).event.equals(event)) {
+                to++;
+            }
+            final RollupEvent[] events = new RollupEvent[to - from];
+            for (int i = from; i < to; i++) {
+                events[i - from] = batch.get(i).payload;
+            }
+            super.emit(event, events);
+            from = to;
+        }
+    }
+
+    private void resolveUnits(List<QueuedEvent> batch) {
+        if (!Util.shouldUseESForUnits()) {
+            for (QueuedEvent queued : batch) {
+                if (queued.payload.getUnit() == null) {
+                    queued.payload.setUnit(AstyanaxReader.getUnitString(queued.payload.getLocator()));
+                }
+            }
+            return;
+        }
+
+        final List<Locator> locators = new ArrayList<Locator>();
+        for (QueuedEvent queued : batch) {
+            if (queued.payload.getUnit() == null) {
+                locators.add(queued.payload.getLocator());
+            }
+        }
+        if (locators.isEmpty()) {
+            return;
+        }
+        final Map<Locator, String> units = UnitCache.getInstance().getUnits(locators);
+        for (QueuedEvent queued : batch) {
+            if (queued.payload.getUnit() == null) {
+                final String unit = units.get(queued.payload.getLocator());
+                queued.payload.setUnit(unit == null ? Util.UNKNOWN : unit);
+            }
+        }
+    }
+
+    private void registerMetrics() {
+        Metrics.getRegistry().register(MetricRegistry.name(RollupEventEmitter.class, "Queue Depth"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return queue.size();
+            }
+        });
+    }
+
+    private static class QueuedEvent {
+        private final String event;
+        private final RollupEvent payload;
+        private final long enqueuedAt;
+
+        private QueuedEvent(String event, RollupEvent payload, long enqueuedAt) {
+            this.event = event;
+            this.payload = payload;
+            this.enqueuedAt = enqueuedAt;
+        }
     }
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.inputs.formats;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.rackspacecloud.blueflood.exceptions.SerializationException;
+import com.rackspacecloud.blueflood.types.DataType;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Metric;
+import com.rackspacecloud.blueflood.utils.TimeValue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A compact binary encoding of {@link Metric}s, spoken by the UDP listener and the binary HTTP ingestion endpoint.
+ *
+ * A frame is a varint count followed by that many metrics. Each metric is its tenant id, metric name and data type
+ * as strings, a varint collection time, a varint ttl in seconds, the unit as a string and then the value, all in
+ * protobuf's untagged encodings. A stream is any number of frames back to back, which lets a client write a large
+ * batch as several frames without holding all of it in memory. A metric with a data type this class does not know
+ * fails the read with a {@link SerializationException}: the size of its value is unknown, so nothing after it can be
+ * read.
+ *
+ * Clients encode with {@link #toBytes(Collection)} for a single frame or {@link #writeFrame(Collection, OutputStream)}
+ * to append a frame to a stream.
+ */
+public class BinaryMetricSerialization {
+
+    /**
+     * Reads one frame from <code>in</code> into <code>metrics</code>, returning the number of metrics added.
+     *
+     * @throws SerializationException if a metric has a data type this class does not know.
+     */
+    public static int readFrame(CodedInputStream in, Collection<? super Metric> metrics) throws IOException {
+        final int numMetrics = in.readRawVarint32();
+
+        for (int i = 0; i < numMetrics; i++) {
+            String tenantId = in.readString();
+            String metricName = in.readString();
+            DataType type = new DataType(in.readString());
+            long collectionTime = in.readRawVarint64();
+            int ttlSecs = in.readRawVarint32();
+            String units = in.readString();
+            Object value;
+            if (type.equals(DataType.BOOLEAN))
+                value = in.readBool();
+            else if (type.equals(DataType.DOUBLE))
+                value = in.readDouble();
+            else if (type.equals(DataType.INT))
+                value = in.readRawVarint32();
+            else if (type.equals(DataType.LONG))
+                value = in.readRawVarint64();
+            else if (type.equals(DataType.STRING))
+                value = in.readString();
+            else
+                throw new SerializationException("Unknown data type " + type + " for metric " + metricName);
+
+            metrics.add(new Metric(
+                    Locator.createLocatorFromPathComponents(tenantId, metricName),
+                    value,
+                    collectionTime,
+                    new TimeValue(ttlSecs, TimeUnit.SECONDS),
+                    units));
+        }
+        return numMetrics;
+    }
+
+    /** Reads frames from <code>in</code> until it is exhausted, returning the number of metrics added. */
+    public static int readStream(CodedInputStream in, Collection<? super Metric> metrics) throws IOException {
+        int added = 0;
+        while (!in.isAtEnd()) {
+            added += readFrame(in, metrics);
+        }
+        return added;
+    }
+
+    /** Encodes <code>metrics</code> as a single frame, in an array of exactly the encoded size. */
+    public static byte[] toBytes(Collection<Metric> metrics) throws IOException {
+        final byte[] buf = new byte[computeBinarySize(metrics)];
+        final CodedOutputStream out = CodedOutputStream.newInstance(buf);
+        write(metrics, out);
+        out.checkNoSpaceLeft();
+        return buf;
+    }
+
+    /** Appends <code>metrics</code> to <code>stream</code> as one frame. */
+    public static void writeFrame(Collection<Metric> metrics, OutputStream stream) throws IOException {
+        final CodedOutputStream out = CodedOutputStream.newInstance(stream);
+        write(metrics, out);
+        out.flush();
+    }
+
+    public static int computeBinarySize(Collection<Metric> metrics) {
+        int size = 0;
+
+        // number of each metric.
+        size += CodedOutputStream.computeRawVarint32Size(metrics.size());
+
+        // size of each metric.
+        for (Metric metric : metrics) {
+            size += CodedOutputStream.computeStringSizeNoTag(metric.getLocator().getTenantId());
+            size += CodedOutputStream.computeStringSizeNoTag(metric.getLocator().getMetricName());
+            size += CodedOutputStream.computeStringSizeNoTag(metric.getDataType().toString());
+            size += CodedOutputStream.computeRawVarint64Size(metric.getCollectionTime());
+            size += CodedOutputStream.computeRawVarint32Size(metric.getTtlInSeconds());
+            size += CodedOutputStream.computeStringSizeNoTag(metric.getUnit());
+            if (metric.getDataType().equals(DataType.STRING))
+                size += CodedOutputStream.computeStringSizeNoTag((String)metric.getMetricValue());
+            if (metric.getDataType().equals(DataType.INT))
+                size += CodedOutputStream.computeRawVarint32Size((Integer) metric.getMetricValue());
+            if (metric.getDataType().equals(DataType.LONG))
+                size += CodedOutputStream.computeRawVarint64Size((Long) metric.getMetricValue());
+            if (metric.getDataType().equals(DataType.DOUBLE))
+                size += CodedOutputStream.computeDoubleSizeNoTag((Double) metric.getMetricValue());
+            if (metric.getDataType().equals(DataType.BOOLEAN))
+                size += CodedOutputStream.computeBoolSizeNoTag((Boolean) metric.getMetricValue());
+        }
+
+        return size;
+    }
+
+    private static void write(Collection<Metric> metrics, CodedOutputStream out) throws IOException {
+        out.writeRawVarint32(metrics.size());
+        for (Metric metric : metrics) {
+            write(metric, out);
+        }
+    }
+
+    private static void write(Metric metric, CodedOutputStream out) throws IOException {
+
+        out.writeStringNoTag(metric.getLocator().getTenantId());
+        out.writeStringNoTag(metric.getLocator().getMetricName());
+        out.writeStringNoTag(metric.getDataType().toString());
+        out.writeRawVarint64(metric.getCollectionTime());
+        out.writeRawVarint32(metric.getTtlInSeconds());
+        out.writeStringNoTag(metric.getUnit());
+        if (metric.getDataType().equals(DataType.STRING))
+            out.writeStringNoTag((String) metric.getMetricValue());
+        else if (metric.getDataType().equals(DataType.INT))
+            out.writeRawVarint32((Integer)metric.getMetricValue());
+        else if (metric.getDataType().equals(DataType.LONG))
+            out.writeRawVarint64((Long)metric.getMetricValue());
+        else if (metric.getDataType().equals(DataType.DOUBLE))
+            out.writeDoubleNoTag((Double) metric.getMetricValue());
+        else if (metric.getDataType().equals(DataType.BOOLEAN))
+            out.writeBoolNoTag((Boolean) metric.getMetricValue());
+    }
+}
@@ -25,12 +25,13 @@ import com.google.common.util.concurrent.MoreExecutors;
 import com.rackspacecloud.blueflood.concurrent.FunctionWithThreadPool;
 import com.rackspacecloud.blueflood.io.IMetricsWriter;
 import com.rackspacecloud.blueflood.service.IngestionContext;
+import com.rackspacecloud.blueflood.service.ShardUpdates;
+import com.rackspacecloud.blueflood.service.WriteBehindRollupBuffer;
 import com.rackspacecloud.blueflood.types.IMetric;
 import com.rackspacecloud.blueflood.types.Metric;
 import com.rackspacecloud.blueflood.types.PreaggregatedMetric;
 import com.rackspacecloud.blueflood.utils.Metrics;
 import com.rackspacecloud.blueflood.utils.TimeValue;
-import com.rackspacecloud.blueflood.utils.Util;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -51,15 +52,22 @@ public class BatchWriter extends FunctionWithThreadPool<List<List<IMetric>>, Lis
     private final TimeValue timeout;
     private final Counter bufferedMetrics;
     private final IngestionContext context;
+    private final WriteBehindRollupBuffer rollupBuffer;
     
     private final IMetricsWriter writer;
     
     public BatchWriter(ThreadPoolExecutor threadPool, IMetricsWriter writer, TimeValue timeout, Counter bufferedMetrics, IngestionContext context) {
+        this(threadPool, writer, timeout, bufferedMetrics, context, null);
+    }
+
+    public BatchWriter(ThreadPoolExecutor threadPool, IMetricsWriter writer, TimeValue timeout, Counter bufferedMetrics,
+                       IngestionContext context, WriteBehindRollupBuffer rollupBuffer) {
         super(threadPool);
         this.writer = writer;
         this.timeout = timeout;
         this.bufferedMetrics = bufferedMetrics;
         this.context = context;
+        this.rollupBuffer = rollupBuffer;
     }
     
     @Override
@@ -95,12 +103,18 @@ public class BatchWriter extends FunctionWithThreadPool<List<List<IMetric>>, Lis
                         if (preagMetrics.size() > 0)
                             writer.insertPreaggreatedMetrics(preagMetrics);
 
+                        // before the slots are marked dirty; see WriteBehindRollupBuffer.
+                        if (rollupBuffer != null)
+                            rollupBuffer.add(batch);
+
                         final Timer.Context dirtyTimerCtx = slotUpdateTimer.time();
                         try {
                             // marks this shard dirty, so rollup nodes know to pick up the work.
+                            final ShardUpdates updates = new ShardUpdates();
                             for (IMetric metric : batch) {
-                                context.update(metric.getCollectionTime(), Util.getShard(metric.getLocator().toString()));
+                                updates.update(metric.getCollectionTime(), metric.getLocator().getShard());
                             }
+                            updates.flush(context);
                         } finally {
                             dirtyTimerCtx.stop();
                         }
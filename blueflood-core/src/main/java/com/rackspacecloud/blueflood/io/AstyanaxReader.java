@@ -34,6 +34,8 @@ import com.netflix.astyanax.shallows.EmptyColumnList;
 import com.netflix.astyanax.util.RangeBuilder;
 import com.rackspacecloud.blueflood.cache.MetadataCache;
 import com.rackspacecloud.blueflood.exceptions.CacheException;
+import com.rackspacecloud.blueflood.io.serializers.FullResBlockSerializer;
+import com.rackspacecloud.blueflood.io.serializers.NumericColumnDecoder;
 import com.rackspacecloud.blueflood.io.serializers.NumericSerializer;
 import com.rackspacecloud.blueflood.io.serializers.StringMetadataSerializer;
 import com.rackspacecloud.blueflood.outputs.formats.MetricData;
@@ -45,6 +47,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class AstyanaxReader extends AstyanaxIO {
@@ -224,6 +227,17 @@ public class AstyanaxReader extends AstyanaxIO {
 
     private Map<Locator, ColumnList<Long>> getColumnsFromDB(List<Locator> locators, ColumnFamily<Locator, Long> CF,
                                                             Range range) {
+        try {
+            return readColumnsFromDB(locators, CF, range);
+        } catch (ConnectionException e) {
+            // already logged; read as no data.
+            return new HashMap<Locator, ColumnList<Long>>();
+        }
+    }
+
+    /** Same as {@link #getColumnsFromDB(List, ColumnFamily, Range)}, but a failed query is thrown, not read as no data. */
+    Map<Locator, ColumnList<Long>> readColumnsFromDB(List<Locator> locators, ColumnFamily<Locator, Long> CF,
+                                                             Range range) throws ConnectionException {
         if (range.getStart() > range.getStop()) {
             throw new RuntimeException(String.format("Invalid rollup range: ", range.toString()));
         }
@@ -253,6 +267,9 @@ public class AstyanaxReader extends AstyanaxIO {
                 else { Instrumentation.markReadError(e); }
             }
             log.warn((isBatch ? "Batch " : "") + " read query failed for column family " + CF.getName(), e);
+            if (!(e instanceof NotFoundException)) {
+                throw e;
+            }
         } finally {
             ctx.stop();
         }
@@ -263,39 +280,201 @@ public class AstyanaxReader extends AstyanaxIO {
     // todo: this could be the basis for every rollup read method.
     // todo: A better interface may be to pass the serializer in instead of the class type.
     public <T extends Rollup> Points<T> getDataToRoll(Class<T> type, Locator locator, Range range, ColumnFamily<Locator, Long> cf) throws IOException {
-        AbstractSerializer serializer = NumericSerializer.serializerFor(type);
+        if (isFullResBlockRead(cf)) {
+            final ColumnarPoints points;
+            try {
+                points = getFullResPointsFromDB(Collections.singletonList(locator), range).get(locator);
+            } catch (ConnectionException ex) {
+                throw new IOException("Could not read full resolution blocks for " + locator + " (" + range + ")", ex);
+            }
+            if (points == null) {
+                throw new IOException("Problem deserializing full resolution blocks for " + locator + " (" + range + ")");
+            }
+            return (Points<T>) points;
+        }
+        ColumnList<Long> cols = getColumnsFromDB(locator, cf, range);
+        try {
+            return pointsFromColumns(cols, rollupReadSerializer(type, cf));
+        } catch (RuntimeException ex) {
+            log.error("Problem deserializing data for " + locator + " (" + range + ") from " + cf.getName(), ex);
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Reads the data to roll for many locators of the same rollup type with a single key slice. Locators without
+     * data map to empty points; locators whose data could not be deserialized are logged and left out of the map.
+     *
+     * @throws IOException if the query fails, so the caller can retry rather than roll up no data.
+     */
+    public <T extends Rollup> Map<Locator, Points<T>> getDataToRoll(Class<T> type, List<Locator> locators, Range range, ColumnFamily<Locator, Long> cf) throws IOException {
+        try {
+            if (isFullResBlockRead(cf)) {
+                return (Map) getFullResPointsFromDB(locators, range);
+            }
+            return this.<T>readDataToRoll(locators, range, cf, rollupReadSerializer(type, cf));
+        } catch (ConnectionException ex) {
+            throw new IOException("Could not read " + locators.size() + " locators (" + range + ") from " + cf.getName(), ex);
+        }
+    }
+
+    private <T extends Rollup> Map<Locator, Points<T>> readDataToRoll(List<Locator> locators, Range range,
+                                                                     ColumnFamily<Locator, Long> cf,
+                                                                     AbstractSerializer serializer) throws ConnectionException {
+        final Map<Locator, ColumnList<Long>> rows = readColumnsFromDB(locators, cf, range);
+        final Map<Locator, Points<T>> results = new HashMap<Locator, Points<T>>(locators.size());
+        for (Locator locator : locators) {
+            final ColumnList<Long> cols = rows.get(locator);
+            try {
+                results.put(locator, cols == null ? new Points<T>() : this.<T>pointsFromColumns(cols, serializer));
+            } catch (RuntimeException ex) {
+                log.error("Problem deserializing data for " + locator + " (" + range + ") from " + cf.getName(), ex);
+            }
+        }
+        return results;
+    }
+
+    private static boolean isFullResBlockRead(ColumnFamily<Locator, Long> cf) {
+        return cf == CassandraModel.CF_METRICS_FULL && CassandraModel.isFullResBlockStorage();
+    }
+
+    /**
+     * Reads full resolution numeric points stored in blocks. Points older than a locator's first block in the range
+     * are read from metrics_full, where they were written before blocks were turned on; so is the whole range of a
+     * locator whose blocks could not be decoded. Locators without data map to empty points; locators whose
+     * metrics_full data could not be deserialized either are logged and left out of the map.
+     */
+    private Map<Locator, ColumnarPoints> getFullResPointsFromDB(List<Locator> locators, Range range) throws ConnectionException {
+        final long firstWindow = FullResBlockSerializer.blockStart(range.getStart());
+        final long lastWindow = FullResBlockSerializer.blockStart(range.getStop());
+        final Range blockRange = new Range(FullResBlockSerializer.firstColumn(firstWindow),
+                FullResBlockSerializer.lastColumn(lastWindow));
+        final Map<Locator, ColumnList<Long>> blockRows =
+                readColumnsFromDB(locators, CassandraModel.CF_METRICS_FULL_BLOCKS, blockRange);
+        final Map<Locator, ColumnarPoints> blockPoints = new HashMap<Locator, ColumnarPoints>(locators.size());
+        // the last timestamp each locator needs from metrics_full.
+        final Map<Locator, Long> fullUntil = new HashMap<Locator, Long>(locators.size());
+        long readUntil = range.getStart() - 1;
+
+        for (Locator locator : locators) {
+            final ColumnList<Long> blocks = blockRows.get(locator);
+            long until = range.getStop();
+            if (blocks != null && !blocks.isEmpty()) {
+                try {
+                    final ColumnarPoints points = new ColumnarPoints(blocks.size() * 8);
+                    long first = Long.MAX_VALUE;
+                    for (Column<Long> block : blocks) {
+                        final ByteBuffer value = block.getByteBufferValue();
+                        FullResBlockSerializer.decode(value, points, range.getStart(), range.getStop());
+                        first = Math.min(first, FullResBlockSerializer.firstTimestamp(value));
+                    }
+                    blockPoints.put(locator, points);
+                    until = first - 1;
+                } catch (RuntimeException ex) {
+                    log.error("Problem deserializing data for " + locator + " (" + range + ") from "
+                            + CassandraModel.CF_METRICS_FULL_BLOCKS.getName() + "; reading "
+                            + CassandraModel.CF_METRICS_FULL.getName() + " instead", ex);
+                }
+            }
+            if (until >= range.getStart()) {
+                fullUntil.put(locator, until);
+                readUntil = Math.max(readUntil, until);
+            }
+        }
+
+        final Map<Locator, ColumnList<Long>> rows = fullUntil.isEmpty()
+                ? Collections.<Locator, ColumnList<Long>>emptyMap()
+                : readColumnsFromDB(new ArrayList<Locator>(fullUntil.keySet()), CassandraModel.CF_METRICS_FULL,
+                        new Range(range.getStart(), readUntil));
+        final Map<Locator, ColumnarPoints> results = new HashMap<Locator, ColumnarPoints>(locators.size());
+        final NumericColumnDecoder decoder = new NumericColumnDecoder();
+        for (Locator locator : locators) {
+            final ColumnList<Long> cols = rows.get(locator);
+            final ColumnarPoints blocked = blockPoints.get(locator);
+            if (cols == null || cols.isEmpty()) {
+                results.put(locator, blocked == null ? new ColumnarPoints() : blocked);
+                continue;
+            }
+            final long until = fullUntil.get(locator);
+            final ColumnarPoints points = new ColumnarPoints(cols.size() + (blocked == null ? 0 : blocked.size()));
+            try {
+                for (Column<Long> col : cols) {
+                    if (col.getName() > until) {
+                        break;
+                    }
+                    decoder.decodeFullRes(col.getByteBufferValue(), col.getName(), points);
+                }
+            } catch (RuntimeException ex) {
+                log.error("Problem deserializing data for " + locator + " (" + range + ") from "
+                        + CassandraModel.CF_METRICS_FULL.getName(), ex);
+                continue;
+            }
+            // every point from metrics_full is older than the blocks, so appending keeps them in order.
+            for (int i = 0; blocked != null && i < blocked.size(); i++) {
+                points.addBits(blocked.getTimestamp(i), blocked.getBits(i), blocked.getType(i));
+            }
+            results.put(locator, points);
+        }
+        return results;
+    }
+
+    // queries read a failed query as no data, the same as getColumnsFromDB.
+    private Map<Locator, ColumnarPoints> getFullResPointsForQuery(List<Locator> locators, Range range) {
+        try {
+            return getFullResPointsFromDB(locators, range);
+        } catch (ConnectionException e) {
+            // already logged.
+            return new HashMap<Locator, ColumnarPoints>();
+        }
+    }
+
+    private <T extends Rollup> Points<T> pointsFromColumns(ColumnList<Long> cols, AbstractSerializer serializer) {
+        if (serializer == NumericSerializer.simpleNumberSerializer) {
+            final ColumnarPoints columns = new ColumnarPoints(cols.size());
+            final NumericColumnDecoder decoder = new NumericColumnDecoder();
+            for (Column<Long> col : cols) {
+                decoder.decodeFullRes(col.getByteBufferValue(), col.getName(), columns);
+            }
+            return (Points<T>) columns;
+        }
+        Points<T> points = new Points<T>();
+        if (serializer == NumericSerializer.serializerFor(BasicRollup.class)) {
+            final NumericColumnDecoder decoder = new NumericColumnDecoder();
+            for (Column<Long> col : cols) {
+                final BasicRollup rollup = decoder.decodeRollup(col.getByteBufferValue(), NumericColumnDecoder.ALL_STATS)
+                        .toBasicRollup();
+                points.add(new Points.Point<T>(col.getName(), (T) rollup));
+            }
+            return points;
+        }
+        for (Column<Long> col : cols) {
+            points.add(new Points.Point<T>(col.getName(), (T)col.getValue(serializer)));
+        }
+        return points;
+    }
+
+    private static AbstractSerializer rollupReadSerializer(Class<? extends Rollup> type, ColumnFamily<Locator, Long> cf) {
         // special cases. :( the problem here is that the normal full res serializer returns Number instances instead of
         // SimpleNumber instances.
         // todo: this logic will only become more complicated. It needs to be in its own method and the serializer needs
         // to be known before we ever get to this method (see above comment).
         if (cf == CassandraModel.CF_METRICS_FULL) {
-            serializer = NumericSerializer.simpleNumberSerializer;
+            return NumericSerializer.simpleNumberSerializer;
         } else if ( cf == CassandraModel.CF_METRICS_PREAGGREGATED_FULL) {
             // consider a method for this.  getSerializer(CF, TYPE);
             if (type.equals(TimerRollup.class)) {
-                serializer = NumericSerializer.timerRollupInstance;
+                return NumericSerializer.timerRollupInstance;
             } else if (type.equals(SetRollup.class)) {
-                serializer = NumericSerializer.setRollupInstance;
+                return NumericSerializer.setRollupInstance;
             } else if (type.equals(GaugeRollup.class)) {
-                serializer = NumericSerializer.gaugeRollupInstance;
+                return NumericSerializer.gaugeRollupInstance;
             } else if (type.equals(CounterRollup.class)) {
-                serializer = NumericSerializer.CounterRollupInstance;
+                return NumericSerializer.CounterRollupInstance;
             } else {
-                serializer = NumericSerializer.simpleNumberSerializer;
-            }
-        }
-        
-        ColumnList<Long> cols = getColumnsFromDB(locator, cf, range);
-        Points<T> points = new Points<T>();
-        try {
-            for (Column<Long> col : cols) {
-                points.add(new Points.Point<T>(col.getName(), (T)col.getValue(serializer)));
+                return NumericSerializer.simpleNumberSerializer;
             }
-        } catch (RuntimeException ex) {
-            log.error("Problem deserializing data for " + locator + " (" + range + ") from " + cf.getName(), ex);
-            throw new IOException(ex);
         }
-        return points;
+        return NumericSerializer.serializerFor(type);
     }
 
     public static String getUnitString(Locator locator) {
@@ -381,6 +560,16 @@ public class AstyanaxReader extends AstyanaxIO {
 
         for (ColumnFamily CF : locatorsByCF.keySet()) {
             List<Locator> locs = locatorsByCF.get(CF);
+            if (isFullResBlockRead(CF)) {
+                final Map<Locator, ColumnarPoints> points = getFullResPointsForQuery(locs, range);
+                for (Locator loc : points.keySet()) {
+                    MetricData data = transformPointsToMetricData(loc, points.get(loc));
+                    if (data != null) {
+                        results.put(loc, data);
+                    }
+                }
+                continue;
+            }
             Map<Locator, ColumnList<Long>> metrics = getColumnsFromDB(locs, CF, range);
             // transform columns to MetricData
             for (Locator loc : metrics.keySet()) {
@@ -442,16 +631,32 @@ public class AstyanaxReader extends AstyanaxIO {
     private MetricData getNumericMetricDataForRange(Locator locator, Range range, Granularity gran, RollupType rollupType, DataType dataType) {
         ColumnFamily<Locator, Long> CF = CassandraModel.getColumnFamily(rollupType, dataType, gran);
 
-        Points points = new Points();
+        if (isFullResBlockRead(CF)) {
+            ColumnarPoints points = getFullResPointsForQuery(Collections.singletonList(locator), range).get(locator);
+            return new MetricData(points == null ? new ColumnarPoints() : points, getUnitString(locator), MetricData.Type.NUMBER);
+        }
+
         ColumnList<Long> results = getColumnsFromDB(locator, CF, range);
         
         // todo: this will not work when we cannot derive data type from granularity. we will need to know what kind of
         // data we are asking for and use a specific reader method.
         AbstractSerializer serializer = NumericSerializer.serializerFor(RollupType.classOf(rollupType, gran));
+        Points points = serializer instanceof NumericSerializer.RawSerializer
+                ? new ColumnarPoints(results.size())
+                : new Points();
 
+        final NumericColumnDecoder decoder = new NumericColumnDecoder();
         for (Column<Long> column : results) {
             try {
-                points.add(pointFromColumn(column, gran, serializer));
+                if (points instanceof ColumnarPoints) {
+                    decoder.decodeFullRes(column.getByteBufferValue(), column.getName(), (ColumnarPoints) points);
+                } else if (serializer == NumericSerializer.serializerFor(BasicRollup.class)) {
+                    points.add(new Points.Point(column.getName(),
+                            decoder.decodeRollup(column.getByteBufferValue(), NumericColumnDecoder.ALL_STATS)
+                                    .toBasicRollup()));
+                } else {
+                    points.add(pointFromColumn(column, gran, serializer));
+                }
             } catch (RuntimeException ex) {
                 log.error("Problem deserializing data for " + locator + " (" + range + ") from " + CF.getName(), ex);
             }
@@ -488,6 +693,16 @@ public class AstyanaxReader extends AstyanaxIO {
         }
     }
 
+    private MetricData transformPointsToMetricData(Locator locator, Points points) {
+        try {
+            RollupType rollupType = RollupType.fromString(metaCache.get(locator, rollupTypeCacheKey));
+            DataType dataType = new DataType(metaCache.get(locator, dataTypeCacheKey));
+            return new MetricData(points, getUnitString(locator), MetricData.Type.from(rollupType, dataType));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     private Points getPointsFromColumns(ColumnList<Long> columnList, RollupType rollupType,
                                         DataType dataType, Granularity gran) {
         Points points = new Points();
@@ -19,8 +19,6 @@ package com.rackspacecloud.blueflood.io;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.MetricRegistry;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Table;
@@ -28,10 +26,15 @@ import com.netflix.astyanax.ColumnListMutation;
 import com.netflix.astyanax.Keyspace;
 import com.netflix.astyanax.MutationBatch;
 import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
+import com.netflix.astyanax.model.Column;
 import com.netflix.astyanax.model.ColumnFamily;
+import com.netflix.astyanax.model.ColumnList;
 import com.netflix.astyanax.serializers.AbstractSerializer;
+import com.rackspacecloud.blueflood.cache.RotatingLocatorFilter;
 import com.rackspacecloud.blueflood.cache.SafetyTtlProvider;
 import com.rackspacecloud.blueflood.cache.TenantTtlProvider;
+import com.rackspacecloud.blueflood.exceptions.SerializationException;
+import com.rackspacecloud.blueflood.io.serializers.FullResBlockSerializer;
 import com.rackspacecloud.blueflood.io.serializers.NumericSerializer;
 import com.rackspacecloud.blueflood.io.serializers.StringMetadataSerializer;
 import com.rackspacecloud.blueflood.rollup.Granularity;
@@ -39,10 +42,10 @@ import com.rackspacecloud.blueflood.service.*;
 import com.rackspacecloud.blueflood.types.*;
 import com.rackspacecloud.blueflood.utils.Metrics;
 import com.rackspacecloud.blueflood.utils.TimeValue;
-import com.rackspacecloud.blueflood.utils.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
@@ -67,19 +70,49 @@ public class AstyanaxWriter extends AstyanaxIO {
     private static TenantTtlProvider TTL_PROVIDER = SafetyTtlProvider.getInstance();
     
 
-    // this collection is used to reduce the number of locators that get written.  Simply, if a locator has been
-    // seen within the last 10 minutes, don't bother.
-    private static final Cache<String, Boolean> insertedLocators = CacheBuilder.newBuilder().expireAfterAccess(10,
-            TimeUnit.MINUTES).concurrencyLevel(16).build();
+    // this filter is used to reduce the number of locators that get written.  Simply, if a locator has been
+    // written within the last few rotation periods, don't bother.
+    private static final RotatingLocatorFilter insertedLocators = createLocatorFilter();
+
+    private volatile FullResBlockRepacker blockRepacker;
 
     static {
         Metrics.getRegistry().register(MetricRegistry.name(AstyanaxWriter.class, "Current Locators Count"),
                 new Gauge<Long>() {
                     @Override
                     public Long getValue() {
-                        return insertedLocators.size();
+                        return insertedLocators.approximateCount();
+                    }
+                });
+        Metrics.getRegistry().register(MetricRegistry.name(AstyanaxWriter.class, "Locator Filter Size Bytes"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return insertedLocators.getSizeInBytes();
                     }
                 });
+        Metrics.getRegistry().register(MetricRegistry.name(AstyanaxWriter.class, "Locator Filter False Positive Rate"),
+                new Gauge<Double>() {
+                    @Override
+                    public Double getValue() {
+                        return insertedLocators.expectedFalsePositiveRate();
+                    }
+                });
+    }
+
+    private static RotatingLocatorFilter createLocatorFilter() {
+        final Configuration config = Configuration.getInstance();
+        final int generations = config.getIntegerProperty(CoreConfig.LOCATOR_FILTER_GENERATIONS);
+        long rotationMinutes = config.getLongProperty(CoreConfig.LOCATOR_FILTER_ROTATION_PERIOD_MINS);
+        if (TimeUnit.MINUTES.toSeconds(rotationMinutes * generations) >= LOCATOR_TTL) {
+            rotationMinutes = TimeUnit.SECONDS.toMinutes(LOCATOR_TTL) / (generations + 1);
+            log.warn("Locator filter would outlive the locator TTL; rotating every {} minutes instead", rotationMinutes);
+        }
+        return new RotatingLocatorFilter(
+                config.getIntegerProperty(CoreConfig.LOCATOR_FILTER_EXPECTED_LOCATORS),
+                config.getFloatProperty(CoreConfig.LOCATOR_FILTER_FALSE_POSITIVE_RATE),
+                generations,
+                new TimeValue(rotationMinutes, TimeUnit.MINUTES));
     }
 
     private boolean shouldPersistStringMetric(Metric metric) {
@@ -118,6 +151,7 @@ public class AstyanaxWriter extends AstyanaxIO {
 
         try {
             MutationBatch mutationBatch = keyspace.prepareMutationBatch();
+            final FullResBlocks blocks = CassandraModel.isFullResBlockStorage() ? new FullResBlocks() : null;
             for (Metric metric: metrics) {
                 final Locator locator = metric.getLocator();
 
@@ -139,9 +173,16 @@ public class AstyanaxWriter extends AstyanaxIO {
                     AstyanaxWriter.setLocatorCurrent(locator);
                 }
 
-                insertMetric(metric, mutationBatch);
+                if (blocks != null && !isString && !isBoolean) {
+                    blocks.add(metric);
+                } else {
+                    insertMetric(metric, mutationBatch);
+                }
                 Instrumentation.markFullResMetricWritten();
             }
+            if (blocks != null) {
+                blocks.insert(mutationBatch);
+            }
             // insert it
             try {
                 mutationBatch.execute();
@@ -150,6 +191,10 @@ public class AstyanaxWriter extends AstyanaxIO {
                 log.error("Connection exception during insertFull", e);
                 throw e;
             }
+            final FullResBlockRepacker repacker = blockRepacker;
+            if (blocks != null && repacker != null) {
+                blocks.written(repacker);
+            }
         } finally {
             ctx.stop();
         }
@@ -157,7 +202,7 @@ public class AstyanaxWriter extends AstyanaxIO {
 
     // numeric only!
     private final void insertLocator(Locator locator, MutationBatch mutationBatch) {
-        mutationBatch.withRow(CassandraModel.CF_METRICS_LOCATOR, (long) Util.getShard(locator.toString()))
+        mutationBatch.withRow(CassandraModel.CF_METRICS_LOCATOR, (long) locator.getShard())
                 .putEmptyColumn(locator, LOCATOR_TTL);
     }
 
@@ -188,6 +233,109 @@ public class AstyanaxWriter extends AstyanaxIO {
         }
     }
 
+    // numeric points of one insertFull call, packed into a block per locator and window. a batch rarely holds more
+    // than a point or two of a locator; the FullResBlockRepacker repacks closed windows into a single block each.
+    private static class FullResBlocks {
+        private final Map<Locator, ColumnarPoints> points = new HashMap<Locator, ColumnarPoints>();
+        private final Map<Locator, Integer> ttls = new HashMap<Locator, Integer>();
+
+        private void add(Metric metric) {
+            final Locator locator = metric.getLocator();
+            ColumnarPoints locatorPoints = points.get(locator);
+            if (locatorPoints == null) {
+                locatorPoints = new ColumnarPoints(1);
+                points.put(locator, locatorPoints);
+            }
+            final Object value = metric.getMetricValue();
+            final long timestamp = metric.getCollectionTime();
+            if (value instanceof Integer) {
+                locatorPoints.addBits(timestamp, (Integer) value, SimpleNumber.Type.INTEGER);
+            } else if (value instanceof Long) {
+                locatorPoints.add(timestamp, (Long) value);
+            } else if (value instanceof Double || value instanceof Float) {
+                locatorPoints.add(timestamp, ((Number) value).doubleValue());
+            } else {
+                log.error("Error serializing full resolution data", new SerializationException(
+                        String.format("Cannot serialize %s", value.getClass().getName())));
+                return;
+            }
+            final Integer ttl = ttls.get(locator);
+            if (ttl == null || ttl < metric.getTtlInSeconds()) {
+                ttls.put(locator, metric.getTtlInSeconds());
+            }
+        }
+
+        private void insert(MutationBatch mutationBatch) {
+            final long sequence = FullResBlockSerializer.nextSequence();
+            for (Map.Entry<Locator, ColumnarPoints> entry : points.entrySet()) {
+                if (entry.getValue().isEmpty()) {
+                    continue;
+                }
+                final ColumnListMutation<Long> row = mutationBatch.withRow(CassandraModel.CF_METRICS_FULL_BLOCKS, entry.getKey());
+                final int ttl = ttls.get(entry.getKey());
+                for (Map.Entry<Long, ByteBuffer> block : FullResBlockSerializer.encodeBlocks(entry.getValue(), sequence).entrySet()) {
+                    row.putColumn(block.getKey(), block.getValue(), ttl);
+                }
+            }
+        }
+
+        private void written(FullResBlockRepacker repacker) {
+            for (Map.Entry<Locator, ColumnarPoints> entry : points.entrySet()) {
+                final ColumnarPoints locatorPoints = entry.getValue();
+                long window = Long.MIN_VALUE;
+                for (int i = 0; i < locatorPoints.size(); i++) {
+                    final long pointWindow = FullResBlockSerializer.blockStart(locatorPoints.getTimestamp(i));
+                    if (pointWindow != window) {
+                        window = pointWindow;
+                        repacker.written(entry.getKey(), window, ttls.get(entry.getKey()));
+                    }
+                }
+            }
+        }
+    }
+
+    /** Has windows written to by {@link #insertFull} repacked once they close; null stops it. */
+    public void setFullResBlockRepacker(FullResBlockRepacker repacker) {
+        blockRepacker = repacker;
+    }
+
+    /**
+     * Rewrites the blocks each locator has in the window starting at <code>window</code> as a single block, and
+     * deletes the blocks it read. Blocks written meanwhile are left alone; so are rows whose blocks cannot be decoded,
+     * which are logged. The new block sorts as written now, after the blocks it replaces.
+     */
+    public void repackFullResBlocks(long window, Map<Locator, Integer> ttls) throws ConnectionException {
+        final Range range = new Range(FullResBlockSerializer.firstColumn(window), FullResBlockSerializer.lastColumn(window));
+        final long sequence = FullResBlockSerializer.nextSequence();
+        final Map<Locator, ColumnList<Long>> rows = AstyanaxReader.getInstance().readColumnsFromDB(
+                new ArrayList<Locator>(ttls.keySet()), CassandraModel.CF_METRICS_FULL_BLOCKS, range);
+        final MutationBatch batch = keyspace.prepareMutationBatch();
+        for (Map.Entry<Locator, ColumnList<Long>> row : rows.entrySet()) {
+            final ColumnList<Long> blocks = row.getValue();
+            if (blocks.size() < 2) {
+                continue;
+            }
+            final ColumnarPoints points = new ColumnarPoints(blocks.size() * 2);
+            try {
+                for (Column<Long> block : blocks) {
+                    FullResBlockSerializer.decode(block.getByteBufferValue(), points);
+                }
+            } catch (RuntimeException ex) {
+                log.error("Could not repack the blocks of " + row.getKey() + " at " + window, ex);
+                continue;
+            }
+            final ColumnListMutation<Long> mutation = batch.withRow(CassandraModel.CF_METRICS_FULL_BLOCKS, row.getKey());
+            mutation.putColumn(FullResBlockSerializer.columnName(window, sequence),
+                    FullResBlockSerializer.encode(points, 0, points.size()), ttls.get(row.getKey()));
+            for (Column<Long> block : blocks) {
+                mutation.deleteColumn(block.getName());
+            }
+        }
+        if (!batch.isEmpty()) {
+            batch.execute();
+        }
+    }
+
     public void writeMetadataValue(Locator locator, String metaKey, String metaValue) throws ConnectionException {
         Timer.Context ctx = Instrumentation.getWriteTimerContext(CassandraModel.CF_METRIC_METADATA);
         try {
@@ -327,11 +475,11 @@ public class AstyanaxWriter extends AstyanaxIO {
     }
 
     public static boolean isLocatorCurrent(Locator loc) {
-        return insertedLocators.getIfPresent(loc.toString()) != null;
+        return insertedLocators.mightContain(loc);
     }
 
     private static void setLocatorCurrent(Locator loc) {
-        insertedLocators.put(loc.toString(), Boolean.TRUE);
+        insertedLocators.put(loc);
     }
 
     public void insertRollups(ArrayList<SingleRollupWriteContext> writeContexts) throws ConnectionException {
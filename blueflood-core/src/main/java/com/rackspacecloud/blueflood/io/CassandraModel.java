@@ -30,6 +30,8 @@ public class CassandraModel {
     */
 
     public static final MetricColumnFamily CF_METRICS_FULL = new MetricColumnFamily("metrics_full", new TimeValue(1, TimeUnit.DAYS));
+    // full resolution numeric points packed by FullResBlockSerializer, when FULL_RES_BLOCK_STORAGE is on.
+    public static final MetricColumnFamily CF_METRICS_FULL_BLOCKS = new MetricColumnFamily("metrics_full_blocks", new TimeValue(1, TimeUnit.DAYS));
     public static final MetricColumnFamily CF_METRICS_5M = new MetricColumnFamily("metrics_5m", new TimeValue(2, TimeUnit.DAYS));
     public static final MetricColumnFamily CF_METRICS_20M = new MetricColumnFamily("metrics_20m", new TimeValue(4, TimeUnit.DAYS));
     public static final MetricColumnFamily CF_METRICS_60M = new MetricColumnFamily("metrics_60m", new TimeValue(31, TimeUnit.DAYS));
@@ -62,7 +64,7 @@ public class CassandraModel {
             SlotStateSerializer.get());
 
     private static final MetricColumnFamily[] METRIC_COLUMN_FAMILES = new MetricColumnFamily[] {
-            CF_METRICS_FULL, CF_METRICS_5M, CF_METRICS_20M, CF_METRICS_60M, CF_METRICS_240M, CF_METRICS_1440M,
+            CF_METRICS_FULL, CF_METRICS_FULL_BLOCKS, CF_METRICS_5M, CF_METRICS_20M, CF_METRICS_60M, CF_METRICS_240M, CF_METRICS_1440M,
             CF_METRICS_PREAGGREGATED_FULL, CF_METRICS_PREAGGREGATED_5M, CF_METRICS_PREAGGREGATED_20M,
             CF_METRICS_PREAGGREGATED_60M, CF_METRICS_PREAGGREGATED_240M, CF_METRICS_PREAGGREGATED_1440M,
             CF_METRICS_HIST_FULL, CF_METRICS_HIST_5M, CF_METRICS_HIST_20M, CF_METRICS_HIST_60M,
@@ -76,6 +78,9 @@ public class CassandraModel {
 
     private static final Collection<ColumnFamily> ALL_COLUMN_FAMILIES;
 
+    private static final boolean FULL_RES_BLOCK_STORAGE =
+            Configuration.getInstance().getBooleanProperty(CoreConfig.FULL_RES_BLOCK_STORAGE);
+
     private static final ColumnFamilyMapper CF_NAME_TO_CF;
     private static final ColumnFamilyMapper PREAG_GRAN_TO_CF;
     private static final ColumnFamilyMapper HIST_GRAN_TO_CF;
@@ -109,6 +114,7 @@ public class CassandraModel {
 
         Map<ColumnFamily<Locator, Long>, Granularity> cfToGranMap = new HashMap<ColumnFamily<Locator, Long>, Granularity>();
         cfToGranMap.put(CF_METRICS_FULL, Granularity.FULL);
+        cfToGranMap.put(CF_METRICS_FULL_BLOCKS, Granularity.FULL);
         cfToGranMap.put(CF_METRICS_STRING, Granularity.FULL);
         cfToGranMap.put(CF_METRICS_5M, Granularity.MIN_5);
         cfToGranMap.put(CF_METRICS_20M, Granularity.MIN_20);
@@ -197,6 +203,15 @@ public class CassandraModel {
         };
     }
 
+    /**
+     * Whether full resolution numeric points are written to {@link #CF_METRICS_FULL_BLOCKS} rather than
+     * {@link #CF_METRICS_FULL}. Either way, {@link #CF_METRICS_FULL} is the column family that names full resolution
+     * data to the rest of blueflood; the writer and reader pick the layout.
+     */
+    public static boolean isFullResBlockStorage() {
+        return FULL_RES_BLOCK_STORAGE;
+    }
+
     public static Collection<ColumnFamily> getAllColumnFamilies() {
         return ALL_COLUMN_FAMILIES;
     }
@@ -6,4 +6,6 @@ import java.util.List;
 public interface DiscoveryIO {
     public void insertDiscovery(List<IMetric> metrics) throws Exception;
     public List<SearchResult> search(String tenant, String query) throws Exception;
+    /** Exact-name lookup of several metrics of one tenant in a single round trip. */
+    public List<SearchResult> search(String tenant, List<String> metricNames) throws Exception;
 }
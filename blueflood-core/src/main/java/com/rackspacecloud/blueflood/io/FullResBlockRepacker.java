@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io;
+
+import com.codahale.metrics.Meter;
+import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
+import com.rackspacecloud.blueflood.io.serializers.FullResBlockSerializer;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Repacks full resolution blocks written by {@link AstyanaxWriter#insertFull} once their window has closed. Each
+ * insertFull call writes its own small block per locator and window; after FULL_RES_BLOCK_REPACK_DELAY_MILLIS past
+ * the end of a window, the blocks every locator written to in it has are replaced by a single one.
+ * <p/>
+ * Only windows written to by this process are repacked. A point arriving after its window was repacked marks the
+ * window written again, so it is repacked again later. Failed repacks are retried on the next pass.
+ * <p/>
+ * At most FULL_RES_BLOCK_REPACK_MAX_LOCATORS locators and windows are tracked at a time; the windows of locators
+ * written past that are left as they are, which costs space but loses nothing. Nodes need not coordinate: a repack
+ * only deletes the blocks it read and wrote into its new block, so two nodes repacking the same row at once leave
+ * the same points twice rather than lose any.
+ */
+public class FullResBlockRepacker {
+    private static final Logger log = LoggerFactory.getLogger(FullResBlockRepacker.class);
+    private static final int LOCATORS_PER_BATCH = 100;
+
+    private final Meter repackedRows = Metrics.meter(FullResBlockRepacker.class, "Rows Repacked");
+    private final Meter failedBatches = Metrics.meter(FullResBlockRepacker.class, "Failed Batches");
+    private final Meter untracked = Metrics.meter(FullResBlockRepacker.class, "Locators Not Tracked");
+
+    private final long delayMillis;
+    private final int maxLocators;
+    // entries of the maps in written, give or take writes racing with the removal of their window.
+    private final AtomicInteger trackedLocators = new AtomicInteger();
+    // window start -> locators written to in it -> the largest TTL they were written with.
+    private final ConcurrentMap<Long, ConcurrentMap<Locator, Integer>> written =
+            new ConcurrentHashMap<Long, ConcurrentMap<Locator, Integer>>();
+
+    private ScheduledThreadPoolExecutor repacker;
+
+    public FullResBlockRepacker() {
+        this(Configuration.getInstance().getLongProperty(CoreConfig.FULL_RES_BLOCK_REPACK_DELAY_MILLIS),
+                Configuration.getInstance().getIntegerProperty(CoreConfig.FULL_RES_BLOCK_REPACK_MAX_LOCATORS));
+    }
+
+    FullResBlockRepacker(long delayMillis, int maxLocators) {
+        this.delayMillis = delayMillis;
+        this.maxLocators = maxLocators;
+    }
+
+    /** Starts repacking closed windows in the background, checking every minute. */
+    public synchronized void start() {
+        if (repacker != null) {
+            return;
+        }
+        repacker = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Full Res Block Repacker");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        repacker.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    repackClosedWindows(System.currentTimeMillis());
+                } catch (Throwable th) {
+                    log.error("Could not repack full resolution blocks", th);
+                }
+            }
+        }, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /** Records that a block of <code>locator</code> was written in the window starting at <code>window</code>. */
+    void written(Locator locator, long window, int ttl) {
+        ConcurrentMap<Locator, Integer> locators = written.get(window);
+        if (locators == null) {
+            final ConcurrentMap<Locator, Integer> created = new ConcurrentHashMap<Locator, Integer>();
+            locators = written.putIfAbsent(window, created);
+            if (locators == null) {
+                locators = created;
+            }
+        }
+        while (true) {
+            final Integer previous = locators.get(locator);
+            if (previous == null) {
+                if (trackedLocators.get() >= maxLocators) {
+                    untracked.mark();
+                    return;
+                }
+                if (locators.putIfAbsent(locator, ttl) == null) {
+                    trackedLocators.incrementAndGet();
+                    return;
+                }
+            } else if (previous >= ttl || locators.replace(locator, previous, ttl)) {
+                return;
+            }
+        }
+    }
+
+    void repackClosedWindows(long now) {
+        // a copy, so windows put back by failed batches wait for the next pass.
+        for (Long window : new ArrayList<Long>(written.keySet())) {
+            if (window + FullResBlockSerializer.BLOCK_MILLIS + delayMillis > now) {
+                continue;
+            }
+            // points written from here on mark the window again, and get it repacked on a later pass.
+            final Map<Locator, Integer> locators = written.remove(window);
+            final Map<Locator, Integer> batch = new HashMap<Locator, Integer>();
+            for (Map.Entry<Locator, Integer> entry : locators.entrySet()) {
+                batch.put(entry.getKey(), entry.getValue());
+                if (batch.size() == LOCATORS_PER_BATCH) {
+                    repackBatch(window, batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                repackBatch(window, batch);
+            }
+            trackedLocators.addAndGet(-locators.size());
+        }
+    }
+
+    int getWrittenWindowCount() {
+        return written.size();
+    }
+
+    int getTrackedLocatorCount() {
+        return trackedLocators.get();
+    }
+
+    private void repackBatch(long window, Map<Locator, Integer> batch) {
+        try {
+            repack(window, batch);
+            repackedRows.mark(batch.size());
+        } catch (ConnectionException ex) {
+            log.warn("Could not repack " + batch.size() + " rows at " + window + "; retrying later", ex);
+            failedBatches.mark();
+            for (Map.Entry<Locator, Integer> entry : batch.entrySet()) {
+                written(entry.getKey(), window, entry.getValue());
+            }
+        }
+    }
+
+    protected void repack(long window, Map<Locator, Integer> ttls) throws ConnectionException {
+        AstyanaxWriter.getInstance().repackFullResBlocks(window, ttls);
+    }
+}
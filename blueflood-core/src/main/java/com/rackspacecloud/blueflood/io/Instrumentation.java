@@ -79,6 +79,11 @@ public class Instrumentation implements InstrumentationMBean {
         return writeTimers.getTimerContext(queryCF, true);
     }
 
+    /** The timer behind {@link #getWriteTimerContext(ColumnFamily)}, for anything that wants to watch write latency. */
+    public static Timer getWriteTimer(ColumnFamily queryCF) {
+        return writeTimers.getTimer(queryCF, false);
+    }
+
     // Most error tracking is done in InstrumentedConnectionPoolMonitor
     // However, some issues can't be properly tracked using that alone.
     // For example, there is no good way to differentiate (in the connectionpoolmonitor)
@@ -125,10 +130,13 @@ public class Instrumentation implements InstrumentationMBean {
 
     private static class WriteTimers {
         public Timer.Context getTimerContext(ColumnFamily queryCF, boolean batch) {
+            return getTimer(queryCF, batch).time();
+        }
+
+        public Timer getTimer(ColumnFamily queryCF, boolean batch) {
             final String metricName = (batch ? MetricRegistry.name("batched", queryCF.getName()) : queryCF.getName());
 
-            final Timer timer = Metrics.timer(Instrumentation.class, "writes", metricName);
-            return timer.time();
+            return Metrics.timer(Instrumentation.class, "writes", metricName);
         }
     }
 
@@ -16,12 +16,12 @@
 
 package com.rackspacecloud.blueflood.io;
 
-import com.google.common.cache.Cache;
 import com.netflix.astyanax.MutationBatch;
 import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
 import com.netflix.astyanax.model.ColumnFamily;
 import com.netflix.astyanax.recipes.reader.AllRowsReader;
 import com.netflix.astyanax.serializers.StringSerializer;
+import com.rackspacecloud.blueflood.cache.RotatingLocatorFilter;
 import com.rackspacecloud.blueflood.rollup.Granularity;
 import com.rackspacecloud.blueflood.service.SingleRollupWriteContext;
 import com.rackspacecloud.blueflood.types.*;
@@ -135,8 +135,8 @@ public class IntegrationTestBase {
                 new TimeValue(1, TimeUnit.DAYS), "unknown");
         metrics.add(metric);
         AstyanaxWriter.getInstance().insertFull(metrics);
-        Cache<String, Boolean> insertedLocators = (Cache<String, Boolean>) Whitebox.getInternalState(AstyanaxWriter.getInstance(), "insertedLocators");
-        insertedLocators.invalidateAll();
+        RotatingLocatorFilter insertedLocators = (RotatingLocatorFilter) Whitebox.getInternalState(AstyanaxWriter.getInstance(), "insertedLocators");
+        insertedLocators.clear();
 
         return metric;
     }
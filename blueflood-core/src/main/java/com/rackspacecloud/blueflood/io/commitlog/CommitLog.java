@@ -0,0 +1,240 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.commitlog;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.rackspacecloud.blueflood.types.IMetric;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+
+/**
+ * Local write-ahead log for ingested metrics.
+ *
+ * Metrics are appended to memory-mapped segment files in the log directory. {@link #sync(long)} forces them to
+ * disk; callers that sync concurrently share a single force (group commit). A {@link CommitLogDrainer} reads the
+ * segments back in order, hands them to the ingestion pipeline and deletes segments once they are fully drained.
+ * Segments found in the directory on startup are replayed before anything appended by this process.
+ *
+ * Replay is at-least-once: a segment is only deleted after it has been drained completely, so records may be
+ * written to cassandra more than once after a crash. Those writes are idempotent.
+ *
+ * The log holds at most <code>maxSegments</code> segments. Once that many are waiting to be drained, appends that
+ * need a new segment fail with a {@link CommitLogFullException} until the drainer catches up.
+ */
+public class CommitLog {
+    private static final Logger log = LoggerFactory.getLogger(CommitLog.class);
+    private static final String SEGMENT_PREFIX = "CommitLog-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Timer appendTimer = Metrics.timer(CommitLog.class, "Append Duration");
+    private final Timer syncTimer = Metrics.timer(CommitLog.class, "Sync Duration");
+    private final Meter appendedBytes = Metrics.meter(CommitLog.class, "Appended Bytes");
+    private final Meter segmentsCreated = Metrics.meter(CommitLog.class, "Segments Created");
+    private final Meter rejectedAppends = Metrics.meter(CommitLog.class, "Rejected Appends");
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    // held while forcing, and while discarding so a segment is never unmapped under a force. taken before this.
+    private final Object syncLock = new Object();
+
+    // oldest first. the last one is the active segment. guarded by this.
+    private final LinkedList<CommitLogSegment> segments = new LinkedList<CommitLogSegment>();
+    private CommitLogSegment active;
+    private long nextSegmentId;
+    private long appendedPosition;
+
+    private volatile long syncedPosition;
+
+    public CommitLog(File directory, int segmentSize) throws IOException {
+        this(directory, segmentSize, Integer.MAX_VALUE);
+    }
+
+    public CommitLog(File directory, int segmentSize, int maxSegments) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create commit log directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+
+        final File[] existing = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        final long[] ids = new long[existing.length];
+        for (int i = 0; i < existing.length; i++) {
+            ids[i] = segmentId(existing[i]);
+        }
+        Arrays.sort(ids);
+        for (long id : ids) {
+            segments.add(CommitLogSegment.recover(segmentFile(id), id));
+            nextSegmentId = id + 1;
+        }
+        if (!segments.isEmpty()) {
+            log.info("Replaying {} commit log segments from {}", segments.size(), directory);
+        }
+
+        synchronized (this) {
+            active = newSegment();
+        }
+    }
+
+    /**
+     * Appends one record holding <code>metrics</code>. The record is not durable until {@link #sync(long)} has been
+     * called with the returned position.
+     *
+     * @return the log position just past this record.
+     * @throws CommitLogFullException if the record needs a new segment and the log already has
+     *         <code>maxSegments</code> of them.
+     */
+    public long append(Collection<IMetric> metrics) throws IOException {
+        final byte[] record = CommitLogSerialization.serialize(metrics);
+        if (record.length + CommitLogSegment.RECORD_OVERHEAD > segmentSize) {
+            throw new IOException("Commit log record of " + record.length + " bytes exceeds the segment size");
+        }
+
+        final Timer.Context appendTimerContext = appendTimer.time();
+        try {
+            synchronized (this) {
+                if (!active.append(record)) {
+                    // segments replayed on startup may already put the log over the limit; they count too.
+                    if (segments.size() >= maxSegments) {
+                        rejectedAppends.mark();
+                        throw new CommitLogFullException("Commit log has " + segments.size()
+                                + " segments waiting to be drained");
+                    }
+                    roll();
+                    active.append(record);
+                }
+                appendedPosition += record.length + CommitLogSegment.RECORD_OVERHEAD;
+                appendedBytes.mark(record.length + CommitLogSegment.RECORD_OVERHEAD);
+                // wake up the drainer.
+                notifyAll();
+                return appendedPosition;
+            }
+        } finally {
+            appendTimerContext.stop();
+        }
+    }
+
+    /**
+     * Blocks until everything up to <code>position</code> is on disk.
+     */
+    public void sync(long position) throws IOException {
+        if (syncedPosition >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            // whoever held the lock before us may have already forced our record.
+            if (syncedPosition >= position) {
+                return;
+            }
+            final CommitLogSegment segment;
+            final long target;
+            synchronized (this) {
+                segment = active;
+                target = appendedPosition;
+            }
+            // earlier segments were forced when they were rolled; so was this one if it has been since.
+            final Timer.Context syncTimerContext = syncTimer.time();
+            try {
+                if (!segment.isSealed()) {
+                    segment.force();
+                }
+            } finally {
+                syncTimerContext.stop();
+            }
+            syncedPosition = target;
+        }
+    }
+
+    public synchronized void close() {
+        active.force();
+        active.seal();
+    }
+
+    synchronized CommitLogSegment oldestSegment() {
+        return segments.getFirst();
+    }
+
+    /** Returns the segment after <code>segment</code>, or null if it is the newest. */
+    synchronized CommitLogSegment segmentAfter(CommitLogSegment segment) {
+        final int index = segments.indexOf(segment);
+        return index + 1 < segments.size() ? segments.get(index + 1) : null;
+    }
+
+    /** Removes a sealed, fully drained segment. */
+    void discard(CommitLogSegment segment) {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (segment == active) {
+                    throw new IllegalStateException("Cannot discard the active commit log segment");
+                }
+                segments.remove(segment);
+                segment.delete();
+            }
+        }
+    }
+
+    /** Waits for a record to be appended past <code>offset</code> of <code>segment</code>, or for it to be sealed. */
+    synchronized void awaitAppend(CommitLogSegment segment, int offset, long timeoutMillis) throws InterruptedException {
+        if (segment.getLimit() <= offset && !segment.isSealed()) {
+            wait(timeoutMillis);
+        }
+    }
+
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    // callers hold this.
+    private void roll() throws IOException {
+        active.force();
+        active.seal();
+        active = newSegment();
+    }
+
+    // callers hold this.
+    private CommitLogSegment newSegment() throws IOException {
+        final long id = nextSegmentId++;
+        final CommitLogSegment segment = CommitLogSegment.create(segmentFile(id), id, segmentSize);
+        segments.add(segment);
+        segmentsCreated.mark();
+        return segment;
+    }
+
+    private File segmentFile(long id) {
+        return new File(directory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+    }
+
+    private static long segmentId(File file) {
+        final String name = file.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.commitlog;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.rackspacecloud.blueflood.types.MetricsCollection;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import com.rackspacecloud.blueflood.utils.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Reads records out of a {@link CommitLog} in order and writes them through <code>sink</code>, which is normally
+ * the same processing chain a synchronous ingest request would use. Up to <code>maxInFlight</code> batches are
+ * handed to the sink at once. Batches complete in log order: a failed batch is retried, and the ones behind it wait,
+ * until the sink reports success. Segments are discarded once every record in them has been written.
+ */
+public class CommitLogDrainer implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(CommitLogDrainer.class);
+    private static final long IDLE_WAIT_MILLIS = 100;
+    private static final long RETRY_WAIT_MILLIS = 1000;
+
+    private final Timer drainTimer = Metrics.timer(CommitLogDrainer.class, "Drain Duration");
+    private final Meter drainedMetrics = Metrics.meter(CommitLogDrainer.class, "Drained Metrics");
+    private final Meter drainFailures = Metrics.meter(CommitLogDrainer.class, "Drain Failures");
+    private final Meter corruptRecords = Metrics.meter(CommitLogDrainer.class, "Corrupt Records");
+
+    private final CommitLog commitLog;
+    private final AsyncFunction<MetricsCollection, List<Boolean>> sink;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final TimeValue timeout;
+    private volatile boolean running = true;
+
+    // oldest first. only touched by the draining thread.
+    private final LinkedList<Batch> inFlight = new LinkedList<Batch>();
+    // where the next batch is read from.
+    private CommitLogSegment segment;
+    private int offset;
+
+    public CommitLogDrainer(CommitLog commitLog, AsyncFunction<MetricsCollection, List<Boolean>> sink, int batchSize,
+                            int maxInFlight, TimeValue timeout) {
+        this.commitLog = commitLog;
+        this.sink = sink;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+        this.timeout = timeout;
+    }
+
+    public void run() {
+        while (running) {
+            try {
+                drain();
+            } catch (InterruptedException ex) {
+                log.info("Commit log drainer interrupted, stopping");
+                return;
+            } catch (Exception ex) {
+                log.error("Failed writing commit log records, will retry", ex);
+                drainFailures.mark();
+                try {
+                    Thread.sleep(RETRY_WAIT_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+    }
+
+    /**
+     * Hands batches to the sink until <code>maxInFlight</code> are pending, then waits for the oldest one. Waits
+     * briefly instead if there is nothing to write.
+     *
+     * @return number of metrics written by the oldest batch.
+     */
+    int drain() throws Exception {
+        if (segment == null) {
+            segment = commitLog.oldestSegment();
+        }
+        fill();
+        if (inFlight.isEmpty()) {
+            commitLog.awaitAppend(segment, offset, IDLE_WAIT_MILLIS);
+            return 0;
+        }
+
+        final Batch oldest = inFlight.getFirst();
+        if (oldest.collection == null) {
+            // every batch read from this segment has been written.
+            inFlight.removeFirst();
+            commitLog.discard(oldest.segment);
+            return 0;
+        }
+        if (oldest.future == null) {
+            oldest.future = submit(oldest.collection);
+        }
+        final Timer.Context drainTimerContext = drainTimer.time();
+        try {
+            final List<Boolean> persisteds = oldest.future.get(timeout.getValue(), timeout.getUnit());
+            for (Boolean persisted : persisteds) {
+                if (!persisted) {
+                    throw new IOException("Did not persist all metrics from commit log segment " + oldest.segment);
+                }
+            }
+        } catch (Exception ex) {
+            // resubmitted on the next pass, after the retry wait.
+            oldest.future = null;
+            throw ex;
+        } finally {
+            drainTimerContext.stop();
+        }
+        inFlight.removeFirst();
+        drainedMetrics.mark(oldest.collection.size());
+        return oldest.collection.size();
+    }
+
+    // reads batches from the current position and submits them, until the window is full or the log is exhausted.
+    private void fill() {
+        while (inFlight.size() < maxInFlight) {
+            // sealed must be read before limit; once sealed, the limit no longer moves.
+            final boolean sealed = segment.isSealed();
+            final int limit = segment.getLimit();
+            if (offset >= limit) {
+                if (!sealed) {
+                    return;
+                }
+                final CommitLogSegment next = commitLog.segmentAfter(segment);
+                if (next == null) {
+                    // the log was closed.
+                    return;
+                }
+                // queued behind the segment's last batch, so it is discarded once that has been written.
+                inFlight.add(new Batch(segment, null));
+                segment = next;
+                offset = 0;
+                continue;
+            }
+
+            final MetricsCollection collection = new MetricsCollection();
+            int end = offset;
+            while (end < limit && collection.size() < batchSize) {
+                final byte[] record = segment.read(end);
+                try {
+                    collection.add(CommitLogSerialization.deserialize(record));
+                } catch (IOException ex) {
+                    // retrying would stall the whole log behind this record.
+                    log.error("Skipping unreadable record at offset " + end + " of commit log segment " + segment, ex);
+                    corruptRecords.mark();
+                }
+                end += CommitLogSegment.RECORD_OVERHEAD + record.length;
+            }
+            offset = end;
+            if (collection.size() > 0) {
+                final Batch batch = new Batch(segment, collection);
+                batch.future = submit(collection);
+                inFlight.add(batch);
+            }
+        }
+    }
+
+    private ListenableFuture<List<Boolean>> submit(MetricsCollection collection) {
+        try {
+            return sink.apply(collection);
+        } catch (Exception ex) {
+            return Futures.immediateFailedFuture(ex);
+        }
+    }
+
+    /** Metrics read from a segment, or, with no metrics, the marker that the segment has been read to the end. */
+    private static class Batch {
+        private final CommitLogSegment segment;
+        private final MetricsCollection collection;
+        // null until submitted, and again after it fails.
+        private ListenableFuture<List<Boolean>> future;
+
+        private Batch(CommitLogSegment segment, MetricsCollection collection) {
+            this.segment = segment;
+            this.collection = collection;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.commitlog;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * A fixed size, memory-mapped commit log file. Records are laid out back to back as
+ * [int length][int crc32][payload]; a zero length marks the end of the written region.
+ *
+ * Appends are serialized by {@link CommitLog}. Readers only look at bytes below {@link #getLimit()}, which is
+ * published after the record bytes are in place.
+ */
+class CommitLogSegment {
+    private static final Logger log = LoggerFactory.getLogger(CommitLogSegment.class);
+
+    static final int RECORD_OVERHEAD = 8;
+
+    private final long id;
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private volatile int limit;
+    private volatile boolean sealed;
+
+    private CommitLogSegment(long id, File file, MappedByteBuffer buffer, int limit, boolean sealed) {
+        this.id = id;
+        this.file = file;
+        this.buffer = buffer;
+        this.limit = limit;
+        this.sealed = sealed;
+    }
+
+    /** Creates and maps a new, zero filled segment. */
+    static CommitLogSegment create(File file, long id, int size) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size);
+            final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new CommitLogSegment(id, file, buffer, 0, false);
+        } finally {
+            // the mapping stays valid after the channel is closed.
+            raf.close();
+        }
+    }
+
+    /**
+     * Maps a segment left behind by a previous process. The segment is sealed and its limit is the end of the last
+     * record with a valid checksum; anything after a torn or corrupt record is ignored.
+     */
+    static CommitLogSegment recover(File file, long id) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final MappedByteBuffer buffer;
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+
+        int offset = 0;
+        while (offset + RECORD_OVERHEAD <= buffer.capacity()) {
+            final int length = buffer.getInt(offset);
+            if (length <= 0 || offset + RECORD_OVERHEAD + length > buffer.capacity()) {
+                break;
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(read(buffer, offset, length));
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                log.warn("Ignoring corrupt record at offset {} of commit log segment {}", offset, file);
+                break;
+            }
+            offset += RECORD_OVERHEAD + length;
+        }
+        return new CommitLogSegment(id, file, buffer, offset, true);
+    }
+
+    /**
+     * Copies <code>payload</code> into the segment.
+     *
+     * @return false if the record does not fit in the space that is left.
+     */
+    boolean append(byte[] payload) {
+        final int position = limit;
+        if (position + RECORD_OVERHEAD + payload.length > buffer.capacity()) {
+            return false;
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        final ByteBuffer out = buffer.duplicate();
+        out.position(position + 4);
+        out.putInt((int) crc.getValue());
+        out.put(payload);
+        // length goes in last, so a record cut short by a crash reads as the end of the segment.
+        buffer.putInt(position, payload.length);
+
+        limit = position + RECORD_OVERHEAD + payload.length;
+        return true;
+    }
+
+    /** Returns the payload of the record starting at <code>offset</code>. */
+    byte[] read(int offset) {
+        return read(buffer, offset, buffer.getInt(offset));
+    }
+
+    private static byte[] read(MappedByteBuffer buffer, int offset, int length) {
+        final byte[] payload = new byte[length];
+        final ByteBuffer in = buffer.duplicate();
+        in.position(offset + RECORD_OVERHEAD);
+        in.get(payload);
+        return payload;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void seal() {
+        sealed = true;
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    /** Unmaps and deletes the segment. It must not be read or written after this. */
+    void delete() {
+        unmap(buffer);
+        if (!file.delete()) {
+            log.warn("Unable to delete drained commit log segment {}", file);
+        }
+    }
+
+    // a mapping is otherwise only released when the buffer is garbage collected, which can keep many deleted
+    // segments' worth of address space and disk around. there is no public api for this, so failing is not fatal.
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            // java 9 and later.
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (NoSuchMethodException ex) {
+            // fall through to the java 6-8 way.
+        } catch (Exception ex) {
+            log.debug("Unable to unmap commit log segment", ex);
+            return;
+        }
+        try {
+            final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception ex) {
+            log.debug("Unable to unmap commit log segment", ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file.getPath();
+    }
+}
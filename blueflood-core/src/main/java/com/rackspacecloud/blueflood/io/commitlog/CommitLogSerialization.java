@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.commitlog;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.netflix.astyanax.serializers.AbstractSerializer;
+import com.rackspacecloud.blueflood.io.serializers.NumericSerializer;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.IMetric;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Metric;
+import com.rackspacecloud.blueflood.types.PreaggregatedMetric;
+import com.rackspacecloud.blueflood.types.Rollup;
+import com.rackspacecloud.blueflood.types.RollupType;
+import com.rackspacecloud.blueflood.utils.TimeValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes a batch of metrics as a single commit log record.
+ */
+public class CommitLogSerialization {
+    private static final byte METRIC = (byte)'M';
+    private static final byte PREAGGREGATED = (byte)'P';
+
+    private static final byte TYPE_INT = (byte)'i';
+    private static final byte TYPE_LONG = (byte)'l';
+    private static final byte TYPE_DOUBLE = (byte)'d';
+    private static final byte TYPE_STRING = (byte)'s';
+    private static final byte TYPE_BOOLEAN = (byte)'b';
+
+    public static byte[] serialize(Collection<IMetric> metrics) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * metrics.size());
+        final CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+
+        out.writeRawVarint32(metrics.size());
+        for (IMetric metric : metrics) {
+            if (metric instanceof Metric) {
+                out.writeRawByte(METRIC);
+                writeCommon(out, metric);
+                final String unit = ((Metric) metric).getUnit();
+                out.writeBoolNoTag(unit != null);
+                if (unit != null) {
+                    out.writeStringNoTag(unit);
+                }
+                writeValue(out, metric.getMetricValue());
+            } else if (metric instanceof PreaggregatedMetric) {
+                final PreaggregatedMetric preaggregated = (PreaggregatedMetric) metric;
+                out.writeRawByte(PREAGGREGATED);
+                writeCommon(out, metric);
+                out.writeStringNoTag(preaggregated.getRollupType().name());
+                final ByteBuffer rollup = serializerFor(preaggregated.getRollupType())
+                        .toByteBuffer(preaggregated.getMetricValue());
+                out.writeBytesNoTag(ByteString.copyFrom(rollup));
+            } else {
+                throw new IOException("Cannot write " + metric.getClass().getName() + " to the commit log");
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public static List<IMetric> deserialize(byte[] record) throws IOException {
+        final CodedInputStream in = CodedInputStream.newInstance(record);
+        final int count = in.readRawVarint32();
+        final List<IMetric> metrics = new ArrayList<IMetric>(count);
+
+        for (int i = 0; i < count; i++) {
+            final byte kind = in.readRawByte();
+            final Locator locator = Locator.createLocatorFromDbKey(in.readString());
+            final long collectionTime = in.readRawVarint64();
+            final TimeValue ttl = new TimeValue(in.readRawVarint32(), TimeUnit.SECONDS);
+
+            if (kind == METRIC) {
+                final String unit = in.readBool() ? in.readString() : null;
+                metrics.add(new Metric(locator, readValue(in), collectionTime, ttl, unit));
+            } else if (kind == PREAGGREGATED) {
+                final RollupType type = RollupType.valueOf(in.readString());
+                final ByteBuffer rollup = ByteBuffer.wrap(in.readBytes().toByteArray());
+                metrics.add(new PreaggregatedMetric(collectionTime, locator, ttl,
+                        serializerFor(type).fromByteBuffer(rollup)));
+            } else {
+                throw new IOException("Unexpected metric kind " + kind + " in commit log record");
+            }
+        }
+        return metrics;
+    }
+
+    private static void writeCommon(CodedOutputStream out, IMetric metric) throws IOException {
+        out.writeStringNoTag(metric.getLocator().toString());
+        out.writeRawVarint64(metric.getCollectionTime());
+        out.writeRawVarint32(metric.getTtlInSeconds());
+    }
+
+    private static void writeValue(CodedOutputStream out, Object value) throws IOException {
+        if (value instanceof Integer) {
+            out.writeRawByte(TYPE_INT);
+            out.writeRawVarint32((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeRawByte(TYPE_LONG);
+            out.writeRawVarint64((Long) value);
+        } else if (value instanceof Double) {
+            out.writeRawByte(TYPE_DOUBLE);
+            out.writeDoubleNoTag((Double) value);
+        } else if (value instanceof String) {
+            out.writeRawByte(TYPE_STRING);
+            out.writeStringNoTag((String) value);
+        } else if (value instanceof Boolean) {
+            out.writeRawByte(TYPE_BOOLEAN);
+            out.writeBoolNoTag((Boolean) value);
+        } else {
+            throw new IOException("Unsupported metric value type " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(CodedInputStream in) throws IOException {
+        final byte type = in.readRawByte();
+        switch (type) {
+            case TYPE_INT:
+                return in.readRawVarint32();
+            case TYPE_LONG:
+                return in.readRawVarint64();
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_STRING:
+                return in.readString();
+            case TYPE_BOOLEAN:
+                return in.readBool();
+            default:
+                throw new IOException("Unexpected metric value type " + type + " in commit log record");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AbstractSerializer<Rollup> serializerFor(RollupType type) {
+        return (AbstractSerializer<Rollup>) NumericSerializer.serializerFor(RollupType.classOf(type, Granularity.FULL));
+    }
+}
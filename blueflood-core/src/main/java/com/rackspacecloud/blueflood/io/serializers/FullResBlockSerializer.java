@@ -0,0 +1,453 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.serializers;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.rackspacecloud.blueflood.exceptions.SerializationException;
+import com.rackspacecloud.blueflood.io.Constants;
+import com.rackspacecloud.blueflood.types.ColumnarPoints;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Packs the full resolution points of one locator into compressed blocks, Gorilla style: timestamps as
+ * delta-of-deltas, floating point values as the XOR with the previous value and integral values as delta-of-deltas.
+ * Regularly reported metrics cost a bit or two per timestamp and a few bits per value, where a column per point
+ * costs its name, its value and cassandra's per column overhead.
+ * <p/>
+ * Every point of a block falls in the same aligned {@link #BLOCK_MILLIS} window. A block's column name holds the
+ * index of its window in the high bits and the time it was written, relative to the window, below; so the blocks of a
+ * window sort together, in the order they were written, and two writes of a window never share a name unless they
+ * happen in the same microsecond. Several blocks may cover the same window; read in column order, a point from a
+ * later block replaces one at the same timestamp from an earlier block.
+ */
+public class FullResBlockSerializer {
+    public static final long BLOCK_MILLIS = TimeUnit.HOURS.toMillis(2);
+
+    private static final int SEQUENCE_BITS = 40;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    // how long before its window a block may be written and still sort by write time; 40 bits of microseconds cover
+    // about twelve days from there, after which names wrap around but stay unique.
+    private static final long SEQUENCE_LEAD_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final AtomicLong lastSequence = new AtomicLong();
+
+    private static final byte VERSION_1_BLOCK = 1;
+    // the value type byte of a block whose points are not all of one type; each point's type follows the header.
+    private static final byte MIXED = (byte)'m';
+    private static final SimpleNumber.Type[] TYPES = SimpleNumber.Type.values();
+
+    // delta-of-delta buckets: a '1' per bucket skipped, a '0' to stop (except after the last), then the value.
+    private static final int[] DOD_BITS = new int[] { 7, 9, 12, 32, 64 };
+
+    /** The start of the window holding timestamp. */
+    public static long blockStart(long timestamp) {
+        return timestamp - (((timestamp % BLOCK_MILLIS) + BLOCK_MILLIS) % BLOCK_MILLIS);
+    }
+
+    /**
+     * The sequence of a write: the time in microseconds, never the same twice in this process. Every block written by
+     * one call should share it.
+     */
+    public static long nextSequence() {
+        while (true) {
+            final long last = lastSequence.get();
+            final long next = Math.max(System.currentTimeMillis() * 1000, last + 1);
+            if (lastSequence.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+
+    /** The column name of a block of the window starting at <code>window</code>, written with sequence. */
+    public static long columnName(long window, long sequence) {
+        final long written = sequence - (window * 1000 - SEQUENCE_LEAD_MICROS);
+        return ((window / BLOCK_MILLIS) << SEQUENCE_BITS) | (written & SEQUENCE_MASK);
+    }
+
+    /** The lowest column name a block of the window starting at <code>window</code> can have. */
+    public static long firstColumn(long window) {
+        return (window / BLOCK_MILLIS) << SEQUENCE_BITS;
+    }
+
+    /** The highest column name a block of the window starting at <code>window</code> can have. */
+    public static long lastColumn(long window) {
+        return firstColumn(window) | SEQUENCE_MASK;
+    }
+
+    /** The start of the window of the block stored under columnName. */
+    public static long windowOf(long columnName) {
+        return (columnName >> SEQUENCE_BITS) * BLOCK_MILLIS;
+    }
+
+    /** Encodes points into one block per window they fall in, keyed by the column name of each block. */
+    public static SortedMap<Long, ByteBuffer> encodeBlocks(ColumnarPoints points, long sequence) {
+        final SortedMap<Long, ByteBuffer> blocks = new TreeMap<Long, ByteBuffer>();
+        int start = 0;
+        while (start < points.size()) {
+            final long window = blockStart(points.getTimestamp(start));
+            final int until = points.ceilingIndex(window + BLOCK_MILLIS);
+            blocks.put(columnName(window, sequence), encode(points, start, until));
+            start = until;
+        }
+        return blocks;
+    }
+
+    /** Encodes the points in [from, until), which must all fall in one window. */
+    public static ByteBuffer encode(ColumnarPoints points, int from, int until) {
+        final int count = until - from;
+        if (count <= 0) {
+            throw new IllegalArgumentException("A block holds at least one point");
+        }
+        if (blockStart(points.getTimestamp(from)) != blockStart(points.getTimestamp(until - 1))) {
+            throw new IllegalArgumentException("Points span more than one block");
+        }
+
+        byte valueType = typeByte(points.getType(from));
+        for (int i = from + 1; i < until && valueType != MIXED; i++) {
+            if (typeByte(points.getType(i)) != valueType) {
+                valueType = MIXED;
+            }
+        }
+
+        final BitOutput bits = new BitOutput(16 + count * 2);
+        try {
+            final byte[] header = new byte[1 + 5 + 1 + count + 10];
+            final CodedOutputStream out = CodedOutputStream.newInstance(header);
+            out.writeRawByte(VERSION_1_BLOCK);
+            out.writeRawVarint32(count);
+            out.writeRawByte(valueType);
+            if (valueType == MIXED) {
+                for (int i = from; i < until; i++) {
+                    out.writeRawByte(typeByte(points.getType(i)));
+                }
+            }
+            out.writeRawVarint64(points.getTimestamp(from));
+            bits.writeBytes(header, header.length - out.spaceLeft());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        // integral values are usually counters or small gauges, which delta well; anything else is XORed.
+        final boolean integral = valueType == Constants.B_I32 || valueType == Constants.B_I64;
+        bits.writeBits(points.getBits(from), 64);
+        long previousTimestamp = points.getTimestamp(from);
+        long previousDelta = 0;
+        long previousValue = points.getBits(from);
+        long previousValueDelta = 0;
+        for (int i = from + 1; i < until; i++) {
+            final long timestamp = points.getTimestamp(i);
+            final long delta = timestamp - previousTimestamp;
+            bits.writeDeltaOfDelta(delta - previousDelta);
+            previousTimestamp = timestamp;
+            previousDelta = delta;
+
+            final long value = points.getBits(i);
+            if (integral) {
+                final long valueDelta = value - previousValue;
+                bits.writeDeltaOfDelta(valueDelta - previousValueDelta);
+                previousValueDelta = valueDelta;
+            } else {
+                bits.writeXor(value ^ previousValue);
+            }
+            previousValue = value;
+        }
+        return bits.toByteBuffer();
+    }
+
+    /** The timestamp of the first, and earliest, point of a block. */
+    public static long firstTimestamp(ByteBuffer block) {
+        try {
+            return readHeader(block).first;
+        } catch (Exception e) {
+            throw new RuntimeException("Deserialization Failure", e);
+        }
+    }
+
+    /** Decodes every point of a block into points. */
+    public static void decode(ByteBuffer block, ColumnarPoints points) {
+        decode(block, points, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Decodes the points of a block stamped in [from, to] into points. The buffer's position and limit are left as
+     * they were.
+     */
+    public static void decode(ByteBuffer block, ColumnarPoints points, long from, long to) {
+        try {
+            final Header header = readHeader(block);
+            final int count = header.count;
+            final byte valueType = header.valueType;
+            final byte[] types = header.types;
+
+            final BitInput bits = new BitInput(block, block.position() + header.length);
+            final boolean integral = valueType == Constants.B_I32 || valueType == Constants.B_I64;
+            long timestamp = header.first;
+            long delta = 0;
+            long value = bits.readBits(64);
+            long valueDelta = 0;
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    delta += bits.readDeltaOfDelta();
+                    timestamp += delta;
+                    if (integral) {
+                        valueDelta += bits.readDeltaOfDelta();
+                        value += valueDelta;
+                    } else {
+                        value ^= bits.readXor();
+                    }
+                }
+                if (timestamp > to) {
+                    break;
+                }
+                if (timestamp >= from) {
+                    points.addBits(timestamp, value, typeOf(types == null ? valueType : types[i]));
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Deserialization Failure", e);
+        }
+    }
+
+    private static Header readHeader(ByteBuffer block) throws IOException, SerializationException {
+        final byte[] bytes = new byte[Math.min(block.remaining(), 32)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = block.get(block.position() + i);
+        }
+        CodedInputStream in = CodedInputStream.newInstance(bytes);
+        final byte version = in.readRawByte();
+        if (version != VERSION_1_BLOCK) {
+            throw new SerializationException("Unexpected block version " + version);
+        }
+        final Header header = new Header();
+        header.count = in.readRawVarint32();
+        header.valueType = in.readRawByte();
+        if (header.valueType == MIXED) {
+            // re-read the header now its size is known.
+            final int consumed = in.getTotalBytesRead();
+            final byte[] full = new byte[Math.min(block.remaining(), consumed + header.count + 10)];
+            for (int i = 0; i < full.length; i++) {
+                full[i] = block.get(block.position() + i);
+            }
+            in = CodedInputStream.newInstance(full);
+            in.skipRawBytes(consumed);
+            header.types = in.readRawBytes(header.count);
+        }
+        header.first = in.readRawVarint64();
+        header.length = in.getTotalBytesRead();
+        return header;
+    }
+
+    private static byte typeByte(SimpleNumber.Type type) {
+        switch (type) {
+            case INTEGER:
+                return Constants.B_I32;
+            case LONG:
+                return Constants.B_I64;
+            default:
+                return Constants.B_DOUBLE;
+        }
+    }
+
+    private static SimpleNumber.Type typeOf(byte type) throws SerializationException {
+        switch (type) {
+            case Constants.B_I32:
+                return SimpleNumber.Type.INTEGER;
+            case Constants.B_I64:
+                return SimpleNumber.Type.LONG;
+            case Constants.B_DOUBLE:
+                return SimpleNumber.Type.DOUBLE;
+            default:
+                throw new SerializationException("Unexpected value type " + type + " in block");
+        }
+    }
+
+    private static boolean fits(long value, int bits) {
+        return bits == 64 || (value >= -(1L << (bits - 1)) && value < (1L << (bits - 1)));
+    }
+
+    private static class Header {
+        private int count;
+        private byte valueType;
+        // the type of each point of a MIXED block, null otherwise.
+        private byte[] types;
+        private long first;
+        // bytes up to where the bits start.
+        private int length;
+    }
+
+    private static class BitOutput {
+        private byte[] bytes;
+        private int length;
+        // bits of bytes[length] already written, from the most significant down.
+        private int used;
+
+        // XOR window of the previous value: its leading zeros, -1 before there is one, and trailing zeros.
+        private int leading = -1;
+        private int trailing;
+
+        private BitOutput(int expectedSize) {
+            bytes = new byte[expectedSize];
+        }
+
+        private void writeBytes(byte[] src, int count) {
+            for (int i = 0; i < count; i++) {
+                writeBits(src[i], 8);
+            }
+        }
+
+        private void writeBit(boolean bit) {
+            writeBits(bit ? 1 : 0, 1);
+        }
+
+        private void writeBits(long value, int count) {
+            while (count > 0) {
+                if (length == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                final int free = 8 - used;
+                final int take = Math.min(free, count);
+                final int chunk = (int) ((value >>> (count - take)) & ((1 << take) - 1));
+                bytes[length] |= chunk << (free - take);
+                used += take;
+                count -= take;
+                if (used == 8) {
+                    length++;
+                    used = 0;
+                }
+            }
+        }
+
+        private void writeDeltaOfDelta(long dod) {
+            if (dod == 0) {
+                writeBit(false);
+                return;
+            }
+            writeBit(true);
+            for (int i = 0; i < DOD_BITS.length; i++) {
+                final boolean last = i == DOD_BITS.length - 1;
+                if (fits(dod, DOD_BITS[i])) {
+                    if (!last) {
+                        writeBit(false);
+                    }
+                    writeBits(dod, DOD_BITS[i]);
+                    return;
+                }
+                writeBit(true);
+            }
+        }
+
+        private void writeXor(long xor) {
+            if (xor == 0) {
+                writeBit(false);
+                return;
+            }
+            writeBit(true);
+            final int xorLeading = Math.min(31, Long.numberOfLeadingZeros(xor));
+            final int xorTrailing = Long.numberOfTrailingZeros(xor);
+            if (leading >= 0 && xorLeading >= leading && xorTrailing >= trailing) {
+                // fits in the previous window.
+                writeBit(false);
+                writeBits(xor >>> trailing, 64 - leading - trailing);
+            } else {
+                final int meaningful = 64 - xorLeading - xorTrailing;
+                writeBit(true);
+                writeBits(xorLeading, 5);
+                writeBits(meaningful - 1, 6);
+                writeBits(xor >>> xorTrailing, meaningful);
+                leading = xorLeading;
+                trailing = xorTrailing;
+            }
+        }
+
+        private ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(bytes, 0, length + (used > 0 ? 1 : 0)).slice();
+        }
+    }
+
+    private static class BitInput {
+        private final ByteBuffer buffer;
+        private int position;
+        // bits of the byte at position already read.
+        private int used;
+
+        private int leading;
+        private int trailing;
+
+        private BitInput(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        private boolean readBit() {
+            return readBits(1) != 0;
+        }
+
+        private long readBits(int count) {
+            long value = 0;
+            while (count > 0) {
+                if (position >= buffer.limit()) {
+                    throw new IndexOutOfBoundsException("Block truncated");
+                }
+                final int available = 8 - used;
+                final int take = Math.min(available, count);
+                final int chunk = (buffer.get(position) >>> (available - take)) & ((1 << take) - 1);
+                value = (value << take) | chunk;
+                used += take;
+                count -= take;
+                if (used == 8) {
+                    position++;
+                    used = 0;
+                }
+            }
+            return value;
+        }
+
+        private long readDeltaOfDelta() {
+            if (!readBit()) {
+                return 0;
+            }
+            int bucket = 0;
+            while (bucket < DOD_BITS.length - 1 && readBit()) {
+                bucket++;
+            }
+            final int count = DOD_BITS[bucket];
+            final long raw = readBits(count);
+            // sign extend.
+            return count == 64 ? raw : (raw << (64 - count)) >> (64 - count);
+        }
+
+        private long readXor() {
+            if (!readBit()) {
+                return 0;
+            }
+            if (readBit()) {
+                leading = (int) readBits(5);
+                final int meaningful = (int) readBits(6) + 1;
+                trailing = 64 - leading - meaningful;
+            }
+            return readBits(64 - leading - trailing) << trailing;
+        }
+    }
+}
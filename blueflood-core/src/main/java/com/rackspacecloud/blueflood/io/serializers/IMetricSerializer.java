@@ -113,7 +113,7 @@ public class IMetricSerializer {
     @JsonIgnoreProperties({ "ttl", "value", "type", "rollupType" })
     abstract class PreaggMetricMixin { }
 
-    @JsonIgnoreProperties({ "stringRep" })
+    @JsonIgnoreProperties({ "stringRep", "shard", "bytes" })
     abstract class LocatorMixin { }
 
     @JsonPropertyOrder(alphabetic=true)
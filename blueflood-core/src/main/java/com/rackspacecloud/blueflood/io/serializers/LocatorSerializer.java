@@ -19,7 +19,6 @@ package com.rackspacecloud.blueflood.io.serializers;
 import com.rackspacecloud.blueflood.types.Locator;
 import com.google.common.base.Charsets;
 import com.netflix.astyanax.serializers.AbstractSerializer;
-import com.netflix.astyanax.serializers.StringSerializer;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
@@ -35,7 +34,12 @@ public class LocatorSerializer extends AbstractSerializer<Locator>{
 
     @Override
     public ByteBuffer toByteBuffer(Locator locator) {
-        return StringSerializer.get().toByteBuffer(locator.toString());
+        if (locator == null) {
+            return null;
+        }
+        // the bytes are cached on the (interned) locator, so copy rather than re-encode. the copy keeps callers from
+        // changing the cached array through the buffer; a read-only buffer won't do, thrift writes keys via array().
+        return ByteBuffer.wrap(locator.getBytes().clone());
     }
 
     @Override
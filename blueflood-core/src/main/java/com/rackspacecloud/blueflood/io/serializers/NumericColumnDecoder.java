@@ -0,0 +1,303 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.serializers;
+
+import com.rackspacecloud.blueflood.exceptions.SerializationException;
+import com.rackspacecloud.blueflood.io.Constants;
+import com.rackspacecloud.blueflood.types.AbstractRollupStat;
+import com.rackspacecloud.blueflood.types.BasicRollup;
+import com.rackspacecloud.blueflood.types.BasicRollupAccumulator;
+import com.rackspacecloud.blueflood.types.ColumnarPoints;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decodes full resolution and basic rollup column values in the formats {@link NumericSerializer} writes, straight
+ * out of the column's buffer: no stream, no copy and no objects per value. The buffer's position, limit and byte
+ * order are left as they were.
+ * <p/>
+ * An instance holds the last value it decoded and is meant to be reused across the columns of a read. Not
+ * thread-safe. Malformed values fail with a RuntimeException, as the serializers do.
+ */
+public class NumericColumnDecoder {
+    // stats of a basic rollup, to choose which are decoded.
+    public static final int AVERAGE = 1 << Constants.AVERAGE;
+    public static final int VARIANCE = 1 << Constants.VARIANCE;
+    public static final int MIN = 1 << Constants.MIN;
+    public static final int MAX = 1 << Constants.MAX;
+    public static final int ALL_STATS = AVERAGE | VARIANCE | MIN | MAX;
+
+    private static final int STATS = BasicRollup.NUM_STATS;
+
+    private ByteBuffer buffer;
+    private int position;
+
+    private SimpleNumber.Type type;
+    private long longValue;
+    private double doubleValue;
+
+    private long count;
+    private int decodedStats;
+    private final boolean[] statIsFloatingPoint = new boolean[STATS];
+    private final long[] statLongs = new long[STATS];
+    private final double[] statDoubles = new double[STATS];
+
+    //
+    // full resolution values.
+    //
+
+    /** Decodes a full resolution value; read it with {@link #getType()}, {@link #getLong()} and {@link #getDouble()}. */
+    public NumericColumnDecoder decodeFullRes(ByteBuffer value) {
+        start(value);
+        try {
+            readVersion();
+            final byte valueType = readByte();
+            switch (valueType) {
+                case Constants.I32:
+                    type = SimpleNumber.Type.INTEGER;
+                    longValue = (int) readVarint64();
+                    break;
+                case Constants.I64:
+                    type = SimpleNumber.Type.LONG;
+                    longValue = readVarint64();
+                    break;
+                case Constants.DOUBLE:
+                    type = SimpleNumber.Type.DOUBLE;
+                    doubleValue = readDouble();
+                    break;
+                default:
+                    throw new SerializationException(String.format("Unexpected raw metric type=%s for full res " +
+                            "metric", (char) valueType));
+            }
+            return this;
+        } catch (Exception ex) {
+            throw new RuntimeException("Deserialization Failure", ex);
+        } finally {
+            buffer = null;
+        }
+    }
+
+    public void decodeFullRes(ByteBuffer value, long timestamp, ColumnarPoints points) {
+        decodeFullRes(value);
+        if (type == SimpleNumber.Type.DOUBLE) {
+            points.add(timestamp, doubleValue);
+        } else if (type == SimpleNumber.Type.LONG) {
+            points.add(timestamp, longValue);
+        } else {
+            points.add(timestamp, new SimpleNumber((int) longValue));
+        }
+    }
+
+    public void decodeFullRes(ByteBuffer value, BasicRollupAccumulator accumulator) {
+        decodeFullRes(value);
+        if (type == SimpleNumber.Type.DOUBLE) {
+            accumulator.add(doubleValue);
+        } else {
+            accumulator.add(longValue);
+        }
+    }
+
+    public SimpleNumber.Type getType() {
+        return type;
+    }
+
+    /** The last full resolution value, which must be integral. */
+    public long getLong() {
+        if (type == SimpleNumber.Type.DOUBLE) {
+            throw new IllegalStateException("Last value was floating point");
+        }
+        return longValue;
+    }
+
+    /** The last full resolution value, converted if it is integral. */
+    public double getDouble() {
+        return type == SimpleNumber.Type.DOUBLE ? doubleValue : (double) longValue;
+    }
+
+    //
+    // basic rollups.
+    //
+
+    /**
+     * Decodes the count of a basic rollup and those of its stats that are in the stats mask; the others are skipped
+     * over without being decoded.
+     */
+    public NumericColumnDecoder decodeRollup(ByteBuffer value, int stats) {
+        start(value);
+        decodedStats = 0;
+        try {
+            readVersion();
+            count = readVarint64();
+            if (count <= 0) {
+                return this;
+            }
+            for (int i = 0; i < STATS; i++) {
+                final byte statType = readByte();
+                if (statType < 0 || statType >= STATS) {
+                    throw new SerializationException("V1 BasicRollup: Unable to determine stat of type " + (int) statType);
+                }
+                final byte valueType = readByte();
+                final boolean wanted = (stats & (1 << statType)) != 0;
+                if (valueType == Constants.B_I64) {
+                    if (wanted) {
+                        statLongs[statType] = readVarint64();
+                    } else {
+                        skipVarint();
+                    }
+                } else if (valueType == Constants.B_DOUBLE) {
+                    if (wanted) {
+                        statDoubles[statType] = readDouble();
+                    } else {
+                        skip(8);
+                    }
+                } else {
+                    throw new SerializationException("Unsupported metric value type " + (int) valueType);
+                }
+                if (wanted) {
+                    statIsFloatingPoint[statType] = valueType == Constants.B_DOUBLE;
+                    decodedStats |= 1 << statType;
+                }
+            }
+            return this;
+        } catch (Exception ex) {
+            throw new RuntimeException("Deserialization Failure", ex);
+        } finally {
+            buffer = null;
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /** Whether the last rollup had the stat and it was asked for. */
+    public boolean hasStat(int stat) {
+        return (decodedStats & stat) != 0;
+    }
+
+    public boolean isFloatingPoint(int stat) {
+        return statIsFloatingPoint[statIndex(stat)];
+    }
+
+    public long getLong(int stat) {
+        final int index = statIndex(stat);
+        if (statIsFloatingPoint[index]) {
+            throw new IllegalStateException("Stat " + stat + " is floating point");
+        }
+        return statLongs[index];
+    }
+
+    /** The stat, converted if it is integral. */
+    public double getDouble(int stat) {
+        final int index = statIndex(stat);
+        return statIsFloatingPoint[index] ? statDoubles[index] : (double) statLongs[index];
+    }
+
+    /** The last rollup as a BasicRollup; stats that were not decoded are left at their defaults. */
+    public BasicRollup toBasicRollup() {
+        final BasicRollup rollup = new BasicRollup();
+        rollup.setCount(count);
+        setStat(rollup.getAverage(), AVERAGE);
+        setStat(rollup.getVariance(), VARIANCE);
+        setStat(rollup.getMinValue(), MIN);
+        setStat(rollup.getMaxValue(), MAX);
+        return rollup;
+    }
+
+    private void setStat(AbstractRollupStat stat, int mask) {
+        if (!hasStat(mask)) {
+            return;
+        }
+        final int index = statIndex(mask);
+        if (statIsFloatingPoint[index]) {
+            stat.setDoubleValue(statDoubles[index]);
+        } else {
+            stat.setLongValue(statLongs[index]);
+        }
+    }
+
+    private int statIndex(int stat) {
+        if (!hasStat(stat) || Integer.bitCount(stat) != 1) {
+            throw new IllegalStateException("Stat " + stat + " was not decoded");
+        }
+        return Integer.numberOfTrailingZeros(stat);
+    }
+
+    //
+    // the protobuf wire primitives NumericSerializer writes with CodedOutputStream.
+    //
+
+    private void start(ByteBuffer value) {
+        buffer = value;
+        position = value.position();
+    }
+
+    private void readVersion() throws SerializationException {
+        final byte version = readByte();
+        if (version != Constants.VERSION_1_FULL_RES && version != Constants.VERSION_1_ROLLUP) {
+            throw new SerializationException(String.format("Unexpected serialization version: %d", (int) version));
+        }
+    }
+
+    private byte readByte() throws SerializationException {
+        if (position >= buffer.limit()) {
+            throw new SerializationException("Truncated value");
+        }
+        return buffer.get(position++);
+    }
+
+    private void skip(int bytes) throws SerializationException {
+        if (position + bytes > buffer.limit()) {
+            throw new SerializationException("Truncated value");
+        }
+        position += bytes;
+    }
+
+    private long readVarint64() throws SerializationException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = readByte();
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new SerializationException("Malformed varint");
+    }
+
+    private void skipVarint() throws SerializationException {
+        for (int i = 0; i < 10; i++) {
+            if ((readByte() & 0x80) == 0) {
+                return;
+            }
+        }
+        throw new SerializationException("Malformed varint");
+    }
+
+    private double readDouble() throws SerializationException {
+        final int start = position;
+        skip(8);
+        // fixed64 fields are little endian on the wire.
+        long bits = buffer.getLong(start);
+        if (buffer.order() == ByteOrder.BIG_ENDIAN) {
+            bits = Long.reverseBytes(bits);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+}
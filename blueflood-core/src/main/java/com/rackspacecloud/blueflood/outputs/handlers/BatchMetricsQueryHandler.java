@@ -19,6 +19,7 @@ package com.rackspacecloud.blueflood.outputs.handlers;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Timer;
+import com.rackspacecloud.blueflood.cache.UnitCache;
 import com.rackspacecloud.blueflood.io.AstyanaxReader;
 import com.rackspacecloud.blueflood.io.Instrumentation;
 import com.rackspacecloud.blueflood.outputs.formats.MetricData;
@@ -28,6 +29,7 @@ import com.rackspacecloud.blueflood.types.Locator;
 import com.rackspacecloud.blueflood.types.Range;
 import com.rackspacecloud.blueflood.utils.Metrics;
 import com.rackspacecloud.blueflood.utils.TimeValue;
+import com.rackspacecloud.blueflood.utils.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -99,7 +101,16 @@ public class BatchMetricsQueryHandler {
         @Override
         public Boolean call() throws Exception {
             try {
-                queryResults= reader.getDatapointsForRange(query.getLocators(), query.getRange(), query.getGranularity());
+                final Map<Locator, MetricData> results =
+                        reader.getDatapointsForRange(query.getLocators(), query.getRange(), query.getGranularity());
+                if (Util.shouldUseESForUnits()) {
+                    // one discovery search per tenant for whatever the unit cache is missing.
+                    final Map<Locator, String> units = UnitCache.getInstance().getUnits(results.keySet());
+                    for (Map.Entry<Locator, MetricData> result : results.entrySet()) {
+                        result.getValue().setUnit(units.get(result.getKey()));
+                    }
+                }
+                queryResults = results;
                 return true;
             } catch (Exception ex) {
                 log.error("Exception reading batch of metrics ", ex);
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.rackspacecloud.blueflood.outputs.handlers;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.ColumnarPoints;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.utils.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches query results in fixed, aligned blocks of slots per (locator, granularity). Only blocks that ended more
+ * than the closing delay ago are cached; they are not expected to change any more. Anything newer is read on every
+ * query. A block is dropped when a rollup is written into it by this process ({@link #invalidate}), when it is older
+ * than the maximum age, or when evicted by size. Rollups written by other nodes, such as re-rolls for late data, do
+ * not invalidate anything here, so the maximum age is how long such a block can be served stale; keep it within the
+ * delay late data already takes to be rolled up.
+ */
+class RollupBlockCache {
+    private static final Meter hits = Metrics.meter(RollupHandler.class, "Rollup Cache", "Block hits");
+    private static final Meter misses = Metrics.meter(RollupHandler.class, "Rollup Cache", "Block misses");
+    private static final Meter uncached = Metrics.meter(RollupHandler.class, "Rollup Cache", "Open range reads");
+    private static final Meter oversized = Metrics.meter(RollupHandler.class, "Rollup Cache", "Oversized blocks");
+    private static final Counter cachedBlocks = Metrics.counter(RollupHandler.class, "Rollup Cache", "Blocks");
+    private static final Counter cachedPoints = Metrics.counter(RollupHandler.class, "Rollup Cache", "Points");
+    // guava gives each segment an equal share of the maximum weight and evicts per segment.
+    private static final int CONCURRENCY_LEVEL = 4;
+
+    /** How a range is read on a miss; the range is inclusive at both ends, like {@link com.rackspacecloud.blueflood.types.Range}. */
+    interface Reader {
+        MetricData read(Locator locator, long from, long to, Granularity g);
+    }
+
+    private final Cache<BlockKey, MetricData> blocks;
+    private final int slotsPerBlock;
+    private final long closingDelayMillis;
+    private final long maxBlockPoints;
+
+    RollupBlockCache(long maxPoints, int slotsPerBlock, long closingDelayMillis, long maxAgeMillis) {
+        this.slotsPerBlock = slotsPerBlock;
+        this.closingDelayMillis = closingDelayMillis;
+        // a block heavier than a segment's share would only push everything else in its segment out.
+        this.maxBlockPoints = maxPoints / CONCURRENCY_LEVEL - 1;
+        this.blocks = CacheBuilder.newBuilder()
+                .maximumWeight(maxPoints)
+                .weigher(new Weigher<BlockKey, MetricData>() {
+                    @Override
+                    public int weigh(BlockKey key, MetricData block) {
+                        // empty blocks still cost an entry.
+                        return pointCount(block.getData()) + 1;
+                    }
+                })
+                .removalListener(new RemovalListener<BlockKey, MetricData>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<BlockKey, MetricData> notification) {
+                        cachedBlocks.dec();
+                        cachedPoints.dec(pointCount(notification.getValue().getData()));
+                    }
+                })
+                .expireAfterWrite(maxAgeMillis, TimeUnit.MILLISECONDS)
+                .concurrencyLevel(CONCURRENCY_LEVEL)
+                .build();
+    }
+
+    MetricData get(Locator locator, long from, long to, Granularity g, long now, Reader reader) {
+        final long start = g.snapMillis(from);
+        final long blockWidth = g.milliseconds() * slotsPerBlock;
+        final long closedBefore = now - closingDelayMillis;
+        // in time order; each is cut down to [start, to] once they are all in.
+        final List<Points> parts = new ArrayList<Points>();
+        MetricData newest = null;
+
+        long block = (start / blockWidth) * blockWidth;
+        long missedFrom = -1;
+        for (; block <= to && block + blockWidth <= closedBefore; block += blockWidth) {
+            final MetricData cached = blocks.getIfPresent(new BlockKey(locator, g, block));
+            if (cached == null) {
+                misses.mark();
+                if (missedFrom < 0) {
+                    missedFrom = block;
+                }
+                continue;
+            }
+            hits.mark();
+            if (missedFrom >= 0) {
+                newest = load(locator, g, missedFrom, block, blockWidth, reader, parts);
+                missedFrom = -1;
+            }
+            newest = cached;
+            parts.add(cached.getData());
+        }
+        if (missedFrom >= 0) {
+            newest = load(locator, g, missedFrom, block, blockWidth, reader, parts);
+        }
+        if (block <= to) {
+            // the open tail, or a range that starts in it.
+            uncached.mark();
+            newest = reader.read(locator, Math.max(block, start), to, g);
+            parts.add(newest.getData());
+        }
+        if (newest == null) {
+            return reader.read(locator, from, to, g);
+        }
+
+        // blocks are aligned, so the first and last may reach outside the requested range.
+        return new MetricData(join(parts, start, to), newest.getUnit(), typeOf(newest));
+    }
+
+    /** Drops the cached block holding the slot at <code>timestamp</code>, if there is one. */
+    void invalidate(Locator locator, Granularity g, long timestamp) {
+        final long blockWidth = g.milliseconds() * slotsPerBlock;
+        blocks.invalidate(new BlockKey(locator, g, (timestamp / blockWidth) * blockWidth));
+    }
+
+    void invalidateAll() {
+        blocks.invalidateAll();
+    }
+
+    long size() {
+        return blocks.size();
+    }
+
+    // reads [from, until) in one go and caches it block by block.
+    private MetricData load(Locator locator, Granularity g, long from, long until, long blockWidth,
+                            Reader reader, List<Points> parts) {
+        final MetricData read = reader.read(locator, from, until - 1, g);
+        parts.add(read.getData());
+
+        // nothing at all is as likely a failed read as a quiet metric; don't remember it.
+        if (read.getData().isEmpty()) {
+            return read;
+        }
+        final MetricData.Type type = typeOf(read);
+        for (long block = from; block < until; block += blockWidth) {
+            final Points blockPoints;
+            if (read.getData() instanceof ColumnarPoints) {
+                blockPoints = ((ColumnarPoints) read.getData()).subPoints(block, block + blockWidth);
+            } else {
+                blockPoints = new Points();
+                addAll(blockPoints, ((SortedMap<Long, Points.Point>) read.getData().getPoints()).subMap(block, block + blockWidth));
+            }
+            final int count = pointCount(blockPoints);
+            if (count > maxBlockPoints) {
+                oversized.mark();
+                continue;
+            }
+            cachedBlocks.inc();
+            cachedPoints.inc(count);
+            blocks.put(new BlockKey(locator, g, block), new MetricData(blockPoints, read.getUnit(), type));
+        }
+        return read;
+    }
+
+    // the parts cover consecutive ranges, so appending them in order keeps the points sorted.
+    private static Points join(List<Points> parts, long from, long to) {
+        boolean columnar = true;
+        int size = 0;
+        for (Points part : parts) {
+            columnar &= part instanceof ColumnarPoints;
+            size += pointCount(part);
+        }
+        if (columnar) {
+            final ColumnarPoints joined = new ColumnarPoints(size);
+            for (Points part : parts) {
+                final ColumnarPoints columns = (ColumnarPoints) part;
+                for (int i = columns.ceilingIndex(from); i < columns.size() && columns.getTimestamp(i) <= to; i++) {
+                    joined.addBits(columns.getTimestamp(i), columns.getBits(i), columns.getType(i));
+                }
+            }
+            return joined;
+        }
+        final Points joined = new Points();
+        for (Points part : parts) {
+            addAll(joined, ((SortedMap<Long, Points.Point>) part.getPoints()).subMap(from, to + 1));
+        }
+        return joined;
+    }
+
+    private static int pointCount(Points points) {
+        return points instanceof ColumnarPoints ? ((ColumnarPoints) points).size() : points.getPoints().size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addAll(Points points, Map<Long, Points.Point> source) {
+        for (Points.Point point : source.values()) {
+            points.add(point);
+        }
+    }
+
+    private static MetricData.Type typeOf(MetricData data) {
+        return MetricData.Type.valueOf(data.getType().toUpperCase());
+    }
+
+    private static class BlockKey {
+        private final Locator locator;
+        private final Granularity granularity;
+        private final long start;
+
+        BlockKey(Locator locator, Granularity granularity, long start) {
+            this.locator = locator;
+            this.granularity = granularity;
+            this.start = start;
+        }
+
+        @Override
+        public int hashCode() {
+            return (locator.hashCode() * 31 + granularity.hashCode()) * 31 + (int) (start ^ (start >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof BlockKey)) {
+                return false;
+            }
+            final BlockKey other = (BlockKey) obj;
+            return start == other.start && granularity == other.granularity && locator.equals(other.locator);
+        }
+    }
+}
@@ -19,25 +19,25 @@ package com.rackspacecloud.blueflood.outputs.handlers;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Timer;
+import com.rackspacecloud.blueflood.cache.UnitCache;
 import com.rackspacecloud.blueflood.io.AstyanaxReader;
-import com.rackspacecloud.blueflood.io.DiscoveryIO;
 import com.rackspacecloud.blueflood.outputs.formats.MetricData;
 import com.rackspacecloud.blueflood.rollup.Granularity;
 import com.rackspacecloud.blueflood.service.Configuration;
 import com.rackspacecloud.blueflood.service.CoreConfig;
+import com.rackspacecloud.blueflood.service.SingleRollupWriteContext;
 import com.rackspacecloud.blueflood.types.*;
 import com.rackspacecloud.blueflood.utils.Metrics;
-import com.rackspacecloud.blueflood.utils.QueryDiscoveryModuleLoader;
 import com.rackspacecloud.blueflood.utils.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class RollupHandler {
     private static final Logger log = LoggerFactory.getLogger(RollupHandler.class);
@@ -57,6 +57,36 @@ public class RollupHandler {
     protected final Histogram numHistogramPointsReturned = Metrics.histogram(RollupHandler.class, "Histogram points returned");
 
     private static final boolean ROLLUP_REPAIR = Configuration.getInstance().getBooleanProperty(CoreConfig.REPAIR_ROLLUPS_ON_READ);
+    private static final RollupBlockCache rollupCache = createRollupCache();
+
+    private final RollupBlockCache.Reader rollupReader = new RollupBlockCache.Reader() {
+        @Override
+        public MetricData read(Locator locator, long from, long to, Granularity g) {
+            return readRollupByGranularity(locator, from, to, g);
+        }
+    };
+
+    private static RollupBlockCache createRollupCache() {
+        final Configuration config = Configuration.getInstance();
+        if (!config.getBooleanProperty(CoreConfig.ROLLUP_CACHE_ENABLED)) {
+            return null;
+        }
+        return new RollupBlockCache(
+                config.getLongProperty(CoreConfig.ROLLUP_CACHE_MAX_POINTS),
+                config.getIntegerProperty(CoreConfig.ROLLUP_CACHE_SLOTS_PER_BLOCK),
+                config.getLongProperty(CoreConfig.ROLLUP_DELAY_MILLIS),
+                TimeUnit.MINUTES.toMillis(config.getLongProperty(CoreConfig.ROLLUP_CACHE_MAX_AGE_MINUTES)));
+    }
+
+    /** Drops cached query results the given rollups were just written over, so a re-rolled slot is read again. */
+    public static void invalidateCachedRollups(Collection<SingleRollupWriteContext> rollups) {
+        if (rollupCache == null) {
+            return;
+        }
+        for (SingleRollupWriteContext rollup : rollups) {
+            rollupCache.invalidate(rollup.getLocator(), rollup.getGranularity(), rollup.getTimestamp());
+        }
+    }
 
     protected MetricData getRollupByGranularity(
             final String tenantId,
@@ -71,24 +101,11 @@ public class RollupHandler {
         final Locator locator = Locator.createLocatorFromPathComponents(tenantId, metricName);
 
         if (Util.shouldUseESForUnits()) {
-             unitFuture = Executors.newFixedThreadPool(1).submit(new Callable() {
-
-                 @Override
-                 public Object call() throws Exception {
-                     DiscoveryIO discoveryIO = QueryDiscoveryModuleLoader.getDiscoveryInstance();
-                     if (discoveryIO == null) {
-                         log.warn("USE_ES_FOR_UNITS has been set to true, but no discovery module found." +
-                                 " Please check your config");
-                         return null;
-                     }
-                     return discoveryIO.search(tenantId, metricName).get(0).getUnit();
-                 }
-             });
+            unitFuture = UnitCache.getInstance().getUnitAsync(locator);
         }
-        final MetricData metricData = AstyanaxReader.getInstance().getDatapointsForRange(
-                locator,
-                new Range(g.snapMillis(from), to),
-                g);
+        final MetricData metricData = rollupCache == null
+                ? readRollupByGranularity(locator, from, to, g)
+                : rollupCache.get(locator, from, to, g, System.currentTimeMillis(), rollupReader);
 
         if (unitFuture != null) {
             try {
@@ -100,6 +117,23 @@ public class RollupHandler {
             metricData.setUnit(unit == null ? Util.UNKNOWN : unit);
         }
 
+        ctx.stop();
+
+        if (g == Granularity.FULL) {
+            numFullPointsReturned.update(metricData.getData().getPoints().size());
+        } else {
+            numRollupPointsReturned.update(metricData.getData().getPoints().size());
+        }
+
+        return metricData;
+    }
+
+    private MetricData readRollupByGranularity(Locator locator, long from, long to, Granularity g) {
+        final MetricData metricData = AstyanaxReader.getInstance().getDatapointsForRange(
+                locator,
+                new Range(g.snapMillis(from), to),
+                g);
+
         boolean isRollable = metricData.getType().equals(MetricData.Type.NUMBER.toString())
                 || metricData.getType().equals(MetricData.Type.HISTOGRAM.toString());
 
@@ -149,14 +183,6 @@ public class RollupHandler {
             }
             rollupsCalcCtx.stop();
         }
-        ctx.stop();
-
-        if (g == Granularity.FULL) {
-            numFullPointsReturned.update(metricData.getData().getPoints().size());
-        } else {
-            numRollupPointsReturned.update(metricData.getData().getPoints().size());
-        }
-
         return metricData;
     }
 
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.rackspacecloud.blueflood.service;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+import com.netflix.astyanax.model.ColumnFamily;
+import com.rackspacecloud.blueflood.exceptions.GranularityException;
+import com.rackspacecloud.blueflood.io.AstyanaxReader;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.types.Rollup;
+import com.rackspacecloud.blueflood.types.RollupType;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Reads the source data for a chunk of locators in one query per rollup type, then hands every locator to a
+ * {@link RollupRunnable} on the rollup pool to compute and enqueue its rollup. The caller increments the read counter
+ * once per locator; each one is decremented exactly once, here or by the RollupRunnable it is handed to. A failed
+ * read marks the slot unsuccessful, so it is rolled again rather than completed without that data.
+ */
+class BatchedRollupRunnable implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(BatchedRollupRunnable.class);
+
+    private static final Timer batchReadTimer = Metrics.timer(RollupService.class, "Batched Rollup Read");
+    private static final Histogram batchSizeHist = Metrics.histogram(RollupService.class, "Batched Rollup Read Size");
+
+    private final RollupExecutionContext executionContext;
+    private final List<SingleRollupReadContext> readContexts;
+    private final RollupBatchWriter rollupBatchWriter;
+    private final ThreadPoolExecutor rollupReadExecutor;
+    private final AstyanaxReader reader;
+
+    BatchedRollupRunnable(RollupExecutionContext executionContext, List<SingleRollupReadContext> readContexts,
+                          RollupBatchWriter rollupBatchWriter, ThreadPoolExecutor rollupReadExecutor) {
+        this(executionContext, readContexts, rollupBatchWriter, rollupReadExecutor, AstyanaxReader.getInstance());
+    }
+
+    BatchedRollupRunnable(RollupExecutionContext executionContext, List<SingleRollupReadContext> readContexts,
+                          RollupBatchWriter rollupBatchWriter, ThreadPoolExecutor rollupReadExecutor,
+                          AstyanaxReader reader) {
+        this.reader = reader;
+        this.executionContext = executionContext;
+        this.readContexts = readContexts;
+        this.rollupBatchWriter = rollupBatchWriter;
+        this.rollupReadExecutor = rollupReadExecutor;
+    }
+
+    public void run() {
+        // every context in a chunk is for the same slot.
+        final Granularity rollupGran = readContexts.get(0).getRollupGranularity();
+        final Range range = readContexts.get(0).getRange();
+        final Granularity srcGran;
+        try {
+            srcGran = rollupGran.finer();
+        } catch (GranularityException ex) {
+            finish(readContexts);
+            return; // no work to be done.
+        }
+
+        final Map<RollupType, List<SingleRollupReadContext>> byType = new HashMap<RollupType, List<SingleRollupReadContext>>();
+        for (SingleRollupReadContext readContext : readContexts) {
+            try {
+                final RollupType rollupType = RollupRunnable.getRollupType(readContext.getLocator());
+                List<SingleRollupReadContext> sameType = byType.get(rollupType);
+                if (sameType == null) {
+                    sameType = new ArrayList<SingleRollupReadContext>();
+                    byType.put(rollupType, sameType);
+                }
+                sameType.add(readContext);
+            } catch (Exception e) {
+                log.error("Rollup failed; could not determine rollup type of " + readContext.getLocator(), e);
+                executionContext.decrementReadCounter();
+            }
+        }
+
+        for (Map.Entry<RollupType, List<SingleRollupReadContext>> entry : byType.entrySet()) {
+            final RollupType rollupType = entry.getKey();
+            final List<SingleRollupReadContext> sameType = entry.getValue();
+            final Map<Locator, Points<Rollup>> input;
+
+            final Timer.Context timerContext = batchReadTimer.time();
+            try {
+                final Class<? extends Rollup> rollupClass = RollupType.classOf(rollupType, rollupGran);
+                final ColumnFamily<Locator, Long> srcCF = CassandraModel.getColumnFamily(rollupClass, srcGran);
+                final List<Locator> locators = new ArrayList<Locator>(sameType.size());
+                for (SingleRollupReadContext readContext : sameType) {
+                    locators.add(readContext.getLocator());
+                }
+                batchSizeHist.update(locators.size());
+                input = reader.getDataToRoll((Class<Rollup>) rollupClass, locators, range, srcCF);
+            } catch (Exception e) {
+                executionContext.markUnsuccessful(e);
+                log.error(String.format("Batched rollup read failed for %d %s locators at %s", sameType.size(),
+                        rollupType, range), e);
+                finish(sameType);
+                continue;
+            } finally {
+                timerContext.stop();
+            }
+
+            for (SingleRollupReadContext readContext : sameType) {
+                final Points<Rollup> points = input.get(readContext.getLocator());
+                if (points == null) {
+                    // could not be deserialized; already logged by the reader.
+                    executionContext.decrementReadCounter();
+                    continue;
+                }
+                try {
+                    rollupReadExecutor.execute(new RollupRunnable(executionContext, readContext, rollupBatchWriter,
+                            rollupType, points));
+                } catch (Throwable any) {
+                    executionContext.markUnsuccessful(any);
+                    executionContext.decrementReadCounter();
+                    log.error("BasicRollup failed for " + readContext.getLocator() + " at " + range, any);
+                }
+            }
+        }
+    }
+
+    private void finish(List<SingleRollupReadContext> contexts) {
+        for (int i = 0; i < contexts.size(); i++) {
+            executionContext.decrementReadCounter();
+        }
+    }
+}
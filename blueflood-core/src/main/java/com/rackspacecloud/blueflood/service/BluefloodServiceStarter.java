@@ -17,6 +17,9 @@
 package com.rackspacecloud.blueflood.service;
 
 import com.rackspacecloud.blueflood.io.AstyanaxShardStateIO;
+import com.rackspacecloud.blueflood.io.AstyanaxWriter;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.io.FullResBlockRepacker;
 import com.rackspacecloud.blueflood.cache.MetadataCache;
 import com.rackspacecloud.blueflood.io.IMetricsWriter;
 import com.rackspacecloud.blueflood.utils.Metrics;
@@ -82,10 +85,38 @@ public class BluefloodServiceStarter {
         }
     }
 
+    private static void startWriteBehindRollups(ScheduleContext context) {
+        Configuration config = Configuration.getInstance();
+        if (!config.getBooleanProperty(CoreConfig.WRITE_BEHIND_ROLLUPS_ENABLED)) {
+            return;
+        }
+        // slots marked rolled here would never get their histograms.
+        if (!config.getBooleanProperty(CoreConfig.ROLLUP_MODE) || config.getBooleanProperty(CoreConfig.ENABLE_HISTOGRAMS)) {
+            log.warn("Write behind rollups need rollup mode on and histograms off; not starting them");
+            return;
+        }
+        WriteBehindRollupBuffer buffer = new WriteBehindRollupBuffer(context);
+        buffer.start();
+        context.setRollupBuffer(buffer);
+        log.info("Started write behind rollups");
+    }
+
+    private static void startFullResBlockRepacker() {
+        if (!CassandraModel.isFullResBlockStorage()) {
+            return;
+        }
+        FullResBlockRepacker repacker = new FullResBlockRepacker();
+        repacker.start();
+        AstyanaxWriter.getInstance().setFullResBlockRepacker(repacker);
+        log.info("Started full resolution block repacking");
+    }
+
     private static void startIngestServices(ScheduleContext context) {
         // start up ingestion services.
         Configuration config = Configuration.getInstance();
         if (config.getBooleanProperty(CoreConfig.INGEST_MODE)) {
+            startWriteBehindRollups(context);
+            startFullResBlockRepacker();
             List<String> modules = config.getListProperty(CoreConfig.INGESTION_MODULES);
             if (modules.isEmpty()) {
                 log.error("Ingestion mode is enabled, however no ingestion modules are enabled!");
@@ -32,10 +32,21 @@ public enum CoreConfig implements ConfigDefaults {
     QUERY_MODULES(""),
     DISCOVERY_MODULES(""),
     EVENT_LISTENER_MODULES(""),
+    // Rollup events are queued for the event listener modules and handed to them in batches of up to BATCH_SIZE,
+    // waiting at most BATCH_DELAY_MILLIS for a batch to fill. When the queue is full, BLOCK makes the rollup wait
+    // for room and DROP discards the event.
+    ROLLUP_EVENT_QUEUE_SIZE("10000"),
+    ROLLUP_EVENT_QUEUE_POLICY("BLOCK"),
+    ROLLUP_EVENT_BATCH_SIZE("100"),
+    ROLLUP_EVENT_BATCH_DELAY_MILLIS("100"),
+    ROLLUP_EVENT_THREADS("2"),
 
     MAX_LOCATOR_FETCH_THREADS("2"),
     MAX_ROLLUP_READ_THREADS("20"),
     MAX_ROLLUP_WRITE_THREADS("5"),
+    // how many slots may have rollups in flight at once. locator fetch threads hand a slot off and move on, so this
+    // is what bounds the rollup read and write queues.
+    MAX_CONCURRENT_SLOT_ROLLUPS("8"),
 
     DISCOVERY_WRITER_MIN_THREADS("5"),
     DISCOVERY_WRITER_MAX_THREADS("10"),
@@ -117,6 +128,8 @@ public enum CoreConfig implements ConfigDefaults {
 
     ROLLUP_BATCH_MIN_SIZE("5"),
     ROLLUP_BATCH_MAX_SIZE("100"),
+    // how many locators of a slot are read from cassandra in one key slice when rolling up. 1 reads them one by one.
+    ROLLUP_READ_BATCH_SIZE("100"),
 
     ENABLE_HISTOGRAMS("false"),
 
@@ -126,10 +139,34 @@ public enum CoreConfig implements ConfigDefaults {
     // Rollups repair on read
     REPAIR_ROLLUPS_ON_READ("true"),
 
+    // Cache query results in aligned blocks of slots on query nodes. Blocks are cached once they end more than
+    // ROLLUP_DELAY_MILLIS ago; newer data is read on every query. MAX_POINTS bounds the cache size. Rollups written
+    // by the same process drop the blocks they land in, but re-rolls of late data on other nodes do not: MAX_AGE is
+    // how long such a block can be served stale, so keep it near ROLLUP_DELAY_MILLIS, the lag late data already has.
+    ROLLUP_CACHE_ENABLED("false"),
+    ROLLUP_CACHE_MAX_POINTS("5000000"),
+    ROLLUP_CACHE_SLOTS_PER_BLOCK("12"),
+    ROLLUP_CACHE_MAX_AGE_MINUTES("5"),
+
+    // Compute 5m rollups of managed shards as metrics are ingested, and write them once the slot has been over for
+    // CLOSE_DELAY_MILLIS instead of reading metrics_full back. Later metrics for a slot fall back to a normal rollup.
+    // Only enable it where every metric of a managed shard is ingested by this node, and histograms are off.
+    WRITE_BEHIND_ROLLUPS_ENABLED("false"),
+    WRITE_BEHIND_ROLLUPS_CLOSE_DELAY_MILLIS("60000"),
+    // a slot with more locators than this is left to the rollup service.
+    WRITE_BEHIND_ROLLUPS_MAX_LOCATORS("2000000"),
+
     // valid options are: GEOMETRIC, LINEAR, and LESSTHANEQUAL
     GET_BY_POINTS_GRANULARITY_SELECTION("GEOMETRIC"),
 
     IMETRICS_WRITER("com.rackspacecloud.blueflood.io.AstyanaxMetricsWriter"),
+    // Write full resolution numeric points packed into compressed blocks in metrics_full_blocks instead of a column
+    // each in metrics_full. Reads take points older than a locator's first block from metrics_full. Ingestion nodes
+    // repack the blocks of a window into one once the window has been over for REPACK_DELAY_MILLIS. A node keeps track
+    // of at most REPACK_MAX_LOCATORS locators and windows to repack; windows of the others keep their small blocks.
+    FULL_RES_BLOCK_STORAGE("false"),
+    FULL_RES_BLOCK_REPACK_DELAY_MILLIS("600000"),
+    FULL_RES_BLOCK_REPACK_MAX_LOCATORS("500000"),
 
     METADATA_CACHE_PERSISTENCE_ENABLED("false"),
     METADATA_CACHE_PERSISTENCE_PATH("/dev/null"),
@@ -141,7 +178,34 @@ public enum CoreConfig implements ConfigDefaults {
     STRING_METRICS_DROPPED("false"),
     TENANTIDS_TO_KEEP(""),
 
-    USE_ES_FOR_UNITS("false");
+    USE_ES_FOR_UNITS("false"),
+    // How long a unit looked up from the discovery module is reused, and how many are kept.
+    UNIT_CACHE_TTL_MINS("10"),
+    UNIT_CACHE_MAX_SIZE("1000000"),
+    // Threads and queue shared by all unit lookups; a full queue runs the lookup on the caller.
+    UNIT_LOOKUP_THREADS("4"),
+    UNIT_LOOKUP_QUEUE_SIZE("1000"),
+
+    // Acknowledge ingestion once metrics are synced to a local commit log, and write them to cassandra in the
+    // background. Segments left in the directory are replayed on startup.
+    COMMIT_LOG_ENABLED("false"),
+    COMMIT_LOG_DIRECTORY("/var/lib/blueflood/commitlog"),
+    COMMIT_LOG_SEGMENT_SIZE_MB("32"),
+    // how many metrics the drainer hands to the write path at a time
+    COMMIT_LOG_DRAIN_BATCH_SIZE("1000"),
+    // how many of those batches may be in the write path at once
+    COMMIT_LOG_DRAIN_MAX_IN_FLIGHT("4"),
+    // ingest requests are turned away with a 503 while this many segments are waiting to be drained
+    COMMIT_LOG_MAX_SEGMENTS("32"),
+
+    // Locators already written to metrics_locator and discovery are remembered in a rotating off-heap bloom filter
+    // and written again once they have aged out of every generation. Memory is fixed by the expected number of
+    // locators per generation and the false positive rate; GENERATIONS * ROTATION_PERIOD must stay below the
+    // 7 day locator TTL. It is also the longest a false positive can hold back a locator write.
+    LOCATOR_FILTER_EXPECTED_LOCATORS("10000000"),
+    LOCATOR_FILTER_FALSE_POSITIVE_RATE("0.0001"),
+    LOCATOR_FILTER_GENERATIONS("2"),
+    LOCATOR_FILTER_ROTATION_PERIOD_MINS("120");
 
     static {
         Configuration.getInstance().loadDefaults(CoreConfig.values());
@@ -17,6 +17,9 @@
 package com.rackspacecloud.blueflood.service;
 
 import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.rackspacecloud.blueflood.io.AstyanaxReader;
 import com.rackspacecloud.blueflood.rollup.Granularity;
 import com.rackspacecloud.blueflood.rollup.SlotKey;
@@ -26,29 +29,37 @@ import com.rackspacecloud.blueflood.utils.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 
 /**
- * fetches locators for a given slot and feeds a worker queue with rollup work. When those are all done notifies the
- * RollupService that slot can be removed from running.
+ * fetches locators for a given slot and feeds a worker queue with rollup work. It does not wait for that work: the
+ * last rollup read or write to finish completes the execution context, which notifies the RollupService that slot can
+ * be removed from running and releases the slot's permit.
   */
 class LocatorFetchRunnable implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(LocatorFetchRunnable.class);
-    private static final int LOCATOR_WAIT_FOR_ALL_SECS = 1000;
-    
+
     private final ThreadPoolExecutor rollupReadExecutor;
     private final ThreadPoolExecutor rollupWriteExecutor;
     private final SlotKey parentSlotKey;
     private final ScheduleContext scheduleCtx;
     private final long serverTime;
+    private final Semaphore slotPermits;
     private static final Timer rollupLocatorExecuteTimer = Metrics.timer(RollupService.class, "Locate and Schedule Rollups for Slot");
     private static final boolean enableHistograms = Configuration.getInstance().
             getBooleanProperty(CoreConfig.ENABLE_HISTOGRAMS);
+    private static final int readBatchSize = Configuration.getInstance().
+            getIntegerProperty(CoreConfig.ROLLUP_READ_BATCH_SIZE);
 
-    LocatorFetchRunnable(ScheduleContext scheduleCtx, SlotKey destSlotKey, ThreadPoolExecutor rollupReadExecutor, ThreadPoolExecutor rollupWriteExecutor) {
+    LocatorFetchRunnable(ScheduleContext scheduleCtx, SlotKey destSlotKey, ThreadPoolExecutor rollupReadExecutor,
+                         ThreadPoolExecutor rollupWriteExecutor, Semaphore slotPermits) {
+        this.slotPermits = slotPermits;
         this.rollupReadExecutor = rollupReadExecutor;
         this.rollupWriteExecutor = rollupWriteExecutor;
         this.parentSlotKey = destSlotKey;
@@ -67,18 +78,20 @@ class LocatorFetchRunnable implements Runnable {
             gran.finer();
         } catch (Exception ex) {
             log.error("No finer granularity available than " + gran);
+            slotPermits.release();
             return;
         }
 
         if (log.isTraceEnabled())
             log.trace("Getting locators for {} {} @ {}", new Object[]{parentSlotKey, parentRange.toString(), scheduleCtx.getCurrentTimeMillis()});
         // todo: I can see this set becoming a memory hog.  There might be a better way of doing this.
-        long waitStart = System.currentTimeMillis();
+        final long waitStart = System.currentTimeMillis();
         int rollCount = 0;
 
-        final RollupExecutionContext executionContext = new RollupExecutionContext(Thread.currentThread());
+        final RollupExecutionContext executionContext = new RollupExecutionContext();
         final RollupBatchWriter rollupBatchWriter = new RollupBatchWriter(rollupWriteExecutor, executionContext);
         Set<Locator> locators = new HashSet<Locator>();
+        List<SingleRollupReadContext> readBatch = new ArrayList<SingleRollupReadContext>(Math.max(readBatchSize, 1));
 
         try {
             locators.addAll(AstyanaxReader.getInstance().getLocatorsToRollup(shard));
@@ -92,7 +105,17 @@ class LocatorFetchRunnable implements Runnable {
             try {
                 executionContext.incrementReadCounter();
                 final SingleRollupReadContext singleRollupReadContext = new SingleRollupReadContext(locator, parentRange, gran);
-                rollupReadExecutor.execute(new RollupRunnable(executionContext, singleRollupReadContext, rollupBatchWriter));
+                if (readBatchSize > 1) {
+                    // read in chunks; the rollup itself still runs per locator.
+                    readBatch.add(singleRollupReadContext);
+                    if (readBatch.size() >= readBatchSize) {
+                        final List<SingleRollupReadContext> chunk = readBatch;
+                        readBatch = new ArrayList<SingleRollupReadContext>(readBatchSize);
+                        executeBatch(executionContext, chunk, rollupBatchWriter);
+                    }
+                } else {
+                    rollupReadExecutor.execute(new RollupRunnable(executionContext, singleRollupReadContext, rollupBatchWriter));
+                }
                 rollCount += 1;
             } catch (Throwable any) {
                 // continue on, but log the problem so that we can fix things later.
@@ -123,33 +146,63 @@ class LocatorFetchRunnable implements Runnable {
                 }
             }
         }
+        if (!readBatch.isEmpty()) {
+            executeBatch(executionContext, readBatch, rollupBatchWriter);
+        }
         
-        // now wait until ctx is drained. someone needs to be notified.
-        log.debug("Waiting for rollups to finish for " + parentSlotKey);
-        while (!executionContext.doneReading() || !executionContext.doneWriting()) {
-            if (executionContext.doneReading()) {
-                rollupBatchWriter.drainBatch(); // gets any remaining rollups enqueued for put. should be no-op after being called once
+        // nothing waits for the rollups; whichever thread finishes the last read drains the writes, and whichever
+        // finishes the last write (or read, if there was nothing to write) completes the slot.
+        executionContext.getReadsComplete().addListener(new Runnable() {
+            @Override
+            public void run() {
+                rollupBatchWriter.drainAll();
             }
-            try {
-                Thread.currentThread().sleep(LOCATOR_WAIT_FOR_ALL_SECS * 1000);
-            } catch (InterruptedException ex) {
-                if (log.isTraceEnabled())
-                    log.trace("Woken wile waiting for rollups to coalesce for {} {}", parentSlotKey);
-            } finally {
-                String verb = executionContext.doneReading() ? "writing" : "reading";
-                log.debug("Still waiting for rollups to finish {} for {} {}", new Object[] {verb, parentSlotKey, System.currentTimeMillis() - waitStart });
+        }, MoreExecutors.sameThreadExecutor());
+        final int scheduledRollups = rollCount;
+        Futures.addCallback(executionContext.getComplete(), new FutureCallback<Boolean>() {
+            @Override
+            public void onSuccess(Boolean successful) {
+                finishSlot(successful, scheduledRollups, waitStart, timerCtx);
             }
-        }
-        if (log.isDebugEnabled())
-            log.debug("Finished {} rollups for (gran,slot,shard) {} in {}", new Object[] {rollCount, parentSlotKey, System.currentTimeMillis() - waitStart});
 
-        if (executionContext.wasSuccessful()) {
-            this.scheduleCtx.clearFromRunning(parentSlotKey);
-        } else {
-            log.error("Performing BasicRollups for {} failed", parentSlotKey);
-            this.scheduleCtx.pushBackToScheduled(parentSlotKey, false);
+            @Override
+            public void onFailure(Throwable t) {
+                log.error("Rollups for " + parentSlotKey + " did not complete", t);
+                finishSlot(false, scheduledRollups, waitStart, timerCtx);
+            }
+        });
+        log.debug("Scheduled rollups for {}; not waiting for them", parentSlotKey);
+        executionContext.doneScheduling();
+    }
+
+    private void finishSlot(boolean successful, int rollCount, long waitStart, Timer.Context timerCtx) {
+        try {
+            if (log.isDebugEnabled())
+                log.debug("Finished {} rollups for (gran,slot,shard) {} in {}", new Object[] {rollCount, parentSlotKey, System.currentTimeMillis() - waitStart});
+
+            if (successful) {
+                this.scheduleCtx.clearFromRunning(parentSlotKey);
+            } else {
+                log.error("Performing BasicRollups for {} failed", parentSlotKey);
+                this.scheduleCtx.pushBackToScheduled(parentSlotKey, false);
+            }
+        } finally {
+            slotPermits.release();
+            timerCtx.stop();
         }
+    }
 
-        timerCtx.stop();
+    private void executeBatch(RollupExecutionContext executionContext, List<SingleRollupReadContext> chunk,
+                              RollupBatchWriter rollupBatchWriter) {
+        try {
+            rollupReadExecutor.execute(new BatchedRollupRunnable(executionContext, chunk, rollupBatchWriter, rollupReadExecutor));
+        } catch (Throwable any) {
+            executionContext.markUnsuccessful(any);
+            for (int i = 0; i < chunk.size(); i++) {
+                executionContext.decrementReadCounter();
+            }
+            log.error(any.getMessage(), any);
+            log.error("BasicRollup failed for {} at {}", parentSlotKey, serverTime);
+        }
     }
 }
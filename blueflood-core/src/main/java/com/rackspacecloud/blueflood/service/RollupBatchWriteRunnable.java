@@ -20,6 +20,7 @@ import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Timer;
 import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
 import com.rackspacecloud.blueflood.io.AstyanaxWriter;
+import com.rackspacecloud.blueflood.outputs.handlers.RollupHandler;
 import com.rackspacecloud.blueflood.utils.Metrics;
 
 import java.util.ArrayList;
@@ -40,12 +41,18 @@ public class RollupBatchWriteRunnable  implements Runnable {
         Timer.Context ctx = batchWriteTimer.time();
         try {
             AstyanaxWriter.getInstance().insertRollups(writeContexts);
+            RollupHandler.invalidateCachedRollups(writeContexts);
         } catch (ConnectionException e) {
             executionContext.markUnsuccessful(e);
+        } catch (RuntimeException e) {
+            executionContext.markUnsuccessful(e);
+            throw e;
+        } finally {
+            // the slot completes on the last decrement, so this has to happen whatever went wrong.
+            executionContext.decrementWriteCounter(writeContexts.size());
+            rollupsPerBatch.update(writeContexts.size());
+            RollupService.lastRollupTime.set(System.currentTimeMillis());
+            ctx.stop();
         }
-        executionContext.decrementWriteCounter(writeContexts.size());
-        rollupsPerBatch.update(writeContexts.size());
-        RollupService.lastRollupTime.set(System.currentTimeMillis());
-        ctx.stop();
     }
 }
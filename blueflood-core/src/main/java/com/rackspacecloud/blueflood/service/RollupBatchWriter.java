@@ -64,4 +64,11 @@ public class RollupBatchWriter {
             executor.execute(new RollupBatchWriteRunnable(writeContexts, context));
         }
     }
+
+    // hands everything still queued to the executor, in batches of at most MAX_SIZE.
+    public synchronized void drainAll() {
+        while (!rollupQueue.isEmpty()) {
+            drainBatch();
+        }
+    }
 }
@@ -1,29 +1,35 @@
 package com.rackspacecloud.blueflood.service;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 // Context of execution for a single shard, representing many rollups of a given granularity.
 public class RollupExecutionContext {
     private final AtomicLong readCounter;
-    private final Thread owner;
     private final AtomicLong writeCounter;
     private final AtomicBoolean successful = new AtomicBoolean(true);
+    private volatile boolean scheduled = false;
+
+    // reads finish before writes; both only once everything was scheduled. see doneScheduling().
+    private final SettableFuture<Void> readsComplete = SettableFuture.create();
+    private final SettableFuture<Boolean> complete = SettableFuture.create();
 
-    public RollupExecutionContext(Thread owner) {
-        this.owner = owner;
+    public RollupExecutionContext() {
         this.readCounter = new AtomicLong(0L);
         this.writeCounter = new AtomicLong(0L);
     }
 
     void decrementReadCounter() {
         readCounter.decrementAndGet();
-        owner.interrupt(); // this is what interrupts that long sleep in LocatorFetchRunnable.
+        checkComplete();
     }
 
     void decrementWriteCounter(long count) {
         writeCounter.addAndGet((-1) * count);
-        owner.interrupt();
+        checkComplete();
     }
 
     void incrementReadCounter() {
@@ -49,4 +55,35 @@ public class RollupExecutionContext {
     void markUnsuccessful(Throwable t) {
         successful.set(false);
     }
+
+    /**
+     * Called once every read has been counted. Until then the counters may pass through zero while rollups are
+     * still being scheduled, so neither future can complete.
+     */
+    void doneScheduling() {
+        scheduled = true;
+        checkComplete();
+    }
+
+    /** Completes when the last read finishes; pending writes can be drained then. */
+    ListenableFuture<Void> getReadsComplete() {
+        return readsComplete;
+    }
+
+    /** Completes with {@link #wasSuccessful()} when the last read and the last write have finished. */
+    ListenableFuture<Boolean> getComplete() {
+        return complete;
+    }
+
+    private void checkComplete() {
+        if (!scheduled || readCounter.get() != 0) {
+            return;
+        }
+        // listeners run here, on the thread that finished the last read. they may enqueue the remaining writes.
+        readsComplete.set(null);
+        // every write is counted before the read that produced it, so no more can show up now.
+        if (writeCounter.get() == 0) {
+            complete.set(successful.get());
+        }
+    }
 }
@@ -20,6 +20,7 @@ import com.codahale.metrics.Meter;
 import com.codahale.metrics.Timer;
 import com.netflix.astyanax.model.ColumnFamily;
 import com.rackspacecloud.blueflood.cache.MetadataCache;
+import com.rackspacecloud.blueflood.exceptions.CacheException;
 import com.rackspacecloud.blueflood.exceptions.GranularityException;
 import com.rackspacecloud.blueflood.io.AstyanaxReader;
 import com.rackspacecloud.blueflood.io.CassandraModel;
@@ -49,6 +50,10 @@ public class RollupRunnable implements Runnable {
     protected final RollupBatchWriter rollupBatchWriter;
     protected final long startWait;
 
+    // set when the points were already read as part of a batch, see BatchedRollupRunnable.
+    private final RollupType prefetchedType;
+    private final Points prefetchedInput;
+
     private static final Timer calcTimer = Metrics.timer(RollupRunnable.class, "Read And Calculate Rollup");
     private static final Meter noPointsToCalculateRollup = Metrics.meter(RollupRunnable.class, "No points to calculate rollup");
     private static HashMap<Granularity, Meter> granToMeters = new HashMap<Granularity, Meter>();
@@ -60,9 +65,16 @@ public class RollupRunnable implements Runnable {
     }
 
     public RollupRunnable(RollupExecutionContext executionContext, SingleRollupReadContext singleRollupReadContext, RollupBatchWriter rollupBatchWriter) {
+        this(executionContext, singleRollupReadContext, rollupBatchWriter, null, null);
+    }
+
+    RollupRunnable(RollupExecutionContext executionContext, SingleRollupReadContext singleRollupReadContext,
+                   RollupBatchWriter rollupBatchWriter, RollupType prefetchedType, Points prefetchedInput) {
         this.executionContext = executionContext;
         this.singleRollupReadContext = singleRollupReadContext;
         this.rollupBatchWriter = rollupBatchWriter;
+        this.prefetchedType = prefetchedType;
+        this.prefetchedInput = prefetchedInput;
         startWait = System.currentTimeMillis();
     }
     
@@ -96,16 +108,19 @@ public class RollupRunnable implements Runnable {
             // Read data and compute rollup
             Points input;
             Rollup rollup = null;
-            RollupType rollupType = RollupType.fromString((String) rollupTypeCache.get(
-                    singleRollupReadContext.getLocator(), MetricMetadata.ROLLUP_TYPE.name().toLowerCase()));
+            RollupType rollupType = prefetchedType != null ? prefetchedType : getRollupType(singleRollupReadContext.getLocator());
             Class<? extends Rollup> rollupClass = RollupType.classOf(rollupType, srcGran.coarser());
             ColumnFamily<Locator, Long> srcCF = CassandraModel.getColumnFamily(rollupClass, srcGran);
             ColumnFamily<Locator, Long> dstCF = CassandraModel.getColumnFamily(rollupClass, srcGran.coarser());
 
             try {
                 // first, get the points.
-                input = AstyanaxReader.getInstance().getDataToRoll(rollupClass,
-                        singleRollupReadContext.getLocator(), singleRollupReadContext.getRange(), srcCF);
+                if (prefetchedInput != null) {
+                    input = prefetchedInput;
+                } else {
+                    input = AstyanaxReader.getInstance().getDataToRoll(rollupClass,
+                            singleRollupReadContext.getLocator(), singleRollupReadContext.getRange(), srcCF);
+                }
 
                 if (input.isEmpty()) {
                     noPointsToCalculateRollup.mark();
@@ -121,10 +136,9 @@ public class RollupRunnable implements Runnable {
             rollupBatchWriter.enqueueRollupForWrite(new SingleRollupWriteContext(rollup, singleRollupReadContext, dstCF));
 
             RollupService.lastRollupTime.set(System.currentTimeMillis());
-            //Emit a rollup event to eventemitter
+            // Emit a rollup event to eventemitter; the emitter looks the unit up off the rollup threads.
             RollupEventEmitter.getInstance().emit(RollupEventEmitter.ROLLUP_EVENT_NAME,
-                    new RollupEvent(singleRollupReadContext.getLocator(), rollup,
-                            AstyanaxReader.getUnitString(singleRollupReadContext.getLocator()),
+                    new RollupEvent(singleRollupReadContext.getLocator(), rollup, null,
                             singleRollupReadContext.getRollupGranularity().name(),
                             singleRollupReadContext.getRange().getStart()));
         } catch (Exception e) {
@@ -139,6 +153,10 @@ public class RollupRunnable implements Runnable {
         }
     }
 
+    static RollupType getRollupType(Locator locator) throws CacheException {
+        return RollupType.fromString((String) rollupTypeCache.get(locator, MetricMetadata.ROLLUP_TYPE.name().toLowerCase()));
+    }
+
     // dertmine which DataType to use for serialization.
     public static Rollup.Type getRollupComputer(RollupType srcType, Granularity srcGran) {
         switch (srcType) {
@@ -44,6 +44,9 @@ public class RollupService implements Runnable, RollupServiceMBean {
     private final ThreadPoolExecutor locatorFetchExecutors;
     private final ThreadPoolExecutor rollupReadExecutors;
     private final ThreadPoolExecutor rollupWriteExecutors;
+    // locator fetch threads do not wait for their slot to finish, so this bounds how many slots are in flight.
+    private final Semaphore slotPermits = new Semaphore(
+            Configuration.getInstance().getIntegerProperty(CoreConfig.MAX_CONCURRENT_SLOT_ROLLUPS));
     private long pollerPeriod = Configuration.getInstance().getIntegerProperty(CoreConfig.SCHEDULE_POLL_PERIOD);
     private final long configRefreshInterval = Configuration.getInstance().getIntegerProperty(CoreConfig.CONFIG_REFRESH_PERIOD);
     private transient Thread thread;
@@ -202,16 +205,25 @@ public class RollupService implements Runnable, RollupServiceMBean {
 
             // if there are schedules slots, run what we can.
             boolean rejected = false;
-            while (context.hasScheduled() && !rejected && active) {
+            boolean saturated = false;
+            while (context.hasScheduled() && !rejected && !saturated && active) {
+                if (!slotPermits.tryAcquire()) {
+                    saturated = true;
+                    continue;
+                }
                 final SlotKey slotKey = context.getNextScheduled();
-                if (slotKey == null) { continue; }
+                if (slotKey == null) {
+                    slotPermits.release();
+                    continue;
+                }
                 try {
                     log.debug("Scheduling slotKey {} @ {}", slotKey, context.getCurrentTimeMillis());
-                    locatorFetchExecutors.execute(new LocatorFetchRunnable(context, slotKey, rollupReadExecutors, rollupWriteExecutors));
+                    locatorFetchExecutors.execute(new LocatorFetchRunnable(context, slotKey, rollupReadExecutors, rollupWriteExecutors, slotPermits));
                 } catch (RejectedExecutionException ex) {
                     // puts it back at the top of the list of scheduled slots.  When this happens it means that
                     // there is too much rollup work to do. if the CPU cores are not tapped out, it means you don't
                     // have enough threads allocated to processing rollups or slot checks.
+                    slotPermits.release();
                     rejectedSlotChecks.mark();
                     context.pushBackToScheduled(slotKey, true);
                     rejected = true;
@@ -222,7 +234,15 @@ public class RollupService implements Runnable, RollupServiceMBean {
                 log.error("It took longer than {} to poll for rollups.", pollerPeriod);
             else
                 try {
-                    thread.sleep(Math.max(0, pollerPeriod - endRun + startRun));
+                    final long remaining = Math.max(0, pollerPeriod - endRun + startRun);
+                    if (saturated) {
+                        // come back as soon as a slot finishes rather than a whole poll period later.
+                        if (slotPermits.tryAcquire(remaining, TimeUnit.MILLISECONDS)) {
+                            slotPermits.release();
+                        }
+                    } else {
+                        thread.sleep(remaining);
+                    }
                 } catch (Exception ex) {
                     log.debug("RollupService poller woke up");
                 }
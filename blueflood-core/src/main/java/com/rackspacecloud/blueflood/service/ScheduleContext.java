@@ -42,6 +42,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 // keeps track of dirty slots in memory. Operations must be threadsafe.
@@ -70,13 +72,14 @@ public class ScheduleContext implements IngestionContext, ScheduleContextMBean {
     //
     private final Meter shardOwnershipChanged = Metrics.meter(ScheduleContext.class, "Shard Change Before Running");
 
-    // these are all the slots that are scheduled to run in no particular order. the collection is synchronized to 
-    // control updates.
-    private final Set<SlotKey> scheduledSlots = new HashSet<SlotKey>();
+    // these are all the slots that are scheduled to run in no particular order. the scheduler side synchronizes on the
+    // collection for compound updates; ingestion only ever removes single keys, which the concurrent set makes safe
+    // without the monitor, so dirtying a slot never waits on a scheduling pass.
+    private final Set<SlotKey> scheduledSlots = Collections.newSetFromMap(new ConcurrentHashMap<SlotKey, Boolean>());
     
     // same information as scheduledSlots, but order is preserved.  The ordered property is only needed for getting the
-    // the next scheduled slot, but most operations are concerned with if a slot is scheduled or not.  When you update
-    // one, you must update the other.
+    // the next scheduled slot, but most operations are concerned with if a slot is scheduled or not.  When you add to
+    // one, you must add to the other; only ever touched while synchronized on scheduledSlots.
     private final List<SlotKey> orderedScheduledSlots = new ArrayList<SlotKey>();
     
     // slots that are running are not scheduled.
@@ -85,6 +88,19 @@ public class ScheduleContext implements IngestionContext, ScheduleContextMBean {
     // shard lock manager
     private final ShardLockManager lockManager;
 
+    // computes 5m rollups of managed shards on ingestion, when enabled.
+    private volatile WriteBehindRollupBuffer rollupBuffer;
+
+    // the latest update this node made to each 5m slot of managed shards, kept while there is a rollup buffer. a stamp
+    // newer than this was merged from another node, whose metrics the buffer has not seen. a remote update with an
+    // earlier collection time leaves no trace in the stamp, so this is a partial check only: write behind rollups
+    // still need this node to ingest every metric of the shard. entries outlive the time the buffer keeps a slot
+    // open; a missing one only means a slot is left to the rollup service.
+    private final ConcurrentMap<SlotKey, Long> localUpdates = CacheBuilder.newBuilder()
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .<SlotKey, Long>build()
+            .asMap();
+
     public ScheduleContext(long currentTimeMillis, Collection<Integer> managedShards) {
         this.scheduleTime = currentTimeMillis;
         this.shardStateManager = new ShardStateManager(managedShards, asMillisecondsSinceEpochTicker());
@@ -108,12 +124,61 @@ public class ScheduleContext implements IngestionContext, ScheduleContextMBean {
         return this.shardStateManager;
     }
 
+    public void setRollupBuffer(WriteBehindRollupBuffer rollupBuffer) {
+        this.rollupBuffer = rollupBuffer;
+    }
+
+    /** The buffer ingestion feeds written metrics to, or null if write behind rollups are off. */
+    public WriteBehindRollupBuffer getRollupBuffer() {
+        return rollupBuffer;
+    }
+
+    boolean isManaged(int shard) {
+        return shardStateManager.contains(shard);
+    }
+
+    // true if nothing in the slot is waiting to be rolled up.
+    boolean isRolledOrUnknown(SlotKey key) {
+        final UpdateStamp stamp = shardStateManager.getUpdateStamp(key);
+        return stamp == null || stamp.getState() == UpdateStamp.State.Rolled;
+    }
+
+    /**
+     * Marks an active slot rolled without running it, once its rollups have been written some other way. Nothing is
+     * marked if the slot is already scheduled or running, if this node cannot work on its shard, or if the slot was
+     * updated more recently than this node last updated it. Updates other nodes made with earlier collection times
+     * are not detected; see CoreConfig.WRITE_BEHIND_ROLLUPS_ENABLED.
+     */
+    boolean markSlotRolled(SlotKey key) {
+        final Long localUpdate = localUpdates.remove(key);
+        synchronized (scheduledSlots) {
+            synchronized (runningSlots) {
+                if (scheduledSlots.contains(key) || runningSlots.containsKey(key) || !canWorkOnShard(key.getShard())) {
+                    return false;
+                }
+                final UpdateStamp stamp = shardStateManager.getUpdateStamp(key);
+                if (stamp == null || stamp.getState() != UpdateStamp.State.Active) {
+                    return false;
+                }
+                // catches a later remote update only; an earlier one is merged into a stamp that does not show it.
+                if (localUpdate == null || stamp.getTimestamp() > localUpdate) {
+                    return false;
+                }
+                // same as a rollup that ran: coarser slots need rolling, and the rolled state is persisted.
+                shardStateManager.setAllCoarserSlotsDirtyForSlot(key);
+                stamp.setState(UpdateStamp.State.Rolled);
+                stamp.setDirty(true);
+                return true;
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     public void update(long millis, int shard) {
-        // there are two update paths. for managed shards, we must guard the scheduled and running collections.  but
-        // for unmanaged shards, we just let the update happen uncontested.
+        // there are two update paths. for managed shards, the slot is descheduled.  for unmanaged shards, only the
+        // stamp is updated. neither takes a lock: the stamps are concurrent maps, and so is scheduledSlots.
         final Timer.Context dirtyTimerCtx = markSlotDirtyTimer.time();
         try {
             if (log.isTraceEnabled()) {
@@ -125,11 +190,12 @@ public class ScheduleContext implements IngestionContext, ScheduleContextMBean {
                 int slot = g.slot(millis);
 
                 if (isManaged) {
-                    synchronized (scheduledSlots) { //put
-                        SlotKey key = SlotKey.of(g, slot, shard);
-                        if (scheduledSlots.remove(key) && log.isDebugEnabled()) {
-                            log.debug("descheduled {}.", key);// don't worry about orderedScheduledSlots
-                        }
+                    SlotKey key = SlotKey.of(g, slot, shard);
+                    if (scheduledSlots.remove(key) && log.isDebugEnabled()) {
+                        log.debug("descheduled {}.", key);// don't worry about orderedScheduledSlots
+                    }
+                    if (g == Granularity.MIN_5 && rollupBuffer != null) {
+                        recordLocalUpdate(key, millis);
                     }
                 }
                 slotStateManager.createOrUpdateForSlotAndMillisecond(slot, millis);
@@ -139,6 +205,15 @@ public class ScheduleContext implements IngestionContext, ScheduleContextMBean {
         }
     }
 
+    private void recordLocalUpdate(SlotKey key, long millis) {
+        while (true) {
+            final Long previous = localUpdates.putIfAbsent(key, millis);
+            if (previous == null || previous >= millis || localUpdates.replace(key, previous, millis)) {
+                return;
+            }
+        }
+    }
+
     // iterates over all active slots, scheduling those that haven't been updated in maxAgeMillis.
     // only one thread should be calling in this puppy.
     void scheduleSlotsOlderThan(long maxAgeMillis) {
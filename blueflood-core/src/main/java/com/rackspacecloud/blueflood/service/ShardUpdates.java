@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.utils.Metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the slot updates of a batch of metrics, so that each (shard, 5m slot) is applied to an
+ * {@link IngestionContext} once, with the latest collection time seen for it, instead of once per metric. Every coarser
+ * slot is made of whole 5m slots, so this dirties exactly the slots the per-metric updates would have. Updates are
+ * applied oldest first, so a coarser slot spanning several of them also ends up with the latest time.
+ *
+ * This class is NOT threadsafe; use one per batch.
+ */
+public class ShardUpdates {
+    private static final Meter recordedUpdates = Metrics.meter(ShardUpdates.class, "Updates Recorded");
+    private static final Meter appliedUpdates = Metrics.meter(ShardUpdates.class, "Updates Applied");
+    // per batch, the share of recorded updates that did not need applying. 0 when every metric had a slot of its own.
+    private static final Histogram reduction = Metrics.histogram(ShardUpdates.class, "Updates Saved Percent");
+
+    private static final Comparator<Map.Entry<Long, Long>> OLDEST_FIRST = new Comparator<Map.Entry<Long, Long>>() {
+        @Override
+        public int compare(Map.Entry<Long, Long> a, Map.Entry<Long, Long> b) {
+            return a.getValue().compareTo(b.getValue());
+        }
+    };
+
+    // (shard << 32 | 5m slot) to the latest collection time in it.
+    private final Map<Long, Long> latest = new HashMap<Long, Long>();
+    private int recorded = 0;
+
+    public void update(long millis, int shard) {
+        final Long key = ((long) shard << 32) | Granularity.MIN_5.slot(millis);
+        final Long previous = latest.get(key);
+        if (previous == null || previous < millis) {
+            latest.put(key, millis);
+        }
+        recorded++;
+    }
+
+    /** The number of updates {@link #flush(IngestionContext)} would apply. */
+    public int size() {
+        return latest.size();
+    }
+
+    /** Applies the collected updates to <code>context</code> and starts over. */
+    public void flush(IngestionContext context) {
+        if (recorded == 0) {
+            return;
+        }
+        final List<Map.Entry<Long, Long>> updates = new ArrayList<Map.Entry<Long, Long>>(latest.entrySet());
+        Collections.sort(updates, OLDEST_FIRST);
+        for (Map.Entry<Long, Long> update : updates) {
+            context.update(update.getValue(), (int) (update.getKey() >>> 32));
+        }
+
+        recordedUpdates.mark(recorded);
+        appliedUpdates.mark(updates.size());
+        reduction.update((recorded - updates.size()) * 100L / recorded);
+        latest.clear();
+        recorded = 0;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
+import com.rackspacecloud.blueflood.eventemitter.RollupEvent;
+import com.rackspacecloud.blueflood.eventemitter.RollupEventEmitter;
+import com.rackspacecloud.blueflood.io.AstyanaxWriter;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.outputs.handlers.RollupHandler;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.rollup.SlotKey;
+import com.rackspacecloud.blueflood.types.BasicRollupAccumulator;
+import com.rackspacecloud.blueflood.types.IMetric;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Metric;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes 5m rollups of basic numeric metrics as they are ingested, so the rollup service does not have to read
+ * metrics_full back to compute them. Only the current and previous 5m slots of shards this node manages are kept.
+ * Once a slot has been over for WRITE_BEHIND_ROLLUPS_CLOSE_DELAY_MILLIS, its rollups are written to metrics_5m and
+ * the slot is marked rolled in the {@link ScheduleContext}.
+ * <p/>
+ * A slot is only written and marked rolled if every metric of it ingested on this node was accumulated. A metric
+ * that arrives after its slot closed, a metric that is not a basic numeric one, a slot already dirty when it was
+ * first seen or a full buffer leave the slot to the rollup service, which rolls it from metrics_full as usual.
+ * Metrics ingested by other nodes are not seen; see CoreConfig.WRITE_BEHIND_ROLLUPS_ENABLED.
+ */
+public class WriteBehindRollupBuffer {
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindRollupBuffer.class);
+    private static final Granularity GRAN = Granularity.MIN_5;
+    private static final long SLOT_MILLIS = GRAN.milliseconds();
+
+    private final Meter rolledSlots = Metrics.meter(WriteBehindRollupBuffer.class, "Slots Rolled");
+    private final Meter skippedSlots = Metrics.meter(WriteBehindRollupBuffer.class, "Slots Left To Rollup Service");
+    private final Meter lateMetrics = Metrics.meter(WriteBehindRollupBuffer.class, "Late Metrics");
+    private final Timer flushTimer = Metrics.timer(WriteBehindRollupBuffer.class, "Slot Flush Duration");
+
+    private final ScheduleContext context;
+    private final long closeDelayMillis;
+    private final int maxLocators;
+
+    private final ConcurrentMap<SlotKey, OpenSlot> openSlots = new ConcurrentHashMap<SlotKey, OpenSlot>();
+    // locators with an accumulator, summed over all open slots.
+    private final AtomicInteger locatorCount = new AtomicInteger(0);
+
+    private ScheduledThreadPoolExecutor closer;
+
+    public WriteBehindRollupBuffer(ScheduleContext context) {
+        this(context,
+                Configuration.getInstance().getLongProperty(CoreConfig.WRITE_BEHIND_ROLLUPS_CLOSE_DELAY_MILLIS),
+                Configuration.getInstance().getIntegerProperty(CoreConfig.WRITE_BEHIND_ROLLUPS_MAX_LOCATORS));
+    }
+
+    WriteBehindRollupBuffer(ScheduleContext context, long closeDelayMillis, int maxLocators) {
+        this.context = context;
+        this.closeDelayMillis = closeDelayMillis;
+        this.maxLocators = maxLocators;
+        final String gaugeName = MetricRegistry.name(WriteBehindRollupBuffer.class, "Buffered Locators");
+        Metrics.getRegistry().remove(gaugeName);
+        Metrics.getRegistry().register(gaugeName, new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return locatorCount.get();
+            }
+        });
+    }
+
+    /** Starts closing slots in the background, checking every second. */
+    public synchronized void start() {
+        if (closer != null) {
+            return;
+        }
+        closer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Write Behind Rollups");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        closer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    closeSlots(System.currentTimeMillis());
+                } catch (Throwable th) {
+                    log.error("Could not close write behind rollup slots", th);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Accumulates metrics that have been written to cassandra. Must be called before their slots are marked dirty
+     * through {@link ScheduleContext#update(long, int)}.
+     */
+    public void add(Collection<IMetric> metrics) {
+        add(metrics, System.currentTimeMillis());
+    }
+
+    void add(Collection<IMetric> metrics, long now) {
+        final long current = GRAN.snapMillis(now);
+        for (IMetric metric : metrics) {
+            final int shard = metric.getLocator().getShard();
+            if (!context.isManaged(shard)) {
+                continue;
+            }
+            final long collectionTime = metric.getCollectionTime();
+            final long start = GRAN.snapMillis(collectionTime);
+            final SlotKey key = SlotKey.of(GRAN, GRAN.slot(collectionTime), shard);
+
+            OpenSlot slot = openSlots.get(key);
+            if (slot == null) {
+                // only the current and previous slots are opened, and never once they are due to be closed.
+                if (start > current || start < current - SLOT_MILLIS || start + SLOT_MILLIS + closeDelayMillis <= now) {
+                    continue;
+                }
+                final OpenSlot created = new OpenSlot(key, start);
+                slot = openSlots.putIfAbsent(key, created);
+                if (slot == null) {
+                    slot = created;
+                    // anything already waiting to be rolled in this slot was ingested before it was opened.
+                    if (!context.isRolledOrUnknown(key)) {
+                        slot.skip();
+                    }
+                }
+            }
+            slot.add(metric);
+        }
+    }
+
+    /** Writes the rollups of slots that have been over for long enough, and marks them rolled. */
+    void closeSlots(long now) {
+        for (OpenSlot slot : openSlots.values()) {
+            if (slot.start + SLOT_MILLIS + closeDelayMillis <= now) {
+                slot.close();
+                openSlots.remove(slot.key);
+            }
+        }
+    }
+
+    int getOpenSlotCount() {
+        return openSlots.size();
+    }
+
+    /** Writes the rollups of a slot and emits their events, as RollupRunnable does. */
+    protected void persist(ArrayList<SingleRollupWriteContext> rollups) throws ConnectionException {
+        AstyanaxWriter.getInstance().insertRollups(rollups);
+        RollupHandler.invalidateCachedRollups(rollups);
+        if (!RollupEventEmitter.getInstance().hasListeners(RollupEventEmitter.ROLLUP_EVENT_NAME)) {
+            return;
+        }
+        final RollupEvent[] events = new RollupEvent[rollups.size()];
+        for (int i = 0; i < events.length; i++) {
+            final SingleRollupWriteContext rollup = rollups.get(i);
+            events[i] = new RollupEvent(rollup.getLocator(), rollup.getRollup(), null, GRAN.name(), rollup.getTimestamp());
+        }
+        RollupEventEmitter.getInstance().emit(RollupEventEmitter.ROLLUP_EVENT_NAME, events);
+    }
+
+    private class OpenSlot {
+        private final SlotKey key;
+        private final long start;
+        private Map<Locator, BasicRollupAccumulator> accumulators = new HashMap<Locator, BasicRollupAccumulator>();
+        private boolean closed = false;
+        // set when a metric of the slot was not accumulated; the rollup service has to roll it.
+        private boolean skipped = false;
+
+        private OpenSlot(SlotKey key, long start) {
+            this.key = key;
+            this.start = start;
+        }
+
+        private synchronized void skip() {
+            if (!skipped) {
+                skipped = true;
+                locatorCount.addAndGet(-accumulators.size());
+                accumulators.clear();
+            }
+        }
+
+        private synchronized void add(IMetric metric) {
+            if (closed) {
+                // the slot may be being marked rolled; this keeps it from being.
+                lateMetrics.mark();
+                skipped = true;
+                return;
+            }
+            if (skipped) {
+                return;
+            }
+            final Object value = metric.getMetricValue();
+            if (!(metric instanceof Metric) || !(value instanceof Number)) {
+                skip();
+                return;
+            }
+            BasicRollupAccumulator accumulator = accumulators.get(metric.getLocator());
+            if (accumulator == null) {
+                if (locatorCount.incrementAndGet() > maxLocators) {
+                    locatorCount.decrementAndGet();
+                    skip();
+                    return;
+                }
+                accumulator = new BasicRollupAccumulator();
+                accumulators.put(metric.getLocator(), accumulator);
+            }
+            if (value instanceof Double || value instanceof Float) {
+                accumulator.add(((Number) value).doubleValue());
+            } else {
+                accumulator.add(((Number) value).longValue());
+            }
+        }
+
+        // the slot's lock is only held to take its accumulators and, once they are written, to mark it rolled; a
+        // metric arriving in between finds it closed and sets skipped, so the slot is not marked rolled. one arriving
+        // once it is marked waits for the lock, and then marks it dirty again.
+        private void close() {
+            final Map<Locator, BasicRollupAccumulator> closing;
+            synchronized (this) {
+                closed = true;
+                closing = accumulators;
+                accumulators = new HashMap<Locator, BasicRollupAccumulator>();
+                locatorCount.addAndGet(-closing.size());
+                if (skipped || closing.isEmpty()) {
+                    skippedSlots.mark();
+                    return;
+                }
+            }
+            final ArrayList<SingleRollupWriteContext> rollups = new ArrayList<SingleRollupWriteContext>(closing.size());
+            for (Map.Entry<Locator, BasicRollupAccumulator> entry : closing.entrySet()) {
+                rollups.add(new SingleRollupWriteContext(entry.getValue().toRollup(), entry.getKey(), GRAN,
+                        CassandraModel.CF_METRICS_5M, start));
+            }
+            final Timer.Context ctx = flushTimer.time();
+            try {
+                persist(rollups);
+            } catch (ConnectionException ex) {
+                log.warn("Could not write rollups of " + key + "; leaving it to the rollup service", ex);
+                skippedSlots.mark();
+                return;
+            } finally {
+                ctx.stop();
+            }
+            synchronized (this) {
+                if (!skipped && context.markSlotRolled(key)) {
+                    rolledSlots.mark();
+                } else {
+                    skippedSlots.mark();
+                }
+            }
+        }
+    }
+}
@@ -22,6 +22,9 @@ import com.netflix.astyanax.retry.RetryNTimes;
 import com.netflix.astyanax.thrift.ThriftFamilyFactory;
 import com.netflix.astyanax.util.RangeBuilder;
 import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.io.serializers.FullResBlockSerializer;
+import com.rackspacecloud.blueflood.io.serializers.NumericColumnDecoder;
+import com.rackspacecloud.blueflood.types.ColumnarPoints;
 import com.rackspacecloud.blueflood.types.Locator;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.GnuParser;
@@ -35,6 +38,7 @@ import org.apache.log4j.Logger;
 
 import javax.xml.bind.DatatypeConverter;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -68,6 +72,7 @@ public class Migration {
     private static final String VERIFY = "verify";
     private static final String DISCOVER = "discover";
     private static final String RATE = "rate";
+    private static final String TO_BLOCKS = "toblocks";
     
     private static final PrintStream out = System.out;
     
@@ -86,6 +91,7 @@ public class Migration {
         cliOptions.addOption(OptionBuilder.withDescription("[optional] verify a sampling 0.5% of data copied").create(VERIFY));
         cliOptions.addOption(OptionBuilder.withDescription("[optional] discover and query other cassandra nodes").create(DISCOVER));
         cliOptions.addOption(OptionBuilder.hasArg().withDescription("[optional] maximum number of columns per/second to transfer. default=500").create(RATE));
+        cliOptions.addOption(OptionBuilder.withDescription("[optional] write metrics_full (or repack metrics_full_blocks) as compressed blocks in metrics_full_blocks. from and to are widened to whole blocks.").create(TO_BLOCKS));
     }
     
     private static long nowInSeconds() {
@@ -120,9 +126,11 @@ public class Migration {
         final long startClockTime = nowInSeconds();
 
         // establish column range.
-        final ByteBufferRange range = new RangeBuilder()
-                .setStart((Long) options.get(FROM))
-                .setEnd((Long) options.get(TO)).build();
+        final ColumnFamily<Locator, Long> srcColumnFamily = (ColumnFamily<Locator, Long>) options.get(COLUMN_FAMILY);
+        final ByteBufferRange range = columnRange(srcColumnFamily, (Long) options.get(FROM), (Long) options.get(TO));
+        final ByteBufferRange dstRange = (Boolean) options.get(TO_BLOCKS)
+                ? columnRange(CassandraModel.CF_METRICS_FULL_BLOCKS, (Long) options.get(FROM), (Long) options.get(TO))
+                : range;
         
         // create a threadpool that will write stuff into the destination.
         final ThreadPoolExecutor destWriteExecutor = new ThreadPoolExecutor(writeThreads, writeThreads,
@@ -147,6 +155,7 @@ public class Migration {
         
         final AtomicLong heartbeat = new AtomicLong(System.currentTimeMillis());
         final boolean verify = (Boolean)options.get(VERIFY);
+        final boolean toBlocks = (Boolean)options.get(TO_BLOCKS);
         final Random random = new Random(System.nanoTime());
         
         // indicate what's going to happen.
@@ -162,6 +171,7 @@ public class Migration {
         
         try {
             final ColumnFamily<Locator, Long> columnFamily = (ColumnFamily<Locator, Long>)options.get(COLUMN_FAMILY);
+            final ColumnFamily<Locator, Long> dstColumnFamily = toBlocks ? CassandraModel.CF_METRICS_FULL_BLOCKS : columnFamily;
             
             // when we skip, we'd like the batch size to be larger. that way, if the user specified a small batch size,
             // we don't spend a lot of time iterating through nothing. this should reduce the number of rount trips to
@@ -249,13 +259,17 @@ public class Migration {
                                         
                                         // copy the column.
                                         MutationBatch batch = dstKeyspace.prepareMutationBatch();
-                                        ColumnListMutation<Long> mutation = batch.withRow(columnFamily, locatorCapture);
+                                        ColumnListMutation<Long> mutation = batch.withRow(dstColumnFamily, locatorCapture);
 
                                         assert ttl != 0;
                                         long colCount = 0;
-                                        for (Column<Long> c : row.getColumns()) {
-                                            mutation.putColumn(c.getName(), c.getByteBufferValue(), ttl);
-                                            colCount += 1;
+                                        if (toBlocks) {
+                                            colCount = writeBlocks(row.getColumns(), columnFamily, mutation, ttl);
+                                        } else {
+                                            for (Column<Long> c : row.getColumns()) {
+                                                mutation.putColumn(c.getName(), c.getByteBufferValue(), ttl);
+                                                colCount += 1;
+                                            }
                                         }
                                         columnsTransferred.addAndGet(colCount);
                                         
@@ -269,12 +283,16 @@ public class Migration {
                                                                 .withColumnRange(range)
                                                                 .execute()
                                                                 .getResult();
-                                                        ColumnList<Long> dstData = dstKeyspace.prepareQuery(columnFamily).getKey(locatorCapture)
-                                                                .withColumnRange(range)
+                                                        ColumnList<Long> dstData = dstKeyspace.prepareQuery(dstColumnFamily).getKey(locatorCapture)
+                                                                .withColumnRange(dstRange)
                                                                 .execute()
                                                                 .getResult();
                                                         
-                                                        checkSameResults(srcData, dstData);
+                                                        if (toBlocks) {
+                                                            checkSamePoints(toPoints(srcData, columnFamily), toPoints(dstData, dstColumnFamily));
+                                                        } else {
+                                                            checkSameResults(srcData, dstData);
+                                                        }
                                                         postExecutor.submit(new Runnable() {public void run() {
                                                             out.println(String.format("verified %s", locatorCapture.toString()));
                                                         }});
@@ -334,6 +352,62 @@ public class Migration {
         }
     }
     
+    // packs the points of a metrics_full or metrics_full_blocks row into a block per window. the blocks read from the
+    // source are deleted, so repacking a blocks row in place leaves one block per window.
+    private static long writeBlocks(ColumnList<Long> columns, ColumnFamily<Locator, Long> srcColumnFamily,
+                                    ColumnListMutation<Long> mutation, int ttl) {
+        final ColumnarPoints points = toPoints(columns, srcColumnFamily);
+        final Map<Long, ByteBuffer> blocks = FullResBlockSerializer.encodeBlocks(points, FullResBlockSerializer.nextSequence());
+        for (Map.Entry<Long, ByteBuffer> block : blocks.entrySet()) {
+            mutation.putColumn(block.getKey(), block.getValue(), ttl);
+        }
+        if (srcColumnFamily == CassandraModel.CF_METRICS_FULL_BLOCKS) {
+            for (Column<Long> c : columns) {
+                if (!blocks.containsKey(c.getName())) {
+                    mutation.deleteColumn(c.getName());
+                }
+            }
+        }
+        return points.size();
+    }
+
+    // blocks are named by window and write, not by timestamp; see FullResBlockSerializer.
+    private static ByteBufferRange columnRange(ColumnFamily<Locator, Long> columnFamily, long from, long to) {
+        if (columnFamily == CassandraModel.CF_METRICS_FULL_BLOCKS) {
+            from = FullResBlockSerializer.firstColumn(FullResBlockSerializer.blockStart(from));
+            to = FullResBlockSerializer.lastColumn(FullResBlockSerializer.blockStart(to));
+        }
+        return new RangeBuilder().setStart(from).setEnd(to).build();
+    }
+
+    private static ColumnarPoints toPoints(ColumnList<Long> columns, ColumnFamily<Locator, Long> columnFamily) {
+        final ColumnarPoints points = new ColumnarPoints(columns.size());
+        final NumericColumnDecoder decoder = new NumericColumnDecoder();
+        for (Column<Long> c : columns) {
+            try {
+                if (columnFamily == CassandraModel.CF_METRICS_FULL_BLOCKS) {
+                    FullResBlockSerializer.decode(c.getByteBufferValue(), points);
+                } else {
+                    decoder.decodeFullRes(c.getByteBufferValue(), c.getName(), points);
+                }
+            } catch (RuntimeException ex) {
+                out.println(String.format("skipping undecodable column %d: %s", c.getName(), ex.getMessage()));
+            }
+        }
+        return points;
+    }
+
+    private static void checkSamePoints(ColumnarPoints x, ColumnarPoints y) throws Exception {
+        if (x.size() != y.size()) {
+            throw new Exception("source and destination point counts do not match");
+        }
+        for (int i = 0; i < x.size(); i++) {
+            if (x.getTimestamp(i) != y.getTimestamp(i) || x.getType(i) != y.getType(i) || x.getBits(i) != y.getBits(i)) {
+                throw new Exception("source and destination points did not match for point " + i);
+            }
+        }
+    }
+
     private static void checkSameResults(ColumnList<Long> x, ColumnList<Long> y) throws Exception {
         if (x.size() != y.size()) {
             throw new Exception("source and destination column lengths do not match");
@@ -398,6 +472,13 @@ public class Migration {
             // default range is one year ago until now.
             options.put(FROM, line.hasOption(FROM) ? parseDateTime(line.getOptionValue(FROM)) : now-(365L*24L*60L*60L*1000L));
             options.put(TO, line.hasOption(TO) ? parseDateTime(line.getOptionValue(TO)) : now);
+
+            // points are packed a window at a time, so only ever read whole windows.
+            options.put(TO_BLOCKS, line.hasOption(TO_BLOCKS));
+            if (line.hasOption(TO_BLOCKS)) {
+                options.put(FROM, FullResBlockSerializer.blockStart((Long) options.get(FROM)));
+                options.put(TO, FullResBlockSerializer.blockStart((Long) options.get(TO)) + FullResBlockSerializer.BLOCK_MILLIS - 1);
+            }
             
             options.put(LIMIT, line.hasOption(LIMIT) ? Integer.parseInt(line.getOptionValue(LIMIT)) : Integer.MAX_VALUE);
             options.put(SKIP, line.hasOption(SKIP) ? Integer.parseInt(line.getOptionValue(SKIP)) : 0);
@@ -415,6 +496,10 @@ public class Migration {
             }
             CassandraModel.MetricColumnFamily columnFamily = (CassandraModel.MetricColumnFamily)nameToCf.get(line.getOptionValue(COLUMN_FAMILY)); 
             options.put(COLUMN_FAMILY, columnFamily);
+            if (line.hasOption(TO_BLOCKS) && columnFamily != CassandraModel.CF_METRICS_FULL
+                    && columnFamily != CassandraModel.CF_METRICS_FULL_BLOCKS) {
+                throw new ParseException("Only metrics_full and metrics_full_blocks can be written as blocks");
+            }
             
             options.put(TTL, line.hasOption(TTL) ? Integer.parseInt(line.getOptionValue(TTL)) : (int)(5 * columnFamily.getDefaultTTL().toSeconds()));
             
@@ -70,7 +70,18 @@ public abstract class AbstractRollupStat {
         this.doubleValue = value;
     }
     
-    abstract void handleFullResMetric(Object o) throws RuntimeException;
+    void handleFullResMetric(Object o) throws RuntimeException {
+        if (o instanceof Double) {
+            handleFullResMetric(((Double) o).doubleValue());
+        } else if (o instanceof Long || o instanceof Integer) {
+            handleFullResMetric(((Number) o).longValue());
+        } else {
+            throw new RuntimeException("Unsupported type " + o.getClass().getName() + " for " + getClass().getSimpleName());
+        }
+    }
+
+    abstract void handleFullResMetric(long value);
+    abstract void handleFullResMetric(double value);
     abstract void handleRollupMetric(IBasicRollup basicRollup) throws RuntimeException;
     abstract public byte getStatType();
     
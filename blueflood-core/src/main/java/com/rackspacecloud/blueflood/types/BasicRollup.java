@@ -129,6 +129,11 @@ public class BasicRollup implements Rollup, IBasicRollup {
             return;
         }
 
+        if (input instanceof ColumnarPoints) {
+            computeFromColumns((ColumnarPoints) input);
+            return;
+        }
+
         Map<Long, Points.Point<SimpleNumber>> points = input.getPoints();
         for (Map.Entry<Long, Points.Point<SimpleNumber>> item : points.entrySet()) {
             this.count += 1;
@@ -140,6 +145,25 @@ public class BasicRollup implements Rollup, IBasicRollup {
         }
     }
     
+    private void computeFromColumns(ColumnarPoints input) {
+        for (int i = 0; i < input.size(); i++) {
+            this.count += 1;
+            if (input.isFloatingPoint(i)) {
+                final double value = input.getDouble(i);
+                average.handleFullResMetric(value);
+                variance.handleFullResMetric(value);
+                minValue.handleFullResMetric(value);
+                maxValue.handleFullResMetric(value);
+            } else {
+                final long value = input.getLong(i);
+                average.handleFullResMetric(value);
+                variance.handleFullResMetric(value);
+                minValue.handleFullResMetric(value);
+                maxValue.handleFullResMetric(value);
+            }
+        }
+    }
+
     // allows incrementally updating this rollup. This isn't part of the public API, so is declared unsafe.
     public void computeFromSimpleMetricsUnsafe(Points<SimpleNumber> input) throws IOException {
         computeFromSimpleMetrics(input);
@@ -180,6 +204,9 @@ public class BasicRollup implements Rollup, IBasicRollup {
     }
 
     public static BasicRollup buildRollupFromRawSamples(Points<SimpleNumber> input) throws IOException {
+        if (input instanceof ColumnarPoints) {
+            return new BasicRollupAccumulator().addAll((ColumnarPoints) input).toRollup();
+        }
         final BasicRollup basicRollup = new BasicRollup();
         basicRollup.computeFromSimpleMetrics(input);
 
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.types;
+
+/**
+ * Folds raw samples into the statistics of a {@link BasicRollup} using primitive fields only, so computing a rollup
+ * allocates nothing per sample. Samples fold exactly as they do through {@link Average}, {@link Variance},
+ * {@link MinValue} and {@link MaxValue}; a rollup built from the same samples in the same order is equal.
+ * <p/>
+ * Accumulators of adjacent ranges can be merged. The merged count, min and max are exact; the average and variance
+ * are combined from the partial means (Chan et al.) and agree with a single pass up to rounding.
+ * <p/>
+ * Not thread-safe.
+ */
+public class BasicRollupAccumulator {
+    private long count;
+
+    // Average: integral mean plus the remainder that keeps it exact, or the floating point mean.
+    private long avgLong;
+    private long avgRemainder;
+    private double avgDouble;
+    private boolean avgIsFloatingPoint;
+
+    // Welford.
+    private double mean;
+    private double m2;
+
+    private long minLong;
+    private double minDouble;
+    private boolean minIsFloatingPoint;
+
+    private long maxLong;
+    private double maxDouble;
+    private boolean maxIsFloatingPoint;
+
+    public BasicRollupAccumulator add(long value) {
+        count++;
+
+        final long delta = value + avgRemainder - avgLong;
+        avgLong = avgLong + delta / count;
+        avgRemainder = delta % count;
+        avgIsFloatingPoint = false;
+
+        welford((double) value);
+
+        if (count == 1) {
+            minLong = maxLong = value;
+            minIsFloatingPoint = maxIsFloatingPoint = false;
+            return this;
+        }
+        if (minIsFloatingPoint) {
+            if (minDouble > (double) value) {
+                minLong = value;
+                minIsFloatingPoint = false;
+            }
+        } else {
+            minLong = Math.min(minLong, value);
+        }
+        if (maxIsFloatingPoint) {
+            if (maxDouble < (double) value) {
+                maxLong = value;
+                maxIsFloatingPoint = false;
+            }
+        } else {
+            maxLong = Math.max(maxLong, value);
+        }
+        return this;
+    }
+
+    public BasicRollupAccumulator add(double value) {
+        count++;
+
+        avgDouble = avgDouble + (value - avgDouble) / count;
+        avgIsFloatingPoint = true;
+
+        welford(value);
+
+        if (count == 1) {
+            minDouble = maxDouble = value;
+            minIsFloatingPoint = maxIsFloatingPoint = true;
+            return this;
+        }
+        if (minIsFloatingPoint) {
+            minDouble = Math.min(minDouble, value);
+        } else if ((double) minLong > value) {
+            minDouble = value;
+            minIsFloatingPoint = true;
+        }
+        if (maxIsFloatingPoint) {
+            maxDouble = Math.max(maxDouble, value);
+        } else if ((double) maxLong < value) {
+            maxDouble = value;
+            maxIsFloatingPoint = true;
+        }
+        return this;
+    }
+
+    public BasicRollupAccumulator addAll(ColumnarPoints points) {
+        for (int i = 0; i < points.size(); i++) {
+            if (points.isFloatingPoint(i)) {
+                add(points.getDouble(i));
+            } else {
+                add(points.getLong(i));
+            }
+        }
+        return this;
+    }
+
+    /** Folds in the samples other has seen, as if they had been added after the ones seen here. */
+    public BasicRollupAccumulator merge(BasicRollupAccumulator other) {
+        if (other.count == 0) {
+            return this;
+        }
+        if (count == 0) {
+            copy(other);
+            return this;
+        }
+        final long total = count + other.count;
+
+        if (!avgIsFloatingPoint && !other.avgIsFloatingPoint) {
+            // keeps avgLong * total + avgRemainder equal to the sum of both sides.
+            final long delta = (other.avgLong - avgLong) * other.count + avgRemainder + other.avgRemainder;
+            avgLong = avgLong + delta / total;
+            avgRemainder = delta % total;
+        } else {
+            avgDouble = (averageAsDouble() * count + other.averageAsDouble() * other.count) / total;
+            avgIsFloatingPoint = true;
+        }
+
+        final double meanDelta = other.mean - mean;
+        m2 = m2 + other.m2 + meanDelta * meanDelta * ((double) count * other.count / total);
+        mean = mean + meanDelta * other.count / total;
+
+        if (lessThan(other.minIsFloatingPoint, other.minLong, other.minDouble,
+                minIsFloatingPoint, minLong, minDouble)) {
+            minLong = other.minLong;
+            minDouble = other.minDouble;
+            minIsFloatingPoint = other.minIsFloatingPoint;
+        }
+        if (lessThan(maxIsFloatingPoint, maxLong, maxDouble,
+                other.maxIsFloatingPoint, other.maxLong, other.maxDouble)) {
+            maxLong = other.maxLong;
+            maxDouble = other.maxDouble;
+            maxIsFloatingPoint = other.maxIsFloatingPoint;
+        }
+
+        count = total;
+        return this;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public BasicRollup toRollup() {
+        final BasicRollup rollup = new BasicRollup();
+        if (count == 0) {
+            return rollup;
+        }
+        rollup.setCount(count);
+        if (avgIsFloatingPoint) {
+            rollup.getAverage().setDoubleValue(avgDouble);
+        } else {
+            rollup.getAverage().setLongValue(avgLong);
+        }
+        rollup.getVariance().setDoubleValue(m2 / count);
+        setStat(rollup.getMinValue(), minIsFloatingPoint, minLong, minDouble);
+        setStat(rollup.getMaxValue(), maxIsFloatingPoint, maxLong, maxDouble);
+        return rollup;
+    }
+
+    public void reset() {
+        count = 0;
+        avgLong = avgRemainder = 0;
+        avgDouble = 0;
+        avgIsFloatingPoint = false;
+        mean = m2 = 0;
+        minLong = maxLong = 0;
+        minDouble = maxDouble = 0;
+        minIsFloatingPoint = maxIsFloatingPoint = false;
+    }
+
+    private void welford(double value) {
+        final double delta = value - mean;
+        mean = mean + delta / count;
+        m2 = m2 + delta * (value - mean);
+    }
+
+    private double averageAsDouble() {
+        return avgIsFloatingPoint ? avgDouble : avgLong + (double) avgRemainder / count;
+    }
+
+    private void copy(BasicRollupAccumulator other) {
+        count = other.count;
+        avgLong = other.avgLong;
+        avgRemainder = other.avgRemainder;
+        avgDouble = other.avgDouble;
+        avgIsFloatingPoint = other.avgIsFloatingPoint;
+        mean = other.mean;
+        m2 = other.m2;
+        minLong = other.minLong;
+        minDouble = other.minDouble;
+        minIsFloatingPoint = other.minIsFloatingPoint;
+        maxLong = other.maxLong;
+        maxDouble = other.maxDouble;
+        maxIsFloatingPoint = other.maxIsFloatingPoint;
+    }
+
+    private static boolean lessThan(boolean aIsFloatingPoint, long aLong, double aDouble,
+                                    boolean bIsFloatingPoint, long bLong, double bDouble) {
+        if (!aIsFloatingPoint && !bIsFloatingPoint) {
+            return aLong < bLong;
+        }
+        return (aIsFloatingPoint ? aDouble : (double) aLong) < (bIsFloatingPoint ? bDouble : (double) bLong);
+    }
+
+    private static void setStat(AbstractRollupStat stat, boolean isFloatingPoint, long longValue, double doubleValue) {
+        if (isFloatingPoint) {
+            stat.setDoubleValue(doubleValue);
+        } else {
+            stat.setLongValue(longValue);
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.types;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * Full resolution numeric points kept in parallel primitive arrays sorted by timestamp: about 16 bytes a sample
+ * instead of a tree node, a boxed key, a {@link Points.Point}, a {@link SimpleNumber} and its boxed value.
+ * <p/>
+ * Code that knows about this class reads the columns by index. Everything else sees the usual
+ * {@link #getPoints()} map; it is a read-only sorted view that creates its entries as they are visited.
+ */
+public class ColumnarPoints extends Points<SimpleNumber> {
+    private static final SimpleNumber.Type[] TYPES = SimpleNumber.Type.values();
+
+    private long[] timestamps;
+    // long values as they are, double values as their raw bits.
+    private long[] values;
+    // null for as long as every value is of uniformType.
+    private byte[] types;
+    private SimpleNumber.Type uniformType;
+    private int size;
+
+    public ColumnarPoints() {
+        this(16);
+    }
+
+    public ColumnarPoints(int expectedSize) {
+        super(null);
+        this.timestamps = new long[Math.max(expectedSize, 1)];
+        this.values = new long[timestamps.length];
+    }
+
+    public void add(long timestamp, long value) {
+        put(timestamp, value, SimpleNumber.Type.LONG);
+    }
+
+    public void add(long timestamp, double value) {
+        put(timestamp, Double.doubleToRawLongBits(value), SimpleNumber.Type.DOUBLE);
+    }
+
+    public void add(long timestamp, SimpleNumber number) {
+        if (number.getDataType() == SimpleNumber.Type.DOUBLE) {
+            add(timestamp, number.getValue().doubleValue());
+        } else {
+            put(timestamp, number.getValue().longValue(), number.getDataType());
+        }
+    }
+
+    /** Adds a value as {@link #getBits(int)} returns it: a double's raw bits, any other type's value. */
+    public void addBits(long timestamp, long bits, SimpleNumber.Type type) {
+        put(timestamp, bits, type);
+    }
+
+    @Override
+    public void add(Point<SimpleNumber> point) {
+        add(point.getTimestamp(), point.getData());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Class getDataClass() {
+        if (size == 0)
+            throw new IllegalStateException("");
+        return SimpleNumber.class;
+    }
+
+    @Override
+    public Map<Long, Point<SimpleNumber>> getPoints() {
+        return new View(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    public long getTimestamp(int index) {
+        checkIndex(index);
+        return timestamps[index];
+    }
+
+    public SimpleNumber.Type getType(int index) {
+        checkIndex(index);
+        return types == null ? uniformType : TYPES[types[index]];
+    }
+
+    public boolean isFloatingPoint(int index) {
+        return getType(index) == SimpleNumber.Type.DOUBLE;
+    }
+
+    /** The value at index, which must not be floating point. */
+    public long getLong(int index) {
+        if (isFloatingPoint(index)) {
+            throw new IllegalStateException("Point " + index + " is floating point");
+        }
+        return values[index];
+    }
+
+    /** The value at index, converted if it is integral. */
+    public double getDouble(int index) {
+        return isFloatingPoint(index) ? Double.longBitsToDouble(values[index]) : (double) values[index];
+    }
+
+    /** The value at index as it is stored: the raw bits of a double, any other type as it is. */
+    public long getBits(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    public SimpleNumber getNumber(int index) {
+        switch (getType(index)) {
+            case INTEGER:
+                return new SimpleNumber((int) values[index]);
+            case LONG:
+                return new SimpleNumber(values[index]);
+            default:
+                return new SimpleNumber(Double.longBitsToDouble(values[index]));
+        }
+    }
+
+    /** The index of the first point at or after timestamp; size() if there is none. */
+    public int ceilingIndex(long timestamp) {
+        final int found = Arrays.binarySearch(timestamps, 0, size, timestamp);
+        return found >= 0 ? found : -(found + 1);
+    }
+
+    /** A copy of the points in [from, until). */
+    public ColumnarPoints subPoints(long from, long until) {
+        final int start = ceilingIndex(from);
+        final int end = Math.max(start, ceilingIndex(until));
+        final ColumnarPoints copy = new ColumnarPoints(end - start);
+        System.arraycopy(timestamps, start, copy.timestamps, 0, end - start);
+        System.arraycopy(values, start, copy.values, 0, end - start);
+        if (types != null) {
+            copy.types = Arrays.copyOfRange(types, start, Math.max(end, start + 1));
+        }
+        copy.uniformType = uniformType;
+        copy.size = end - start;
+        return copy;
+    }
+
+    private void put(long timestamp, long value, SimpleNumber.Type type) {
+        int index = size;
+        if (size > 0 && timestamps[size - 1] >= timestamp) {
+            // columns come out of cassandra in order; this is the rare out of order add.
+            final int found = Arrays.binarySearch(timestamps, 0, size, timestamp);
+            if (found >= 0) {
+                // same timestamp replaces, as it does in the map.
+                values[found] = value;
+                setType(found, type);
+                return;
+            }
+            index = -(found + 1);
+        }
+
+        if (size == timestamps.length) {
+            final int capacity = size + (size >> 1) + 1;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            values = Arrays.copyOf(values, capacity);
+            if (types != null) {
+                types = Arrays.copyOf(types, capacity);
+            }
+        }
+        if (index < size) {
+            System.arraycopy(timestamps, index, timestamps, index + 1, size - index);
+            System.arraycopy(values, index, values, index + 1, size - index);
+            if (types != null) {
+                System.arraycopy(types, index, types, index + 1, size - index);
+            }
+        }
+        timestamps[index] = timestamp;
+        values[index] = value;
+        size++;
+        setType(index, type);
+    }
+
+    private void setType(int index, SimpleNumber.Type type) {
+        if (uniformType == null) {
+            uniformType = type;
+        }
+        if (types == null && type != uniformType) {
+            types = new byte[timestamps.length];
+            Arrays.fill(types, (byte) uniformType.ordinal());
+        }
+        if (types != null) {
+            types[index] = (byte) type.ordinal();
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+    }
+
+    // [from, until) of the columns as they are when it is read, not when it was created.
+    private class View extends AbstractMap<Long, Point<SimpleNumber>> implements SortedMap<Long, Point<SimpleNumber>> {
+        private final long from;
+        private final long until;
+
+        private View(long from, long until) {
+            this.from = from;
+            this.until = until;
+        }
+
+        private int start() {
+            return ceilingIndex(from);
+        }
+
+        private int end() {
+            // Long.MAX_VALUE is the unbounded end, so a point stamped with it is still in the full view.
+            return until == Long.MAX_VALUE ? size : ceilingIndex(until);
+        }
+
+        private Point<SimpleNumber> pointAt(int index) {
+            return new Point<SimpleNumber>(timestamps[index], getNumber(index));
+        }
+
+        @Override
+        public int size() {
+            return Math.max(0, end() - start());
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key) >= 0;
+        }
+
+        @Override
+        public Point<SimpleNumber> get(Object key) {
+            final int index = indexOf(key);
+            return index < 0 ? null : pointAt(index);
+        }
+
+        private int indexOf(Object key) {
+            if (!(key instanceof Long)) {
+                return -1;
+            }
+            final long timestamp = (Long) key;
+            if (timestamp < from || (timestamp >= until && until != Long.MAX_VALUE)) {
+                return -1;
+            }
+            final int found = Arrays.binarySearch(timestamps, 0, size, timestamp);
+            return found >= 0 ? found : -1;
+        }
+
+        @Override
+        public Set<Entry<Long, Point<SimpleNumber>>> entrySet() {
+            return new AbstractSet<Entry<Long, Point<SimpleNumber>>>() {
+                @Override
+                public Iterator<Entry<Long, Point<SimpleNumber>>> iterator() {
+                    final int end = end();
+                    return new Iterator<Entry<Long, Point<SimpleNumber>>>() {
+                        private int next = start();
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < end;
+                        }
+
+                        @Override
+                        public Entry<Long, Point<SimpleNumber>> next() {
+                            if (next >= end) {
+                                throw new NoSuchElementException();
+                            }
+                            final Point<SimpleNumber> point = pointAt(next++);
+                            return new SimpleImmutableEntry<Long, Point<SimpleNumber>>(point.getTimestamp(), point);
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException("Columnar points are read only through the map");
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return View.this.size();
+                }
+            };
+        }
+
+        @Override
+        public Comparator<? super Long> comparator() {
+            return null;
+        }
+
+        @Override
+        public SortedMap<Long, Point<SimpleNumber>> subMap(Long fromKey, Long toKey) {
+            if (fromKey > toKey) {
+                throw new IllegalArgumentException("fromKey > toKey");
+            }
+            return new View(Math.max(from, fromKey), Math.min(until, toKey));
+        }
+
+        @Override
+        public SortedMap<Long, Point<SimpleNumber>> headMap(Long toKey) {
+            return new View(from, Math.min(until, toKey));
+        }
+
+        @Override
+        public SortedMap<Long, Point<SimpleNumber>> tailMap(Long fromKey) {
+            return new View(Math.max(from, fromKey), until);
+        }
+
+        @Override
+        public Long firstKey() {
+            if (size() == 0) {
+                throw new NoSuchElementException();
+            }
+            return timestamps[start()];
+        }
+
+        @Override
+        public Long lastKey() {
+            if (size() == 0) {
+                throw new NoSuchElementException();
+            }
+            return timestamps[end() - 1];
+        }
+    }
+}
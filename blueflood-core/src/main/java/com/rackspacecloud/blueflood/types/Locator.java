@@ -16,24 +16,35 @@
 
 package com.rackspacecloud.blueflood.types;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.rackspacecloud.blueflood.service.Configuration;
 import com.rackspacecloud.blueflood.service.CoreConfig;
+import com.rackspacecloud.blueflood.utils.Util;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Locators built through the static factories are interned: every live locator with the same string form is the
+ * same instance, so ingestion, the metadata cache and the serializers share one copy of the name, its metric name,
+ * its UTF-8 bytes and its shard. The pool holds its entries weakly; a locator nobody references any more is collected as usual.
+ */
 public class Locator implements Comparable<Locator> {
     private static final String metricTokenSeparator;
-    private static final String metricTokenSeparatorRegex;
     private static final Logger log = LoggerFactory.getLogger(Locator.class);
+    private static final Interner<Locator> locators = Interners.newWeakInterner();
+    private static final Interner<String> tenantIds = Interners.newWeakInterner();
     private String stringRep = null;
     private String tenantId = null;
+    // not transient: a locator deserialized field by field (see IMetricSerializer) only has this and the tenant id.
     private String metricName = null;
+    private transient Integer shard = null;
+    private transient byte[] bytes = null;
 
     static {
         metricTokenSeparator = (Configuration.getInstance().getBooleanProperty(CoreConfig.USE_LEGACY_METRIC_SEPARATOR) ? "," : ".");
-        // ugh.
-        metricTokenSeparatorRegex = (Configuration.getInstance().getBooleanProperty(CoreConfig.USE_LEGACY_METRIC_SEPARATOR) ? "," : "\\.");
         if (metricTokenSeparator.equals(",")) {
             log.warn("Deprecation warning! Use of 'USE_LEGACY_METRIC_SEPARATOR' is deprecated and will be removed in v3.0");
         }
@@ -47,11 +58,16 @@ public class Locator implements Comparable<Locator> {
         setStringRep(fullyQualifiedMetricName);
     }
 
-    protected void setStringRep(String rep) throws IllegalArgumentException {
+    // final: the cached fields below must be reset together with the string form.
+    protected final void setStringRep(String rep) throws IllegalArgumentException {
         // todo: null check and throw IllegalArgumentException?
         this.stringRep = rep;
-        tenantId = this.stringRep.split(metricTokenSeparatorRegex)[0];
-        metricName = this.stringRep.substring(this.stringRep.indexOf(metricTokenSeparator)+1);
+        this.metricName = null;
+        this.shard = null;
+        this.bytes = null;
+        final int separator = rep.indexOf(metricTokenSeparator);
+        // a handful of tenants own millions of locators; keep one copy of each id.
+        tenantId = tenantIds.intern(separator < 0 ? rep : rep.substring(0, separator));
     }
 
     protected boolean isValidDBKey(String dbKey, String delim) {
@@ -65,7 +81,10 @@ public class Locator implements Comparable<Locator> {
 
     @Override
     public boolean equals(Object obj) {
-        return obj != null && obj instanceof Locator && obj.hashCode() == this.hashCode();
+        if (obj == this) {
+            return true;
+        }
+        return obj instanceof Locator && obj.hashCode() == this.hashCode() && equals((Locator) obj);
     }
 
     public String toString() {
@@ -76,8 +95,36 @@ public class Locator implements Comparable<Locator> {
         return this.tenantId;
     }
 
+    /** The string form without the tenant id, computed once per instance. */
     public String getMetricName() {
-        return this.metricName;
+        // racy, but every thread computes the same value.
+        String name = metricName;
+        if (name == null && stringRep != null) {
+            name = stringRep.substring(stringRep.indexOf(metricTokenSeparator) + 1);
+            metricName = name;
+        }
+        return name;
+    }
+
+    /** Same as {@link Util#computeShard(String)} on the string form, computed once per instance. */
+    public int getShard() {
+        // racy, but every thread computes the same value.
+        Integer computed = shard;
+        if (computed == null) {
+            computed = Util.computeShard(stringRep);
+            shard = computed;
+        }
+        return computed;
+    }
+
+    /** The UTF-8 encoding of the string form, encoded once per instance. Callers must not modify the array. */
+    public byte[] getBytes() {
+        byte[] encoded = bytes;
+        if (encoded == null) {
+            encoded = stringRep.getBytes(Charsets.UTF_8);
+            bytes = encoded;
+        }
+        return encoded;
     }
 
     public boolean equals(Locator other) {
@@ -85,11 +132,11 @@ public class Locator implements Comparable<Locator> {
     }
 
     public static Locator createLocatorFromPathComponents(String tenantId, String... parts) throws IllegalArgumentException {
-        return new Locator(tenantId + metricTokenSeparator + StringUtils.join(parts, metricTokenSeparator));
+        return locators.intern(new Locator(tenantId + metricTokenSeparator + StringUtils.join(parts, metricTokenSeparator)));
     }
 
     public static Locator createLocatorFromDbKey(String fullyQualifiedMetricName) throws IllegalArgumentException {
-        return new Locator(fullyQualifiedMetricName);
+        return locators.intern(new Locator(fullyQualifiedMetricName));
     }
 
     @Override
@@ -55,7 +55,7 @@ public class Metric implements IMetric {
             if (maybeDouble.compareTo(DOUBLE_MAX) > 0) {
                 log.warn("BigInteger metric value " + ((BigInteger)metricValue).toString() + " for metric "
                         + locator.toString() + " is bigger than Double.MAX_VALUE");
-                throw new RuntimeException("BigInteger cannot be force cast to double as it exceeds Double.MAX_VALUE");
+                throw new InvalidDataException("BigInteger cannot be force cast to double as it exceeds Double.MAX_VALUE");
             }
             this.dataType = DataType.DOUBLE;
             this.metricValue = ((BigInteger) metricValue).doubleValue();
@@ -23,7 +23,11 @@ public class Points<T> {
     private Map<Long, Point<T>> points; // Map of timestamp to Point
 
     public Points() {
-        this.points = new TreeMap<Long, Point<T>>();
+        this(new TreeMap<Long, Point<T>>());
+    }
+
+    protected Points(Map<Long, Point<T>> points) {
+        this.points = points;
     }
 
     public void add(Point<T> point) {
@@ -64,9 +64,13 @@ public class Variance extends AbstractRollupStat {
     }
 
     @Override
-    void handleFullResMetric(Object o) throws RuntimeException {
+    void handleFullResMetric(long value) {
+        handleFullResMetric((double) value);
+    }
+
+    @Override
+    void handleFullResMetric(double input) {
         // Welford algorithm (one pass)
-        double input = getDoubleValue(o);
         double delta = input - mean;
         this.count++;
         this.mean = this.mean + (delta/this.count);
@@ -151,18 +155,6 @@ public class Variance extends AbstractRollupStat {
         return super.toDouble();
     }
 
-    private double getDoubleValue(Object number) {
-        double val = 0;
-        if (number instanceof Integer) {
-            val = ((Integer) number).doubleValue();
-        } else if (number instanceof Long) {
-            val = ((Long) number).doubleValue();
-        } else if (number instanceof Double) {
-            val = (Double)number;
-        }
-
-        return val;
-    }
 
     @Override
     public long toLong() {
@@ -21,8 +21,9 @@ import com.google.common.cache.CacheBuilder;
 import com.rackspacecloud.blueflood.io.Constants;
 import com.rackspacecloud.blueflood.service.Configuration;
 import com.rackspacecloud.blueflood.service.CoreConfig;
-import org.apache.commons.codec.digest.DigestUtils;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
 import java.text.Format;
 import java.util.ArrayList;
@@ -34,6 +35,16 @@ public class Util {
     public static final Format DECIMAL_FORMAT = new DecimalFormat("0.00");
     private static final Cache<String, Integer> shardCache = CacheBuilder.newBuilder().expireAfterAccess(10,
             TimeUnit.MINUTES).concurrencyLevel(30).build();
+    private static final ThreadLocal<MessageDigest> md5 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    };
 
     public static Integer getShard(String s) {
         Integer shard = shardCache.getIfPresent(s);
@@ -45,7 +56,9 @@ public class Util {
     }
 
     public static int computeShard(String s) {
-        return (int)Long.parseLong(DigestUtils.md5Hex(s).substring(30), 16) % Constants.NUMBER_OF_SHARDS;
+        final byte[] digest = md5.get().digest(s.getBytes(Constants.DEFAULT_CHARSET));
+        // the last two hex digits of md5Hex(s), which is how shards were originally assigned, are the last byte.
+        return (digest[digest.length - 1] & 0xff) % Constants.NUMBER_OF_SHARDS;
     }
     
     public static Collection<Integer> parseShards(String s) {
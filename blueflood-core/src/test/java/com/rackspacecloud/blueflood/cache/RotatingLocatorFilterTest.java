@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.rackspacecloud.blueflood.cache;
+
+import com.google.common.base.Ticker;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.utils.TimeValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class RotatingLocatorFilterTest {
+    private static final TimeValue PERIOD = new TimeValue(10, TimeUnit.MINUTES);
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    @Test
+    public void testPutLocatorsAreContained() {
+        final RotatingLocatorFilter filter = new RotatingLocatorFilter(10000, 0.01, 2, PERIOD, ticker);
+        for (int i = 0; i < 10000; i++) {
+            filter.put(locator("seen", i));
+        }
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertTrue(filter.mightContain(locator("seen", i)));
+        }
+        Assert.assertEquals(10000d, filter.approximateCount(), 100d);
+    }
+
+    @Test
+    public void testFalsePositiveRateStaysNearTheConfiguredRate() {
+        final RotatingLocatorFilter filter = new RotatingLocatorFilter(10000, 0.01, 2, PERIOD, ticker);
+        for (int i = 0; i < 10000; i++) {
+            filter.put(locator("seen", i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain(locator("unseen", i))) {
+                falsePositives++;
+            }
+        }
+        // only one generation is populated, so lookups see roughly the configured rate.
+        Assert.assertTrue("false positives: " + falsePositives, falsePositives < 2 * 1000);
+        Assert.assertEquals(0.01, filter.expectedFalsePositiveRate(), 0.005);
+    }
+
+    @Test
+    public void testLocatorsAgeOutAfterEveryGeneration() {
+        final RotatingLocatorFilter filter = new RotatingLocatorFilter(1000, 0.001, 3, PERIOD, ticker);
+        final Locator locator = locator("aging", 1);
+        filter.put(locator);
+
+        ticker.advance(PERIOD);
+        Assert.assertTrue(filter.mightContain(locator));
+        ticker.advance(PERIOD);
+        Assert.assertTrue(filter.mightContain(locator));
+        ticker.advance(PERIOD);
+        Assert.assertFalse(filter.mightContain(locator));
+    }
+
+    @Test
+    public void testIdleFilterCatchesUpOnRotations() {
+        final RotatingLocatorFilter filter = new RotatingLocatorFilter(1000, 0.001, 2, PERIOD, ticker);
+        final Locator locator = locator("idle", 1);
+        filter.put(locator);
+
+        ticker.advance(new TimeValue(PERIOD.toMillis() * 50, TimeUnit.MILLISECONDS));
+        Assert.assertFalse(filter.mightContain(locator));
+        filter.put(locator);
+        ticker.advance(PERIOD);
+        Assert.assertTrue(filter.mightContain(locator));
+    }
+
+    @Test
+    public void testFalsePositivesDoNotOutliveTheirGeneration() {
+        final RotatingLocatorFilter filter = new RotatingLocatorFilter(1000, 0.05, 2, PERIOD, ticker);
+        for (int i = 0; i < 1000; i++) {
+            filter.put(locator("seen", i));
+        }
+        final List<Locator> falsePositives = new ArrayList<Locator>();
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain(locator("unseen", i))) {
+                falsePositives.add(locator("unseen", i));
+            }
+        }
+        Assert.assertFalse(falsePositives.isEmpty());
+
+        // the same locators keep coming in while every generation is replaced.
+        for (int period = 0; period < 2; period++) {
+            ticker.advance(PERIOD);
+            for (int i = 0; i < 1000; i++) {
+                filter.put(locator("seen", i));
+            }
+        }
+        int stillFalsePositives = 0;
+        for (Locator locator : falsePositives) {
+            if (filter.mightContain(locator)) {
+                stillFalsePositives++;
+            }
+        }
+        // about the configured rate, not all of them again.
+        Assert.assertTrue("still false positives: " + stillFalsePositives + " of " + falsePositives.size(),
+                stillFalsePositives < falsePositives.size() / 2);
+    }
+
+    @Test
+    public void testClear() {
+        final RotatingLocatorFilter filter = new RotatingLocatorFilter(1000, 0.001, 2, PERIOD, ticker);
+        filter.put(locator("cleared", 1));
+        filter.clear();
+        Assert.assertFalse(filter.mightContain(locator("cleared", 1)));
+        Assert.assertEquals(0, filter.approximateCount());
+    }
+
+    private static Locator locator(String prefix, int i) {
+        return Locator.createLocatorFromPathComponents("ac" + (i % 7), prefix, "metric" + i);
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos = 0;
+
+        void advance(TimeValue time) {
+            nanos += time.toMillis() * 1000000L;
+        }
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+}
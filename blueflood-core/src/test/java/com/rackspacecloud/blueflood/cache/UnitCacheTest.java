@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.cache;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.rackspacecloud.blueflood.io.DiscoveryIO;
+import com.rackspacecloud.blueflood.io.SearchResult;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.utils.Util;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UnitCacheTest {
+    private final Locator bytes = Locator.createLocatorFromPathComponents("ac1", "net", "rx");
+    private final Locator millis = Locator.createLocatorFromPathComponents("ac1", "http", "latency");
+    private final Locator unknown = Locator.createLocatorFromPathComponents("ac1", "never", "seen");
+    private final Locator otherTenant = Locator.createLocatorFromPathComponents("ac2", "net", "rx");
+
+    private DiscoveryIO discovery;
+    private UnitCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        discovery = mock(DiscoveryIO.class);
+        when(discovery.search(eq("ac1"), anyListOf(String.class))).thenReturn(Arrays.asList(
+                new SearchResult("ac1", "net.rx", "bytes"),
+                new SearchResult("ac1", "http.latency", "ms")));
+        when(discovery.search(eq("ac2"), anyListOf(String.class))).thenReturn(Arrays.asList(
+                new SearchResult("ac2", "net.rx", "packets")));
+        cache = new UnitCache(discovery, 10, 1000, MoreExecutors.sameThreadExecutor());
+    }
+
+    @Test
+    public void testBatchLookupIsOneSearchPerTenant() throws Exception {
+        final Map<Locator, String> units = cache.getUnits(Arrays.asList(bytes, millis, unknown, otherTenant));
+
+        Assert.assertEquals("bytes", units.get(bytes));
+        Assert.assertEquals("ms", units.get(millis));
+        Assert.assertEquals(Util.UNKNOWN, units.get(unknown));
+        Assert.assertEquals("packets", units.get(otherTenant));
+        verify(discovery, times(1)).search(eq("ac1"), anyListOf(String.class));
+        verify(discovery, times(1)).search(eq("ac2"), anyListOf(String.class));
+    }
+
+    @Test
+    public void testCachedUnitsAreNotLookedUpAgain() throws Exception {
+        Assert.assertEquals("bytes", cache.getUnitAsync(bytes).get());
+        Assert.assertEquals("bytes", cache.getUnitAsync(bytes).get());
+        Assert.assertEquals("bytes", cache.getUnits(Collections.singletonList(bytes)).get(bytes));
+        verify(discovery, times(1)).search(eq("ac1"), anyListOf(String.class));
+    }
+
+    @Test
+    public void testFailuresAreUnknownAndNotCached() throws Exception {
+        final DiscoveryIO failing = mock(DiscoveryIO.class);
+        when(failing.search(anyString(), anyListOf(String.class))).thenThrow(new RuntimeException("es is down"));
+        final UnitCache failingCache = new UnitCache(failing, 10, 1000, MoreExecutors.sameThreadExecutor());
+
+        Assert.assertEquals(Util.UNKNOWN, failingCache.getUnit(bytes));
+        Assert.assertEquals(Util.UNKNOWN, failingCache.getUnits(Arrays.asList(bytes, millis)).get(millis));
+        Assert.assertEquals(0, failingCache.size());
+    }
+}
@@ -17,6 +17,8 @@
 package com.rackspacecloud.blueflood.eventemitter;
 
 import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
+import com.rackspacecloud.blueflood.types.BasicRollup;
+import com.rackspacecloud.blueflood.utils.Metrics;
 import junit.framework.Assert;
 import org.junit.Test;
 import java.util.ArrayList;
@@ -90,6 +92,69 @@ public class RollupEventEmitterTest {
         Assert.assertEquals(store.size(), 0);
     }
 
+    @Test
+    public void testQueuedEventsAreDeliveredInBatches() throws Exception {
+        final RollupEventEmitter queued = new RollupEventEmitter(100, RollupEventEmitter.OverflowPolicy.BLOCK, 10, 1000, 1);
+        final List<Integer> batches = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch delivered = new CountDownLatch(25);
+        queued.on(testEventName, new Emitter.Listener<RollupEvent>() {
+            @Override
+            public void call(RollupEvent... args) {
+                batches.add(args.length);
+                for (int i = 0; i < args.length; i++) {
+                    delivered.countDown();
+                }
+            }
+        });
+
+        final RollupEvent[] events = new RollupEvent[25];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new RollupEvent(null, new BasicRollup(), "payload" + i, "gran", 0);
+        }
+        queued.emit(testEventName, events);
+
+        Assert.assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(batches.size() < events.length);
+        for (int size : batches) {
+            Assert.assertTrue(size <= 10);
+        }
+    }
+
+    @Test
+    public void testFullQueueDropsEvents() throws Exception {
+        final RollupEventEmitter queued = new RollupEventEmitter(2, RollupEventEmitter.OverflowPolicy.DROP, 1, 0, 1);
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        queued.on(testEventName, new Emitter.Listener<RollupEvent>() {
+            @Override
+            public void call(RollupEvent... args) {
+                store.addAll(Arrays.asList(args));
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final long dropped = Metrics.meter(RollupEventEmitter.class, "Dropped Events").getCount();
+
+        queued.emit(testEventName, new RollupEvent(null, new BasicRollup(), "payload1", "gran", 0));
+        Assert.assertTrue(entered.await(10, TimeUnit.SECONDS));
+        // the dispatcher is busy with the first event; two more fit in the queue and the last one does not.
+        queued.emit(testEventName, new RollupEvent(null, new BasicRollup(), "payload2", "gran", 0),
+                new RollupEvent(null, new BasicRollup(), "payload3", "gran", 0),
+                new RollupEvent(null, new BasicRollup(), "payload4", "gran", 0));
+        Assert.assertEquals(2, queued.getQueueDepth());
+        Assert.assertEquals(dropped + 1, Metrics.meter(RollupEventEmitter.class, "Dropped Events").getCount());
+
+        release.countDown();
+        while (store.size() < 3) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, queued.getQueueDepth());
+    }
+
     private class EventListener implements Emitter.Listener<RollupEvent> {
         @Override
         public void call(RollupEvent... rollupEventObjects) {
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.inputs.formats;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.rackspacecloud.blueflood.exceptions.SerializationException;
+import com.rackspacecloud.blueflood.types.IMetric;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Metric;
+import com.rackspacecloud.blueflood.utils.TimeValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class BinaryMetricSerializationTest {
+    private static final TimeValue TTL = new TimeValue(2, TimeUnit.DAYS);
+
+    @Test
+    public void testFrameRoundTrip() throws Exception {
+        final List<Metric> metrics = metrics("ac1", 0);
+        final byte[] bytes = BinaryMetricSerialization.toBytes(metrics);
+        Assert.assertEquals(BinaryMetricSerialization.computeBinarySize(metrics), bytes.length);
+
+        final List<IMetric> read = new ArrayList<IMetric>();
+        Assert.assertEquals(metrics.size(), BinaryMetricSerialization.readFrame(CodedInputStream.newInstance(bytes), read));
+        assertSame(metrics, read);
+    }
+
+    @Test
+    public void testStreamOfFrames() throws Exception {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final List<Metric> expected = new ArrayList<Metric>();
+        for (int frame = 0; frame < 3; frame++) {
+            final List<Metric> metrics = metrics("ac" + frame, frame * 100);
+            BinaryMetricSerialization.writeFrame(metrics, stream);
+            expected.addAll(metrics);
+        }
+
+        final List<IMetric> read = new ArrayList<IMetric>();
+        final int added = BinaryMetricSerialization.readStream(CodedInputStream.newInstance(stream.toByteArray()), read);
+        Assert.assertEquals(expected.size(), added);
+        assertSame(expected, read);
+    }
+
+    @Test
+    public void testTruncatedFrameFails() throws Exception {
+        final byte[] bytes = BinaryMetricSerialization.toBytes(metrics("ac1", 0));
+        try {
+            BinaryMetricSerialization.readStream(
+                    CodedInputStream.newInstance(Arrays.copyOf(bytes, bytes.length - 3)), new ArrayList<IMetric>());
+            Assert.fail("expected a truncated frame to fail");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testUnknownDataTypeFails() throws Exception {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final CodedOutputStream out = CodedOutputStream.newInstance(stream);
+        out.writeRawVarint32(1);
+        out.writeStringNoTag("ac1");
+        out.writeStringNoTag("histogram");
+        out.writeStringNoTag("histogram");
+        out.writeRawVarint64(1000);
+        out.writeRawVarint32(3600);
+        out.writeStringNoTag("ms");
+        out.flush();
+        try {
+            BinaryMetricSerialization.readStream(CodedInputStream.newInstance(stream.toByteArray()), new ArrayList<IMetric>());
+            Assert.fail("expected an unknown data type to fail");
+        } catch (SerializationException expected) {
+        }
+    }
+
+    private static List<Metric> metrics(String tenantId, long collectionTime) {
+        final List<Metric> metrics = new ArrayList<Metric>();
+        metrics.add(new Metric(Locator.createLocatorFromPathComponents(tenantId, "int"), 42, collectionTime, TTL, "ms"));
+        metrics.add(new Metric(Locator.createLocatorFromPathComponents(tenantId, "long"), 1L << 40, collectionTime + 1, TTL, "bytes"));
+        metrics.add(new Metric(Locator.createLocatorFromPathComponents(tenantId, "double"), 3.25d, collectionTime + 2, TTL, "s"));
+        metrics.add(new Metric(Locator.createLocatorFromPathComponents(tenantId, "string"), "up", collectionTime + 3, TTL, "unknown"));
+        metrics.add(new Metric(Locator.createLocatorFromPathComponents(tenantId, "bool"), true, collectionTime + 4, TTL, "unknown"));
+        return metrics;
+    }
+
+    private static void assertSame(List<Metric> expected, List<IMetric> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            final Metric read = (Metric) actual.get(i);
+            Assert.assertEquals(expected.get(i).getLocator(), read.getLocator());
+            Assert.assertEquals(expected.get(i).getMetricValue(), read.getMetricValue());
+            Assert.assertEquals(expected.get(i).getCollectionTime(), read.getCollectionTime());
+            Assert.assertEquals(expected.get(i).getTtlInSeconds(), read.getTtlInSeconds());
+            Assert.assertEquals(expected.get(i).getUnit(), read.getUnit());
+        }
+    }
+}
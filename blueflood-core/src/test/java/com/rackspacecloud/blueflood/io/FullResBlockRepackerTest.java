@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io;
+
+import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
+import com.netflix.astyanax.connectionpool.exceptions.TimeoutException;
+import com.rackspacecloud.blueflood.io.serializers.FullResBlockSerializer;
+import com.rackspacecloud.blueflood.types.Locator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class FullResBlockRepackerTest {
+    private static final long WINDOW = FullResBlockSerializer.BLOCK_MILLIS;
+    private static final long DELAY = 60000;
+
+    private final Locator first = Locator.createLocatorFromPathComponents("ac1", "first");
+    private final Locator second = Locator.createLocatorFromPathComponents("ac1", "second");
+    private final RecordingRepacker repacker = new RecordingRepacker(100);
+
+    @Test
+    public void testWindowsAreRepackedOnceClosed() {
+        repacker.written(first, 10 * WINDOW, 100);
+        repacker.written(second, 10 * WINDOW, 100);
+        repacker.written(first, 11 * WINDOW, 100);
+
+        repacker.repackClosedWindows(11 * WINDOW + DELAY - 1);
+        Assert.assertEquals(0, repacker.repacked.size());
+
+        repacker.repackClosedWindows(11 * WINDOW + DELAY);
+        Assert.assertEquals(1, repacker.repacked.size());
+        Assert.assertEquals(10 * WINDOW, (long) repacker.windows.get(0));
+        Assert.assertEquals(2, repacker.repacked.get(0).size());
+        Assert.assertEquals(1, repacker.getWrittenWindowCount());
+
+        // nothing new was written, so nothing is repacked twice.
+        repacker.repackClosedWindows(11 * WINDOW + DELAY);
+        Assert.assertEquals(1, repacker.repacked.size());
+    }
+
+    @Test
+    public void testLargestTtlIsKept() {
+        repacker.written(first, 10 * WINDOW, 100);
+        repacker.written(first, 10 * WINDOW, 300);
+        repacker.written(first, 10 * WINDOW, 200);
+        repacker.repackClosedWindows(20 * WINDOW);
+        Assert.assertEquals(300, (int) repacker.repacked.get(0).get(first));
+    }
+
+    @Test
+    public void testLateWritesGetTheWindowRepackedAgain() {
+        repacker.written(first, 10 * WINDOW, 100);
+        repacker.repackClosedWindows(20 * WINDOW);
+        repacker.written(first, 10 * WINDOW, 100);
+        repacker.repackClosedWindows(20 * WINDOW);
+        Assert.assertEquals(2, repacker.repacked.size());
+    }
+
+    @Test
+    public void testFailedRepacksAreRetried() {
+        repacker.written(first, 10 * WINDOW, 100);
+        repacker.fail = true;
+        repacker.repackClosedWindows(20 * WINDOW);
+        Assert.assertEquals(1, repacker.getWrittenWindowCount());
+
+        repacker.fail = false;
+        repacker.repackClosedWindows(20 * WINDOW);
+        Assert.assertEquals(0, repacker.getWrittenWindowCount());
+        Assert.assertEquals(2, repacker.repacked.size());
+        Assert.assertEquals(0, repacker.getTrackedLocatorCount());
+    }
+
+    @Test
+    public void testTrackedLocatorsAreBounded() {
+        final RecordingRepacker bounded = new RecordingRepacker(2);
+        bounded.written(first, 10 * WINDOW, 100);
+        bounded.written(second, 10 * WINDOW, 100);
+        // past the bound: not tracked, so its window keeps its blocks as written.
+        bounded.written(first, 11 * WINDOW, 100);
+        // already tracked ones are still updated.
+        bounded.written(first, 10 * WINDOW, 300);
+        Assert.assertEquals(2, bounded.getTrackedLocatorCount());
+
+        bounded.repackClosedWindows(20 * WINDOW);
+        Assert.assertEquals(1, bounded.repacked.size());
+        Assert.assertEquals(300, (int) bounded.repacked.get(0).get(first));
+        Assert.assertEquals(0, bounded.getTrackedLocatorCount());
+
+        // repacked windows make room again.
+        bounded.written(first, 11 * WINDOW, 100);
+        Assert.assertEquals(1, bounded.getTrackedLocatorCount());
+    }
+
+    private static class RecordingRepacker extends FullResBlockRepacker {
+        private final List<Long> windows = new ArrayList<Long>();
+        private final List<Map<Locator, Integer>> repacked = new ArrayList<Map<Locator, Integer>>();
+        private boolean fail = false;
+
+        private RecordingRepacker(int maxLocators) {
+            super(DELAY, maxLocators);
+        }
+
+        @Override
+        protected void repack(long window, Map<Locator, Integer> ttls) throws ConnectionException {
+            windows.add(window);
+            repacked.add(new HashMap<Locator, Integer>(ttls));
+            if (fail) {
+                throw new TimeoutException("test");
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.serializers;
+
+import com.rackspacecloud.blueflood.types.ColumnarPoints;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+public class FullResBlockSerializerTest {
+    private static final long START = 1420070400000L; // a block boundary
+    private static final long SEQUENCE = START * 1000;
+
+    @Test
+    public void testRegularIntegralPointsCompress() {
+        final ColumnarPoints points = new ColumnarPoints();
+        for (int i = 0; i < 240; i++) {
+            points.add(START + i * 30000L, 1000L + i * 3);
+        }
+        final SortedMap<Long, ByteBuffer> blocks = FullResBlockSerializer.encodeBlocks(points, SEQUENCE);
+
+        Assert.assertEquals(1, blocks.size());
+        Assert.assertEquals(START, FullResBlockSerializer.windowOf(blocks.firstKey()));
+        Assert.assertEquals(START, FullResBlockSerializer.firstTimestamp(blocks.get(blocks.firstKey())));
+        // two bits a point once the deltas settle, against ~4 bytes of value alone per column.
+        Assert.assertTrue(blocks.get(blocks.firstKey()).remaining() < 100);
+        assertSamePoints(points, decodeAll(blocks));
+    }
+
+    @Test
+    public void testIrregularDoublesRoundTrip() {
+        final Random random = new Random(42);
+        final ColumnarPoints points = new ColumnarPoints();
+        long timestamp = START - 5000;
+        for (int i = 0; i < 2000; i++) {
+            timestamp += 1 + random.nextInt(i % 50 == 0 ? 100000000 : 60000);
+            final double value = i % 7 == 0 ? random.nextGaussian() * 1e12 : Math.round(random.nextDouble() * 100) / 4d;
+            points.add(timestamp, i % 100 == 0 ? Double.NaN : value);
+        }
+        final SortedMap<Long, ByteBuffer> blocks = FullResBlockSerializer.encodeBlocks(points, SEQUENCE);
+
+        Assert.assertTrue(blocks.size() > 1);
+        for (Map.Entry<Long, ByteBuffer> block : blocks.entrySet()) {
+            // every block holds one window and is keyed by it.
+            final ColumnarPoints decoded = new ColumnarPoints();
+            FullResBlockSerializer.decode(block.getValue(), decoded);
+            Assert.assertEquals(decoded.getTimestamp(0), FullResBlockSerializer.firstTimestamp(block.getValue()));
+            Assert.assertEquals(FullResBlockSerializer.windowOf(block.getKey()),
+                    FullResBlockSerializer.blockStart(decoded.getTimestamp(0)));
+            Assert.assertEquals(FullResBlockSerializer.blockStart(decoded.getTimestamp(0)),
+                    FullResBlockSerializer.blockStart(decoded.getTimestamp(decoded.size() - 1)));
+        }
+        assertSamePoints(points, decodeAll(blocks));
+    }
+
+    @Test
+    public void testMixedTypesAndExtremes() {
+        final ColumnarPoints points = new ColumnarPoints();
+        points.addBits(START + 1, Integer.MIN_VALUE, SimpleNumber.Type.INTEGER);
+        points.add(START + 2, Long.MAX_VALUE);
+        points.add(START + 3, Long.MIN_VALUE);
+        points.add(START + 5000, -0d);
+        points.addBits(START + 5001, Integer.MAX_VALUE, SimpleNumber.Type.INTEGER);
+        points.add(START + 5002, Double.MAX_VALUE);
+        final ByteBuffer block = FullResBlockSerializer.encode(points, 0, points.size());
+
+        assertSamePoints(points, decodeAll(Collections.singletonMap(START + 1, block)));
+
+        final ColumnarPoints integral = new ColumnarPoints();
+        integral.add(START, Long.MIN_VALUE);
+        integral.add(START + 1, Long.MAX_VALUE);
+        integral.add(START + 2, Long.MIN_VALUE);
+        integral.add(START + FullResBlockSerializer.BLOCK_MILLIS - 1, 0L);
+        assertSamePoints(integral, decodeAll(FullResBlockSerializer.encodeBlocks(integral, SEQUENCE)));
+    }
+
+    @Test
+    public void testDecodeRangeAndOverlappingBlocks() {
+        final ColumnarPoints first = new ColumnarPoints();
+        final ColumnarPoints second = new ColumnarPoints();
+        for (int i = 0; i < 100; i++) {
+            (i % 2 == 0 ? first : second).add(START + i * 1000L, (double) i);
+        }
+        // a later block of the same window, as successive write batches leave them.
+        final ByteBuffer a = FullResBlockSerializer.encode(first, 0, first.size());
+        final ByteBuffer b = FullResBlockSerializer.encode(second, 0, second.size());
+
+        final ColumnarPoints decoded = new ColumnarPoints();
+        FullResBlockSerializer.decode(a, decoded, START + 10000, START + 19999);
+        FullResBlockSerializer.decode(b, decoded, START + 10000, START + 19999);
+
+        Assert.assertEquals(10, decoded.size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(START + (10 + i) * 1000L, decoded.getTimestamp(i));
+            Assert.assertEquals(10d + i, decoded.getDouble(i), 0d);
+        }
+        // decoding leaves the buffer as it was.
+        Assert.assertEquals(0, a.position());
+    }
+
+    @Test
+    public void testBatchesWithTheSameFirstTimestampKeepTheirPoints() {
+        // a retried or replayed batch that starts where an earlier one did, but holds other points.
+        final ColumnarPoints first = new ColumnarPoints();
+        final ColumnarPoints second = new ColumnarPoints();
+        for (int i = 0; i < 10; i++) {
+            first.add(START + 1000 + i * 1000L, (double) i);
+            second.add(START + 1000 + i * 500L, i + 0.5d);
+        }
+
+        // a row of the column family: a column written twice keeps the last value.
+        final SortedMap<Long, ByteBuffer> row = new TreeMap<Long, ByteBuffer>();
+        row.putAll(FullResBlockSerializer.encodeBlocks(first, FullResBlockSerializer.nextSequence()));
+        row.putAll(FullResBlockSerializer.encodeBlocks(second, FullResBlockSerializer.nextSequence()));
+        Assert.assertEquals(2, row.size());
+
+        // every timestamp of either batch is there, and the later batch wins where they overlap.
+        final ColumnarPoints decoded = decodeAll(row);
+        final Map<Long, Double> expected = new TreeMap<Long, Double>();
+        for (int i = 0; i < first.size(); i++) {
+            expected.put(first.getTimestamp(i), first.getDouble(i));
+        }
+        for (int i = 0; i < second.size(); i++) {
+            expected.put(second.getTimestamp(i), second.getDouble(i));
+        }
+        Assert.assertEquals(expected.size(), decoded.size());
+        int i = 0;
+        for (Map.Entry<Long, Double> point : expected.entrySet()) {
+            Assert.assertEquals((long) point.getKey(), decoded.getTimestamp(i));
+            Assert.assertEquals(point.getValue(), decoded.getDouble(i), 0d);
+            i++;
+        }
+    }
+
+    @Test
+    public void testColumnNamesOfAWindowSortTogetherByWrite() {
+        final long sequence = FullResBlockSerializer.nextSequence();
+        Assert.assertTrue(FullResBlockSerializer.nextSequence() > sequence);
+
+        final long window = FullResBlockSerializer.blockStart(sequence / 1000);
+        final long earlier = FullResBlockSerializer.columnName(window, sequence);
+        final long later = FullResBlockSerializer.columnName(window, sequence + 1);
+        Assert.assertTrue(earlier < later);
+        for (long name : new long[] { earlier, later }) {
+            Assert.assertEquals(window, FullResBlockSerializer.windowOf(name));
+            Assert.assertTrue(name >= FullResBlockSerializer.firstColumn(window));
+            Assert.assertTrue(name <= FullResBlockSerializer.lastColumn(window));
+        }
+        // late writes to an old window still sort within it, before the next one.
+        final long old = window - 10 * FullResBlockSerializer.BLOCK_MILLIS;
+        Assert.assertEquals(old, FullResBlockSerializer.windowOf(FullResBlockSerializer.columnName(old, sequence)));
+        Assert.assertTrue(FullResBlockSerializer.lastColumn(old)
+                < FullResBlockSerializer.firstColumn(old + FullResBlockSerializer.BLOCK_MILLIS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlockCannotSpanWindows() {
+        final ColumnarPoints points = new ColumnarPoints();
+        points.add(START - 1, 1L);
+        points.add(START, 2L);
+        FullResBlockSerializer.encode(points, 0, 2);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testTruncatedBlockFails() {
+        final ColumnarPoints points = new ColumnarPoints();
+        for (int i = 0; i < 50; i++) {
+            points.add(START + i * 1000L, i * 1.5d);
+        }
+        final ByteBuffer block = FullResBlockSerializer.encode(points, 0, points.size());
+        block.limit(block.limit() - 4);
+        FullResBlockSerializer.decode(block, new ColumnarPoints());
+    }
+
+    private static ColumnarPoints decodeAll(Map<Long, ByteBuffer> blocks) {
+        final ColumnarPoints decoded = new ColumnarPoints();
+        for (ByteBuffer block : blocks.values()) {
+            FullResBlockSerializer.decode(block, decoded);
+        }
+        return decoded;
+    }
+
+    private static void assertSamePoints(ColumnarPoints expected, ColumnarPoints actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.getTimestamp(i), actual.getTimestamp(i));
+            Assert.assertEquals(expected.getType(i), actual.getType(i));
+            Assert.assertEquals(expected.getBits(i), actual.getBits(i));
+        }
+    }
+}
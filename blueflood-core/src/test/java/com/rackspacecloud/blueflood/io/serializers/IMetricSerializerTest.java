@@ -110,4 +110,11 @@ public class IMetricSerializerTest {
         Assert.assertEquals(metric, deserialized);
         Assert.assertEquals(serialized, reserialized);
     }
+
+    @Test
+    public void testDeserializedLocatorKeepsItsNames() throws IOException {
+        Locator deserialized = mapper.readValue(mapper.writeValueAsString(goneIn), Locator.class);
+        Assert.assertEquals("gone", deserialized.getTenantId());
+        Assert.assertEquals("in", deserialized.getMetricName());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.serializers;
+
+import com.rackspacecloud.blueflood.types.BasicRollup;
+import com.rackspacecloud.blueflood.types.BasicRollupAccumulator;
+import com.rackspacecloud.blueflood.types.ColumnarPoints;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class NumericColumnDecoderTest {
+    private final NumericColumnDecoder decoder = new NumericColumnDecoder();
+
+    @Test
+    public void testFullResMatchesSerializer() {
+        final Object[] values = { 0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, 0L, -17L, Long.MAX_VALUE, Long.MIN_VALUE,
+                0d, -2.75d, Double.MAX_VALUE, Double.NaN, 3.5f };
+        final ColumnarPoints points = new ColumnarPoints();
+        for (int i = 0; i < values.length; i++) {
+            final ByteBuffer column = NumericSerializer.serializerFor(Object.class).toByteBuffer(values[i]);
+            final SimpleNumber expected = NumericSerializer.simpleNumberSerializer.fromByteBuffer(column.duplicate());
+
+            decoder.decodeFullRes(column, i, points);
+            Assert.assertEquals(expected.getDataType(), decoder.getType());
+            Assert.assertEquals(expected.getValue().doubleValue(), decoder.getDouble(), 0d);
+            Assert.assertEquals(expected.getValue(), points.getNumber(i).getValue());
+            Assert.assertEquals(0, column.position());
+        }
+    }
+
+    @Test
+    public void testRollupMatchesSerializer() {
+        final BasicRollupAccumulator longs = new BasicRollupAccumulator().add(3L).add(-8L).add(40L);
+        final BasicRollupAccumulator doubles = new BasicRollupAccumulator().add(3.25d).add(-8.5d).add(1e12d);
+        for (BasicRollup rollup : new BasicRollup[] { longs.toRollup(), doubles.toRollup(), new BasicRollup() }) {
+            final ByteBuffer column = NumericSerializer.serializerFor(BasicRollup.class).toByteBuffer(rollup);
+            final BasicRollup expected = NumericSerializer.serializerFor(BasicRollup.class).fromByteBuffer(column);
+
+            final BasicRollup decoded = decoder.decodeRollup(column, NumericColumnDecoder.ALL_STATS).toBasicRollup();
+            Assert.assertEquals(expected.getCount(), decoded.getCount());
+            Assert.assertEquals(expected.toString(), decoded.toString());
+            if (expected.getCount() > 0) {
+                Assert.assertEquals(expected, decoded);
+            }
+        }
+    }
+
+    @Test
+    public void testSkippedStatsAreNotDecoded() {
+        final BasicRollup rollup = new BasicRollupAccumulator().add(1.5d).add(2L).add(10L).toRollup();
+        final ByteBuffer column = NumericSerializer.serializerFor(BasicRollup.class).toByteBuffer(rollup);
+
+        decoder.decodeRollup(column, NumericColumnDecoder.AVERAGE);
+        Assert.assertEquals(3, decoder.getCount());
+        Assert.assertTrue(decoder.hasStat(NumericColumnDecoder.AVERAGE));
+        Assert.assertFalse(decoder.hasStat(NumericColumnDecoder.MAX));
+        Assert.assertEquals(rollup.getAverage().toLong(), decoder.getLong(NumericColumnDecoder.AVERAGE));
+        try {
+            decoder.getDouble(NumericColumnDecoder.MAX);
+            Assert.fail("max was not asked for");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testReadsInPlaceFromAnyBuffer() {
+        final byte[] value = NumericSerializer.serializerFor(Object.class).toByteBuffer(-6.125d).array();
+        final ByteBuffer shared = ByteBuffer.allocateDirect(value.length + 7).order(ByteOrder.LITTLE_ENDIAN);
+        shared.position(5);
+        shared.put(value);
+        shared.position(5).limit(5 + value.length);
+
+        Assert.assertEquals(-6.125d, decoder.decodeFullRes(shared).getDouble(), 0d);
+        Assert.assertEquals(5, shared.position());
+        Assert.assertEquals(ByteOrder.LITTLE_ENDIAN, shared.order());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testTruncatedValueFails() {
+        final ByteBuffer column = NumericSerializer.serializerFor(Object.class).toByteBuffer(1.5d);
+        column.limit(column.limit() - 1);
+        decoder.decodeFullRes(column);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.rackspacecloud.blueflood.outputs.handlers;
+
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.ColumnarPoints;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+
+public class RollupBlockCacheTest {
+    private static final long SLOT = Granularity.MIN_5.milliseconds();
+    private static final long BLOCK = 12 * SLOT;
+    private static final long DELAY = SLOT;
+    private static final long MAX_AGE = 24 * 60 * 60 * 1000L;
+
+    private final Locator locator = Locator.createLocatorFromPathComponents("ac1", "cached", "metric");
+    private final RecordingReader reader = new RecordingReader();
+
+    @Test
+    public void testClosedBlocksAreReadOnce() {
+        final RollupBlockCache cache = new RollupBlockCache(100000, 12, DELAY, MAX_AGE);
+        final long now = 100 * BLOCK + 3 * SLOT;
+        final long from = now - 10 * BLOCK;
+
+        final MetricData first = cache.get(locator, from, now, Granularity.MIN_5, now, reader);
+        // one read for the closed blocks, one for the open tail.
+        Assert.assertEquals(2, reader.reads.size());
+        Assert.assertEquals(10, cache.size());
+
+        reader.reads.clear();
+        final MetricData second = cache.get(locator, from, now, Granularity.MIN_5, now, reader);
+        Assert.assertEquals(1, reader.reads.size());
+        Assert.assertEquals(100 * BLOCK, (long) reader.reads.get(0)[0]);
+        Assert.assertEquals(first.getData().getPoints(), second.getData().getPoints());
+        Assert.assertEquals(expected(from, now), second.getData().getPoints().keySet().size());
+    }
+
+    @Test
+    public void testSlidingWindowOnlyReadsWhatIsNew() {
+        final RollupBlockCache cache = new RollupBlockCache(100000, 12, DELAY, MAX_AGE);
+        long now = 100 * BLOCK + 3 * SLOT;
+        cache.get(locator, now - 10 * BLOCK, now, Granularity.MIN_5, now, reader);
+
+        // an hour later the block that was open is closed, and read by itself.
+        now += BLOCK;
+        reader.reads.clear();
+        final MetricData data = cache.get(locator, now - 10 * BLOCK, now, Granularity.MIN_5, now, reader);
+        Assert.assertEquals(2, reader.reads.size());
+        Assert.assertEquals(100 * BLOCK, (long) reader.reads.get(0)[0]);
+        Assert.assertEquals(101 * BLOCK - 1, (long) reader.reads.get(0)[1]);
+        Assert.assertEquals(expected(now - 10 * BLOCK, now), data.getData().getPoints().size());
+    }
+
+    @Test
+    public void testResultIsTrimmedToTheRequestedRange() {
+        final RollupBlockCache cache = new RollupBlockCache(100000, 12, DELAY, MAX_AGE);
+        final long now = 100 * BLOCK;
+        final long from = 50 * BLOCK + 5 * SLOT;
+        final long to = 52 * BLOCK + 2 * SLOT;
+
+        final MetricData data = cache.get(locator, from, to, Granularity.MIN_5, now, reader);
+        Assert.assertEquals(from, (long) ((SortedMap<Long, ?>) data.getData().getPoints()).firstKey());
+        Assert.assertEquals(to, (long) ((SortedMap<Long, ?>) data.getData().getPoints()).lastKey());
+        Assert.assertEquals(expected(from, to), data.getData().getPoints().size());
+        // whole blocks were cached, so the same blocks answer a wider query.
+        reader.reads.clear();
+        cache.get(locator, 50 * BLOCK, 53 * BLOCK - 1, Granularity.MIN_5, now, reader);
+        Assert.assertEquals(0, reader.reads.size());
+    }
+
+    @Test
+    public void testEmptyReadsAreNotCached() {
+        final RollupBlockCache cache = new RollupBlockCache(100000, 12, DELAY, MAX_AGE);
+        reader.empty = true;
+        cache.get(locator, 10 * BLOCK, 12 * BLOCK - 1, Granularity.MIN_5, 100 * BLOCK, reader);
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testSizeIsBoundedByPoints() {
+        // room for three blocks in each of the four segments.
+        final RollupBlockCache cache = new RollupBlockCache(13 * 3 * 4, 12, DELAY, MAX_AGE);
+        cache.get(locator, 0, 20 * BLOCK - 1, Granularity.MIN_5, 100 * BLOCK, reader);
+        Assert.assertTrue(cache.size() > 0);
+        Assert.assertTrue(cache.size() <= 12);
+    }
+
+    @Test
+    public void testOversizedBlocksAreNotCached() {
+        final RollupBlockCache cache = new RollupBlockCache(13 * 3, 12, DELAY, MAX_AGE);
+        final MetricData data = cache.get(locator, 0, 2 * BLOCK - 1, Granularity.MIN_5, 100 * BLOCK, reader);
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(24, data.getData().getPoints().size());
+    }
+
+    @Test
+    public void testReRolledBlocksAreReadAgain() {
+        final RollupBlockCache cache = new RollupBlockCache(100000, 12, DELAY, MAX_AGE);
+        final long now = 100 * BLOCK;
+        cache.get(locator, 50 * BLOCK, 53 * BLOCK - 1, Granularity.MIN_5, now, reader);
+
+        cache.invalidate(locator, Granularity.MIN_5, 51 * BLOCK + 4 * SLOT);
+        reader.reads.clear();
+        cache.get(locator, 50 * BLOCK, 53 * BLOCK - 1, Granularity.MIN_5, now, reader);
+        Assert.assertEquals(1, reader.reads.size());
+        Assert.assertEquals(51 * BLOCK, (long) reader.reads.get(0)[0]);
+        Assert.assertEquals(52 * BLOCK - 1, (long) reader.reads.get(0)[1]);
+    }
+
+    @Test
+    public void testExpiredBlocksAreReadAgain() throws InterruptedException {
+        final RollupBlockCache cache = new RollupBlockCache(100000, 12, DELAY, 1);
+        cache.get(locator, 50 * BLOCK, 51 * BLOCK - 1, Granularity.MIN_5, 100 * BLOCK, reader);
+        Thread.sleep(5);
+        reader.reads.clear();
+        cache.get(locator, 50 * BLOCK, 51 * BLOCK - 1, Granularity.MIN_5, 100 * BLOCK, reader);
+        Assert.assertEquals(1, reader.reads.size());
+    }
+
+    @Test
+    public void testColumnarReadsStayColumnar() {
+        final RollupBlockCache cache = new RollupBlockCache(100000, 12, DELAY, MAX_AGE);
+        reader.columnar = true;
+        final long now = 100 * BLOCK + 3 * SLOT;
+        final long from = 90 * BLOCK + 5 * SLOT;
+        cache.get(locator, from, now, Granularity.MIN_5, now, reader);
+
+        // cached blocks, a fresh read and the open tail are joined without leaving columnar form.
+        cache.invalidate(locator, Granularity.MIN_5, 95 * BLOCK);
+        final MetricData data = cache.get(locator, from, now, Granularity.MIN_5, now, reader);
+        Assert.assertTrue(data.getData() instanceof ColumnarPoints);
+        final ColumnarPoints points = (ColumnarPoints) data.getData();
+        Assert.assertEquals(expected(from, now), points.size());
+        Assert.assertEquals(from, points.getTimestamp(0));
+        for (int i = 1; i < points.size(); i++) {
+            Assert.assertEquals(points.getTimestamp(i - 1) + SLOT, points.getTimestamp(i));
+            Assert.assertEquals(points.getTimestamp(i), points.getLong(i));
+        }
+    }
+
+    private static int expected(long from, long to) {
+        return (int) ((to - Granularity.MIN_5.snapMillis(from)) / SLOT) + 1;
+    }
+
+    private static class RecordingReader implements RollupBlockCache.Reader {
+        private final List<long[]> reads = new ArrayList<long[]>();
+        private boolean empty = false;
+        private boolean columnar = false;
+
+        @Override
+        public MetricData read(Locator locator, long from, long to, Granularity g) {
+            reads.add(new long[] { from, to });
+            final Points<SimpleNumber> points = columnar ? new ColumnarPoints() : new Points<SimpleNumber>();
+            for (long time = g.snapMillis(from); time <= to && !empty; time += g.milliseconds()) {
+                points.add(new Points.Point<SimpleNumber>(time, new SimpleNumber(time)));
+            }
+            return new MetricData(points, "ms", MetricData.Type.NUMBER);
+        }
+    }
+}
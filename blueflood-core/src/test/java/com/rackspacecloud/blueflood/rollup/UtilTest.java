@@ -17,7 +17,9 @@
 package com.rackspacecloud.blueflood.rollup;
 
 import com.rackspacecloud.blueflood.io.Constants;
+import com.rackspacecloud.blueflood.types.Locator;
 import com.rackspacecloud.blueflood.utils.Util;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -42,6 +44,35 @@ public class UtilTest {
         }
     }
     
+    @Test
+    public void testComputeShardMatchesHexDigestShard() {
+        // shards are persisted (metrics_locator row keys), so this must never change.
+        final Random random = new Random(8675309);
+        for (int i = 0; i < 2000000; i++) {
+            final StringBuilder sb = new StringBuilder();
+            final int length = random.nextInt(120) + 1;
+            for (int j = 0; j < length; j++) {
+                // mostly printable ascii, with some multi-byte characters mixed in.
+                sb.append(random.nextInt(10) == 0 ? (char) (random.nextInt(0xd000) + 0x80) : (char) (random.nextInt(94) + 32));
+            }
+            final String s = sb.toString();
+            Assert.assertEquals(s, legacyComputeShard(s), Util.computeShard(s));
+        }
+    }
+
+    @Test
+    public void testLocatorShardIsMemoizedComputeShard() {
+        for (int i = 0; i < 10000; i++) {
+            final Locator locator = Locator.createLocatorFromPathComponents("tenant" + i, randomString(rand.nextInt(100) + 1));
+            Assert.assertEquals(Util.computeShard(locator.toString()), locator.getShard());
+            Assert.assertEquals(locator.getShard(), locator.getShard());
+        }
+    }
+
+    private static int legacyComputeShard(String s) {
+        return (int)Long.parseLong(DigestUtils.md5Hex(s).substring(30), 16) % Constants.NUMBER_OF_SHARDS;
+    }
+
     @Test
     public void testParseShards() {
         Assert.assertEquals(128, Util.parseShards("ALL").size());
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import com.netflix.astyanax.model.ColumnFamily;
+import com.rackspacecloud.blueflood.io.AstyanaxReader;
+import com.rackspacecloud.blueflood.io.MetadataIO;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.types.Rollup;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Mockito.*;
+
+public class BatchedRollupRunnableTest {
+    private static final Range RANGE = new Range(0, 300000);
+
+    private final AstyanaxReader reader = mock(AstyanaxReader.class);
+    private final ThreadPoolExecutor rollupReadExecutor = mock(ThreadPoolExecutor.class);
+    private final RollupExecutionContext executionContext = new RollupExecutionContext();
+    private final List<SingleRollupReadContext> readContexts = new ArrayList<SingleRollupReadContext>();
+
+    @Before
+    public void setUp() {
+        // no metadata, so every locator rolls up as a basic rollup, from metrics_full.
+        final MetadataIO metadataIO = mock(MetadataIO.class);
+        RollupRunnable.rollupTypeCache.setIO(metadataIO);
+        for (int i = 0; i < 3; i++) {
+            final Locator locator = Locator.createLocatorFromPathComponents("ac1", "batched" + i);
+            readContexts.add(new SingleRollupReadContext(locator, RANGE, Granularity.MIN_5));
+            executionContext.incrementReadCounter();
+        }
+    }
+
+    @Test
+    public void testEveryLocatorIsHandedToARollupRunnable() throws Exception {
+        final Map<Locator, Points<Rollup>> input = new HashMap<Locator, Points<Rollup>>();
+        for (SingleRollupReadContext readContext : readContexts) {
+            final Points<Rollup> points = new Points<Rollup>();
+            points.add(new Points.Point<Rollup>(1000, new SimpleNumber(1)));
+            input.put(readContext.getLocator(), points);
+        }
+        when(reader.getDataToRoll(any(Class.class), anyList(), any(Range.class), any(ColumnFamily.class)))
+                .thenReturn(input);
+
+        newRunnable().run();
+
+        verify(reader, times(1)).getDataToRoll(any(Class.class), anyList(), any(Range.class), any(ColumnFamily.class));
+        verify(rollupReadExecutor, times(3)).execute(any(RollupRunnable.class));
+        // the rollup runnables decrement the read counter, not this one.
+        Assert.assertFalse(executionContext.doneReading());
+        Assert.assertTrue(executionContext.wasSuccessful());
+    }
+
+    @Test
+    public void testFailedReadMarksTheSlotUnsuccessful() throws Exception {
+        when(reader.getDataToRoll(any(Class.class), anyList(), any(Range.class), any(ColumnFamily.class)))
+                .thenThrow(new IOException("timed out"));
+
+        newRunnable().run();
+
+        verify(rollupReadExecutor, never()).execute(any(Runnable.class));
+        Assert.assertTrue(executionContext.doneReading());
+        executionContext.doneScheduling();
+        Assert.assertTrue(executionContext.getComplete().isDone());
+        // so the slot is pushed back to be rolled again.
+        Assert.assertFalse(executionContext.getComplete().get());
+    }
+
+    private BatchedRollupRunnable newRunnable() {
+        return new BatchedRollupRunnable(executionContext, readContexts, null, rollupReadExecutor, reader);
+    }
+}
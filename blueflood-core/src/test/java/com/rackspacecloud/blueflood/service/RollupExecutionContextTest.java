@@ -23,9 +23,7 @@ public class RollupExecutionContextTest {
 
     @Test
     public void testExecutionContext() {
-        Thread myThread = new Thread();
-
-        RollupExecutionContext myRollupContext = new RollupExecutionContext(myThread);
+        RollupExecutionContext myRollupContext = new RollupExecutionContext();
 
         // validate read behavior
         Assert.assertTrue(myRollupContext.doneReading());
@@ -42,4 +40,36 @@ public class RollupExecutionContextTest {
         myRollupContext.decrementWriteCounter(2);
         Assert.assertTrue(myRollupContext.doneWriting());
     }
+
+    @Test
+    public void testCompletesOnlyAfterScheduling() throws Exception {
+        RollupExecutionContext context = new RollupExecutionContext();
+        context.incrementReadCounter();
+        context.decrementReadCounter();
+        // the counters passing through zero while rollups are still being scheduled means nothing.
+        Assert.assertFalse(context.getReadsComplete().isDone());
+        Assert.assertFalse(context.getComplete().isDone());
+
+        context.incrementReadCounter();
+        context.doneScheduling();
+        Assert.assertFalse(context.getComplete().isDone());
+
+        context.incrementWriteCounter();
+        context.decrementReadCounter();
+        Assert.assertTrue(context.getReadsComplete().isDone());
+        Assert.assertFalse(context.getComplete().isDone());
+
+        context.markUnsuccessful(new RuntimeException());
+        context.decrementWriteCounter(1);
+        Assert.assertTrue(context.getComplete().isDone());
+        Assert.assertFalse(context.getComplete().get());
+    }
+
+    @Test
+    public void testEmptySlotCompletesImmediately() throws Exception {
+        RollupExecutionContext context = new RollupExecutionContext();
+        context.doneScheduling();
+        Assert.assertTrue(context.getReadsComplete().isDone());
+        Assert.assertTrue(context.getComplete().get());
+    }
 }
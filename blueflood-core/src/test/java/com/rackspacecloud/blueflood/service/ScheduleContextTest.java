@@ -385,4 +385,29 @@ public class ScheduleContextTest {
         try { Thread.sleep(2100); } catch (Exception ex) {}
         Assert.assertFalse(ctx.getRecentlyScheduledShards().contains(shard));
     }
+
+    @Test
+    public void testUpdateDoesNotWaitForScheduler() throws Exception {
+        final long clock = 1234000L;
+        final ScheduleContext ctx = new ScheduleContext(clock, ringShards);
+        ctx.update(clock, ringShards.get(0));
+        ctx.setCurrentTimeMillis(clock + 600000);
+        ctx.scheduleSlotsOlderThan(300000);
+        Assert.assertTrue(ctx.hasScheduled());
+
+        final CountDownLatch updated = new CountDownLatch(1);
+        final Thread ingest = new Thread() {
+            public void run() {
+                ctx.update(clock + 1000, ringShards.get(0));
+                updated.countDown();
+            }
+        };
+        // hold the monitor a scheduling pass holds.
+        synchronized (Whitebox.getInternalState(ctx, "scheduledSlots")) {
+            ingest.start();
+            Assert.assertTrue(updated.await(5, TimeUnit.SECONDS));
+        }
+        // the update still descheduled the slot.
+        Assert.assertFalse(ctx.hasScheduled());
+    }
 }
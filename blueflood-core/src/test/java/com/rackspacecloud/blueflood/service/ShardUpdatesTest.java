@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ShardUpdatesTest {
+    private static final long SLOT_MILLIS = 300000;
+
+    @Test
+    public void testLatestTimePerShardAndSlot() {
+        final ShardUpdates updates = new ShardUpdates();
+        final long base = 1234 * SLOT_MILLIS;
+        for (int i = 0; i < 50; i++) {
+            updates.update(base + i * 1000, 7);
+            updates.update(base + SLOT_MILLIS + i * 1000, 7);
+            updates.update(base + i * 500, 9);
+        }
+        Assert.assertEquals(3, updates.size());
+
+        final RecordingContext context = new RecordingContext();
+        updates.flush(context);
+        // oldest first.
+        Assert.assertEquals(Arrays.asList(base + 49 * 500, base + 49 * 1000, base + SLOT_MILLIS + 49 * 1000), context.millis);
+        Assert.assertEquals(Arrays.asList(9, 7, 7), context.shards);
+
+        // flushing starts over.
+        Assert.assertEquals(0, updates.size());
+        updates.flush(context);
+        Assert.assertEquals(3, context.millis.size());
+    }
+
+    @Test
+    public void testSameSlotsDirtiedAsPerMetricUpdates() {
+        final long clock = 1234000L;
+        final ScheduleContext perMetric = new ScheduleContext(clock, Arrays.asList(0));
+        final ScheduleContext coalesced = new ScheduleContext(clock, Arrays.asList(0));
+        final ShardUpdates updates = new ShardUpdates();
+
+        // spans several 5m slots and one 20m boundary.
+        for (long millis = clock; millis < clock + 4 * SLOT_MILLIS; millis += 7000) {
+            perMetric.update(millis, 0);
+            updates.update(millis, 0);
+        }
+        updates.flush(coalesced);
+
+        for (Granularity g : Granularity.rollupGranularities()) {
+            Assert.assertEquals(perMetric.getSlotStamps(g, 0).keySet(), coalesced.getSlotStamps(g, 0).keySet());
+            for (Integer slot : perMetric.getSlotStamps(g, 0).keySet()) {
+                // the per-metric updates came in time order, so they also left the latest time in each slot.
+                Assert.assertEquals(perMetric.getSlotStamps(g, 0).get(slot).getTimestamp(),
+                        coalesced.getSlotStamps(g, 0).get(slot).getTimestamp());
+            }
+        }
+    }
+
+    private static class RecordingContext implements IngestionContext {
+        private final List<Long> millis = new ArrayList<Long>();
+        private final List<Integer> shards = new ArrayList<Integer>();
+
+        @Override
+        public void update(long millis, int shard) {
+            this.millis.add(millis);
+            this.shards.add(shard);
+        }
+    }
+}
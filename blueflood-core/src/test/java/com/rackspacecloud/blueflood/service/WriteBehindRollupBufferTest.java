@@ -0,0 +1,212 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.rollup.SlotKey;
+import com.rackspacecloud.blueflood.types.BasicRollup;
+import com.rackspacecloud.blueflood.types.CounterRollup;
+import com.rackspacecloud.blueflood.types.IMetric;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Metric;
+import com.rackspacecloud.blueflood.types.PreaggregatedMetric;
+import com.rackspacecloud.blueflood.utils.TimeValue;
+import com.rackspacecloud.blueflood.utils.Util;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class WriteBehindRollupBufferTest {
+    private static final TimeValue TTL = new TimeValue(2, TimeUnit.DAYS);
+    private static final long SLOT_START = 1420070400000L;
+    private static final long CLOSE_DELAY = 60000L;
+
+    private Locator locator;
+    private int shard;
+    private ScheduleContext context;
+    private RecordingBuffer buffer;
+
+    @Before
+    public void setUp() {
+        locator = Locator.createLocatorFromPathComponents("ac1", "write", "behind");
+        shard = locator.getShard();
+        context = new ScheduleContext(SLOT_START, Util.parseShards("ALL"));
+        buffer = new RecordingBuffer(context);
+        context.setRollupBuffer(buffer);
+    }
+
+    @Test
+    public void testClosedSlotIsWrittenAndMarkedRolled() {
+        ingest(metric(locator, 3L, SLOT_START + 1000), metric(locator, 5L, SLOT_START + 31000));
+        final Locator other = Locator.createLocatorFromPathComponents("ac1", "write", "behind", "double");
+        ingest(metric(other, 1.5d, SLOT_START + 2000));
+
+        // not yet due.
+        buffer.closeSlots(SLOT_START + 300000 + CLOSE_DELAY - 1);
+        Assert.assertTrue(buffer.written.isEmpty());
+
+        buffer.closeSlots(SLOT_START + 300000 + CLOSE_DELAY);
+        Assert.assertEquals(2, buffer.written.size());
+        for (SingleRollupWriteContext written : buffer.written) {
+            Assert.assertEquals(Granularity.MIN_5, written.getGranularity());
+            Assert.assertEquals(SLOT_START, (long) written.getTimestamp());
+            final BasicRollup rollup = (BasicRollup) written.getRollup();
+            if (written.getLocator().equals(locator)) {
+                Assert.assertEquals(2, rollup.getCount());
+                Assert.assertEquals(4L, rollup.getAverage().toLong());
+                Assert.assertEquals(3L, rollup.getMinValue().toLong());
+                Assert.assertEquals(5L, rollup.getMaxValue().toLong());
+            } else {
+                Assert.assertEquals(1.5d, rollup.getAverage().toDouble(), 0d);
+            }
+        }
+        Assert.assertEquals(UpdateStamp.State.Rolled, stamp(Granularity.MIN_5, SLOT_START).getState());
+        Assert.assertTrue(stamp(Granularity.MIN_5, SLOT_START).isDirty());
+        // the 20m slot still has to be rolled from the 5m rollups.
+        Assert.assertEquals(UpdateStamp.State.Active, stamp(Granularity.MIN_20, SLOT_START).getState());
+        Assert.assertEquals(0, buffer.getOpenSlotCount());
+    }
+
+    @Test
+    public void testLateMetricLeavesSlotToRollupService() {
+        ingest(metric(locator, 3L, SLOT_START + 1000));
+        buffer.closeSlots(SLOT_START + 300000 + CLOSE_DELAY);
+        Assert.assertEquals(UpdateStamp.State.Rolled, stamp(Granularity.MIN_5, SLOT_START).getState());
+
+        // arrives after the slot was written: it is not reopened, and the slot is dirty again.
+        ingest(SLOT_START + 300000 + CLOSE_DELAY + 1, metric(locator, 7L, SLOT_START + 2000));
+        Assert.assertEquals(0, buffer.getOpenSlotCount());
+        Assert.assertEquals(UpdateStamp.State.Active, stamp(Granularity.MIN_5, SLOT_START).getState());
+    }
+
+    @Test
+    public void testMetricArrivingWhileSlotIsWrittenIsNotBlocked() throws InterruptedException {
+        ingest(metric(locator, 3L, SLOT_START + 1000));
+        final Thread late = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ingest(SLOT_START + 300000 + CLOSE_DELAY, metric(locator, 7L, SLOT_START + 2000));
+            }
+        });
+        buffer.whilePersisting = new Runnable() {
+            @Override
+            public void run() {
+                late.start();
+                try {
+                    late.join(10000);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        buffer.closeSlots(SLOT_START + 300000 + CLOSE_DELAY);
+
+        Assert.assertFalse(late.isAlive());
+        Assert.assertEquals(1, buffer.written.size());
+        Assert.assertEquals(UpdateStamp.State.Active, stamp(Granularity.MIN_5, SLOT_START).getState());
+    }
+
+    @Test
+    public void testSlotUpdatedByAnotherNodeIsNotMarkedRolled() {
+        ingest(metric(locator, 3L, SLOT_START + 1000));
+        // pushed, as ShardStatePusher does; then another node ingests a newer metric of the slot and it is pulled.
+        context.getShardStateManager().getSlotStateManager(shard, Granularity.MIN_5).getDirtySlotStampsAndMarkClean();
+        context.getShardStateManager().updateSlotOnRead(shard,
+                new SlotState(Granularity.MIN_5, Granularity.MIN_5.slot(SLOT_START), UpdateStamp.State.Active)
+                        .withTimestamp(SLOT_START + 5000));
+        buffer.closeSlots(SLOT_START + 300000 + CLOSE_DELAY);
+
+        Assert.assertEquals(1, buffer.written.size());
+        Assert.assertEquals(UpdateStamp.State.Active, stamp(Granularity.MIN_5, SLOT_START).getState());
+    }
+
+    @Test
+    public void testSlotWithUnsupportedMetricIsNotWritten() {
+        ingest(metric(locator, 3L, SLOT_START + 1000),
+                new PreaggregatedMetric(SLOT_START + 2000, locator, TTL, new CounterRollup().withCount(4L).withSampleCount(1)));
+        buffer.closeSlots(SLOT_START + 300000 + CLOSE_DELAY);
+
+        Assert.assertTrue(buffer.written.isEmpty());
+        Assert.assertEquals(UpdateStamp.State.Active, stamp(Granularity.MIN_5, SLOT_START).getState());
+    }
+
+    @Test
+    public void testSlotAlreadyDirtyWhenOpenedIsNotWritten() {
+        // ingested before the buffer was around.
+        context.update(SLOT_START + 500, shard);
+        ingest(metric(locator, 3L, SLOT_START + 1000));
+        buffer.closeSlots(SLOT_START + 300000 + CLOSE_DELAY);
+
+        Assert.assertTrue(buffer.written.isEmpty());
+        Assert.assertEquals(UpdateStamp.State.Active, stamp(Granularity.MIN_5, SLOT_START).getState());
+    }
+
+    @Test
+    public void testUnmanagedShardsAndOldSlotsAreIgnored() {
+        final ScheduleContext unmanaged = new ScheduleContext(SLOT_START, Collections.singletonList((shard + 1) % 128));
+        final RecordingBuffer other = new RecordingBuffer(unmanaged);
+        other.add(Arrays.<IMetric>asList(metric(locator, 3L, SLOT_START + 1000)), SLOT_START + 2000);
+        Assert.assertEquals(0, other.getOpenSlotCount());
+
+        // two slots back.
+        buffer.add(Arrays.<IMetric>asList(metric(locator, 3L, SLOT_START - 300000)), SLOT_START + 300000 + 1000);
+        Assert.assertEquals(0, buffer.getOpenSlotCount());
+    }
+
+    private void ingest(IMetric... metrics) {
+        ingest(metrics[metrics.length - 1].getCollectionTime(), metrics);
+    }
+
+    // what BatchWriter does once the metrics are written.
+    private void ingest(long now, IMetric... metrics) {
+        buffer.add(Arrays.asList(metrics), now);
+        for (IMetric metric : metrics) {
+            context.update(metric.getCollectionTime(), metric.getLocator().getShard());
+        }
+    }
+
+    private UpdateStamp stamp(Granularity gran, long millis) {
+        return context.getShardStateManager().getUpdateStamp(SlotKey.of(gran, gran.slot(millis), shard));
+    }
+
+    private static Metric metric(Locator locator, Object value, long collectionTime) {
+        return new Metric(locator, value, collectionTime, TTL, "unknown");
+    }
+
+    private static class RecordingBuffer extends WriteBehindRollupBuffer {
+        private final List<SingleRollupWriteContext> written = new ArrayList<SingleRollupWriteContext>();
+        private Runnable whilePersisting;
+
+        private RecordingBuffer(ScheduleContext context) {
+            super(context, CLOSE_DELAY, 1000);
+        }
+
+        @Override
+        protected void persist(ArrayList<SingleRollupWriteContext> rollups) {
+            written.addAll(rollups);
+            if (whilePersisting != null) {
+                whilePersisting.run();
+            }
+        }
+    }
+}
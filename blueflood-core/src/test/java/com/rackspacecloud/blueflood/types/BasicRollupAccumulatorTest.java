@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.types;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class BasicRollupAccumulatorTest {
+    private final Random random = new Random(42);
+
+    @Test
+    public void testMatchesRollupStatsForLongs() throws Exception {
+        assertMatchesStats(0);
+    }
+
+    @Test
+    public void testMatchesRollupStatsForDoubles() throws Exception {
+        assertMatchesStats(1);
+    }
+
+    @Test
+    public void testMatchesRollupStatsForMixedTypes() throws Exception {
+        assertMatchesStats(2);
+    }
+
+    @Test
+    public void testMergeMatchesSinglePass() {
+        final BasicRollupAccumulator single = new BasicRollupAccumulator();
+        final BasicRollupAccumulator merged = new BasicRollupAccumulator();
+        for (int part = 0; part < 5; part++) {
+            final BasicRollupAccumulator partial = new BasicRollupAccumulator();
+            for (int i = 0; i < 17 + part; i++) {
+                final long value = random.nextInt(1000) - 300;
+                single.add(value);
+                partial.add(value);
+            }
+            merged.merge(partial);
+        }
+        assertClose(single.toRollup(), merged.toRollup());
+        // all integral: the merged average is the same integral mean.
+        Assert.assertEquals(single.toRollup().getAverage(), merged.toRollup().getAverage());
+
+        final BasicRollupAccumulator doubles = new BasicRollupAccumulator().add(2.5d).add(-1.25d);
+        single.merge(doubles);
+        merged.merge(new BasicRollupAccumulator()).merge(doubles);
+        assertClose(single.toRollup(), merged.toRollup());
+    }
+
+    @Test
+    public void testEmpty() {
+        final BasicRollupAccumulator empty = new BasicRollupAccumulator();
+        Assert.assertFalse(empty.toRollup().hasData());
+        Assert.assertFalse(empty.merge(new BasicRollupAccumulator()).toRollup().hasData());
+
+        empty.add(3L).reset();
+        Assert.assertEquals(0, empty.getCount());
+        Assert.assertFalse(empty.toRollup().hasData());
+    }
+
+    // kind: 0 longs, 1 doubles, 2 both, interleaved.
+    private void assertMatchesStats(int kind) throws Exception {
+        final Points<SimpleNumber> points = new Points<SimpleNumber>();
+        final BasicRollupAccumulator accumulator = new BasicRollupAccumulator();
+        for (int i = 0; i < 500; i++) {
+            final boolean floatingPoint = kind == 1 || (kind == 2 && random.nextBoolean());
+            if (floatingPoint) {
+                final double value = random.nextGaussian() * 100;
+                points.add(new Points.Point<SimpleNumber>(i, new SimpleNumber(value)));
+                accumulator.add(value);
+            } else {
+                final long value = random.nextInt(10000) - 5000;
+                points.add(new Points.Point<SimpleNumber>(i, new SimpleNumber(value)));
+                accumulator.add(value);
+            }
+        }
+        Assert.assertEquals(BasicRollup.buildRollupFromRawSamples(points), accumulator.toRollup());
+    }
+
+    private static void assertClose(BasicRollup expected, BasicRollup actual) {
+        Assert.assertEquals(expected.getCount(), actual.getCount());
+        Assert.assertEquals(expected.getMinValue(), actual.getMinValue());
+        Assert.assertEquals(expected.getMaxValue(), actual.getMaxValue());
+        Assert.assertEquals(asDouble(expected.getAverage()), asDouble(actual.getAverage()), 1d);
+        Assert.assertEquals(expected.getVariance().toDouble(), actual.getVariance().toDouble(),
+                1e-9 * expected.getVariance().toDouble());
+    }
+
+    private static double asDouble(AbstractRollupStat stat) {
+        return stat.isFloatingPoint() ? stat.toDouble() : stat.toLong();
+    }
+}
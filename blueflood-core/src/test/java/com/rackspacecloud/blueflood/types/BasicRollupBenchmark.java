@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.types;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link Rollup#BasicFromRaw} over map-backed points with the same rollup over {@link ColumnarPoints}, with
+ * a bare {@link BasicRollupAccumulator} and with merging per-slot accumulators into a coarser one. Not a unit test;
+ * run it with
+ *
+ *   mvn test-compile
+ *   java -cp target/test-classes:target/classes:$(deps) org.openjdk.jmh.Main BasicRollupBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BasicRollupBenchmark {
+    // a 5 minute slot at one sample every 10 seconds, up to a day of them.
+    @Param({"30", "8640"})
+    private int samples;
+
+    @Param({"false", "true"})
+    private boolean floatingPoint;
+
+    private Points<SimpleNumber> mapPoints;
+    private ColumnarPoints columnarPoints;
+    private long[] longs;
+    private double[] doubles;
+    private BasicRollupAccumulator[] slots;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(1);
+        mapPoints = new Points<SimpleNumber>();
+        columnarPoints = new ColumnarPoints(samples);
+        longs = new long[samples];
+        doubles = new double[samples];
+        for (int i = 0; i < samples; i++) {
+            longs[i] = random.nextInt(100000);
+            doubles[i] = random.nextGaussian() * 1000;
+            final SimpleNumber value = new SimpleNumber(floatingPoint ? (Object) doubles[i] : (Object) longs[i]);
+            mapPoints.add(new Points.Point<SimpleNumber>(i * 10000L, value));
+            columnarPoints.add(i * 10000L, value);
+        }
+
+        slots = new BasicRollupAccumulator[Math.max(1, samples / 30)];
+        for (int s = 0; s < slots.length; s++) {
+            slots[s] = new BasicRollupAccumulator();
+            for (int i = s * 30; i < Math.min(samples, (s + 1) * 30); i++) {
+                slots[s].add(longs[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    public BasicRollup mapBasicFromRaw() throws IOException {
+        return Rollup.BasicFromRaw.compute(mapPoints);
+    }
+
+    @Benchmark
+    public BasicRollup columnarBasicFromRaw() throws IOException {
+        return Rollup.BasicFromRaw.compute(columnarPoints);
+    }
+
+    @Benchmark
+    public BasicRollup accumulator() {
+        final BasicRollupAccumulator accumulator = new BasicRollupAccumulator();
+        if (floatingPoint) {
+            for (double value : doubles) {
+                accumulator.add(value);
+            }
+        } else {
+            for (long value : longs) {
+                accumulator.add(value);
+            }
+        }
+        return accumulator.toRollup();
+    }
+
+    @Benchmark
+    public BasicRollup mergeSlots() {
+        final BasicRollupAccumulator coarser = new BasicRollupAccumulator();
+        for (BasicRollupAccumulator slot : slots) {
+            coarser.merge(slot);
+        }
+        return coarser.toRollup();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.types;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+public class ColumnarPointsTest {
+
+    @Test
+    public void testOutOfOrderAddsAreSortedAndReplace() {
+        final ColumnarPoints points = new ColumnarPoints(2);
+        points.add(3000L, 3L);
+        points.add(1000L, 1L);
+        points.add(2000L, 2.5d);
+        points.add(1000L, 10L);
+
+        Assert.assertEquals(3, points.size());
+        Assert.assertEquals(Arrays.asList(1000L, 2000L, 3000L), new ArrayList<Long>(points.getPoints().keySet()));
+        Assert.assertEquals(10L, points.getLong(0));
+        Assert.assertTrue(points.isFloatingPoint(1));
+        Assert.assertEquals(2.5d, points.getDouble(1), 0d);
+        Assert.assertEquals(3d, points.getDouble(2), 0d);
+    }
+
+    @Test
+    public void testViewMatchesMapBackedPoints() {
+        final Points<SimpleNumber> expected = new Points<SimpleNumber>();
+        final ColumnarPoints columns = new ColumnarPoints();
+        for (int i = 0; i < 100; i++) {
+            final Object value = i % 3 == 0 ? (Object) (i * 1.5d) : i % 3 == 1 ? (Object) (long) i : (Object) i;
+            final Points.Point<SimpleNumber> point = new Points.Point<SimpleNumber>(i * 1000L, new SimpleNumber(value));
+            expected.add(point);
+            columns.add(point);
+        }
+
+        Assert.assertEquals(expected.getPoints(), columns.getPoints());
+        Assert.assertEquals(SimpleNumber.Type.INTEGER, columns.getPoints().get(2000L).getData().getDataType());
+        Assert.assertNull(columns.getPoints().get(2500L));
+
+        final SortedMap<Long, Points.Point<SimpleNumber>> view = (SortedMap<Long, Points.Point<SimpleNumber>>) columns.getPoints();
+        final SortedMap<Long, Points.Point<SimpleNumber>> sub = view.subMap(10000L, 20000L);
+        Assert.assertEquals(10, sub.size());
+        Assert.assertEquals(10000L, (long) sub.firstKey());
+        Assert.assertEquals(19000L, (long) sub.lastKey());
+        Assert.assertEquals(5, sub.tailMap(15000L).size());
+        Assert.assertFalse(sub.containsKey(20000L));
+
+        final ColumnarPoints copy = columns.subPoints(10000L, 20000L);
+        Assert.assertEquals(sub, copy.getPoints());
+    }
+
+    @Test
+    public void testBasicRollupFromColumnsMatchesMap() throws Exception {
+        final Points<SimpleNumber> expected = new Points<SimpleNumber>();
+        final ColumnarPoints columns = new ColumnarPoints();
+        for (int i = 0; i < 50; i++) {
+            final SimpleNumber value = new SimpleNumber(i < 25 ? (Object) (long) (i * 7 % 13) : (Object) (i / 3.0d));
+            expected.add(new Points.Point<SimpleNumber>(i, value));
+            columns.add(i, value);
+        }
+
+        final BasicRollup fromMap = BasicRollup.buildRollupFromRawSamples(expected);
+        final BasicRollup fromColumns = BasicRollup.buildRollupFromRawSamples(columns);
+        Assert.assertEquals(fromMap, fromColumns);
+        Assert.assertEquals(fromMap.getVariance().toDouble(), fromColumns.getVariance().toDouble(), 0d);
+    }
+
+    @Test
+    public void testEmpty() {
+        final ColumnarPoints points = new ColumnarPoints();
+        Assert.assertTrue(points.isEmpty());
+        final Map<Long, Points.Point<SimpleNumber>> view = points.getPoints();
+        Assert.assertTrue(view.isEmpty());
+        Assert.assertEquals(0, points.subPoints(0, Long.MAX_VALUE).size());
+        try {
+            points.getDataClass();
+            Assert.fail("expected no data class for no data");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.rackspacecloud.blueflood.types;
+
+import com.google.common.base.Charsets;
+import com.rackspacecloud.blueflood.io.serializers.LocatorSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class LocatorTest {
+
+    @Test
+    public void testFactoriesReturnCanonicalInstances() {
+        final Locator fromParts = Locator.createLocatorFromPathComponents("ac1", "host", "cpu");
+        final Locator fromKey = Locator.createLocatorFromDbKey(new String("ac1.host.cpu"));
+
+        Assert.assertSame(fromParts, fromKey);
+        Assert.assertSame(fromParts, LocatorSerializer.get().fromByteBuffer(LocatorSerializer.get().toByteBuffer(fromKey)));
+    }
+
+    @Test
+    public void testTenantAndMetricName() {
+        final Locator locator = Locator.createLocatorFromDbKey("ac1.host.cpu");
+        Assert.assertEquals("ac1", locator.getTenantId());
+        Assert.assertEquals("host.cpu", locator.getMetricName());
+        Assert.assertSame(locator.getMetricName(), locator.getMetricName());
+        // tenant ids are shared between locators of the same tenant.
+        Assert.assertSame(locator.getTenantId(), Locator.createLocatorFromDbKey("ac1.host.mem").getTenantId());
+
+        final Locator noSeparator = Locator.createLocatorFromDbKey("ac1");
+        Assert.assertEquals("ac1", noSeparator.getTenantId());
+        Assert.assertEquals("ac1", noSeparator.getMetricName());
+    }
+
+    @Test
+    public void testEqualHashCodesAreNotEnough() {
+        // "Aa" and "BB" have the same String.hashCode().
+        final Locator first = Locator.createLocatorFromPathComponents("ac1", "Aa");
+        final Locator second = Locator.createLocatorFromPathComponents("ac1", "BB");
+
+        Assert.assertEquals(first.hashCode(), second.hashCode());
+        Assert.assertFalse(first.equals(second));
+        Assert.assertFalse(first.equals((Object) second));
+        Assert.assertNotSame(first, second);
+    }
+
+    @Test
+    public void testBytesAreCachedUtf8() {
+        final Locator locator = Locator.createLocatorFromPathComponents("ac1", "t\u00e9st");
+        Assert.assertArrayEquals("ac1.t\u00e9st".getBytes(Charsets.UTF_8), locator.getBytes());
+        Assert.assertSame(locator.getBytes(), locator.getBytes());
+
+        final ByteBuffer buffer = LocatorSerializer.get().toByteBuffer(locator);
+        Assert.assertEquals(locator.getBytes().length, buffer.remaining());
+        // writing through the buffer must not corrupt the cached bytes.
+        buffer.put(0, (byte) 'x');
+        Assert.assertArrayEquals("ac1.t\u00e9st".getBytes(Charsets.UTF_8), locator.getBytes());
+    }
+}
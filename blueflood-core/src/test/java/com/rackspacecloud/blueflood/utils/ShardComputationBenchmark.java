@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.utils;
+
+import com.rackspacecloud.blueflood.io.Constants;
+import com.rackspacecloud.blueflood.types.Locator;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the original hex-parsing shard computation with {@link Util#computeShard(String)}, the cached
+ * {@link Util#getShard(String)} and the memoized {@link Locator#getShard()}. Not a unit test; run it with
+ *
+ *   mvn test-compile
+ *   java -cp target/test-classes:target/classes:$(deps) org.openjdk.jmh.Main ShardComputationBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ShardComputationBenchmark {
+    private static final int LOCATORS = 4096;
+
+    private final String[] names = new String[LOCATORS];
+    private final Locator[] locators = new Locator[LOCATORS];
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < LOCATORS; i++) {
+            names[i] = "123456.host" + (i % 50) + ".cpu.core" + (i % 16) + ".utilization." + i;
+            locators[i] = Locator.createLocatorFromDbKey(names[i]);
+        }
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (LOCATORS - 1);
+        return next;
+    }
+
+    @Benchmark
+    public int hexDigest() {
+        return (int)Long.parseLong(DigestUtils.md5Hex(names[nextIndex()]).substring(30), 16) % Constants.NUMBER_OF_SHARDS;
+    }
+
+    @Benchmark
+    public int computeShard() {
+        return Util.computeShard(names[nextIndex()]);
+    }
+
+    @Benchmark
+    public int cachedGetShard() {
+        return Util.getShard(names[nextIndex()]);
+    }
+
+    @Benchmark
+    public int memoizedLocator() {
+        return locators[nextIndex()].getShard();
+    }
+
+    @Benchmark
+    public int newLocator() {
+        // what ingestion sees: a fresh Locator per metric, asked for its shard more than once.
+        final Locator locator = Locator.createLocatorFromDbKey(names[nextIndex()]);
+        return locator.getShard() + locator.getShard();
+    }
+}
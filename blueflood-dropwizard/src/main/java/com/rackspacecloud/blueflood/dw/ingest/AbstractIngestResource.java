@@ -4,10 +4,10 @@ import com.rackspacecloud.blueflood.cache.MetadataCache;
 import com.rackspacecloud.blueflood.dw.ingest.types.ICollectionTime;
 import com.rackspacecloud.blueflood.io.IMetricsWriter;
 import com.rackspacecloud.blueflood.service.ScheduleContext;
+import com.rackspacecloud.blueflood.service.ShardUpdates;
 import com.rackspacecloud.blueflood.types.IMetric;
 import com.rackspacecloud.blueflood.types.Metric;
 import com.rackspacecloud.blueflood.types.MetricMetadata;
-import com.rackspacecloud.blueflood.utils.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,7 +52,7 @@ public abstract class AbstractIngestResource /*implements IMetricsWriter*/ {
     protected void updateContext(Collection<? extends IMetric> metrics) {
         ShardUpdates updates = new ShardUpdates();
         for (IMetric m : metrics) {
-            updates.update(m.getCollectionTime(), Util.computeShard(m.getLocator().toString()));
+            updates.update(m.getCollectionTime(), m.getLocator().getShard());
         }
         updates.flush(context);
     }
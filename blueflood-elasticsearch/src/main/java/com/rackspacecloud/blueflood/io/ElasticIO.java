@@ -48,6 +48,7 @@ import java.util.Map;
 import static com.rackspacecloud.blueflood.io.ElasticIO.ESFieldLabel.*;
 import static org.elasticsearch.index.query.QueryBuilders.boolQuery;
 import static org.elasticsearch.index.query.QueryBuilders.termQuery;
+import static org.elasticsearch.index.query.QueryBuilders.termsQuery;
 import static org.elasticsearch.index.query.QueryBuilders.wildcardQuery;
 
 public class ElasticIO implements DiscoveryIO {
@@ -65,6 +66,7 @@ public class ElasticIO implements DiscoveryIO {
     
     // todo: these should be instances per client.
     private final Timer searchTimer = Metrics.timer(ElasticIO.class, "Search Duration");
+    private final Timer batchSearchTimer = Metrics.timer(ElasticIO.class, "Batch Search Duration");
     private final Timer writeTimer = Metrics.timer(ElasticIO.class, "Write Duration");
     private final Histogram batchHistogram = Metrics.histogram(ElasticIO.class, "Batch Sizes");
     private Meter classCastExceptionMeter = Metrics.meter(ElasticIO.class, "Failed Cast to IMetric");
@@ -174,6 +176,30 @@ public class ElasticIO implements DiscoveryIO {
         return results;
     }
 
+    public List<SearchResult> search(String tenant, List<String> metricNames) throws Exception {
+        List<SearchResult> results = new ArrayList<SearchResult>();
+        if (metricNames.isEmpty()) {
+            return results;
+        }
+        Timer.Context searchTimerCtx = batchSearchTimer.time();
+
+        BoolQueryBuilder qb = boolQuery()
+                .must(termQuery(tenantId.toString(), tenant))
+                .must(termsQuery(metric_name.name(), metricNames));
+        SearchResponse response = client.prepareSearch(INDEX_NAME)
+                .setRouting(tenant)
+                .setSize(metricNames.size())
+                .setVersion(true)
+                .setQuery(qb)
+                .execute()
+                .actionGet();
+        searchTimerCtx.stop();
+        for (SearchHit hit : response.getHits().getHits()) {
+            results.add(convertHitToMetricDiscoveryResult(hit));
+        }
+        return results;
+    }
+
 
     public static class Discovery {
         private Map<String, Object> annotation = new HashMap<String, Object>();
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.http;
+
+import com.codahale.metrics.Timer;
+import com.google.common.io.CharStreams;
+import com.rackspacecloud.blueflood.io.Constants;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.HttpConfig;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.xerial.snappy.SnappyInputStream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads request bodies sent with a Content-Encoding. The body is inflated as it is read, so a parser reading from
+ * {@link #open(HttpRequest)} never has the whole uncompressed payload in memory. Supported encodings are gzip, deflate
+ * and snappy (the stream format of snappy-java's SnappyOutputStream); no encoding, or identity, reads the body as is.
+ *
+ * Time spent inflating is recorded per encoding when the stream is closed, and a body that inflates past
+ * HTTP_MAX_DECOMPRESSED_CONTENT_LENGTH fails with an IOException.
+ */
+public class CompressedContent {
+    public static final String SNAPPY = "snappy";
+
+    private static final long maxDecompressedLength =
+            Configuration.getInstance().getLongProperty(HttpConfig.HTTP_MAX_DECOMPRESSED_CONTENT_LENGTH);
+    private static final Timer gzipTimer = Metrics.timer(CompressedContent.class, "Decompression", HttpHeaders.Values.GZIP);
+    private static final Timer deflateTimer = Metrics.timer(CompressedContent.class, "Decompression", HttpHeaders.Values.DEFLATE);
+    private static final Timer snappyTimer = Metrics.timer(CompressedContent.class, "Decompression", SNAPPY);
+
+    /** true unless the request names a Content-Encoding this class cannot read. */
+    public static boolean isSupported(HttpRequest request) {
+        final String encoding = getEncoding(request);
+        return encoding == null || timerFor(encoding) != null;
+    }
+
+    /** true if the body has to be inflated; if not, callers can read the content buffer directly. */
+    public static boolean isCompressed(HttpRequest request) {
+        return getEncoding(request) != null;
+    }
+
+    /** The uncompressed body as a stream; the caller closes it. */
+    public static InputStream open(HttpRequest request) throws IOException {
+        // a duplicate, so reading the body leaves the request content as it was.
+        final InputStream content = new ChannelBufferInputStream(request.getContent().duplicate());
+        final String encoding = getEncoding(request);
+        if (encoding == null) {
+            return content;
+        }
+        final Timer timer = timerFor(encoding);
+        if (timer == null) {
+            throw new IOException("Unsupported Content-Encoding " + encoding);
+        }
+
+        final long start = System.nanoTime();
+        final InputStream inflating;
+        if (HttpHeaders.Values.GZIP.equals(encoding)) {
+            inflating = new GZIPInputStream(content);
+        } else if (HttpHeaders.Values.DEFLATE.equals(encoding)) {
+            inflating = new InflaterInputStream(content);
+        } else {
+            inflating = new SnappyInputStream(content);
+        }
+        return new InflatingInputStream(inflating, timer, System.nanoTime() - start);
+    }
+
+    /** The uncompressed body as a string, for handlers that cannot parse from a stream. */
+    public static String readString(HttpRequest request) throws IOException {
+        if (!isCompressed(request)) {
+            return request.getContent().toString(Constants.DEFAULT_CHARSET);
+        }
+        final InputStreamReader reader = new InputStreamReader(open(request), Constants.DEFAULT_CHARSET);
+        try {
+            return CharStreams.toString(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    // null when there is nothing to inflate.
+    private static String getEncoding(HttpRequest request) {
+        final String encoding = request.getHeader(HttpHeaders.Names.CONTENT_ENCODING);
+        if (encoding == null) {
+            return null;
+        }
+        final String normalized = encoding.trim().toLowerCase();
+        if (normalized.isEmpty() || HttpHeaders.Values.IDENTITY.equals(normalized)) {
+            return null;
+        }
+        // x-gzip and x-deflate are the older names of the same encodings.
+        return normalized.startsWith("x-") ? normalized.substring(2) : normalized;
+    }
+
+    private static Timer timerFor(String encoding) {
+        if (HttpHeaders.Values.GZIP.equals(encoding)) {
+            return gzipTimer;
+        } else if (HttpHeaders.Values.DEFLATE.equals(encoding)) {
+            return deflateTimer;
+        } else if (SNAPPY.equals(encoding)) {
+            return snappyTimer;
+        }
+        return null;
+    }
+
+    // counts the time spent in reads, which is almost all inflating since the compressed bytes are already in memory.
+    private static class InflatingInputStream extends FilterInputStream {
+        private final Timer timer;
+        private long nanos;
+        private long length = 0;
+        private boolean closed = false;
+
+        InflatingInputStream(InputStream in, Timer timer, long nanos) {
+            super(in);
+            this.timer = timer;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final long start = System.nanoTime();
+            final int b = super.read();
+            nanos += System.nanoTime() - start;
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final long start = System.nanoTime();
+            final int read = super.read(b, off, len);
+            nanos += System.nanoTime() - start;
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // through read(), so skipped bytes count towards the limit too.
+            final byte[] skipped = new byte[(int) Math.min(n, 4096)];
+            final int read = read(skipped, 0, skipped.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                timer.update(nanos, TimeUnit.NANOSECONDS);
+            }
+            super.close();
+        }
+
+        private void count(int read) throws IOException {
+            length += read;
+            if (length > maxDecompressedLength) {
+                throw new IOException("Decompressed content exceeds " + maxDecompressedLength + " bytes");
+            }
+        }
+    }
+}
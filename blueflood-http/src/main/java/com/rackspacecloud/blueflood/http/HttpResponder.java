@@ -16,9 +16,13 @@
 
 package com.rackspacecloud.blueflood.http;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelLocal;
 import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
@@ -29,19 +33,69 @@ import static org.jboss.netty.handler.codec.http.HttpHeaders.setContentLength;
 import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
 public class HttpResponder {
+    // the last response placed on each channel. a response is only written once the one placed before it has been,
+    // so pipelined requests on a keep-alive connection are answered in the order they came in, even when some of them
+    // are answered from another thread later on. keys are weak, so closed channels drop out.
+    private static final ChannelLocal<ListenableFuture<?>> lastResponses = new ChannelLocal<ListenableFuture<?>>();
+
     public static void respond(ChannelHandlerContext ctx, HttpRequest req, HttpResponseStatus status) {
         respond(ctx, req, new DefaultHttpResponse(HTTP_1_1, status));
     }
 
     public static void respond(ChannelHandlerContext ctx, HttpRequest req, HttpResponse res) {
-        if (res.getContent() != null) {
-            setContentLength(res, res.getContent().readableBytes());
+        defer(ctx, req).respond(res);
+    }
+
+    /**
+     * Places the response to a request that is answered later, through the returned {@link DeferredResponse}.
+     * Responses are written in the order they were placed; this must be called while the request is handled, before
+     * the channel's next request is.
+     */
+    public static DeferredResponse defer(ChannelHandlerContext ctx, HttpRequest req) {
+        final DeferredResponse response = new DeferredResponse(ctx, req);
+        response.previous = lastResponses.set(ctx.getChannel(), response.written);
+        return response;
+    }
+
+    public static class DeferredResponse {
+        private final ChannelHandlerContext ctx;
+        private final HttpRequest req;
+        private final SettableFuture<Void> written = SettableFuture.create();
+        private ListenableFuture<?> previous;
+
+        private DeferredResponse(ChannelHandlerContext ctx, HttpRequest req) {
+            this.ctx = ctx;
+            this.req = req;
+        }
+
+        /** Writes the response as soon as every response placed before it on the channel has been written. */
+        public void respond(final HttpResponse res) {
+            if (previous == null || previous.isDone()) {
+                write(res);
+                return;
+            }
+            previous.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    write(res);
+                }
+            }, MoreExecutors.sameThreadExecutor());
         }
 
-        // Send the response and close the connection if necessary.
-        ChannelFuture f = ctx.getChannel().write(res);
-        if (req == null || !isKeepAlive(req)) {
-            f.addListener(ChannelFutureListener.CLOSE);
+        private void write(HttpResponse res) {
+            try {
+                if (res.getContent() != null) {
+                    setContentLength(res, res.getContent().readableBytes());
+                }
+
+                // Send the response and close the connection if necessary.
+                ChannelFuture f = ctx.getChannel().write(res);
+                if (req == null || !isKeepAlive(req)) {
+                    f.addListener(ChannelFutureListener.CLOSE);
+                }
+            } finally {
+                written.set(null);
+            }
         }
     }
-}
\ No newline at end of file
+}
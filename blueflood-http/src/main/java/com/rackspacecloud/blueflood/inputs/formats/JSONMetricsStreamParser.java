@@ -0,0 +1,197 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.inputs.formats;
+
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Metric;
+import com.rackspacecloud.blueflood.types.MetricsCollection;
+import com.rackspacecloud.blueflood.utils.TimeValue;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.JsonMappingException;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns an ingestion payload into {@link Metric}s by walking the JSON token stream of the request buffer.
+ *
+ * The result is the same as binding the body to a list of {@link JSONMetricsContainer.JSONMetric} and calling
+ * {@link JSONMetricsContainer#toMetrics()}, but the body is never copied into a String and no intermediate
+ * POJOs are built. Instances are stateless and thread-safe.
+ */
+public class JSONMetricsStreamParser {
+    private static final String METRIC_NAME = "metricName";
+    private static final String METRIC_VALUE = "metricValue";
+    private static final String COLLECTION_TIME = "collectionTime";
+    private static final String TTL_IN_SECONDS = "ttlInSeconds";
+    private static final String UNIT = "unit";
+    private static final String TENANT_ID = "tenantId";
+
+    private final JsonFactory factory;
+    private final boolean scoped;
+
+    /**
+     * @param factory json factory used to create parsers.
+     * @param scoped if true, every metric must carry its own tenantId (multitenant ingestion).
+     */
+    public JSONMetricsStreamParser(JsonFactory factory, boolean scoped) {
+        this.factory = factory;
+        this.scoped = scoped;
+    }
+
+    /**
+     * Parses all metrics in <code>content</code> and adds them to <code>collection</code>. Metrics with a null value
+     * are skipped, just like {@link JSONMetricsContainer#toMetrics()} does.
+     *
+     * @return the number of metrics added to the collection.
+     */
+    public int parse(ChannelBuffer content, String tenantId, MetricsCollection collection) throws IOException {
+        return parse(new ChannelBufferInputStream(content), tenantId, collection);
+    }
+
+    /**
+     * Same as {@link #parse(ChannelBuffer, String, MetricsCollection)}, reading from <code>content</code>, which is
+     * closed once parsing ends.
+     */
+    public int parse(InputStream content, String tenantId, MetricsCollection collection) throws IOException {
+        final JsonParser parser = factory.createJsonParser(content);
+        try {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new JsonMappingException("Expected a JSON array of metrics", parser.getCurrentLocation());
+            }
+
+            int count = 0;
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new JsonMappingException("Expected a JSON object for metric, got " + token,
+                            parser.getCurrentLocation());
+                }
+                Metric metric = parseMetric(parser, tenantId);
+                if (metric != null) {
+                    collection.add(metric);
+                    count++;
+                }
+            }
+            if ((token = parser.nextToken()) != null) {
+                throw new JsonMappingException("Unexpected " + token + " after the array of metrics",
+                        parser.getCurrentLocation());
+            }
+            return count;
+        } finally {
+            parser.close();
+        }
+    }
+
+    private Metric parseMetric(JsonParser parser, String tenantId) throws IOException {
+        String metricTenantId = null;
+        String metricName = null;
+        Object metricValue = null;
+        long collectionTime = 0;
+        int ttlInSeconds = 0;
+        String unit = null;
+
+        while (parser.nextToken() != JsonToken.END_OBJECT) {
+            final String field = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+
+            if (METRIC_NAME.equals(field)) {
+                metricName = readString(parser, token);
+            } else if (METRIC_VALUE.equals(field)) {
+                metricValue = readValue(parser, token);
+            } else if (COLLECTION_TIME.equals(field)) {
+                collectionTime = readLong(parser, token);
+            } else if (TTL_IN_SECONDS.equals(field)) {
+                ttlInSeconds = (int) readLong(parser, token);
+            } else if (UNIT.equals(field)) {
+                unit = readString(parser, token);
+            } else if (scoped && TENANT_ID.equals(field)) {
+                metricTenantId = readString(parser, token);
+            } else {
+                throw new JsonMappingException("Unrecognized field \"" + field + "\"", parser.getCurrentLocation());
+            }
+        }
+
+        if (scoped) {
+            if (metricTenantId == null) {
+                throw new JsonMappingException("Missing tenantId for metric " + metricName, parser.getCurrentLocation());
+            }
+            tenantId = metricTenantId;
+        }
+
+        if (metricValue == null) {
+            return null;
+        }
+
+        final Locator locator = Locator.createLocatorFromPathComponents(tenantId, metricName);
+        return new Metric(locator, metricValue, collectionTime, new TimeValue(ttlInSeconds, TimeUnit.SECONDS), unit);
+    }
+
+    private static String readString(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            throw new JsonMappingException("Expected a string, got " + token, parser.getCurrentLocation());
+        }
+        return parser.getText();
+    }
+
+    private static long readLong(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getLongValue();
+            case VALUE_STRING:
+                try {
+                    return Long.parseLong(parser.getText().trim());
+                } catch (NumberFormatException e) {
+                    throw new JsonMappingException("Not a valid number: " + parser.getText(), parser.getCurrentLocation());
+                }
+            case VALUE_NULL:
+                return 0;
+            default:
+                throw new JsonMappingException("Expected a number, got " + token, parser.getCurrentLocation());
+        }
+    }
+
+    // mirrors what jackson binds an untyped (Object) property to, minus objects and arrays which Metric cannot hold.
+    private static Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return null;
+            default:
+                throw new JsonParseException("Unsupported metric value " + token, parser.getCurrentLocation());
+        }
+    }
+}
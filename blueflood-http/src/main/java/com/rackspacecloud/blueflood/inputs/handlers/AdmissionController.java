@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.inputs.handlers;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.AtomicLongMap;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.io.Instrumentation;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.HttpConfig;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether an ingest request may be handed to the {@link HttpMetricsIngestionServer.Processor}.
+ *
+ * Two signals say how far behind the writers are: the metrics accepted but not yet written (the processor's
+ * "Buffered Metrics" counter) and the recent latency of full resolution writes to cassandra. Slow writes halve the
+ * buffer limit. Past the limit every request is turned away with a 503; below it, a tenant that already has more than
+ * its own limit buffered gets a 429, so one noisy tenant cannot take the whole buffer. Discovery writes are shed from
+ * half the limit on, well before any metric is turned away.
+ *
+ * The limits are soft: requests admitted concurrently can overshoot them by a few requests' worth of metrics.
+ */
+public class AdmissionController {
+    private static final long REFRESH_MILLIS = 1000;
+    private static final HttpResponseStatus TOO_MANY_REQUESTS = new HttpResponseStatus(429, "Too Many Requests");
+
+    public enum Decision {
+        ACCEPT(HttpResponseStatus.OK, null),
+        TENANT_LIMITED(TOO_MANY_REQUESTS, "Too many metrics buffered for tenant"),
+        OVERLOADED(HttpResponseStatus.SERVICE_UNAVAILABLE, "Too many metrics buffered");
+
+        private final HttpResponseStatus status;
+        private final String message;
+
+        private Decision(HttpResponseStatus status, String message) {
+            this.status = status;
+            this.message = message;
+        }
+
+        public HttpResponseStatus getStatus() {
+            return status;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    private final Meter overloadedRejections = Metrics.meter(AdmissionController.class, "Requests Rejected Overloaded");
+    private final Meter tenantRejections = Metrics.meter(AdmissionController.class, "Requests Rejected Tenant Limit");
+
+    private final Counter bufferedMetrics;
+    private final Timer writeTimer;
+    private final long maxBufferedMetrics;
+    private final long maxTenantBufferedMetrics;
+    private final long maxWriteLatencyNanos;
+    private final int retryAfterSeconds;
+
+    private final AtomicLongMap<String> tenantBufferedMetrics = AtomicLongMap.create();
+    private final AtomicLong nextRefresh = new AtomicLong(0);
+    private volatile boolean writesSlow = false;
+
+    public AdmissionController(Counter bufferedMetrics) {
+        this(bufferedMetrics,
+                Instrumentation.getWriteTimer(CassandraModel.CF_METRICS_FULL),
+                Configuration.getInstance().getLongProperty(HttpConfig.INGEST_MAX_BUFFERED_METRICS),
+                Configuration.getInstance().getLongProperty(HttpConfig.INGEST_MAX_TENANT_BUFFERED_METRICS),
+                Configuration.getInstance().getLongProperty(HttpConfig.INGEST_MAX_WRITE_LATENCY_MILLIS),
+                Configuration.getInstance().getIntegerProperty(HttpConfig.INGEST_RETRY_AFTER_SECONDS));
+    }
+
+    AdmissionController(Counter bufferedMetrics, Timer writeTimer, long maxBufferedMetrics,
+                        long maxTenantBufferedMetrics, long maxWriteLatencyMillis, int retryAfterSeconds) {
+        this.bufferedMetrics = bufferedMetrics;
+        this.writeTimer = writeTimer;
+        this.maxBufferedMetrics = maxBufferedMetrics;
+        this.maxTenantBufferedMetrics = maxTenantBufferedMetrics;
+        this.maxWriteLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxWriteLatencyMillis);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Admits {@code metrics} metrics for {@code tenantId}. Every {@link Decision#ACCEPT} must be matched by a
+     * {@link #release(String, int)} once those metrics are written (or failed to be).
+     */
+    public Decision admit(String tenantId, int metrics) {
+        maybeRefresh(System.currentTimeMillis());
+
+        final long buffered = bufferedMetrics.getCount();
+        // an idle node takes any request, however large.
+        if (buffered > 0 && buffered + metrics > getBufferLimit()) {
+            overloadedRejections.mark();
+            return Decision.OVERLOADED;
+        }
+
+        final long tenantBuffered = tenantBufferedMetrics.addAndGet(key(tenantId), metrics);
+        if (tenantBuffered > metrics && tenantBuffered > maxTenantBufferedMetrics) {
+            tenantBufferedMetrics.addAndGet(key(tenantId), -metrics);
+            tenantRejections.mark();
+            return Decision.TENANT_LIMITED;
+        }
+        return Decision.ACCEPT;
+    }
+
+    public void release(String tenantId, int metrics) {
+        tenantBufferedMetrics.addAndGet(key(tenantId), -metrics);
+    }
+
+    /** true if discovery writes should be skipped for now, to leave cassandra to the metric writes. */
+    public boolean shouldShedDiscovery() {
+        return bufferedMetrics.getCount() > getBufferLimit() / 2;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    long getTenantBufferedMetrics(String tenantId) {
+        return tenantBufferedMetrics.get(key(tenantId));
+    }
+
+    long getBufferLimit() {
+        return writesSlow ? maxBufferedMetrics / 2 : maxBufferedMetrics;
+    }
+
+    // requests to the multitenant endpoint without a tenant in the path share one allowance.
+    private static String key(String tenantId) {
+        return tenantId == null ? "" : tenantId;
+    }
+
+    private void maybeRefresh(long now) {
+        final long next = nextRefresh.get();
+        if (now >= next && nextRefresh.compareAndSet(next, now + REFRESH_MILLIS)) {
+            refresh();
+        }
+    }
+
+    // taking a snapshot copies the timer's reservoir, so this runs at most once a second.
+    void refresh() {
+        // while nothing is admitted, the timer keeps the last latencies it saw. that is why slow writes only
+        // tighten the buffer limit: once the buffer drains, requests get through again and refresh the timer.
+        writesSlow = writeTimer.getSnapshot().get95thPercentile() > maxWriteLatencyNanos;
+        tenantBufferedMetrics.removeAllZeros();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.inputs.handlers;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.CodedInputStream;
+import com.rackspacecloud.blueflood.exceptions.SerializationException;
+import com.rackspacecloud.blueflood.http.CompressedContent;
+import com.rackspacecloud.blueflood.http.HttpRequestHandler;
+import com.rackspacecloud.blueflood.inputs.formats.BinaryMetricSerialization;
+import com.rackspacecloud.blueflood.types.IMetric;
+import com.rackspacecloud.blueflood.types.MetricsCollection;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import com.rackspacecloud.blueflood.utils.TimeValue;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Ingests a stream of {@link BinaryMetricSerialization} frames, decoded straight from the request buffer. On the
+ * single tenant route every metric must belong to the tenant in the path; the multitenant route takes any tenant.
+ */
+public class HttpBinaryMetricsIngestionHandler implements HttpRequestHandler {
+    private static final Logger log = LoggerFactory.getLogger(HttpBinaryMetricsIngestionHandler.class);
+    private static final Counter requestCount = Metrics.counter(HttpBinaryMetricsIngestionHandler.class, "HTTP Request Count");
+    private static final Timer decodeTimer = Metrics.timer(HttpBinaryMetricsIngestionHandler.class, "HTTP Ingestion binary decoding timer");
+    private static final Timer persistingTimer = Metrics.timer(HttpBinaryMetricsIngestionHandler.class, "HTTP Ingestion persisting timer");
+
+    private final HttpMetricsIngestionServer.Processor processor;
+    private final TimeValue timeout;
+    private final boolean multitenant;
+
+    /**
+     * @param multitenant if true, metrics may belong to any tenant; otherwise each must belong to the tenant in the path.
+     */
+    public HttpBinaryMetricsIngestionHandler(HttpMetricsIngestionServer.Processor processor, TimeValue timeout, boolean multitenant) {
+        this.processor = processor;
+        this.timeout = timeout;
+        this.multitenant = multitenant;
+    }
+
+    @Override
+    public void handle(ChannelHandlerContext ctx, HttpRequest request) {
+        // the response to a request handed to the processor is sent, and the request counted out, once it is written.
+        boolean responseDeferred = false;
+        try {
+            requestCount.inc();
+            final String tenantId = request.getHeader("tenantId");
+            if (!CompressedContent.isSupported(request)) {
+                HttpMetricsIngestionHandler.sendResponse(ctx, request, "Unsupported Content-Encoding",
+                        HttpResponseStatus.UNSUPPORTED_MEDIA_TYPE);
+                return;
+            }
+
+            final MetricsCollection collection = readMetrics(ctx, request, tenantId);
+            if (collection == null) {
+                // a response has already been sent.
+                return;
+            }
+
+            final Timer.Context persistingTimerContext = persistingTimer.time();
+            try {
+                if (processor.hasCommitLog()) {
+                    // durable once synced; the commit log drainer writes it through to cassandra.
+                    final AdmissionController.Decision committed = processor.commit(collection);
+                    if (committed == AdmissionController.Decision.ACCEPT) {
+                        HttpMetricsIngestionHandler.sendResponse(ctx, request, null, HttpResponseStatus.OK);
+                    } else {
+                        HttpMetricsIngestionHandler.sendRejection(ctx, request, committed, processor.getRetryAfterSeconds());
+                    }
+                    return;
+                }
+                final AdmissionController.Decision admission = processor.admit(tenantId, collection.size());
+                if (admission != AdmissionController.Decision.ACCEPT) {
+                    HttpMetricsIngestionHandler.sendRejection(ctx, request, admission, processor.getRetryAfterSeconds());
+                    return;
+                }
+                ListenableFuture<List<Boolean>> futures = processor.apply(tenantId, collection);
+                HttpMetricsIngestionHandler.sendResponseWhenPersisted(ctx, request, futures, timeout, new Runnable() {
+                    @Override
+                    public void run() {
+                        persistingTimerContext.stop();
+                        requestCount.dec();
+                    }
+                });
+                responseDeferred = true;
+            } catch (Exception e) {
+                log.error("Exception persisting metrics", e);
+                HttpMetricsIngestionHandler.sendResponse(ctx, request, "Error persisting metrics", HttpResponseStatus.INTERNAL_SERVER_ERROR);
+            } finally {
+                if (!responseDeferred) {
+                    persistingTimerContext.stop();
+                }
+            }
+        } finally {
+            if (!responseDeferred) {
+                requestCount.dec();
+            }
+        }
+    }
+
+    private MetricsCollection readMetrics(ChannelHandlerContext ctx, HttpRequest request, String tenantId) {
+        final MetricsCollection collection = new MetricsCollection();
+        final Timer.Context decodeTimerContext = decodeTimer.time();
+        InputStream inflating = null;
+        try {
+            final CodedInputStream in;
+            if (CompressedContent.isCompressed(request)) {
+                // inflated as the frames are read.
+                inflating = CompressedContent.open(request);
+                in = CodedInputStream.newInstance(inflating);
+            } else {
+                in = newCodedInput(request.getContent());
+            }
+            // the 64MB default would cut off a large compressed stream; the inflating stream enforces its own limit.
+            in.setSizeLimit(Integer.MAX_VALUE);
+            BinaryMetricSerialization.readStream(in, collection.toMetrics());
+            HttpMetricsIngestionHandler.forceTTLsIfConfigured(collection);
+        } catch (SerializationException e) {
+            log.warn(ctx.getChannel().getRemoteAddress() + " " + e.getMessage());
+            HttpMetricsIngestionHandler.sendResponse(ctx, request, "Invalid data " + e.getMessage(),
+                    HttpResponseStatus.BAD_REQUEST);
+            return null;
+        } catch (IOException e) {
+            log.warn("IO Exception decoding content", e);
+            HttpMetricsIngestionHandler.sendResponse(ctx, request, "Cannot parse content", HttpResponseStatus.BAD_REQUEST);
+            return null;
+        } catch (Exception e) {
+            log.warn("Exception converting binary payload to metric objects", e);
+            HttpMetricsIngestionHandler.sendResponse(ctx, request, "Error converting binary payload to metric objects",
+                    HttpResponseStatus.BAD_REQUEST);
+            return null;
+        } finally {
+            decodeTimerContext.stop();
+            if (inflating != null) {
+                try {
+                    inflating.close();
+                } catch (IOException ignored) {
+                    // nothing left to read from it.
+                }
+            }
+        }
+
+        if (collection.size() == 0) {
+            log.warn(ctx.getChannel().getRemoteAddress() + " No valid metrics");
+            HttpMetricsIngestionHandler.sendResponse(ctx, request, "No valid metrics", HttpResponseStatus.BAD_REQUEST);
+            return null;
+        }
+        if (!multitenant) {
+            for (IMetric metric : collection.toMetrics()) {
+                if (!metric.getLocator().getTenantId().equals(tenantId)) {
+                    log.warn(ctx.getChannel().getRemoteAddress() + " Metric for tenant " + metric.getLocator().getTenantId()
+                            + " sent to tenant " + tenantId);
+                    HttpMetricsIngestionHandler.sendResponse(ctx, request,
+                            "Invalid data Metric " + metric.getLocator() + " does not belong to tenant " + tenantId,
+                            HttpResponseStatus.BAD_REQUEST);
+                    return null;
+                }
+            }
+        }
+        return collection;
+    }
+
+    // reads the aggregated body in place when netty kept it in a heap array, which it does for aggregated requests.
+    private static CodedInputStream newCodedInput(ChannelBuffer content) {
+        if (content.hasArray()) {
+            return CodedInputStream.newInstance(content.array(), content.arrayOffset() + content.readerIndex(),
+                    content.readableBytes());
+        }
+        return CodedInputStream.newInstance(new ChannelBufferInputStream(content));
+    }
+}
@@ -18,13 +18,20 @@ package com.rackspacecloud.blueflood.inputs.handlers;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.rackspacecloud.blueflood.cache.ConfigTtlProvider;
 import com.rackspacecloud.blueflood.exceptions.InvalidDataException;
+import com.rackspacecloud.blueflood.http.CompressedContent;
 import com.rackspacecloud.blueflood.http.HttpRequestHandler;
 import com.rackspacecloud.blueflood.http.HttpResponder;
 import com.rackspacecloud.blueflood.inputs.formats.JSONMetricsContainer;
+import com.rackspacecloud.blueflood.inputs.formats.JSONMetricsStreamParser;
 import com.rackspacecloud.blueflood.io.Constants;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.HttpConfig;
 import com.rackspacecloud.blueflood.types.IMetric;
 import com.rackspacecloud.blueflood.types.Metric;
 import com.rackspacecloud.blueflood.types.MetricsCollection;
@@ -37,23 +44,33 @@ import org.codehaus.jackson.map.type.TypeFactory;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.http.*;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class HttpMetricsIngestionHandler implements HttpRequestHandler {
     private static final Logger log = LoggerFactory.getLogger(HttpMetricsIngestionHandler.class);
     private static final Counter requestCount = Metrics.counter(HttpMetricsIngestionHandler.class, "HTTP Request Count");
+    // one thread for the timeouts of every pending ingest request; 10ms ticks are plenty for second-scale timeouts.
+    private static final HashedWheelTimer timeoutTimer = new HashedWheelTimer(
+            new ThreadFactoryBuilder().setNameFormat("Ingest response timeouts").setDaemon(true).build(),
+            10, TimeUnit.MILLISECONDS);
 
 
     protected final ObjectMapper mapper;
     protected final TypeFactory typeFactory;
     private final HttpMetricsIngestionServer.Processor processor;
     private final TimeValue timeout;
+    private final JSONMetricsStreamParser streamParser;
+    private final boolean useStreamingParser;
 
     // Metrics
     private static final Timer jsonTimer = Metrics.timer(HttpMetricsIngestionHandler.class, "HTTP Ingestion json processing timer");
@@ -66,6 +83,8 @@ public class HttpMetricsIngestionHandler implements HttpRequestHandler {
         this.typeFactory = TypeFactory.defaultInstance();
         this.timeout = timeout;
         this.processor = processor;
+        this.streamParser = new JSONMetricsStreamParser(mapper.getJsonFactory(), false);
+        this.useStreamingParser = Configuration.getInstance().getBooleanProperty(HttpConfig.USE_STREAMING_JSON_INGESTION);
     }
 
     protected JSONMetricsContainer createContainer(String body, String tenantId) throws JsonParseException, JsonMappingException, IOException {
@@ -78,95 +97,127 @@ public class HttpMetricsIngestionHandler implements HttpRequestHandler {
         return new JSONMetricsContainer(tenantId, jsonMetrics);
     }
 
+    protected JSONMetricsStreamParser getStreamParser() {
+        return streamParser;
+    }
+
     @Override
     public void handle(ChannelHandlerContext ctx, HttpRequest request) {
+        // the response to a request handed to the processor is sent, and the request counted out, once it is written.
+        boolean responseDeferred = false;
         try {
             requestCount.inc();
             final String tenantId = request.getHeader("tenantId");
-            JSONMetricsContainer jsonMetricsContainer = null;
-            final Timer.Context jsonTimerContext = jsonTimer.time();
-
-            final String body = request.getContent().toString(Constants.DEFAULT_CHARSET);
-            try {
-                jsonMetricsContainer = createContainer(body, tenantId);
-                if (!jsonMetricsContainer.isValid()) {
-                    throw new IOException("Invalid JSONMetricsContainer");
-                }
-            } catch (JsonParseException e) {
-                log.warn("Exception parsing content", e);
-                sendResponse(ctx, request, "Cannot parse content", HttpResponseStatus.BAD_REQUEST);
-                return;
-            } catch (JsonMappingException e) {
-                log.warn("Exception parsing content", e);
-                sendResponse(ctx, request, "Cannot parse content", HttpResponseStatus.BAD_REQUEST);
-                return;
-            } catch (IOException e) {
-                log.warn("IO Exception parsing content", e);
-                sendResponse(ctx, request, "Cannot parse content", HttpResponseStatus.BAD_REQUEST);
-                return;
-            } catch (Exception e) {
-                log.warn("Other exception while trying to parse content", e);
-                sendResponse(ctx, request, "Failed parsing content", HttpResponseStatus.INTERNAL_SERVER_ERROR);
-                return;
-            }
-
-            if (jsonMetricsContainer == null) {
-                log.warn(ctx.getChannel().getRemoteAddress() + " No valid metrics");
-                sendResponse(ctx, request, "No valid metrics", HttpResponseStatus.BAD_REQUEST);
+            if (!CompressedContent.isSupported(request)) {
+                sendResponse(ctx, request, "Unsupported Content-Encoding", HttpResponseStatus.UNSUPPORTED_MEDIA_TYPE);
                 return;
             }
 
-            List<Metric> containerMetrics;
+            final MetricsCollection collection;
+            final Timer.Context jsonTimerContext = jsonTimer.time();
             try {
-                containerMetrics = jsonMetricsContainer.toMetrics();
-                forceTTLsIfConfigured(containerMetrics);
-            } catch (InvalidDataException ex) {
-                // todo: we should measure these. if they spike, we track down the bad client.
-                // this is strictly a client problem. Someting wasn't right (data out of range, etc.)
-                log.warn(ctx.getChannel().getRemoteAddress() + " " + ex.getMessage());
-                sendResponse(ctx, request, "Invalid data " + ex.getMessage(), HttpResponseStatus.BAD_REQUEST);
-                return;
+                if (useStreamingParser) {
+                    collection = readMetricsStreaming(request, tenantId);
+                } else {
+                    collection = readMetrics(request, tenantId);
+                }
             } catch (Exception e) {
-                // todo: when you see these in logs, go and fix them (throw InvalidDataExceptions) so they can be reduced
-                // to single-line log statements.
-                log.warn("Exception converting JSON container to metric objects", e);
-                // This could happen if clients send BigIntegers as metric values. BF doesn't handle them. So let's send a
-                // BAD REQUEST message until we start handling BigIntegers.
-                sendResponse(ctx, request, "Error converting JSON payload to metric objects",
-                        HttpResponseStatus.BAD_REQUEST);
+                sendParseFailure(ctx, request, e);
                 return;
             } finally {
                 jsonTimerContext.stop();
             }
-
-            if (containerMetrics == null || containerMetrics.isEmpty()) {
+            if (collection.size() == 0) {
                 log.warn(ctx.getChannel().getRemoteAddress() + " No valid metrics");
                 sendResponse(ctx, request, "No valid metrics", HttpResponseStatus.BAD_REQUEST);
+                return;
             }
 
-            final MetricsCollection collection = new MetricsCollection();
-            collection.add(new ArrayList<IMetric>(containerMetrics));
             final Timer.Context persistingTimerContext = persistingTimer.time();
             try {
-                ListenableFuture<List<Boolean>> futures = processor.apply(collection);
-                List<Boolean> persisteds = futures.get(timeout.getValue(), timeout.getUnit());
-                for (Boolean persisted : persisteds) {
-                    if (!persisted) {
-                        sendResponse(ctx, request, null, HttpResponseStatus.INTERNAL_SERVER_ERROR);
-                        return;
+                if (processor.hasCommitLog()) {
+                    // durable once synced; the commit log drainer writes it through to cassandra.
+                    final AdmissionController.Decision committed = processor.commit(collection);
+                    if (committed == AdmissionController.Decision.ACCEPT) {
+                        sendResponse(ctx, request, null, HttpResponseStatus.OK);
+                    } else {
+                        sendRejection(ctx, request, committed, processor.getRetryAfterSeconds());
                     }
+                    return;
+                }
+                final AdmissionController.Decision admission = processor.admit(tenantId, collection.size());
+                if (admission != AdmissionController.Decision.ACCEPT) {
+                    sendRejection(ctx, request, admission, processor.getRetryAfterSeconds());
+                    return;
                 }
-                sendResponse(ctx, request, null, HttpResponseStatus.OK);
-            } catch (TimeoutException e) {
-                sendResponse(ctx, request, "Timed out persisting metrics", HttpResponseStatus.ACCEPTED);
+                ListenableFuture<List<Boolean>> futures = processor.apply(tenantId, collection);
+                sendResponseWhenPersisted(ctx, request, futures, timeout, new Runnable() {
+                    @Override
+                    public void run() {
+                        persistingTimerContext.stop();
+                        requestCount.dec();
+                    }
+                });
+                responseDeferred = true;
             } catch (Exception e) {
                 log.error("Exception persisting metrics", e);
                 sendResponse(ctx, request, "Error persisting metrics", HttpResponseStatus.INTERNAL_SERVER_ERROR);
             } finally {
-                persistingTimerContext.stop();
+                if (!responseDeferred) {
+                    persistingTimerContext.stop();
+                }
             }
         } finally {
-            requestCount.dec();
+            if (!responseDeferred) {
+                requestCount.dec();
+            }
+        }
+    }
+
+    private MetricsCollection readMetrics(HttpRequest request, String tenantId) throws IOException {
+        JSONMetricsContainer jsonMetricsContainer = createContainer(CompressedContent.readString(request), tenantId);
+        if (!jsonMetricsContainer.isValid()) {
+            throw new IOException("Invalid JSONMetricsContainer");
+        }
+        final MetricsCollection collection = new MetricsCollection();
+        List<Metric> containerMetrics = jsonMetricsContainer.toMetrics();
+        // null for an empty array; answered as "No valid metrics", as the streaming parser's empty collection is.
+        if (containerMetrics == null) {
+            return collection;
+        }
+        forceTTLsIfConfigured(containerMetrics);
+        collection.add(new ArrayList<IMetric>(containerMetrics));
+        return collection;
+    }
+
+    // parses straight off the request buffer. no body string, no intermediate JSONMetric list.
+    private MetricsCollection readMetricsStreaming(HttpRequest request, String tenantId) throws IOException {
+        final MetricsCollection collection = new MetricsCollection();
+        // inflated as the parser reads it, if the body is compressed.
+        getStreamParser().parse(CompressedContent.open(request), tenantId, collection);
+        forceTTLsIfConfigured(collection);
+        return collection;
+    }
+
+    /**
+     * Answers a request whose body could not be read into metrics, the same way for either parser.
+     */
+    private static void sendParseFailure(ChannelHandlerContext ctx, HttpRequest request, Exception e) {
+        if (e instanceof InvalidDataException) {
+            // todo: we should measure these. if they spike, we track down the bad client.
+            // this is strictly a client problem. Someting wasn't right (data out of range, etc.)
+            log.warn(ctx.getChannel().getRemoteAddress() + " " + e.getMessage());
+            sendResponse(ctx, request, "Invalid data " + e.getMessage(), HttpResponseStatus.BAD_REQUEST);
+        } else if (e instanceof IOException) {
+            // malformed json lands here too, as a JsonProcessingException.
+            log.warn("Exception parsing content", e);
+            sendResponse(ctx, request, "Cannot parse content", HttpResponseStatus.BAD_REQUEST);
+        } else {
+            // not something the client got wrong, as far as we know.
+            // todo: when you see these in logs, go and fix them (throw InvalidDataExceptions) so they can be reduced
+            // to single-line log statements.
+            log.warn("Other exception while trying to parse content", e);
+            sendResponse(ctx, request, "Failed parsing content", HttpResponseStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
@@ -180,7 +231,22 @@ public class HttpMetricsIngestionHandler implements HttpRequestHandler {
         }
     }
 
+    static void forceTTLsIfConfigured(MetricsCollection collection) {
+        ConfigTtlProvider configTtlProvider = ConfigTtlProvider.getInstance();
+
+        if(configTtlProvider.areTTLsForced()) {
+            int ttl = (int) configTtlProvider.getConfigTTLForIngestion().toSeconds();
+            for(IMetric m : collection.toMetrics()) {
+                m.setTtlInSeconds(ttl);
+            }
+        }
+    }
+
     public static void sendResponse(ChannelHandlerContext channel, HttpRequest request, String messageBody, HttpResponseStatus status) {
+        sendResponse(HttpResponder.defer(channel, request), messageBody, status);
+    }
+
+    private static void sendResponse(HttpResponder.DeferredResponse deferred, String messageBody, HttpResponseStatus status) {
         HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
         final Timer.Context sendResponseTimerContext = sendResponseTimer.time();
 
@@ -188,9 +254,71 @@ public class HttpMetricsIngestionHandler implements HttpRequestHandler {
             if (messageBody != null && !messageBody.isEmpty()) {
                 response.setContent(ChannelBuffers.copiedBuffer(messageBody, Constants.DEFAULT_CHARSET));
             }
-            HttpResponder.respond(channel, request, response);
+            deferred.respond(response);
         } finally {
             sendResponseTimerContext.stop();
         }
     }
+
+    /**
+     * Answers the request once {@code futures} completes, without blocking the calling thread: 200 if every batch
+     * was written, 500 if any was not. If that takes longer than {@code timeout}, the request is answered with a 202
+     * instead and the writes carry on. {@code whenDone} runs once the response is ready; on a pipelined connection it
+     * is written after the responses to the requests before it.
+     */
+    public static void sendResponseWhenPersisted(ChannelHandlerContext ctx, HttpRequest request,
+                                                 ListenableFuture<List<Boolean>> futures, TimeValue timeout,
+                                                 final Runnable whenDone) {
+        // the response's place is taken now, while the request is handled, so it keeps its order on the channel.
+        final HttpResponder.DeferredResponse deferred = HttpResponder.defer(ctx, request);
+        final AtomicBoolean responded = new AtomicBoolean(false);
+        final Timeout timeoutTask = timeoutTimer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout t) {
+                if (responded.compareAndSet(false, true)) {
+                    sendResponse(deferred, "Timed out persisting metrics", HttpResponseStatus.ACCEPTED);
+                    whenDone.run();
+                }
+            }
+        }, timeout.getValue(), timeout.getUnit());
+
+        Futures.addCallback(futures, new FutureCallback<List<Boolean>>() {
+            @Override
+            public void onSuccess(List<Boolean> persisteds) {
+                if (!responded.compareAndSet(false, true)) {
+                    return;
+                }
+                timeoutTask.cancel();
+                HttpResponseStatus status = HttpResponseStatus.OK;
+                for (Boolean persisted : persisteds) {
+                    if (!persisted) {
+                        status = HttpResponseStatus.INTERNAL_SERVER_ERROR;
+                        break;
+                    }
+                }
+                sendResponse(deferred, null, status);
+                whenDone.run();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (!responded.compareAndSet(false, true)) {
+                    return;
+                }
+                timeoutTask.cancel();
+                log.error("Exception persisting metrics", t);
+                sendResponse(deferred, "Error persisting metrics", HttpResponseStatus.INTERNAL_SERVER_ERROR);
+                whenDone.run();
+            }
+        });
+    }
+
+    /** Turns the request away as {@code decision} says, telling the client when to try again. */
+    public static void sendRejection(ChannelHandlerContext channel, HttpRequest request,
+                                     AdmissionController.Decision decision, int retryAfterSeconds) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, decision.getStatus());
+        response.setHeader(HttpHeaders.Names.RETRY_AFTER, retryAfterSeconds);
+        response.setContent(ChannelBuffers.copiedBuffer(decision.getMessage(), Constants.DEFAULT_CHARSET));
+        HttpResponder.respond(channel, request, response);
+    }
 }
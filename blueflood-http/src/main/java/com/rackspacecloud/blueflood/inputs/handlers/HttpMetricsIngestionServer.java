@@ -17,7 +17,10 @@
 package com.rackspacecloud.blueflood.inputs.handlers;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.rackspacecloud.blueflood.cache.MetadataCache;
 import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
 import com.rackspacecloud.blueflood.http.DefaultHandler;
@@ -28,6 +31,9 @@ import com.rackspacecloud.blueflood.inputs.processors.BatchWriter;
 import com.rackspacecloud.blueflood.inputs.processors.RollupTypeCacher;
 import com.rackspacecloud.blueflood.inputs.processors.TypeAndUnitProcessor;
 import com.rackspacecloud.blueflood.io.IMetricsWriter;
+import com.rackspacecloud.blueflood.io.commitlog.CommitLog;
+import com.rackspacecloud.blueflood.io.commitlog.CommitLogDrainer;
+import com.rackspacecloud.blueflood.io.commitlog.CommitLogFullException;
 import com.rackspacecloud.blueflood.service.*;
 import com.rackspacecloud.blueflood.types.IMetric;
 import com.rackspacecloud.blueflood.types.MetricsCollection;
@@ -42,7 +48,6 @@ import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
 import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
 import org.jboss.netty.handler.codec.http.HttpChunkAggregator;
-import org.jboss.netty.handler.codec.http.HttpContentDecompressor;
 import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
 import org.jboss.netty.handler.codec.http.HttpResponseDecoder;
 import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
@@ -51,9 +56,13 @@ import org.jboss.netty.handler.codec.http.HttpVersion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.List;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import static org.jboss.netty.channel.Channels.pipeline;
@@ -86,6 +95,8 @@ public class HttpMetricsIngestionServer {
         router.post("/v2.0/:tenantId/ingest/multi", new HttpMultitenantMetricsIngestionHandler(processor, timeout));
         router.post("/v2.0/:tenantId/ingest", new HttpMetricsIngestionHandler(processor, timeout));
         router.post("/v2.0/:tenantId/ingest/aggregated", new HttpStatsDIngestionHandler(processor, timeout));
+        router.post("/v2.0/:tenantId/ingest/binary", new HttpBinaryMetricsIngestionHandler(processor, timeout, false));
+        router.post("/v2.0/:tenantId/ingest/multi/binary", new HttpBinaryMetricsIngestionHandler(processor, timeout, true));
 
         log.info("Starting metrics listener HTTP server on port {}", httpIngestPort);
         ServerBootstrap server = new ServerBootstrap(
@@ -119,7 +130,7 @@ public class HttpMetricsIngestionServer {
                 }
             });
             pipeline.addLast("chunkaggregator", new HttpChunkAggregator(MAX_CONTENT_LENGTH));
-            pipeline.addLast("inflater", new HttpContentDecompressor());
+            // no content decompressor: handlers inflate compressed bodies as they parse them, see CompressedContent.
             pipeline.addLast("encoder", new HttpResponseEncoder());
             pipeline.addLast("encoder2", new HttpResponseDecoder());
             pipeline.addLast("handler", new QueryStringDecoderAndRouter(router));
@@ -127,7 +138,7 @@ public class HttpMetricsIngestionServer {
             return pipeline;
         }
     }
-    static class Processor {
+    static class Processor implements AsyncFunction<MetricsCollection, List<Boolean>> {
         private static int BATCH_SIZE = Configuration.getInstance().getIntegerProperty(CoreConfig.METRIC_BATCH_SIZE);
         private static int WRITE_THREADS = 
             Configuration.getInstance().getIntegerProperty(CoreConfig.METRICS_BATCH_WRITER_THREADS); // metrics will be batched into this many partitions.
@@ -141,7 +152,12 @@ public class HttpMetricsIngestionServer {
         private int HTTP_MAX_TYPE_UNIT_PROCESSOR_THREADS = 
             Configuration.getInstance().getIntegerProperty(HttpConfig.HTTP_MAX_TYPE_UNIT_PROCESSOR_THREADS);
         private final Counter bufferedMetrics = Metrics.counter(HttpMetricsIngestionHandler.class, "Buffered Metrics");
+        private final Meter shedDiscoveryWrites = Metrics.meter(HttpMetricsIngestionHandler.class, "Shed Discovery Writes");
         private final TimeValue timeout;
+        private final CommitLog commitLog;
+        private final AdmissionController admission;
+        private final int retryAfterSeconds =
+            Configuration.getInstance().getIntegerProperty(HttpConfig.INGEST_RETRY_AFTER_SECONDS);
 
         Processor(ScheduleContext context, IMetricsWriter writer, TimeValue timeout) {
             this.timeout = timeout;
@@ -155,27 +171,46 @@ public class HttpMetricsIngestionServer {
                     metricMetadataAnalyzer);
             typeAndUnitProcessor.withLogger(log);
 
+            final ThreadPoolBuilder writePool = new ThreadPoolBuilder()
+                    .withName("Metric Batch Writing")
+                    .withCorePoolSize(WRITE_THREADS)
+                    .withMaxPoolSize(WRITE_THREADS);
+            final int writeQueueSize = Configuration.getInstance().getIntegerProperty(HttpConfig.INGEST_WRITE_QUEUE_SIZE);
+            if (writeQueueSize > 0) {
+                writePool.withBoundedQueue(writeQueueSize);
+            } else {
+                writePool.withSynchronousQueue();
+            }
             batchWriter = new BatchWriter(
-                    new ThreadPoolBuilder()
-                            .withName("Metric Batch Writing")
-                            .withCorePoolSize(WRITE_THREADS)
-                            .withMaxPoolSize(WRITE_THREADS)
-                            .withSynchronousQueue()
-                            .build(),
+                    writePool.build(),
                     writer,
                     timeout,
                     bufferedMetrics,
-                    context
+                    context,
+                    context.getRollupBuffer()
             );
             batchWriter.withLogger(log);
 
-            discoveryWriter =
-            new DiscoveryWriter(new ThreadPoolBuilder()
+            final ThreadPoolBuilder discoveryPool = new ThreadPoolBuilder()
                 .withName("Metric Discovery Writing")
                 .withCorePoolSize(Configuration.getInstance().getIntegerProperty(CoreConfig.DISCOVERY_WRITER_MIN_THREADS))
-                .withMaxPoolSize(Configuration.getInstance().getIntegerProperty(CoreConfig.DISCOVERY_WRITER_MAX_THREADS))
-                .withUnboundedQueue()
-                .build());
+                .withMaxPoolSize(Configuration.getInstance().getIntegerProperty(CoreConfig.DISCOVERY_WRITER_MAX_THREADS));
+            if (Configuration.getInstance().getBooleanProperty(HttpConfig.INGEST_ADMISSION_CONTROL_ENABLED)) {
+                admission = new AdmissionController(bufferedMetrics);
+                // a full queue drops the batch rather than running it on the ingest thread.
+                discoveryPool
+                    .withBoundedQueue(Configuration.getInstance().getIntegerProperty(HttpConfig.INGEST_DISCOVERY_QUEUE_SIZE))
+                    .withRejectedHandler(new RejectedExecutionHandler() {
+                        @Override
+                        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                            shedDiscoveryWrites.mark();
+                        }
+                    });
+            } else {
+                admission = null;
+                discoveryPool.withUnboundedQueue();
+            }
+            discoveryWriter = new DiscoveryWriter(discoveryPool.build());
             discoveryWriter.withLogger(log);
 
             // RollupRunnable keeps a static one of these. It would be nice if we could register it and share.
@@ -186,14 +221,95 @@ public class HttpMetricsIngestionServer {
                     new ThreadPoolBuilder().withName("Rollup type persistence").build(),
                     rollupTypeCache);
             rollupTypeCacher.withLogger(log);
-    
+
+            if (Configuration.getInstance().getBooleanProperty(CoreConfig.COMMIT_LOG_ENABLED)) {
+                commitLog = openCommitLog();
+                final CommitLogDrainer drainer = new CommitLogDrainer(commitLog, this,
+                        Configuration.getInstance().getIntegerProperty(CoreConfig.COMMIT_LOG_DRAIN_BATCH_SIZE),
+                        Configuration.getInstance().getIntegerProperty(CoreConfig.COMMIT_LOG_DRAIN_MAX_IN_FLIGHT),
+                        timeout);
+                final Thread drainerThread = new Thread(drainer, "Commit log drainer");
+                drainerThread.setDaemon(true);
+                drainerThread.start();
+            } else {
+                commitLog = null;
+            }
         }
 
-        ListenableFuture<List<Boolean>> apply(MetricsCollection collection) throws Exception {
+        private static CommitLog openCommitLog() {
+            final File directory = new File(Configuration.getInstance().getStringProperty(CoreConfig.COMMIT_LOG_DIRECTORY));
+            final int segmentSize = Configuration.getInstance().getIntegerProperty(CoreConfig.COMMIT_LOG_SEGMENT_SIZE_MB)
+                    * 1024 * 1024;
+            try {
+                return new CommitLog(directory, segmentSize,
+                        Configuration.getInstance().getIntegerProperty(CoreConfig.COMMIT_LOG_MAX_SEGMENTS));
+            } catch (IOException ex) {
+                throw new RuntimeException("Unable to open commit log in " + directory, ex);
+            }
+        }
+
+        /** true if ingest requests should be acknowledged through the commit log. */
+        boolean hasCommitLog() {
+            return commitLog != null;
+        }
+
+        /**
+         * Appends the collection to the commit log and waits for it to be synced to disk. Requests that go through
+         * the commit log skip {@link #admit}; the log's own segment limit is what turns them away, with
+         * {@link AdmissionController.Decision#OVERLOADED}, when the drainer falls behind.
+         */
+        AdmissionController.Decision commit(MetricsCollection collection) throws IOException {
+            try {
+                commitLog.sync(commitLog.append(collection.toMetrics()));
+                return AdmissionController.Decision.ACCEPT;
+            } catch (CommitLogFullException ex) {
+                return AdmissionController.Decision.OVERLOADED;
+            }
+        }
+
+        /** Checks a request from {@code tenantId} against the admission limits. Always accepts when they are off. */
+        AdmissionController.Decision admit(String tenantId, int metrics) {
+            return admission == null ? AdmissionController.Decision.ACCEPT : admission.admit(tenantId, metrics);
+        }
+
+        int getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+
+        /** {@link #apply(MetricsCollection)} for a request {@link #admit}ted for {@code tenantId}. */
+        ListenableFuture<List<Boolean>> apply(final String tenantId, MetricsCollection collection) throws Exception {
+            if (admission == null) {
+                return apply(collection);
+            }
+            final int size = collection.size();
+            final ListenableFuture<List<Boolean>> future;
+            try {
+                future = apply(collection);
+            } catch (Exception ex) {
+                admission.release(tenantId, size);
+                throw ex;
+            }
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    admission.release(tenantId, size);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+            return future;
+        }
+
+        @Override
+        public ListenableFuture<List<Boolean>> apply(MetricsCollection collection) throws Exception {
             typeAndUnitProcessor.apply(collection);
             rollupTypeCacher.apply(collection);
             List<List<IMetric>> batches = collection.splitMetricsIntoBatches(BATCH_SIZE);
-            discoveryWriter.apply(batches);
+            if (admission != null && admission.shouldShedDiscovery()) {
+                shedDiscoveryWrites.mark();
+            } else {
+                discoveryWriter.apply(batches);
+            }
+            // the batch writer takes these back off as each batch is written.
+            bufferedMetrics.inc(collection.size());
             return batchWriter.apply(batches);
         }
     }
@@ -18,6 +18,7 @@ package com.rackspacecloud.blueflood.inputs.handlers;
 
 
 import com.rackspacecloud.blueflood.inputs.formats.JSONMetricsContainer;
+import com.rackspacecloud.blueflood.inputs.formats.JSONMetricsStreamParser;
 import com.rackspacecloud.blueflood.utils.TimeValue;
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.map.JsonMappingException;
@@ -26,9 +27,11 @@ import java.io.IOException;
 import java.util.List;
 
 public class HttpMultitenantMetricsIngestionHandler extends HttpMetricsIngestionHandler {
+    private final JSONMetricsStreamParser scopedStreamParser;
 
     public HttpMultitenantMetricsIngestionHandler(HttpMetricsIngestionServer.Processor processor, TimeValue timeout) {
         super(processor, timeout);
+        this.scopedStreamParser = new JSONMetricsStreamParser(mapper.getJsonFactory(), true);
     }
 
     @Override
@@ -41,4 +44,9 @@ public class HttpMultitenantMetricsIngestionHandler extends HttpMetricsIngestion
                 );
         return new JSONMetricsContainer(tenantId, jsonMetrics);
     }
+
+    @Override
+    protected JSONMetricsStreamParser getStreamParser() {
+        return scopedStreamParser;
+    }
 }
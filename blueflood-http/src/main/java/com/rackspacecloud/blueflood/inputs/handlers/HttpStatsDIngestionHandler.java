@@ -23,11 +23,11 @@ import com.google.gson.Gson;
 import com.google.gson.JsonParseException;
 import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
 import com.rackspacecloud.blueflood.concurrent.FunctionWithThreadPool;
+import com.rackspacecloud.blueflood.http.CompressedContent;
 import com.rackspacecloud.blueflood.http.HttpRequestHandler;
 import com.rackspacecloud.blueflood.inputs.handlers.wrappers.Bundle;
 import com.rackspacecloud.blueflood.io.AstyanaxWriter;
 import com.rackspacecloud.blueflood.io.CassandraModel;
-import com.rackspacecloud.blueflood.io.Constants;
 import com.rackspacecloud.blueflood.types.IMetric;
 import com.rackspacecloud.blueflood.types.MetricsCollection;
 import com.rackspacecloud.blueflood.utils.Metrics;
@@ -38,11 +38,11 @@ import org.jboss.netty.handler.codec.http.HttpResponseStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeoutException;
 
 public class HttpStatsDIngestionHandler implements HttpRequestHandler {
     
@@ -64,23 +64,51 @@ public class HttpStatsDIngestionHandler implements HttpRequestHandler {
     public void handle(ChannelHandlerContext ctx, HttpRequest request) {
         
         final Timer.Context timerContext = handlerTimer.time();
-        
+        // the response to a request handed to the processor is sent, and the request counted out, once it is written.
+        boolean responseDeferred = false;
+
         // this is all JSON.
-        final String body = request.getContent().toString(Constants.DEFAULT_CHARSET);
+        String body = null;
         try {
-            // block until things get ingested.
             requestCount.inc();
+            if (!CompressedContent.isSupported(request)) {
+                HttpMetricsIngestionHandler.sendResponse(ctx, request, "Unsupported Content-Encoding",
+                        HttpResponseStatus.UNSUPPORTED_MEDIA_TYPE);
+                return;
+            }
+            try {
+                body = CompressedContent.readString(request);
+            } catch (IOException ex) {
+                log.warn("Exception decompressing content", ex);
+                HttpMetricsIngestionHandler.sendResponse(ctx, request, "Cannot parse content", HttpResponseStatus.BAD_REQUEST);
+                return;
+            }
             MetricsCollection collection = new MetricsCollection();
             collection.add(PreaggregateConversions.buildMetricsCollection(createBundle(body)));
-            ListenableFuture<List<Boolean>> futures = processor.apply(collection);
-            List<Boolean> persisteds = futures.get(timeout.getValue(), timeout.getUnit());
-            for (Boolean persisted : persisteds) {
-                if (!persisted) {
-                    HttpMetricsIngestionHandler.sendResponse(ctx, request, null, HttpResponseStatus.INTERNAL_SERVER_ERROR);
-                    return;
+            if (processor.hasCommitLog()) {
+                final AdmissionController.Decision committed = processor.commit(collection);
+                if (committed == AdmissionController.Decision.ACCEPT) {
+                    HttpMetricsIngestionHandler.sendResponse(ctx, request, null, HttpResponseStatus.OK);
+                } else {
+                    HttpMetricsIngestionHandler.sendRejection(ctx, request, committed, processor.getRetryAfterSeconds());
                 }
+                return;
+            }
+            final String tenantId = request.getHeader("tenantId");
+            final AdmissionController.Decision admission = processor.admit(tenantId, collection.size());
+            if (admission != AdmissionController.Decision.ACCEPT) {
+                HttpMetricsIngestionHandler.sendRejection(ctx, request, admission, processor.getRetryAfterSeconds());
+                return;
             }
-            HttpMetricsIngestionHandler.sendResponse(ctx, request, null, HttpResponseStatus.OK);
+            ListenableFuture<List<Boolean>> futures = processor.apply(tenantId, collection);
+            HttpMetricsIngestionHandler.sendResponseWhenPersisted(ctx, request, futures, timeout, new Runnable() {
+                @Override
+                public void run() {
+                    requestCount.dec();
+                    timerContext.stop();
+                }
+            });
+            responseDeferred = true;
 
         } catch (JsonParseException ex) {
             log.error("BAD JSON: %s", body);
@@ -89,14 +117,14 @@ public class HttpStatsDIngestionHandler implements HttpRequestHandler {
         } catch (ConnectionException ex) {
             log.error(ex.getMessage(), ex);
             HttpMetricsIngestionHandler.sendResponse(ctx, request, "Internal error saving data", HttpResponseStatus.INTERNAL_SERVER_ERROR);
-        } catch (TimeoutException ex) {
-            HttpMetricsIngestionHandler.sendResponse(ctx, request, "Timed out persisting metrics", HttpResponseStatus.ACCEPTED);
         } catch (Exception ex) {
             log.warn("Other exception while trying to parse content", ex);
             HttpMetricsIngestionHandler.sendResponse(ctx, request, "Failed parsing content", HttpResponseStatus.INTERNAL_SERVER_ERROR);
         } finally {
-            requestCount.dec();
-            timerContext.stop();
+            if (!responseDeferred) {
+                requestCount.dec();
+                timerContext.stop();
+            }
         }
     }
     
@@ -18,33 +18,31 @@ package com.rackspacecloud.blueflood.outputs.handlers;
 
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Timer;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParser;
 import com.rackspacecloud.blueflood.exceptions.InvalidRequestException;
 import com.rackspacecloud.blueflood.exceptions.SerializationException;
 import com.rackspacecloud.blueflood.http.HTTPRequestWithDecodedQueryParams;
 import com.rackspacecloud.blueflood.http.HttpRequestHandler;
 import com.rackspacecloud.blueflood.http.HttpResponder;
 import com.rackspacecloud.blueflood.io.Constants;
-import com.rackspacecloud.blueflood.outputs.serializers.JSONHistogramOutputSerializer;
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.outputs.serializers.StreamingJSONOutputSerializer;
 import com.rackspacecloud.blueflood.outputs.utils.PlotRequestParser;
 import com.rackspacecloud.blueflood.rollup.Granularity;
 import com.rackspacecloud.blueflood.types.Resolution;
 import com.rackspacecloud.blueflood.outputs.utils.RollupsQueryParams;
 import com.rackspacecloud.blueflood.utils.Metrics;
+import org.codehaus.jackson.JsonGenerator;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.http.*;
-import org.json.simple.JSONObject;
 
 import java.io.IOException;
 
 public class HttpHistogramQueryHandler extends RollupHandler implements HttpRequestHandler {
-    private final JSONHistogramOutputSerializer serializer;
-    private final Gson gson;           // thread-safe
-    private final JsonParser parser;   // thread-safe
+    private static final int INITIAL_RESPONSE_BUFFER_SIZE = 4096;
+
+    private final StreamingJSONOutputSerializer serializer;
 
     private static final Timer histFetchTimer = Metrics.timer(HttpRollupsQueryHandler.class,
             "Handle HTTP request for histograms");
@@ -54,22 +52,20 @@ public class HttpHistogramQueryHandler extends RollupHandler implements HttpRequ
             "BF-API");
 
     public HttpHistogramQueryHandler() {
-        this.gson = new GsonBuilder().setPrettyPrinting().serializeNulls().create();
-        this.parser = new JsonParser();
-        this.serializer = new JSONHistogramOutputSerializer();
+        this.serializer = new StreamingJSONOutputSerializer();
     }
 
-    private JSONObject GetHistogramByPoints(String tenantId,
+    private MetricData GetHistogramByPoints(String tenantId,
                                        String metric,
                                        long from,
                                        long to,
                                        int points) throws IOException, SerializationException {
         histByPointsMeter.mark();
         Granularity g = Granularity.granularityFromPointsInInterval(from, to, points);
-        return serializer.transformHistogram(getHistogramsByGranularity(tenantId, metric, from, to, g));
+        return getHistogramsByGranularity(tenantId, metric, from, to, g);
     }
 
-    private JSONObject GetHistogramByResolution(String tenantId,
+    private MetricData GetHistogramByResolution(String tenantId,
                                             String metric,
                                             long from,
                                             long to,
@@ -79,7 +75,7 @@ public class HttpHistogramQueryHandler extends RollupHandler implements HttpRequ
             resolution = Resolution.MIN5;
         }
         Granularity g = Granularity.granularities()[resolution.getValue()];
-        return serializer.transformHistogram(getHistogramsByGranularity(tenantId, metric, from, to, g));
+        return getHistogramsByGranularity(tenantId, metric, from, to, g);
     }
 
     @Override
@@ -99,7 +95,7 @@ public class HttpHistogramQueryHandler extends RollupHandler implements HttpRequ
         try {
             RollupsQueryParams params = PlotRequestParser.parseParams(requestWithParams.getQueryParams());
 
-            JSONObject metricData;
+            MetricData metricData;
             if (params.isGetByPoints()) {
                 metricData = GetHistogramByPoints(tenantId, metricName, params.getRange().getStart(),
                         params.getRange().getStop(), params.getPoints());
@@ -109,9 +105,17 @@ public class HttpHistogramQueryHandler extends RollupHandler implements HttpRequ
             } else {
                 throw new InvalidRequestException("Invalid rollups query. Neither points nor resolution specified.");
             }
-            final JsonElement element = parser.parse(metricData.toString());
-            final String jsonStringRep = gson.toJson(element);
-            sendResponse(ctx, request, jsonStringRep, HttpResponseStatus.OK);
+
+            final ChannelBuffer content = ChannelBuffers.dynamicBuffer(INITIAL_RESPONSE_BUFFER_SIZE,
+                    ctx.getChannel().getConfig().getBufferFactory());
+            final JsonGenerator json = serializer.createGenerator(content,
+                    PlotRequestParser.isPrettyPrintRequested(requestWithParams.getQueryParams()));
+            try {
+                serializer.writeHistogram(json, metricData);
+            } finally {
+                json.close();
+            }
+            sendResponse(ctx, request, content, HttpResponseStatus.OK);
         } catch (InvalidRequestException e) {
             sendResponse(ctx, request, e.getMessage(), HttpResponseStatus.BAD_REQUEST);
         } catch (SerializationException e) {
@@ -125,10 +129,19 @@ public class HttpHistogramQueryHandler extends RollupHandler implements HttpRequ
 
     private void sendResponse(ChannelHandlerContext channel, HttpRequest request, String messageBody,
                               HttpResponseStatus status) {
+        ChannelBuffer content = null;
+        if (messageBody != null && !messageBody.isEmpty()) {
+            content = ChannelBuffers.copiedBuffer(messageBody, Constants.DEFAULT_CHARSET);
+        }
+        sendResponse(channel, request, content, status);
+    }
+
+    private void sendResponse(ChannelHandlerContext channel, HttpRequest request, ChannelBuffer content,
+                              HttpResponseStatus status) {
         HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
 
-        if (messageBody != null && !messageBody.isEmpty()) {
-            response.setContent(ChannelBuffers.copiedBuffer(messageBody, Constants.DEFAULT_CHARSET));
+        if (content != null) {
+            response.setContent(content);
         }
         HttpResponder.respond(channel, request, response);
     }
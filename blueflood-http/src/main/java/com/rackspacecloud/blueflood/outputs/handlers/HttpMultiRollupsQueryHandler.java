@@ -26,8 +26,7 @@ import com.rackspacecloud.blueflood.http.HttpResponder;
 import com.rackspacecloud.blueflood.io.AstyanaxReader;
 import com.rackspacecloud.blueflood.io.Constants;
 import com.rackspacecloud.blueflood.outputs.formats.MetricData;
-import com.rackspacecloud.blueflood.outputs.serializers.BatchedMetricsJSONOutputSerializer;
-import com.rackspacecloud.blueflood.outputs.serializers.BatchedMetricsOutputSerializer;
+import com.rackspacecloud.blueflood.outputs.serializers.StreamingJSONOutputSerializer;
 import com.rackspacecloud.blueflood.outputs.utils.PlotRequestParser;
 import com.rackspacecloud.blueflood.service.Configuration;
 import com.rackspacecloud.blueflood.service.HttpConfig;
@@ -37,10 +36,11 @@ import com.rackspacecloud.blueflood.outputs.utils.RollupsQueryParams;
 import com.rackspacecloud.blueflood.utils.TimeValue;
 import com.rackspacecloud.blueflood.utils.Metrics;
 import com.codahale.metrics.Timer;
+import org.codehaus.jackson.JsonGenerator;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.http.*;
-import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,9 +53,10 @@ import java.util.concurrent.TimeUnit;
 
 public class HttpMultiRollupsQueryHandler implements HttpRequestHandler {
     private static final Logger log = LoggerFactory.getLogger(HttpMultiRollupsQueryHandler.class);
-    private final BatchedMetricsOutputSerializer<JSONObject> serializer;
+    private static final int INITIAL_RESPONSE_BUFFER_SIZE = 16384;
+
+    private final StreamingJSONOutputSerializer serializer;
     private final Gson gson;           // thread-safe
-    private final JsonParser parser;   // thread-safe
     private final Timer httpBatchMetricsFetchTimer = Metrics.timer(HttpMultiRollupsQueryHandler.class,
             "Handle HTTP batch request for metrics");
     private final ThreadPoolExecutor executor;
@@ -71,9 +72,8 @@ public class HttpMultiRollupsQueryHandler implements HttpRequestHandler {
                 TimeUnit.SECONDS
         );
         this.maxMetricsPerRequest = config.getIntegerProperty(HttpConfig.MAX_METRICS_PER_BATCH_QUERY);
-        this.serializer = new BatchedMetricsJSONOutputSerializer();
-        this.gson = new GsonBuilder().setPrettyPrinting().serializeNulls().create();
-        this.parser = new JsonParser();
+        this.serializer = new StreamingJSONOutputSerializer();
+        this.gson = new GsonBuilder().serializeNulls().create();
         this.executor = new ThreadPoolBuilder().withCorePoolSize(maxThreadsToUse).withMaxPoolSize(maxThreadsToUse)
                 .withName("HTTP-BatchMetricsFetch").withBoundedQueue(maxQueueSize).build();
     }
@@ -119,10 +119,16 @@ public class HttpMultiRollupsQueryHandler implements HttpRequestHandler {
             BatchMetricsQuery query = new BatchMetricsQuery(locators, params.getRange(), params.getGranularity());
             Map<Locator, MetricData> results = new BatchMetricsQueryHandler(executor, AstyanaxReader.getInstance())
                                                         .execute(query, queryTimeout);
-            JSONObject metrics = serializer.transformRollupData(results, params.getStats());
-            final JsonElement element = parser.parse(metrics.toString());
-            final String jsonStringRep = gson.toJson(element);
-            sendResponse(ctx, request, jsonStringRep, HttpResponseStatus.OK);
+            final ChannelBuffer content = ChannelBuffers.dynamicBuffer(INITIAL_RESPONSE_BUFFER_SIZE,
+                    ctx.getChannel().getConfig().getBufferFactory());
+            final JsonGenerator json = serializer.createGenerator(content,
+                    PlotRequestParser.isPrettyPrintRequested(requestWithParams.getQueryParams()));
+            try {
+                serializer.writeBatchedRollupData(json, results, params.getStats());
+            } finally {
+                json.close();
+            }
+            sendResponse(ctx, request, content, HttpResponseStatus.OK);
         } catch (InvalidRequestException e) {
             log.debug(e.getMessage());
             sendResponse(ctx, request, e.getMessage(), HttpResponseStatus.BAD_REQUEST);
@@ -154,10 +160,19 @@ public class HttpMultiRollupsQueryHandler implements HttpRequestHandler {
 
     private void sendResponse(ChannelHandlerContext channel, HttpRequest request, String messageBody,
                               HttpResponseStatus status) {
+        ChannelBuffer content = null;
+        if (messageBody != null && !messageBody.isEmpty()) {
+            content = ChannelBuffers.copiedBuffer(messageBody, Constants.DEFAULT_CHARSET);
+        }
+        sendResponse(channel, request, content, status);
+    }
+
+    private void sendResponse(ChannelHandlerContext channel, HttpRequest request, ChannelBuffer content,
+                              HttpResponseStatus status) {
         HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
 
-        if (messageBody != null && !messageBody.isEmpty()) {
-            response.setContent(ChannelBuffers.copiedBuffer(messageBody, Constants.DEFAULT_CHARSET));
+        if (content != null) {
+            response.setContent(content);
         }
         HttpResponder.respond(channel, request, response);
     }
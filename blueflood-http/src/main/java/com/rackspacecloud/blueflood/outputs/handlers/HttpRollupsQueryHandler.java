@@ -16,10 +16,6 @@
 
 package com.rackspacecloud.blueflood.outputs.handlers;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParser;
 import com.rackspacecloud.blueflood.exceptions.InvalidRequestException;
 import com.rackspacecloud.blueflood.exceptions.SerializationException;
 import com.rackspacecloud.blueflood.http.HTTPRequestWithDecodedQueryParams;
@@ -27,57 +23,34 @@ import com.rackspacecloud.blueflood.http.HttpRequestHandler;
 import com.rackspacecloud.blueflood.http.HttpResponder;
 import com.rackspacecloud.blueflood.io.Constants;
 import com.rackspacecloud.blueflood.outputs.formats.MetricData;
-import com.rackspacecloud.blueflood.outputs.serializers.BasicRollupsOutputSerializer;
-import com.rackspacecloud.blueflood.outputs.serializers.JSONBasicRollupsOutputSerializer;
-import com.rackspacecloud.blueflood.outputs.serializers.BasicRollupsOutputSerializer.MetricStat;
+import com.rackspacecloud.blueflood.outputs.serializers.StreamingJSONOutputSerializer;
 import com.rackspacecloud.blueflood.outputs.utils.PlotRequestParser;
 import com.rackspacecloud.blueflood.rollup.Granularity;
 import com.rackspacecloud.blueflood.types.Resolution;
 import com.rackspacecloud.blueflood.outputs.utils.RollupsQueryParams;
 import com.rackspacecloud.blueflood.utils.Metrics;
 import com.codahale.metrics.Timer;
+import org.codehaus.jackson.JsonGenerator;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.http.*;
-import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.*;
-import java.util.concurrent.TimeUnit;
 
 public class HttpRollupsQueryHandler extends RollupHandler
             implements MetricDataQueryInterface<MetricData>, HttpRequestHandler {
     private static final Logger log = LoggerFactory.getLogger(HttpRollupsQueryHandler.class);
     
-    private final BasicRollupsOutputSerializer<JSONObject> serializer;
-    private final Gson gson;           // thread-safe
-    private final JsonParser parser;   // thread-safe
+    private static final int INITIAL_RESPONSE_BUFFER_SIZE = 4096;
+
+    private final StreamingJSONOutputSerializer serializer;
     private final Timer httpMetricsFetchTimer = Metrics.timer(HttpRollupsQueryHandler.class,
             "Handle HTTP request for metrics");
 
     public HttpRollupsQueryHandler() {
-        this.serializer = new JSONBasicRollupsOutputSerializer();
-        this.gson = new GsonBuilder().setPrettyPrinting().serializeNulls().create();
-        this.parser = new JsonParser();
-    }
-
-    private JSONObject GetDataByPoints(String tenantId,
-                                      String metric,
-                                      long from,
-                                      long to,
-                                      int points,
-                                      Set<MetricStat> stats) throws SerializationException {
-        return serializer.transformRollupData(GetDataByPoints(tenantId, metric, from, to, points), stats);
-    }
-
-    private JSONObject GetDataByResolution(String tenantId,
-                                      String metric,
-                                      long from,
-                                      long to,
-                                      Resolution resolution,
-                                      Set<MetricStat> stats) throws SerializationException {
-        return serializer.transformRollupData(GetDataByResolution(tenantId, metric, from, to, resolution), stats);
+        this.serializer = new StreamingJSONOutputSerializer();
     }
 
     @Override
@@ -122,20 +95,27 @@ public class HttpRollupsQueryHandler extends RollupHandler
         try {
             RollupsQueryParams params = PlotRequestParser.parseParams(requestWithParams.getQueryParams());
 
-            JSONObject metricData;
+            MetricData metricData;
             if (params.isGetByPoints()) {
                 metricData = GetDataByPoints(tenantId, metricName, params.getRange().getStart(),
-                        params.getRange().getStop(), params.getPoints(), params.getStats());
+                        params.getRange().getStop(), params.getPoints());
             } else if (params.isGetByResolution()) {
                 metricData = GetDataByResolution(tenantId, metricName, params.getRange().getStart(),
-                        params.getRange().getStop(), params.getResolution(), params.getStats());
+                        params.getRange().getStop(), params.getResolution());
             } else {
                 throw new InvalidRequestException("Invalid rollups query. Neither points nor resolution specified.");
             }
 
-            final JsonElement element = parser.parse(metricData.toString());
-            final String jsonStringRep = gson.toJson(element);
-            sendResponse(ctx, request, jsonStringRep, HttpResponseStatus.OK);
+            final ChannelBuffer content = ChannelBuffers.dynamicBuffer(INITIAL_RESPONSE_BUFFER_SIZE,
+                    ctx.getChannel().getConfig().getBufferFactory());
+            final JsonGenerator json = serializer.createGenerator(content,
+                    PlotRequestParser.isPrettyPrintRequested(requestWithParams.getQueryParams()));
+            try {
+                serializer.writeRollupData(json, metricData, params.getStats());
+            } finally {
+                json.close();
+            }
+            sendResponse(ctx, request, content, HttpResponseStatus.OK);
         } catch (InvalidRequestException e) {
             // let's not log the full exception, just the message.
             log.warn(e.getMessage());
@@ -153,10 +133,19 @@ public class HttpRollupsQueryHandler extends RollupHandler
 
     private void sendResponse(ChannelHandlerContext channel, HttpRequest request, String messageBody,
                              HttpResponseStatus status) {
+        ChannelBuffer content = null;
+        if (messageBody != null && !messageBody.isEmpty()) {
+            content = ChannelBuffers.copiedBuffer(messageBody, Constants.DEFAULT_CHARSET);
+        }
+        sendResponse(channel, request, content, status);
+    }
+
+    private void sendResponse(ChannelHandlerContext channel, HttpRequest request, ChannelBuffer content,
+                             HttpResponseStatus status) {
         HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
 
-        if (messageBody != null && !messageBody.isEmpty()) {
-            response.setContent(ChannelBuffers.copiedBuffer(messageBody, Constants.DEFAULT_CHARSET));
+        if (content != null) {
+            response.setContent(content);
         }
         HttpResponder.respond(channel, request, response);
     }
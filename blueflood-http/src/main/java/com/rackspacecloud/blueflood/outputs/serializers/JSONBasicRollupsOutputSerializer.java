@@ -44,21 +44,7 @@ public class JSONBasicRollupsOutputSerializer implements BasicRollupsOutputSeria
         final JSONObject globalJSON = new JSONObject();
         final JSONObject metaObject = new JSONObject();
         
-        // if no stats were entered, figure out what type we are dealing with and select out default stats. 
-        if (metricData.getData().getPoints().size() > 0 && filterStats == PlotRequestParser.DEFAULT_STATS) {
-            Class dataClass = metricData.getData().getDataClass();
-            if (dataClass.equals(BasicRollup.class))
-                filterStats = PlotRequestParser.DEFAULT_BASIC;
-            else if (dataClass.equals(GaugeRollup.class))
-                filterStats = PlotRequestParser.DEFAULT_GAUGE;
-            else if (dataClass.equals(CounterRollup.class))
-                filterStats = PlotRequestParser.DEFAULT_COUNTER;
-            else if (dataClass.equals(SetRollup.class))
-                filterStats = PlotRequestParser.DEFAULT_SET;
-            else if (dataClass.equals(TimerRollup.class))
-                filterStats = PlotRequestParser.DEFAULT_TIMER;
-            // else, I got nothing.
-        }
+        filterStats = resolveFilterStats(metricData, filterStats);
 
         final JSONArray valuesArray = transformDataToJSONArray(metricData, filterStats);
 
@@ -73,6 +59,25 @@ public class JSONBasicRollupsOutputSerializer implements BasicRollupsOutputSeria
         return globalJSON;
     }
 
+    // if no stats were entered, figure out what type we are dealing with and select out default stats.
+    static Set<MetricStat> resolveFilterStats(MetricData metricData, Set<MetricStat> filterStats) {
+        if (metricData.getData().getPoints().size() > 0 && filterStats == PlotRequestParser.DEFAULT_STATS) {
+            Class dataClass = metricData.getData().getDataClass();
+            if (dataClass.equals(BasicRollup.class))
+                return PlotRequestParser.DEFAULT_BASIC;
+            else if (dataClass.equals(GaugeRollup.class))
+                return PlotRequestParser.DEFAULT_GAUGE;
+            else if (dataClass.equals(CounterRollup.class))
+                return PlotRequestParser.DEFAULT_COUNTER;
+            else if (dataClass.equals(SetRollup.class))
+                return PlotRequestParser.DEFAULT_SET;
+            else if (dataClass.equals(TimerRollup.class))
+                return PlotRequestParser.DEFAULT_TIMER;
+            // else, I got nothing.
+        }
+        return filterStats;
+    }
+
     protected JSONArray transformDataToJSONArray(MetricData metricData, Set<MetricStat> filterStats)
             throws SerializationException {
         Points points = metricData.getData();
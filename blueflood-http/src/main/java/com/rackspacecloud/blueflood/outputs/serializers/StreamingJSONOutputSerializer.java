@@ -0,0 +1,298 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.serializers;
+
+import com.bigml.histogram.Bin;
+import com.bigml.histogram.SimpleTarget;
+import com.rackspacecloud.blueflood.exceptions.SerializationException;
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.outputs.serializers.BasicRollupsOutputSerializer.MetricStat;
+import com.rackspacecloud.blueflood.types.AbstractRollupStat;
+import com.rackspacecloud.blueflood.types.BasicRollup;
+import com.rackspacecloud.blueflood.types.ColumnarPoints;
+import com.rackspacecloud.blueflood.types.CounterRollup;
+import com.rackspacecloud.blueflood.types.GaugeRollup;
+import com.rackspacecloud.blueflood.types.HistogramRollup;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.Rollup;
+import com.rackspacecloud.blueflood.types.SetRollup;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import com.rackspacecloud.blueflood.types.TimerRollup;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes query results straight to a response buffer with a streaming JSON generator.
+ *
+ * Produces the same documents as {@link JSONBasicRollupsOutputSerializer}, {@link BatchedMetricsJSONOutputSerializer}
+ * and {@link JSONHistogramOutputSerializer}, without building a json-simple tree first. Instances are thread-safe.
+ */
+public class StreamingJSONOutputSerializer {
+    private static final Logger log = LoggerFactory.getLogger(StreamingJSONOutputSerializer.class);
+
+    // stands in for a sample to find the stats that render the sample itself.
+    private static final Object RAW_SAMPLE = new Object();
+
+    private final JsonFactory factory;
+
+    public StreamingJSONOutputSerializer() {
+        this.factory = new JsonFactory();
+    }
+
+    /**
+     * Creates a generator that appends UTF-8 JSON to <code>buffer</code>. Callers must close it to flush.
+     */
+    public JsonGenerator createGenerator(ChannelBuffer buffer, boolean pretty) throws IOException {
+        final JsonGenerator json = factory.createJsonGenerator(new ChannelBufferOutputStream(buffer), JsonEncoding.UTF8);
+        if (pretty) {
+            json.useDefaultPrettyPrinter();
+        }
+        return json;
+    }
+
+    public void writeRollupData(JsonGenerator json, MetricData metricData, Set<MetricStat> filterStats)
+            throws SerializationException, IOException {
+        filterStats = JSONBasicRollupsOutputSerializer.resolveFilterStats(metricData, filterStats);
+
+        json.writeStartObject();
+        json.writeFieldName("unit");
+        writeValue(json, metricData.getUnit());
+        json.writeFieldName("values");
+        writeValues(json, metricData, filterStats);
+        writeMetadata(json, metricData.getData().getPoints().size());
+        json.writeEndObject();
+    }
+
+    public void writeBatchedRollupData(JsonGenerator json, Map<Locator, MetricData> metricData,
+                                       Set<MetricStat> filterStats) throws SerializationException, IOException {
+        json.writeStartObject();
+        json.writeArrayFieldStart("metrics");
+        for (Map.Entry<Locator, MetricData> one : metricData.entrySet()) {
+            json.writeStartObject();
+            json.writeFieldName("metric");
+            writeValue(json, one.getKey().getMetricName());
+            json.writeFieldName("unit");
+            writeValue(json, one.getValue().getUnit());
+            json.writeFieldName("type");
+            writeValue(json, one.getValue().getType());
+            json.writeFieldName("data");
+            writeValues(json, one.getValue(), filterStats);
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+
+    public void writeHistogram(JsonGenerator json, MetricData metricData) throws SerializationException, IOException {
+        final Map<Long, Points.Point> points = metricData.getData().getPoints();
+
+        json.writeStartObject();
+        json.writeArrayFieldStart("values");
+        for (Map.Entry<Long, Points.Point> point : points.entrySet()) {
+            if (!(point.getValue().getData() instanceof HistogramRollup)) {
+                throw new SerializationException("Unsupported type. HistogramRollup expected.");
+            }
+            json.writeStartObject();
+            json.writeNumberField("timestamp", point.getKey());
+            json.writeArrayFieldStart("histogram");
+            for (Bin<SimpleTarget> bin : ((HistogramRollup) point.getValue().getData()).getBins()) {
+                json.writeStartObject();
+                json.writeFieldName("mean");
+                writeValue(json, bin.getMean());
+                json.writeFieldName("count");
+                writeValue(json, bin.getCount());
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        writeMetadata(json, points.size());
+        json.writeEndObject();
+    }
+
+    private void writeMetadata(JsonGenerator json, int count) throws IOException {
+        json.writeObjectFieldStart("metadata");
+        json.writeNumberField("count", count);
+        json.writeNullField("limit");
+        json.writeNullField("marker");
+        json.writeNullField("next_href");
+        json.writeEndObject();
+    }
+
+    private void writeValues(JsonGenerator json, MetricData metricData, Set<MetricStat> filterStats)
+            throws SerializationException, IOException {
+        if (metricData.getData() instanceof ColumnarPoints) {
+            writeColumns(json, (ColumnarPoints) metricData.getData(), filterStats);
+            return;
+        }
+        final Map<Long, Points.Point> points = metricData.getData().getPoints();
+        json.writeStartArray();
+        for (Map.Entry<Long, Points.Point> point : points.entrySet()) {
+            writePoint(json, point.getKey(), point.getValue(), filterStats);
+        }
+        json.writeEndArray();
+    }
+
+    // full resolution numbers read straight from the columns, so no point or boxed value is created per sample.
+    private void writeColumns(JsonGenerator json, ColumnarPoints points, Set<MetricStat> filterStats)
+            throws IOException {
+        final MetricStat[] stats = filterStats.toArray(new MetricStat[filterStats.size()]);
+        final boolean[] isSample = new boolean[stats.length];
+        final Object[] constants = new Object[stats.length];
+        for (int s = 0; s < stats.length; s++) {
+            constants[s] = stats[s].convertRawSampleToObject(RAW_SAMPLE);
+            isSample[s] = constants[s] == RAW_SAMPLE;
+        }
+
+        json.writeStartArray();
+        for (int i = 0; i < points.size(); i++) {
+            json.writeStartObject();
+            json.writeNumberField("timestamp", points.getTimestamp(i));
+            for (int s = 0; s < stats.length; s++) {
+                json.writeFieldName(stats[s].toString());
+                if (!isSample[s]) {
+                    writeValue(json, constants[s]);
+                } else if (points.isFloatingPoint(i)) {
+                    writeDouble(json, points.getDouble(i));
+                } else {
+                    json.writeNumber(points.getLong(i));
+                }
+            }
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+    }
+
+    private void writePoint(JsonGenerator json, long timestamp, Points.Point point, Set<MetricStat> filterStats)
+            throws SerializationException, IOException {
+        final Object data = point.getData();
+        long numPoints;
+        Rollup rollup = null;
+
+        // same precedence as JSONBasicRollupsOutputSerializer.toJSON; GaugeRollup must come before BasicRollup.
+        if (data instanceof GaugeRollup) {
+            numPoints = 1 + ((GaugeRollup) data).getCount();
+            rollup = (Rollup) data;
+        } else if (data instanceof BasicRollup) {
+            numPoints = ((BasicRollup) data).getCount();
+            rollup = (Rollup) data;
+        } else if (data instanceof SimpleNumber || data instanceof String || data instanceof Boolean) {
+            numPoints = 1;
+        } else if (data instanceof SetRollup) {
+            numPoints = 1 + ((SetRollup) data).getCount();
+            rollup = (Rollup) data;
+        } else if (data instanceof TimerRollup) {
+            numPoints = 1 + ((TimerRollup) data).getCount();
+            rollup = (Rollup) data;
+        } else if (data instanceof CounterRollup) {
+            numPoints = 1 + ((CounterRollup) data).getCount().longValue();
+            rollup = (Rollup) data;
+        } else {
+            throw new SerializationException("Unsupported data type for Point");
+        }
+
+        json.writeStartObject();
+        json.writeNumberField("timestamp", timestamp);
+        if (rollup != null) {
+            writeRollupStats(json, rollup, filterStats, numPoints == 0);
+        } else if (data instanceof SimpleNumber) {
+            final Number value = ((SimpleNumber) data).getValue();
+            for (MetricStat stat : filterStats) {
+                json.writeFieldName(stat.toString());
+                writeValue(json, stat.convertRawSampleToObject(value));
+            }
+        } else {
+            json.writeFieldName("value");
+            writeValue(json, data);
+        }
+        json.writeEndObject();
+    }
+
+    private void writeRollupStats(JsonGenerator json, Rollup rollup, Set<MetricStat> filterStats, boolean empty)
+            throws IOException {
+        for (MetricStat stat : filterStats) {
+            final Object filteredValue;
+            try {
+                filteredValue = stat.convertRollupToObject(rollup);
+            } catch (Exception ex) {
+                log.warn(ex.getMessage(), ex);
+                continue;
+            }
+
+            if (filteredValue instanceof Map && stat == MetricStat.PERCENTILE) {
+                for (Map.Entry entry : ((Map<?, ?>) filteredValue).entrySet()) {
+                    TimerRollup.Percentile pct = (TimerRollup.Percentile) entry.getValue();
+                    json.writeFieldName(String.format("pct_%s", entry.getKey().toString()));
+                    writeValue(json, empty ? null : pct.getMean());
+                }
+            } else {
+                json.writeFieldName(stat.toString());
+                writeValue(json, empty && stat != MetricStat.NUM_POINTS ? null : filteredValue);
+            }
+        }
+    }
+
+    // renders values the way json-simple does, so the streaming path and the tree path agree byte for byte on numbers.
+    private static void writeValue(JsonGenerator json, Object value) throws IOException {
+        if (value == null) {
+            json.writeNull();
+        } else if (value instanceof String) {
+            json.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            json.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            json.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            writeDouble(json, (Double) value);
+        } else if (value instanceof Float) {
+            final float f = (Float) value;
+            if (Float.isNaN(f) || Float.isInfinite(f)) {
+                json.writeNull();
+            } else {
+                json.writeNumber(value.toString());
+            }
+        } else if (value instanceof BigInteger || value instanceof BigDecimal || value instanceof Number) {
+            json.writeNumber(value.toString());
+        } else if (value instanceof AbstractRollupStat) {
+            // json-simple emits toString() unquoted, i.e. the stat's formatted number.
+            json.writeNumber(value.toString());
+        } else {
+            json.writeString(value.toString());
+        }
+    }
+
+    private static void writeDouble(JsonGenerator json, double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            json.writeNull();
+        } else {
+            json.writeNumber(Double.toString(value));
+        }
+    }
+}
@@ -101,6 +101,15 @@ public class PlotRequestParser {
         }
     }
 
+    // responses are compact unless the client asks for them to be indented with pretty=true.
+    public static boolean isPrettyPrintRequested(Map<String, List<String>> params) {
+        if (params == null) {
+            return false;
+        }
+        List<String> pretty = params.get("pretty");
+        return pretty != null && !pretty.isEmpty() && Boolean.parseBoolean(pretty.get(0));
+    }
+
     public static Set<BasicRollupsOutputSerializer.MetricStat> getStatsToFilter(List<String> select) {
         if (select == null || select.isEmpty()) {
             return DEFAULT_STATS;
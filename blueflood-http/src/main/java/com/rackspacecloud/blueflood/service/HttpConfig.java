@@ -53,6 +53,35 @@ public enum HttpConfig implements ConfigDefaults {
     // Maximum number of threads in type and unit processor threadpool
     HTTP_MAX_TYPE_UNIT_PROCESSOR_THREADS("10"),
 
+    // Parse ingestion payloads straight off the request buffer instead of binding them to intermediate objects
+    USE_STREAMING_JSON_INGESTION("false"),
+
+    // Largest request body (in bytes) accepted once inflated from its Content-Encoding
+    HTTP_MAX_DECOMPRESSED_CONTENT_LENGTH("33554432"), // 32 MB
+
+    // Turn ingest requests away with a 429 or 503 and a Retry-After header once cassandra writes fall behind
+    INGEST_ADMISSION_CONTROL_ENABLED("false"),
+
+    // Metrics accepted but not yet written past which ingest requests get a 503. Discovery writes are skipped
+    // from half of this on; locators they miss are indexed once the writer's locator filter rotates.
+    INGEST_MAX_BUFFERED_METRICS("200000"),
+
+    // Metrics a single tenant may have accepted but not yet written before its ingest requests get a 429
+    INGEST_MAX_TENANT_BUFFERED_METRICS("50000"),
+
+    // 95th percentile full resolution write latency (in milliseconds) past which INGEST_MAX_BUFFERED_METRICS is halved
+    INGEST_MAX_WRITE_LATENCY_MILLIS("1000"),
+
+    // Retry-After (in seconds) sent with a 429 or 503
+    INGEST_RETRY_AFTER_SECONDS("5"),
+
+    // Discovery write batches queued past this many are dropped while admission control is on
+    INGEST_DISCOVERY_QUEUE_SIZE("1000"),
+
+    // Metric batches that may wait for a free write thread. With 0, a batch no write thread can take right away is
+    // written on the netty worker that received it, which stalls every other connection on that worker.
+    INGEST_WRITE_QUEUE_SIZE("0"),
+
     // Timeout (in seconds) for batch query. This value depends on number of threads, read latency per
     // metric and max metrics allowed per batch query.
     BATCH_QUERY_TIMEOUT("20");  // 20s
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.http;
+
+import com.google.common.io.ByteStreams;
+import com.rackspacecloud.blueflood.io.Constants;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xerial.snappy.SnappyOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class CompressedContentTest {
+    private static final String BODY;
+
+    static {
+        final StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < 500; i++) {
+            body.append(i == 0 ? "" : ",").append("{\"metricName\":\"host.cpu.").append(i)
+                    .append("\",\"metricValue\":").append(i).append(",\"collectionTime\":1,\"ttlInSeconds\":60}");
+        }
+        BODY = body.append("]").toString();
+    }
+
+    @Test
+    public void testPlainBodyIsReadAsIs() throws Exception {
+        final HttpRequest request = request(null, BODY.getBytes(Constants.DEFAULT_CHARSET));
+        Assert.assertTrue(CompressedContent.isSupported(request));
+        Assert.assertFalse(CompressedContent.isCompressed(request));
+        Assert.assertEquals(BODY, CompressedContent.readString(request));
+
+        request.setHeader(HttpHeaders.Names.CONTENT_ENCODING, HttpHeaders.Values.IDENTITY);
+        Assert.assertFalse(CompressedContent.isCompressed(request));
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(new GZIPOutputStream(bytes));
+        assertInflates("gzip", bytes.toByteArray());
+        assertInflates("x-gzip", bytes.toByteArray());
+    }
+
+    @Test
+    public void testDeflate() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(new DeflaterOutputStream(bytes));
+        assertInflates("deflate", bytes.toByteArray());
+    }
+
+    @Test
+    public void testSnappy() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(new SnappyOutputStream(bytes));
+        assertInflates("snappy", bytes.toByteArray());
+    }
+
+    @Test
+    public void testUnsupportedEncoding() throws Exception {
+        final HttpRequest request = request("br", new byte[] { 1, 2, 3 });
+        Assert.assertFalse(CompressedContent.isSupported(request));
+        try {
+            CompressedContent.open(request);
+            Assert.fail("expected an unsupported encoding to fail");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptBodyFails() throws Exception {
+        CompressedContent.readString(request("gzip", BODY.getBytes(Constants.DEFAULT_CHARSET)));
+    }
+
+    private static void assertInflates(String encoding, byte[] compressed) throws Exception {
+        final HttpRequest request = request(encoding, compressed);
+        Assert.assertTrue(CompressedContent.isSupported(request));
+        Assert.assertTrue(CompressedContent.isCompressed(request));
+        Assert.assertTrue(compressed.length < BODY.length() / 5);
+
+        Assert.assertEquals(BODY, CompressedContent.readString(request));
+        final InputStream in = CompressedContent.open(request);
+        try {
+            Assert.assertEquals(BODY, new String(ByteStreams.toByteArray(in), Constants.DEFAULT_CHARSET));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void write(OutputStream out) throws IOException {
+        out.write(BODY.getBytes(Constants.DEFAULT_CHARSET));
+        out.close();
+    }
+
+    private static HttpRequest request(String encoding, byte[] body) {
+        final HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/v2.0/ac1/ingest");
+        if (encoding != null) {
+            request.setHeader(HttpHeaders.Names.CONTENT_ENCODING, encoding);
+        }
+        request.setContent(ChannelBuffers.wrappedBuffer(body));
+        return request;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.inputs.formats;
+
+import com.rackspacecloud.blueflood.io.Constants;
+import com.rackspacecloud.blueflood.types.IMetric;
+import com.rackspacecloud.blueflood.types.Metric;
+import com.rackspacecloud.blueflood.types.MetricsCollection;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.type.TypeFactory;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the data-binding ingestion path (body String -> JSONMetric list -> Metric list) with
+ * {@link JSONMetricsStreamParser}. Not a unit test; run it with
+ *
+ *   mvn test-compile
+ *   java -cp target/test-classes:target/classes:$(deps) org.openjdk.jmh.Main JSONMetricsStreamParserBenchmark -prof gc
+ *
+ * The gc profiler reports allocation per operation, which is the number this parser is meant to move.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class JSONMetricsStreamParserBenchmark {
+    private static final String TENANT = "benchmarkTenant";
+
+    @Param({"1000", "5000", "10000"})
+    public int metricsPerRequest;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final TypeFactory typeFactory = TypeFactory.defaultInstance();
+    private final JSONMetricsStreamParser streamParser = new JSONMetricsStreamParser(mapper.getJsonFactory(), false);
+    private ChannelBuffer payload;
+
+    @Setup
+    public void setup() throws Exception {
+        final Random random = new Random(42);
+        final long now = System.currentTimeMillis();
+        final List<Map<String, Object>> metrics = new ArrayList<Map<String, Object>>(metricsPerRequest);
+        for (int i = 0; i < metricsPerRequest; i++) {
+            Map<String, Object> metric = new HashMap<String, Object>();
+            metric.put("metricName", "host" + (i % 50) + ".cpu.core" + (i % 16) + ".utilization." + i);
+            metric.put("collectionTime", now - random.nextInt(60000));
+            metric.put("ttlInSeconds", 172800);
+            metric.put("unit", "percent");
+            // mix of the value types agents actually send.
+            if (i % 3 == 0) {
+                metric.put("metricValue", random.nextInt(1000));
+            } else if (i % 3 == 1) {
+                metric.put("metricValue", random.nextLong());
+            } else {
+                metric.put("metricValue", random.nextDouble() * 100);
+            }
+            metrics.add(metric);
+        }
+        payload = ChannelBuffers.wrappedBuffer(mapper.writeValueAsBytes(metrics));
+    }
+
+    @Benchmark
+    public MetricsCollection dataBinding() throws Exception {
+        final String body = payload.toString(Constants.DEFAULT_CHARSET);
+        List<JSONMetricsContainer.JSONMetric> jsonMetrics = mapper.readValue(body,
+                typeFactory.constructCollectionType(List.class, JSONMetricsContainer.JSONMetric.class));
+        List<Metric> metrics = new JSONMetricsContainer(TENANT, jsonMetrics).toMetrics();
+        final MetricsCollection collection = new MetricsCollection();
+        collection.add(new ArrayList<IMetric>(metrics));
+        return collection;
+    }
+
+    @Benchmark
+    public MetricsCollection streaming() throws Exception {
+        final MetricsCollection collection = new MetricsCollection();
+        streamParser.parse(payload.duplicate(), TENANT, collection);
+        return collection;
+    }
+}
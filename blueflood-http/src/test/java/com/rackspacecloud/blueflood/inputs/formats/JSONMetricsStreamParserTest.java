@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.inputs.formats;
+
+import com.rackspacecloud.blueflood.io.Constants;
+import com.rackspacecloud.blueflood.types.IMetric;
+import com.rackspacecloud.blueflood.types.Metric;
+import com.rackspacecloud.blueflood.types.MetricsCollection;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.type.TypeFactory;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class JSONMetricsStreamParserTest {
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private final TypeFactory typeFactory = TypeFactory.defaultInstance();
+    private final JSONMetricsStreamParser parser = new JSONMetricsStreamParser(mapper.getJsonFactory(), false);
+    private final JSONMetricsStreamParser scopedParser = new JSONMetricsStreamParser(mapper.getJsonFactory(), true);
+
+    private static ChannelBuffer toBuffer(String json) {
+        return ChannelBuffers.copiedBuffer(json, Constants.DEFAULT_CHARSET);
+    }
+
+    @Test
+    public void testMatchesContainerBinding() throws Exception {
+        String json = mapper.writeValueAsString(JSONMetricsContainerTest.generateMetricsData());
+
+        List<JSONMetricsContainer.JSONMetric> jsonMetrics = mapper.readValue(json,
+                typeFactory.constructCollectionType(List.class, JSONMetricsContainer.JSONMetric.class));
+        List<Metric> expected = new JSONMetricsContainer("ac1", jsonMetrics).toMetrics();
+
+        MetricsCollection collection = new MetricsCollection();
+        int count = parser.parse(toBuffer(json), "ac1", collection);
+        List<IMetric> actual = new ArrayList<IMetric>(collection.toMetrics());
+
+        // the null valued metric is dropped by both paths.
+        Assert.assertEquals(2, count);
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Metric e = expected.get(i);
+            Metric a = (Metric) actual.get(i);
+            Assert.assertEquals(e.getLocator(), a.getLocator());
+            Assert.assertEquals(e.getMetricValue(), a.getMetricValue());
+            Assert.assertEquals(e.getDataType().toString(), a.getDataType().toString());
+            Assert.assertEquals(e.getCollectionTime(), a.getCollectionTime());
+            Assert.assertEquals(e.getTtlInSeconds(), a.getTtlInSeconds());
+            Assert.assertEquals(e.getUnit(), a.getUnit());
+        }
+    }
+
+    @Test
+    public void testNumericValueTypes() throws Exception {
+        String json = "[{\"metricName\":\"a\",\"metricValue\":12,\"collectionTime\":1,\"ttlInSeconds\":60,\"unit\":\"u\"}," +
+                "{\"metricName\":\"b\",\"metricValue\":1401302372775,\"collectionTime\":1,\"ttlInSeconds\":60,\"unit\":\"u\"}," +
+                "{\"metricName\":\"c\",\"metricValue\":1.5,\"collectionTime\":1,\"ttlInSeconds\":60,\"unit\":\"u\"}," +
+                "{\"metricName\":\"d\",\"metricValue\":true,\"collectionTime\":1,\"ttlInSeconds\":60,\"unit\":\"u\"}," +
+                "{\"metricName\":\"e\",\"metricValue\":18446744073709000000,\"collectionTime\":1,\"ttlInSeconds\":60,\"unit\":\"u\"}]";
+        MetricsCollection collection = new MetricsCollection();
+        parser.parse(toBuffer(json), "ac1", collection);
+        List<IMetric> metrics = new ArrayList<IMetric>(collection.toMetrics());
+
+        Assert.assertEquals(5, metrics.size());
+        Assert.assertEquals("I", ((Metric) metrics.get(0)).getDataType().toString());
+        Assert.assertEquals("L", ((Metric) metrics.get(1)).getDataType().toString());
+        Assert.assertEquals("D", ((Metric) metrics.get(2)).getDataType().toString());
+        Assert.assertEquals("B", ((Metric) metrics.get(3)).getDataType().toString());
+        // big ints get coerced to doubles, same as the binding path.
+        Assert.assertEquals("D", ((Metric) metrics.get(4)).getDataType().toString());
+    }
+
+    @Test
+    public void testScopedMetrics() throws Exception {
+        String json = JSONMetricsContainerTest.generateMultitenantJSONMetricsData();
+        MetricsCollection collection = new MetricsCollection();
+        scopedParser.parse(toBuffer(json), "multitenant", collection);
+        List<IMetric> metrics = new ArrayList<IMetric>(collection.toMetrics());
+
+        Assert.assertEquals(4, metrics.size());
+        Assert.assertEquals("tenantOne", metrics.get(0).getLocator().getTenantId());
+        Assert.assertEquals("tenantTwo", metrics.get(3).getLocator().getTenantId());
+    }
+
+    @Test(expected = JsonProcessingException.class)
+    public void testScopedMetricWithoutTenantFails() throws Exception {
+        String json = mapper.writeValueAsString(JSONMetricsContainerTest.generateMetricsData());
+        scopedParser.parse(toBuffer(json), "multitenant", new MetricsCollection());
+    }
+
+    @Test(expected = JsonProcessingException.class)
+    public void testUnknownFieldFails() throws Exception {
+        String json = "[{\"metricName\":\"a\",\"metricValue\":1,\"collectionTime\":1,\"ttlInSeconds\":60,\"bogus\":1}]";
+        parser.parse(toBuffer(json), "ac1", new MetricsCollection());
+    }
+
+    @Test(expected = JsonProcessingException.class)
+    public void testNonArrayPayloadFails() throws Exception {
+        parser.parse(toBuffer("{\"metricName\":\"a\"}"), "ac1", new MetricsCollection());
+    }
+
+    @Test(expected = JsonProcessingException.class)
+    public void testTruncatedPayloadFails() throws Exception {
+        parser.parse(toBuffer("[{\"metricName\":\"a\",\"metricValue\":1,"), "ac1", new MetricsCollection());
+    }
+
+    @Test(expected = JsonProcessingException.class)
+    public void testTrailingContentFails() throws Exception {
+        parser.parse(toBuffer("[{\"metricName\":\"a\",\"metricValue\":1,\"collectionTime\":1,\"ttlInSeconds\":60,\"unit\":\"u\"}] []"),
+                "ac1", new MetricsCollection());
+    }
+
+    @Test
+    public void testTrailingWhitespaceIsAccepted() throws Exception {
+        MetricsCollection collection = new MetricsCollection();
+        parser.parse(toBuffer("[{\"metricName\":\"a\",\"metricValue\":1,\"collectionTime\":1,\"ttlInSeconds\":60,\"unit\":\"u\"}]\n"),
+                "ac1", collection);
+        Assert.assertEquals(1, collection.size());
+    }
+}
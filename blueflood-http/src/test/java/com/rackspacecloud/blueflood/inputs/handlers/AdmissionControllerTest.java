@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.inputs.handlers;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Timer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class AdmissionControllerTest {
+    private Counter buffered;
+    private Timer writeTimer;
+    private AdmissionController admission;
+
+    @Before
+    public void setUp() {
+        buffered = new Counter();
+        writeTimer = new Timer();
+        admission = new AdmissionController(buffered, writeTimer, 1000, 300, 100, 7);
+    }
+
+    @Test
+    public void testOverloadedPastBufferLimit() {
+        Assert.assertEquals(AdmissionController.Decision.ACCEPT, admission.admit("ac1", 100));
+        buffered.inc(950);
+        Assert.assertEquals(AdmissionController.Decision.OVERLOADED, admission.admit("ac2", 100));
+        Assert.assertEquals(AdmissionController.Decision.ACCEPT, admission.admit("ac2", 50));
+        // rejected requests hold nothing for their tenant.
+        Assert.assertEquals(50, admission.getTenantBufferedMetrics("ac2"));
+        Assert.assertEquals(7, admission.getRetryAfterSeconds());
+    }
+
+    @Test
+    public void testIdleNodeTakesLargeRequest() {
+        Assert.assertEquals(AdmissionController.Decision.ACCEPT, admission.admit("ac1", 5000));
+    }
+
+    @Test
+    public void testNoisyTenantIsLimited() {
+        Assert.assertEquals(AdmissionController.Decision.ACCEPT, admission.admit("noisy", 200));
+        Assert.assertEquals(AdmissionController.Decision.TENANT_LIMITED, admission.admit("noisy", 200));
+        Assert.assertEquals(AdmissionController.Decision.ACCEPT, admission.admit("quiet", 200));
+
+        admission.release("noisy", 200);
+        Assert.assertEquals(AdmissionController.Decision.ACCEPT, admission.admit("noisy", 200));
+    }
+
+    @Test
+    public void testRequestsWithoutTenantShareAnAllowance() {
+        Assert.assertEquals(AdmissionController.Decision.ACCEPT, admission.admit(null, 200));
+        Assert.assertEquals(AdmissionController.Decision.TENANT_LIMITED, admission.admit(null, 200));
+        admission.release(null, 200);
+        Assert.assertEquals(0, admission.getTenantBufferedMetrics(null));
+    }
+
+    @Test
+    public void testSlowWritesHalveTheLimit() {
+        buffered.inc(400);
+        Assert.assertFalse(admission.shouldShedDiscovery());
+        Assert.assertEquals(AdmissionController.Decision.ACCEPT, admission.admit("ac1", 200));
+
+        for (int i = 0; i < 100; i++) {
+            writeTimer.update(500, TimeUnit.MILLISECONDS);
+        }
+        admission.refresh();
+        Assert.assertEquals(500, admission.getBufferLimit());
+        Assert.assertEquals(AdmissionController.Decision.OVERLOADED, admission.admit("ac1", 200));
+    }
+
+    @Test
+    public void testDiscoveryIsShedBeforeMetrics() {
+        buffered.inc(600);
+        Assert.assertTrue(admission.shouldShedDiscovery());
+        Assert.assertEquals(AdmissionController.Decision.ACCEPT, admission.admit("ac1", 100));
+    }
+}
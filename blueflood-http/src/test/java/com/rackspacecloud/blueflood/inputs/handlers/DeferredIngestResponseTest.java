@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.inputs.handlers;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.rackspacecloud.blueflood.utils.TimeValue;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class DeferredIngestResponseTest {
+    private ChannelHandlerContext ctx;
+    private Channel channel;
+    private HttpRequest request;
+    private SettableFuture<List<Boolean>> persisted;
+    private AtomicInteger done;
+
+    @Before
+    public void setUp() {
+        ctx = mock(ChannelHandlerContext.class);
+        channel = mock(Channel.class);
+        when(ctx.getChannel()).thenReturn(channel);
+        final ChannelFuture written = mock(ChannelFuture.class);
+        when(channel.write(any())).thenReturn(written);
+        request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/v2.0/ac1/ingest");
+        persisted = SettableFuture.create();
+        done = new AtomicInteger(0);
+    }
+
+    @Test
+    public void testRespondsWhenWritesFinish() {
+        HttpMetricsIngestionHandler.sendResponseWhenPersisted(ctx, request, persisted,
+                new TimeValue(1, TimeUnit.MINUTES), countDone());
+        verify(channel, never()).write(any());
+
+        persisted.set(Arrays.asList(true, true));
+        Assert.assertEquals(HttpResponseStatus.OK, sentStatus());
+        Assert.assertEquals(1, done.get());
+    }
+
+    @Test
+    public void testFailedBatchIsAnError() {
+        HttpMetricsIngestionHandler.sendResponseWhenPersisted(ctx, request, persisted,
+                new TimeValue(1, TimeUnit.MINUTES), countDone());
+        persisted.set(Arrays.asList(true, false));
+        Assert.assertEquals(HttpResponseStatus.INTERNAL_SERVER_ERROR, sentStatus());
+    }
+
+    @Test
+    public void testTimeoutRespondsOnce() throws Exception {
+        final CountDownLatch timedOut = new CountDownLatch(1);
+        HttpMetricsIngestionHandler.sendResponseWhenPersisted(ctx, request, persisted,
+                new TimeValue(50, TimeUnit.MILLISECONDS), new Runnable() {
+                    @Override
+                    public void run() {
+                        done.incrementAndGet();
+                        timedOut.countDown();
+                    }
+                });
+        Assert.assertTrue(timedOut.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(HttpResponseStatus.ACCEPTED, sentStatus());
+
+        // the late result is dropped.
+        persisted.set(Arrays.asList(true));
+        verify(channel, times(1)).write(any());
+        Assert.assertEquals(1, done.get());
+    }
+
+    @Test
+    public void testPipelinedResponsesKeepTheirOrder() {
+        final SettableFuture<List<Boolean>> second = SettableFuture.create();
+        HttpMetricsIngestionHandler.sendResponseWhenPersisted(ctx, request, persisted,
+                new TimeValue(1, TimeUnit.MINUTES), countDone());
+        HttpMetricsIngestionHandler.sendResponseWhenPersisted(ctx, request, second,
+                new TimeValue(1, TimeUnit.MINUTES), countDone());
+        // answered straight away, but after the two before it.
+        HttpMetricsIngestionHandler.sendResponse(ctx, request, "Cannot parse content", HttpResponseStatus.BAD_REQUEST);
+
+        second.set(Arrays.asList(false));
+        Assert.assertEquals(1, done.get());
+        verify(channel, never()).write(any());
+
+        persisted.set(Arrays.asList(true));
+        final ArgumentCaptor<HttpResponse> responses = ArgumentCaptor.forClass(HttpResponse.class);
+        verify(channel, times(3)).write(responses.capture());
+        Assert.assertEquals(HttpResponseStatus.OK, responses.getAllValues().get(0).getStatus());
+        Assert.assertEquals(HttpResponseStatus.INTERNAL_SERVER_ERROR, responses.getAllValues().get(1).getStatus());
+        Assert.assertEquals(HttpResponseStatus.BAD_REQUEST, responses.getAllValues().get(2).getStatus());
+        Assert.assertEquals(2, done.get());
+    }
+
+    @Test
+    public void testChannelsAreOrderedIndependently() {
+        final ChannelHandlerContext otherCtx = mock(ChannelHandlerContext.class);
+        final Channel otherChannel = mock(Channel.class);
+        when(otherCtx.getChannel()).thenReturn(otherChannel);
+        final ChannelFuture written = mock(ChannelFuture.class);
+        when(otherChannel.write(any())).thenReturn(written);
+
+        HttpMetricsIngestionHandler.sendResponseWhenPersisted(ctx, request, persisted,
+                new TimeValue(1, TimeUnit.MINUTES), countDone());
+        HttpMetricsIngestionHandler.sendResponse(otherCtx, request, null, HttpResponseStatus.OK);
+        verify(otherChannel).write(any());
+        verify(channel, never()).write(any());
+    }
+
+    private Runnable countDone() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                done.incrementAndGet();
+            }
+        };
+    }
+
+    private HttpResponseStatus sentStatus() {
+        final ArgumentCaptor<HttpResponse> response = ArgumentCaptor.forClass(HttpResponse.class);
+        verify(channel).write(response.capture());
+        return response.getValue().getStatus();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.inputs.handlers;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.CodedOutputStream;
+import com.rackspacecloud.blueflood.inputs.formats.BinaryMetricSerialization;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Metric;
+import com.rackspacecloud.blueflood.types.MetricsCollection;
+import com.rackspacecloud.blueflood.utils.TimeValue;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class HttpBinaryMetricsIngestionHandlerTest {
+    private static final TimeValue TTL = new TimeValue(2, TimeUnit.DAYS);
+    private static final TimeValue TIMEOUT = new TimeValue(1, TimeUnit.MINUTES);
+
+    private HttpMetricsIngestionServer.Processor processor;
+    private ChannelHandlerContext ctx;
+    private Channel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        processor = mock(HttpMetricsIngestionServer.Processor.class);
+        when(processor.hasCommitLog()).thenReturn(false);
+        when(processor.admit(anyString(), anyInt())).thenReturn(AdmissionController.Decision.ACCEPT);
+        final ListenableFuture<List<Boolean>> persisted = Futures.<List<Boolean>>immediateFuture(Arrays.asList(true));
+        when(processor.apply(anyString(), any(MetricsCollection.class))).thenReturn(persisted);
+
+        ctx = mock(ChannelHandlerContext.class);
+        channel = mock(Channel.class);
+        when(ctx.getChannel()).thenReturn(channel);
+        final ChannelFuture written = mock(ChannelFuture.class);
+        when(channel.write(any())).thenReturn(written);
+    }
+
+    @Test
+    public void testMetricsOfThePathTenantAreIngested() throws Exception {
+        final HttpBinaryMetricsIngestionHandler handler = new HttpBinaryMetricsIngestionHandler(processor, TIMEOUT, false);
+        handler.handle(ctx, request("ac1", BinaryMetricSerialization.toBytes(metrics("ac1"))));
+        Assert.assertEquals(HttpResponseStatus.OK, sentStatus());
+        verify(processor).apply(eq("ac1"), any(MetricsCollection.class));
+    }
+
+    @Test
+    public void testOtherTenantsAreRejectedOnTheSingleTenantRoute() throws Exception {
+        final HttpBinaryMetricsIngestionHandler handler = new HttpBinaryMetricsIngestionHandler(processor, TIMEOUT, false);
+        handler.handle(ctx, request("ac1", BinaryMetricSerialization.toBytes(metrics("ac2"))));
+        Assert.assertEquals(HttpResponseStatus.BAD_REQUEST, sentStatus());
+        verify(processor, never()).apply(anyString(), any(MetricsCollection.class));
+    }
+
+    @Test
+    public void testAnyTenantIsAcceptedOnTheMultitenantRoute() throws Exception {
+        final HttpBinaryMetricsIngestionHandler handler = new HttpBinaryMetricsIngestionHandler(processor, TIMEOUT, true);
+        handler.handle(ctx, request("ac1", BinaryMetricSerialization.toBytes(metrics("ac2"))));
+        Assert.assertEquals(HttpResponseStatus.OK, sentStatus());
+    }
+
+    @Test
+    public void testMalformedBodyIsABadRequest() throws Exception {
+        final HttpBinaryMetricsIngestionHandler handler = new HttpBinaryMetricsIngestionHandler(processor, TIMEOUT, false);
+        final byte[] bytes = BinaryMetricSerialization.toBytes(metrics("ac1"));
+        handler.handle(ctx, request("ac1", Arrays.copyOf(bytes, bytes.length - 3)));
+        Assert.assertEquals(HttpResponseStatus.BAD_REQUEST, sentStatus());
+        verify(processor, never()).apply(anyString(), any(MetricsCollection.class));
+    }
+
+    @Test
+    public void testUnknownDataTypeIsABadRequest() throws Exception {
+        final HttpBinaryMetricsIngestionHandler handler = new HttpBinaryMetricsIngestionHandler(processor, TIMEOUT, false);
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final CodedOutputStream out = CodedOutputStream.newInstance(body);
+        out.writeRawVarint32(1);
+        out.writeStringNoTag("ac1");
+        out.writeStringNoTag("histogram");
+        out.writeStringNoTag("histogram");
+        out.writeRawVarint64(1000);
+        out.writeRawVarint32(3600);
+        out.writeStringNoTag("ms");
+        out.flush();
+        handler.handle(ctx, request("ac1", body.toByteArray()));
+        Assert.assertEquals(HttpResponseStatus.BAD_REQUEST, sentStatus());
+        verify(processor, never()).apply(anyString(), any(MetricsCollection.class));
+    }
+
+    @Test
+    public void testEmptyBodyIsABadRequest() throws Exception {
+        final HttpBinaryMetricsIngestionHandler handler = new HttpBinaryMetricsIngestionHandler(processor, TIMEOUT, false);
+        handler.handle(ctx, request("ac1", new byte[0]));
+        Assert.assertEquals(HttpResponseStatus.BAD_REQUEST, sentStatus());
+    }
+
+    private static HttpRequest request(String tenantId, byte[] body) {
+        final HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST,
+                "/v2.0/" + tenantId + "/ingest/binary");
+        // set by the router from the path.
+        request.setHeader("tenantId", tenantId);
+        request.setContent(ChannelBuffers.wrappedBuffer(body));
+        return request;
+    }
+
+    private static List<Metric> metrics(String tenantId) {
+        return Arrays.asList(
+                new Metric(Locator.createLocatorFromPathComponents(tenantId, "int"), 42, 1000, TTL, "ms"),
+                new Metric(Locator.createLocatorFromPathComponents(tenantId, "double"), 3.25d, 2000, TTL, "s"));
+    }
+
+    private HttpResponseStatus sentStatus() {
+        final ArgumentCaptor<HttpResponse> response = ArgumentCaptor.forClass(HttpResponse.class);
+        verify(channel).write(response.capture());
+        return response.getValue().getStatus();
+    }
+}
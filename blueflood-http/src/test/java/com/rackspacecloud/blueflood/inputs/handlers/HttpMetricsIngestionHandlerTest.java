@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.inputs.handlers;
+
+import com.rackspacecloud.blueflood.inputs.formats.JSONMetricsContainer;
+import com.rackspacecloud.blueflood.inputs.formats.JSONMetricsStreamParser;
+import com.rackspacecloud.blueflood.io.Constants;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.HttpConfig;
+import com.rackspacecloud.blueflood.types.MetricsCollection;
+import com.rackspacecloud.blueflood.utils.TimeValue;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class HttpMetricsIngestionHandlerTest {
+    private ChannelHandlerContext ctx;
+    private Channel channel;
+    private HttpMetricsIngestionServer.Processor processor;
+
+    @Before
+    public void setUp() {
+        ctx = mock(ChannelHandlerContext.class);
+        channel = mock(Channel.class);
+        when(ctx.getChannel()).thenReturn(channel);
+        final ChannelFuture written = mock(ChannelFuture.class);
+        when(channel.write(any())).thenReturn(written);
+        processor = mock(HttpMetricsIngestionServer.Processor.class);
+    }
+
+    @After
+    public void tearDown() {
+        useStreamingParser(false);
+    }
+
+    @Test
+    public void testEmptyArrayIsAnsweredTheSameByBothParsers() {
+        for (boolean streaming : new boolean[] { false, true }) {
+            useStreamingParser(streaming);
+            handle(new HttpMetricsIngestionHandler(processor, new TimeValue(5, TimeUnit.SECONDS)), "[]");
+            assertResponse(HttpResponseStatus.BAD_REQUEST, "No valid metrics");
+        }
+        verifyZeroInteractions(processor);
+    }
+
+    @Test
+    public void testMalformedJsonIsAnsweredTheSameByBothParsers() {
+        for (boolean streaming : new boolean[] { false, true }) {
+            useStreamingParser(streaming);
+            handle(new HttpMetricsIngestionHandler(processor, new TimeValue(5, TimeUnit.SECONDS)), "[{\"metricName\": ");
+            assertResponse(HttpResponseStatus.BAD_REQUEST, "Cannot parse content");
+        }
+    }
+
+    @Test
+    public void testOtherFailuresAreServerErrors() {
+        handle(new HttpMetricsIngestionHandler(processor, new TimeValue(5, TimeUnit.SECONDS)) {
+            @Override
+            protected JSONMetricsContainer createContainer(String body, String tenantId) {
+                throw new IllegalStateException("broken");
+            }
+        }, "[]");
+        assertResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR, "Failed parsing content");
+
+        useStreamingParser(true);
+        final JSONMetricsStreamParser parser = mock(JSONMetricsStreamParser.class);
+        try {
+            when(parser.parse(any(InputStream.class), anyString(), any(MetricsCollection.class)))
+                    .thenThrow(new IllegalStateException("broken"));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        handle(new HttpMetricsIngestionHandler(processor, new TimeValue(5, TimeUnit.SECONDS)) {
+            @Override
+            protected JSONMetricsStreamParser getStreamParser() {
+                return parser;
+            }
+        }, "[]");
+        assertResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR, "Failed parsing content");
+    }
+
+    private static void useStreamingParser(boolean streaming) {
+        Configuration.getInstance().setProperty(HttpConfig.USE_STREAMING_JSON_INGESTION.name(), String.valueOf(streaming));
+    }
+
+    private void handle(HttpMetricsIngestionHandler handler, String body) {
+        final HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/v2.0/ac1/ingest");
+        request.setHeader("tenantId", "ac1");
+        request.setContent(ChannelBuffers.copiedBuffer(body, Constants.DEFAULT_CHARSET));
+        handler.handle(ctx, request);
+    }
+
+    private void assertResponse(HttpResponseStatus status, String message) {
+        // the latest response is the one to the request just handled.
+        final ArgumentCaptor<HttpResponse> response = ArgumentCaptor.forClass(HttpResponse.class);
+        verify(channel, atLeastOnce()).write(response.capture());
+        final HttpResponse sent = response.getValue();
+        Assert.assertEquals(status, sent.getStatus());
+        final ChannelBuffer content = sent.getContent();
+        Assert.assertEquals(message, content.toString(Constants.DEFAULT_CHARSET));
+    }
+}
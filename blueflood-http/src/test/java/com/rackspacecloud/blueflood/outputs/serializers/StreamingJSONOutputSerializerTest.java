@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.serializers;
+
+import com.rackspacecloud.blueflood.io.Constants;
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.outputs.serializers.BasicRollupsOutputSerializer.MetricStat;
+import com.rackspacecloud.blueflood.outputs.utils.PlotRequestParser;
+import com.rackspacecloud.blueflood.types.ColumnarPoints;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class StreamingJSONOutputSerializerTest {
+    private final StreamingJSONOutputSerializer streaming = new StreamingJSONOutputSerializer();
+    private final JSONBasicRollupsOutputSerializer basic = new JSONBasicRollupsOutputSerializer();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testFullResMatchesTreeSerializer() throws Exception {
+        assertRollupOutputMatches(new MetricData(FakeMetricDataGenerator.generateFakeFullResPoints(), "unknown",
+                MetricData.Type.NUMBER));
+    }
+
+    @Test
+    public void testColumnarFullResMatchesTreeSerializer() throws Exception {
+        final ColumnarPoints points = new ColumnarPoints();
+        points.add(1234567L, 3L);
+        points.add(1235567L, 2.5d);
+        points.add(1236567L, new SimpleNumber(7));
+        points.add(1237567L, Double.NaN);
+        assertRollupOutputMatches(new MetricData(points, "unknown", MetricData.Type.NUMBER));
+    }
+
+    @Test
+    public void testRollupsMatchTreeSerializer() throws Exception {
+        assertRollupOutputMatches(new MetricData(FakeMetricDataGenerator.generateFakeRollupPoints(), "unknown",
+                MetricData.Type.NUMBER));
+    }
+
+    @Test
+    public void testStringsMatchTreeSerializer() throws Exception {
+        assertRollupOutputMatches(new MetricData(FakeMetricDataGenerator.generateFakeStringPoints(), "unknown",
+                MetricData.Type.STRING));
+    }
+
+    @Test
+    public void testPreaggregatedRollupsMatchTreeSerializer() throws Exception {
+        assertRollupOutputMatches(new MetricData(FakeMetricDataGenerator.generateFakeCounterRollupPoints(), "unknown",
+                MetricData.Type.NUMBER));
+        assertRollupOutputMatches(new MetricData(FakeMetricDataGenerator.generateFakeSetRollupPoints(), "unknown",
+                MetricData.Type.NUMBER));
+        assertRollupOutputMatches(new MetricData(FakeMetricDataGenerator.generateFakeGaugeRollups(), "unknown",
+                MetricData.Type.NUMBER));
+        assertRollupOutputMatches(new MetricData(FakeMetricDataGenerator.generateFakeTimerRollups(), "unknown",
+                MetricData.Type.NUMBER));
+    }
+
+    @Test
+    public void testBatchedMatchesTreeSerializer() throws Exception {
+        final Map<Locator, MetricData> metrics = new HashMap<Locator, MetricData>();
+        for (int i = 0; i < 3; i++) {
+            metrics.put(Locator.createLocatorFromPathComponents("879890", String.valueOf(i)),
+                    new MetricData(FakeMetricDataGenerator.generateFakeRollupPoints(), "unknown", MetricData.Type.NUMBER));
+        }
+        final Set<MetricStat> filterStats = EnumSet.of(MetricStat.AVERAGE, MetricStat.MIN, MetricStat.MAX,
+                MetricStat.NUM_POINTS);
+
+        final ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        final JsonGenerator json = streaming.createGenerator(buffer, false);
+        streaming.writeBatchedRollupData(json, metrics, filterStats);
+        json.close();
+
+        final String expected = new BatchedMetricsJSONOutputSerializer().transformRollupData(metrics, filterStats)
+                .toString();
+        Assert.assertEquals(mapper.readTree(expected), mapper.readTree(buffer.toString(Constants.DEFAULT_CHARSET)));
+    }
+
+    @Test
+    public void testHistogramMatchesTreeSerializer() throws Exception {
+        final MetricData metricData = new MetricData(FakeMetricDataGenerator.generateFakeHistogramRollupPoints(),
+                "unknown", MetricData.Type.HISTOGRAM);
+
+        final ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        final JsonGenerator json = streaming.createGenerator(buffer, false);
+        streaming.writeHistogram(json, metricData);
+        json.close();
+
+        final String expected = new JSONHistogramOutputSerializer().transformHistogram(metricData).toString();
+        Assert.assertEquals(mapper.readTree(expected), mapper.readTree(buffer.toString(Constants.DEFAULT_CHARSET)));
+    }
+
+    @Test
+    public void testPrettyPrintingOnlyChangesWhitespace() throws Exception {
+        final MetricData metricData = new MetricData(FakeMetricDataGenerator.generateFakeRollupPoints(), "unknown",
+                MetricData.Type.NUMBER);
+
+        final String compact = render(metricData, PlotRequestParser.DEFAULT_STATS, false);
+        final String pretty = render(metricData, PlotRequestParser.DEFAULT_STATS, true);
+
+        Assert.assertFalse(compact.contains("\n"));
+        Assert.assertTrue(pretty.contains("\n"));
+        Assert.assertEquals(mapper.readTree(compact), mapper.readTree(pretty));
+    }
+
+    private void assertRollupOutputMatches(MetricData metricData) throws Exception {
+        final Set<MetricStat> allStats = new HashSet<MetricStat>(EnumSet.allOf(MetricStat.class));
+        for (Set<MetricStat> filterStats : new Set[] { PlotRequestParser.DEFAULT_STATS, new HashSet<MetricStat>(),
+                allStats }) {
+            final String expected = basic.transformRollupData(metricData, filterStats).toString();
+            final JsonNode actual = mapper.readTree(render(metricData, filterStats, false));
+            Assert.assertEquals(mapper.readTree(expected), actual);
+        }
+    }
+
+    private String render(MetricData metricData, Set<MetricStat> filterStats, boolean pretty) throws Exception {
+        final ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        final JsonGenerator json = streaming.createGenerator(buffer, pretty);
+        streaming.writeRollupData(json, metricData, filterStats);
+        json.close();
+        return buffer.toString(Constants.DEFAULT_CHARSET);
+    }
+}
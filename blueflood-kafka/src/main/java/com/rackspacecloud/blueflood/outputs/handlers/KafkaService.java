@@ -21,23 +21,40 @@ import com.rackspacecloud.blueflood.eventemitter.Emitter;
 import com.rackspacecloud.blueflood.eventemitter.RollupEvent;
 import com.rackspacecloud.blueflood.eventemitter.RollupEventEmitter;
 import com.rackspacecloud.blueflood.outputs.handlers.helpers.KafkaProducerWork;
+import com.rackspacecloud.blueflood.outputs.serializers.KafkaRollupBatchSerializer;
 import com.rackspacecloud.blueflood.service.EventListenerService;
 import com.rackspacecloud.blueflood.service.KafkaConfig;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Random;
 import java.util.concurrent.*;
 import kafka.javaapi.producer.Producer;
+import kafka.producer.KeyedMessage;
 import kafka.producer.ProducerConfig;
+import kafka.serializer.StringEncoder;
 
 public class KafkaService implements Emitter.Listener<RollupEvent>, EventListenerService {
     private static final Logger log = LoggerFactory.getLogger(KafkaService.class);
     private ArrayList<Producer> producerList = new ArrayList<Producer>();
     private ThreadPoolExecutor kafkaExecutors;
+    // with batch publishing, a thread per producer, so what is handed to a producer is sent in the order it was.
+    private final ArrayList<ThreadPoolExecutor> producerExecutors = new ArrayList<ThreadPoolExecutor>();
     //Switch to tell if ThreadPool and Kafka Producers were instantiated properly
     private boolean ready = false;
     private static final Integer DEFAULT_KAFKA_PRODUCERS = 5;
+    // Publish each call's events as one message per granularity and shard, in the compact binary encoding, keyed
+    // by shard so a series always lands on the same partition.
+    static final String BATCH_PUBLISHING = "blueflood.kafka.batch.publishing";
+    // Bounds the size of a batched message.
+    static final String BATCH_MAX_EVENTS = "blueflood.kafka.batch.max.events";
+    private static final int DEFAULT_BATCH_MAX_EVENTS = 500;
+    private boolean batchPublishing = false;
+    private int batchMaxEvents = DEFAULT_BATCH_MAX_EVENTS;
     private Integer numberOfProducers;
     private final RollupEventEmitter eventEmitter = RollupEventEmitter.getInstance();
     private final String eventName = RollupEventEmitter.ROLLUP_EVENT_NAME;
@@ -48,15 +65,28 @@ public class KafkaService implements Emitter.Listener<RollupEvent>, EventListene
             KafkaConfig config = new KafkaConfig();
             if(config.getBooleanProperty("blueflood.enable.kafka.service")) {
                 numberOfProducers = config.getIntegerProperty("blueflood.producer.count") != null ? config.getIntegerProperty("blueflood.producer.count") : DEFAULT_KAFKA_PRODUCERS;
+                batchPublishing = config.getBooleanProperty(BATCH_PUBLISHING, false);
+                batchMaxEvents = config.getIntegerProperty(BATCH_MAX_EVENTS, DEFAULT_BATCH_MAX_EVENTS);
+                Properties producerProperties = config.getKafkaProperties();
+                if (batchPublishing) {
+                    // batches are arrays of events keyed by shard; they need their own encoders.
+                    producerProperties = new Properties();
+                    producerProperties.putAll(config.getKafkaProperties());
+                    producerProperties.setProperty("serializer.class", KafkaRollupBatchSerializer.class.getName());
+                    producerProperties.setProperty("key.serializer.class", StringEncoder.class.getName());
+                }
                 kafkaExecutors = new ThreadPoolBuilder()
                         .withCorePoolSize(numberOfProducers)
                         .withMaxPoolSize(numberOfProducers)
                         .withUnboundedQueue()
                         .build();
                 for(int i=0;i<numberOfProducers;i++) {
-                    Producer producer = new Producer(new ProducerConfig(config.getKafkaProperties()));
+                    Producer producer = new Producer(new ProducerConfig(producerProperties));
                     producerList.add(producer);
                 }
+                if (batchPublishing) {
+                    startProducerExecutors();
+                }
                 ready = true;
             }
         } catch (Exception e) {
@@ -64,10 +94,32 @@ public class KafkaService implements Emitter.Listener<RollupEvent>, EventListene
             if(kafkaExecutors != null && !kafkaExecutors.isShutdown()) {
               kafkaExecutors.shutdownNow();
             }
+            for (ThreadPoolExecutor executor : producerExecutors) {
+                executor.shutdownNow();
+            }
             throw e;
         }
     }
 
+    private void startProducerExecutors() {
+        for (int i = 0; i < producerList.size(); i++) {
+            producerExecutors.add(new ThreadPoolBuilder()
+                    .withName("Kafka Producer")
+                    .withCorePoolSize(1)
+                    .withMaxPoolSize(1)
+                    .withUnboundedQueue()
+                    .build());
+        }
+    }
+
+    //Used only for tests
+    void enableBatchPublishingUnsafe(int maxEvents) {
+        batchPublishing = true;
+        batchMaxEvents = maxEvents;
+        numberOfProducers = producerList.size();
+        startProducerExecutors();
+    }
+
     @Override
     public synchronized void startService() {
         if (!ready) {
@@ -94,31 +146,103 @@ public class KafkaService implements Emitter.Listener<RollupEvent>, EventListene
             return;
         }
         //Check if there is some pending work and try to wait for it to complete
-        if (!kafkaExecutors.isTerminating() || !kafkaExecutors.isShutdown()) {
+        shutdown(kafkaExecutors);
+        for (ThreadPoolExecutor executor : producerExecutors) {
+            shutdown(executor);
+        }
+        //Un-subscribe from event emitter
+        eventEmitter.off(this.eventName, this);
+        //Not really required, but considers an impossible case of someone calling loadAndStart on 'stopped' KafkaService instance
+        ready = false;
+        log.debug("Stopped listening to event: " + this.eventName);
+    }
+
+    private static void shutdown(ThreadPoolExecutor executor) {
+        if (!executor.isTerminating() || !executor.isShutdown()) {
             log.debug("Shutting down after terminating all work");
             //Stop the executors
-            kafkaExecutors.shutdown();
+            executor.shutdown();
             //Wait for certain time to terminate thread pool safely.
             try {
-                kafkaExecutors.awaitTermination(10,TimeUnit.SECONDS);
+                executor.awaitTermination(10,TimeUnit.SECONDS);
             } catch (InterruptedException e) {
                 log.debug("Thread interrupted while waiting for safe termination of thread pool executor");
                 //Stop the kafka executors abruptly. TODO : Think about the consequences?
-                kafkaExecutors.shutdownNow();
+                executor.shutdownNow();
             }
         }
-        //Un-subscribe from event emitter
-        eventEmitter.off(this.eventName, this);
-        //Not really required, but considers an impossible case of someone calling loadAndStart on 'stopped' KafkaService instance
-        ready = false;
-        log.debug("Stopped listening to event: " + this.eventName);
     }
 
     @Override
     public void call(RollupEvent... rollupPayload) {
+        if (batchPublishing) {
+            publishBatches(rollupPayload);
+            return;
+        }
         kafkaExecutors.execute(new KafkaProducerWork(producerList.get(rand.nextInt(numberOfProducers)), rollupPayload));
     }
 
+    /**
+     * Sends a shard's events through the same producer, on that producer's own thread, so the events of a shard are
+     * sent in the order they were handed over: within a call, and across calls that do not overlap. The emitter may
+     * call from more than one thread at once; events of overlapping calls have no order to keep.
+     */
+    private void publishBatches(RollupEvent... rollupPayload) {
+        final Map<Integer, List<KeyedMessage<String, RollupEvent[]>>> messagesByProducer =
+                new HashMap<Integer, List<KeyedMessage<String, RollupEvent[]>>>();
+        for (KeyedMessage<String, RollupEvent[]> message : toBatchMessages(rollupPayload, batchMaxEvents)) {
+            final Integer producer = Integer.parseInt(message.key()) % numberOfProducers;
+            List<KeyedMessage<String, RollupEvent[]>> messages = messagesByProducer.get(producer);
+            if (messages == null) {
+                messages = new ArrayList<KeyedMessage<String, RollupEvent[]>>();
+                messagesByProducer.put(producer, messages);
+            }
+            messages.add(message);
+        }
+        for (Map.Entry<Integer, List<KeyedMessage<String, RollupEvent[]>>> entry : messagesByProducer.entrySet()) {
+            int events = 0;
+            for (KeyedMessage<String, RollupEvent[]> message : entry.getValue()) {
+                events += message.message().length;
+            }
+            producerExecutors.get(entry.getKey()).execute(
+                    new KafkaProducerWork(producerList.get(entry.getKey()), entry.getValue(), events));
+        }
+    }
+
+    /**
+     * Groups events by granularity, the topic, and by shard, the key, with at most maxEvents events per message.
+     */
+    static List<KeyedMessage<String, RollupEvent[]>> toBatchMessages(RollupEvent[] events, int maxEvents) {
+        final Map<String, Map<Integer, List<RollupEvent>>> byTopic = new HashMap<String, Map<Integer, List<RollupEvent>>>();
+        for (RollupEvent event : events) {
+            Map<Integer, List<RollupEvent>> byShard = byTopic.get(event.getGranularityName());
+            if (byShard == null) {
+                byShard = new HashMap<Integer, List<RollupEvent>>();
+                byTopic.put(event.getGranularityName(), byShard);
+            }
+            final Integer shard = event.getLocator().getShard();
+            List<RollupEvent> shardEvents = byShard.get(shard);
+            if (shardEvents == null) {
+                shardEvents = new ArrayList<RollupEvent>();
+                byShard.put(shard, shardEvents);
+            }
+            shardEvents.add(event);
+        }
+
+        final List<KeyedMessage<String, RollupEvent[]>> messages = new ArrayList<KeyedMessage<String, RollupEvent[]>>();
+        for (Map.Entry<String, Map<Integer, List<RollupEvent>>> topic : byTopic.entrySet()) {
+            for (Map.Entry<Integer, List<RollupEvent>> shard : topic.getValue().entrySet()) {
+                final List<RollupEvent> shardEvents = shard.getValue();
+                for (int from = 0; from < shardEvents.size(); from += maxEvents) {
+                    final List<RollupEvent> chunk = shardEvents.subList(from, Math.min(from + maxEvents, shardEvents.size()));
+                    messages.add(new KeyedMessage<String, RollupEvent[]>(topic.getKey(), shard.getKey().toString(),
+                            chunk.toArray(new RollupEvent[chunk.size()])));
+                }
+            }
+        }
+        return messages;
+    }
+
     //Used only for tests
     public ThreadPoolExecutor getKafkaExecutorsUnsafe() {
         return kafkaExecutors;
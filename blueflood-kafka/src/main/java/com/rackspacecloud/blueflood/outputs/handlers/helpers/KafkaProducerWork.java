@@ -16,37 +16,63 @@
 
 package com.rackspacecloud.blueflood.outputs.handlers.helpers;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
 import com.rackspacecloud.blueflood.eventemitter.RollupEvent;
+import com.rackspacecloud.blueflood.utils.Metrics;
 import kafka.javaapi.producer.Producer;
 import kafka.producer.KeyedMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.List;
 
 public class KafkaProducerWork implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(KafkaProducerWork.class);
-    private RollupEvent[] rollupEventObjects;
+    // with producer.type=async, send only queues the messages in the producer: the timer measures queueing, and the
+    // error meter only counts messages that could not be queued. kafka's own producer metrics cover delivery.
+    private static final Timer publishTimer = Metrics.timer(KafkaProducerWork.class, "Publish Duration");
+    private static final Meter publishedEvents = Metrics.meter(KafkaProducerWork.class, "Published Events");
+    private static final Meter publishedMessages = Metrics.meter(KafkaProducerWork.class, "Published Messages");
+    private static final Meter publishErrors = Metrics.meter(KafkaProducerWork.class, "Publish Errors");
+    private final List<? extends KeyedMessage> messages;
+    private final int eventCount;
     private Producer producer;
 
     public KafkaProducerWork(Producer producer, RollupEvent... objects) {
-        this.rollupEventObjects = objects;
+        this(producer, toMessages(objects), objects.length);
+    }
+
+    /** Sends messages that were already built, which between them carry eventCount rollup events. */
+    public KafkaProducerWork(Producer producer, List<? extends KeyedMessage> messages, int eventCount) {
         this.producer = producer;
+        this.messages = messages;
+        this.eventCount = eventCount;
     }
 
-    @Override
-    public void run() {
+    private static List<KeyedMessage<String, RollupEvent>> toMessages(RollupEvent... rollupEventObjects) {
         //TODO : Generalize this later to work for any event and not just rollup
         ArrayList<KeyedMessage<String, RollupEvent>> messages = new ArrayList<KeyedMessage<String, RollupEvent>>();
         for (RollupEvent rollupEvent : rollupEventObjects) {
             messages.add(new KeyedMessage<String, RollupEvent>(rollupEvent.getGranularityName(), rollupEvent));
         }
+        return messages;
+    }
+
+    @Override
+    public void run() {
         log.debug("Sending messages to producer "+producer.toString());
+        final Timer.Context publishTimerContext = publishTimer.time();
         try {
             producer.send(messages);
+            publishedMessages.mark(messages.size());
+            publishedEvents.mark(eventCount);
         } catch (Exception e) {
+            publishErrors.mark();
             log.error("Error encountered while sending messages using Kafka Producer", e);
+        } finally {
+            publishTimerContext.stop();
         }
     }
  }
-
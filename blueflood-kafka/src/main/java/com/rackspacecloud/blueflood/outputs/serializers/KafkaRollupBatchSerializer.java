@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.serializers;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.netflix.astyanax.serializers.AbstractSerializer;
+import com.rackspacecloud.blueflood.eventemitter.RollupEvent;
+import com.rackspacecloud.blueflood.io.serializers.NumericSerializer;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Rollup;
+import com.rackspacecloud.blueflood.types.RollupType;
+import kafka.serializer.Decoder;
+import kafka.serializer.Encoder;
+import kafka.utils.VerifiableProperties;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes a batch of rollup events as one kafka message. Rollups are written with the same serializers used for
+ * cassandra, so a consumer decodes them with {@link #fromBytes(byte[])} instead of parsing json.
+ */
+public class KafkaRollupBatchSerializer implements Encoder<RollupEvent[]>, Decoder<RollupEvent[]> {
+    private static final byte VERSION_1 = 1;
+
+    //When custom serializer is loaded by the kafka producer, it expects this constructor
+    public KafkaRollupBatchSerializer(VerifiableProperties properties) {
+
+    }
+
+    @Override
+    public byte[] toBytes(RollupEvent[] events) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(96 * events.length);
+            final CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+            out.writeRawByte(VERSION_1);
+            out.writeRawVarint32(events.length);
+            for (RollupEvent event : events) {
+                final RollupType type = event.getRollup().getRollupType();
+                out.writeStringNoTag(event.getLocator().toString());
+                out.writeStringNoTag(event.getGranularityName());
+                out.writeRawVarint64(event.getTimestamp());
+                out.writeBoolNoTag(event.getUnit() != null);
+                if (event.getUnit() != null) {
+                    out.writeStringNoTag(event.getUnit());
+                }
+                out.writeStringNoTag(type.name());
+                out.writeBytesNoTag(ByteString.copyFrom(
+                        serializerFor(type, event.getGranularityName()).toByteBuffer(event.getRollup())));
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Override
+    public RollupEvent[] fromBytes(byte[] bytes) {
+        try {
+            final CodedInputStream in = CodedInputStream.newInstance(bytes);
+            final byte version = in.readRawByte();
+            if (version != VERSION_1) {
+                throw new IOException("Unexpected rollup batch version " + version);
+            }
+            final RollupEvent[] events = new RollupEvent[in.readRawVarint32()];
+            for (int i = 0; i < events.length; i++) {
+                final Locator locator = Locator.createLocatorFromDbKey(in.readString());
+                final String granularity = in.readString();
+                final long timestamp = in.readRawVarint64();
+                final String unit = in.readBool() ? in.readString() : null;
+                final RollupType type = RollupType.valueOf(in.readString());
+                final ByteBuffer rollup = ByteBuffer.wrap(in.readBytes().toByteArray());
+                events[i] = new RollupEvent(locator, serializerFor(type, granularity).fromByteBuffer(rollup),
+                        unit, granularity, timestamp);
+            }
+            return events;
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AbstractSerializer<Rollup> serializerFor(RollupType type, String granularity) throws IOException {
+        final Granularity gran = Granularity.fromString(granularity);
+        if (gran == null) {
+            throw new IOException("Unknown granularity " + granularity);
+        }
+        return (AbstractSerializer<Rollup>) NumericSerializer.serializerFor(RollupType.classOf(type, gran));
+    }
+}
@@ -60,4 +60,14 @@ public class KafkaConfig {
     public boolean getBooleanProperty(String name) {
         return getStringProperty(name).equalsIgnoreCase("true");
     }
+
+    public boolean getBooleanProperty(String name, boolean defaultValue) {
+        final String value = getStringProperty(name);
+        return value == null ? defaultValue : value.equalsIgnoreCase("true");
+    }
+
+    public int getIntegerProperty(String name, int defaultValue) {
+        final String value = getStringProperty(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
 }
@@ -19,12 +19,22 @@ package com.rackspacecloud.blueflood.outputs.handlers;
 import com.rackspacecloud.blueflood.eventemitter.RollupEvent;
 import com.rackspacecloud.blueflood.eventemitter.RollupEventEmitter;
 import com.rackspacecloud.blueflood.types.BasicRollup;
+import com.rackspacecloud.blueflood.types.Locator;
 import junit.framework.Assert;
 import kafka.javaapi.producer.Producer;
 import kafka.producer.KeyedMessage;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.mockito.Mockito.*;
 
@@ -67,4 +77,97 @@ public class KafkaServiceTest {
         verifyZeroInteractions(kafkaServiceSpy);
         verifyZeroInteractions(mockProducer);
     }
+
+    @Test
+    public void testBatchesOfAShardAreSentInOrderByOneProducer() throws Exception {
+        final KafkaService kafkaService = new KafkaService();
+        final List<RecordingProducer> producers = new ArrayList<RecordingProducer>();
+        for (int i = 0; i < 3; i++) {
+            producers.add(new RecordingProducer());
+            kafkaService.getProducerListUnsafe().add(producers.get(i).producer);
+        }
+        kafkaService.enableBatchPublishingUnsafe(1);
+
+        final int calls = 50;
+        final Locator[] locators = new Locator[10];
+        for (int i = 0; i < locators.length; i++) {
+            locators[i] = Locator.createLocatorFromPathComponents("ac1", "metric" + i);
+        }
+        for (int call = 0; call < calls; call++) {
+            final RollupEvent[] events = new RollupEvent[locators.length];
+            for (int i = 0; i < locators.length; i++) {
+                events[i] = new RollupEvent(locators[i], new BasicRollup(), "ms", "metrics_5m", call);
+            }
+            kafkaService.call(events);
+        }
+        final long deadline = System.currentTimeMillis() + 5000;
+        int sent = 0;
+        while (System.currentTimeMillis() < deadline) {
+            sent = 0;
+            for (RecordingProducer producer : producers) {
+                sent += producer.events.size();
+            }
+            if (sent == calls * locators.length) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(calls * locators.length, sent);
+
+        for (int p = 0; p < producers.size(); p++) {
+            final RecordingProducer producer = producers.get(p);
+            Assert.assertTrue(producer.threads.size() <= 1);
+            final Map<Locator, Long> last = new HashMap<Locator, Long>();
+            for (RollupEvent event : producer.events) {
+                Assert.assertEquals(p, event.getLocator().getShard() % producers.size());
+                final Long previous = last.put(event.getLocator(), event.getTimestamp());
+                Assert.assertTrue(previous == null || previous < event.getTimestamp());
+            }
+        }
+    }
+
+    @Test
+    public void testBatchMessagesAreKeyedByShard() {
+        final RollupEvent[] events = new RollupEvent[250];
+        for (int i = 0; i < events.length; i++) {
+            final Locator locator = Locator.createLocatorFromPathComponents("ac1", "metric" + (i % 10));
+            events[i] = new RollupEvent(locator, new BasicRollup(), "ms", i % 2 == 0 ? "metrics_5m" : "metrics_60m", 0);
+        }
+
+        final List<KeyedMessage<String, RollupEvent[]>> messages = KafkaService.toBatchMessages(events, 2);
+
+        int count = 0;
+        for (KeyedMessage<String, RollupEvent[]> message : messages) {
+            Assert.assertTrue(message.message().length <= 2);
+            for (RollupEvent event : message.message()) {
+                Assert.assertEquals(message.topic(), event.getGranularityName());
+                Assert.assertEquals(message.key(), String.valueOf(event.getLocator().getShard()));
+                count++;
+            }
+        }
+        Assert.assertEquals(events.length, count);
+        // 10 series in 2 granularities: at most 20 topic and shard pairs, each split in messages of 2 events.
+        Assert.assertTrue(messages.size() <= 20 * 13);
+        Assert.assertTrue(messages.size() >= events.length / 2);
+    }
+
+    // records what a mock producer was sent, and from which threads.
+    private static class RecordingProducer {
+        private final Producer producer = mock(Producer.class);
+        private final List<RollupEvent> events = Collections.synchronizedList(new ArrayList<RollupEvent>());
+        private final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+
+        private RecordingProducer() {
+            doAnswer(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) {
+                    threads.add(Thread.currentThread());
+                    for (Object message : (List) invocation.getArguments()[0]) {
+                        events.addAll(Arrays.asList(((KeyedMessage<String, RollupEvent[]>) message).message()));
+                    }
+                    return null;
+                }
+            }).when(producer).send(anyListOf(KeyedMessage.class));
+        }
+    }
 }
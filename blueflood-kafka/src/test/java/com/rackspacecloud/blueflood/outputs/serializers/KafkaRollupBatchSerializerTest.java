@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.outputs.serializers;
+
+import com.rackspacecloud.blueflood.eventemitter.RollupEvent;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.BasicRollup;
+import com.rackspacecloud.blueflood.types.CounterRollup;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KafkaRollupBatchSerializerTest {
+    private final KafkaRollupBatchSerializer serializer = new KafkaRollupBatchSerializer(null);
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final Points<SimpleNumber> points = new Points<SimpleNumber>();
+        for (int i = 0; i < 10; i++) {
+            points.add(new Points.Point<SimpleNumber>(1000L + i, new SimpleNumber(i * 1.5d)));
+        }
+        final RollupEvent[] events = new RollupEvent[] {
+                new RollupEvent(Locator.createLocatorFromPathComponents("ac1", "a", "b"),
+                        BasicRollup.buildRollupFromRawSamples(points), "ms", Granularity.MIN_5.name(), 1000L),
+                new RollupEvent(Locator.createLocatorFromPathComponents("ac2", "c"),
+                        new CounterRollup().withCount(42L).withRate(1.5d).withSampleCount(3), null,
+                        Granularity.MIN_60.name(), 3600000L)
+        };
+
+        final RollupEvent[] read = serializer.fromBytes(serializer.toBytes(events));
+
+        Assert.assertEquals(events.length, read.length);
+        for (int i = 0; i < events.length; i++) {
+            Assert.assertEquals(events[i].getLocator(), read[i].getLocator());
+            Assert.assertEquals(events[i].getRollup(), read[i].getRollup());
+            Assert.assertEquals(events[i].getUnit(), read[i].getUnit());
+            Assert.assertEquals(events[i].getGranularityName(), read[i].getGranularityName());
+            Assert.assertEquals(events[i].getTimestamp(), read[i].getTimestamp());
+        }
+    }
+
+    @Test
+    public void testSmallerThanJson() throws Exception {
+        final KafkaRollupSerializer json = new KafkaRollupSerializer(null);
+        final RollupEvent[] events = new RollupEvent[100];
+        int jsonBytes = 0;
+        for (int i = 0; i < events.length; i++) {
+            final Points<SimpleNumber> points = new Points<SimpleNumber>();
+            points.add(new Points.Point<SimpleNumber>(1000L, new SimpleNumber(i)));
+            events[i] = new RollupEvent(Locator.createLocatorFromPathComponents("ac1", "metric" + i),
+                    BasicRollup.buildRollupFromRawSamples(points), "ms", Granularity.MIN_5.name(), 1000L);
+            jsonBytes += json.toBytes(events[i]).length;
+        }
+        Assert.assertTrue(serializer.toBytes(events).length < jsonBytes / 2);
+    }
+}
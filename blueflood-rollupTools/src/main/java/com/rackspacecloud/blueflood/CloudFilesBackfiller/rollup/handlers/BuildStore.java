@@ -160,7 +160,7 @@ public class BuildStore {
                             metricLocator = Locator.createLocatorFromDbKey(longMetricName);
                         }
 
-                        if (!shardsToBackfill.contains(Util.computeShard(metricLocator.toString()))) continue;
+                        if (!shardsToBackfill.contains(metricLocator.getShard())) continue;
 
                         // The following it required because concurrent data structure provides weak consistency. For eg. Two threads both calling get will see different results. putIfAbsent provides atomic operation
                         ConcurrentHashMap<Locator, Points> tsToPoint = locatorToTimestampToPoint.get(rangeOfThisTimestamp);
@@ -2,8 +2,8 @@ package com.rackspacecloud.blueflood.service.udp.functions;
 
 import com.rackspacecloud.blueflood.concurrent.FunctionWithThreadPool;
 import com.rackspacecloud.blueflood.service.ScheduleContext;
+import com.rackspacecloud.blueflood.service.ShardUpdates;
 import com.rackspacecloud.blueflood.types.Metric;
-import com.rackspacecloud.blueflood.utils.Util;
 
 import java.util.Collection;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -24,9 +24,11 @@ public class ContextUpdater extends FunctionWithThreadPool<Collection<Metric>, V
     @Override
     public Void apply(Collection<Metric> input) throws Exception {
         // this is a quick operation, so do not use the threadpool.  Just do the work and return a NoOpFuture.
+        final ShardUpdates updates = new ShardUpdates();
         for (Metric metric : input) {
-            context.update(metric.getCollectionTime(), Util.computeShard(metric.getLocator().toString()));
+            updates.update(metric.getCollectionTime(), metric.getLocator().getShard());
         }
+        updates.flush(context);
         return null;
     }
 }